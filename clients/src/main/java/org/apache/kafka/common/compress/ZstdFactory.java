@@ -25,8 +25,8 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.utils.BufferSupplier;
 import org.apache.kafka.common.utils.ByteBufferInputStream;
 import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.apache.kafka.common.utils.ChunkedBytesStream;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -63,9 +63,10 @@ public class ZstdFactory {
             };
 
             // Set output buffer (uncompressed) to 16 KB (none by default) to ensure reasonable performance
-            // in cases where the caller reads a small number of bytes (potentially a single byte).
-            return new BufferedInputStream(new ZstdInputStreamNoFinalizer(new ByteBufferInputStream(buffer),
-                bufferPool), 16 * 1024);
+            // in cases where the caller reads a small number of bytes (potentially a single byte). The output
+            // buffer is taken from `decompressionBufferSupplier` as well.
+            return new ChunkedBytesStream(new ZstdInputStreamNoFinalizer(new ByteBufferInputStream(buffer),
+                bufferPool), decompressionBufferSupplier, 16 * 1024);
         } catch (Throwable e) {
             throw new KafkaException(e);
         }
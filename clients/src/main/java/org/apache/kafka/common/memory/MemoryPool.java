@@ -92,4 +92,13 @@ public interface MemoryPool {
      * @return true if out of memory
      */
     boolean isOutOfMemory();
+
+    /**
+     * Returns true if the memory of released buffers is handed out again by later allocations, in which case a
+     * buffer (and any view of it) must not be accessed at all once it has been released.
+     * @return true if released buffers are reused
+     */
+    default boolean reusesReleasedBuffers() {
+        return false;
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.utils.Utils;
+
+
+/**
+ * An extension of SimpleMemoryPool that recycles released buffers instead of leaving them to the garbage collector.
+ *
+ * Memory is handed out in slabs of power-of-two size classes, from minSlabSize up to the smallest class that holds
+ * maxSingleAllocationSize bytes. An allocation takes a free slab of the smallest class that fits (or allocates a new
+ * one) and returns a slice of exactly the requested size. Released slabs are kept for reuse as long as the free slabs
+ * of all classes stay within maxFreeBytes, any others are left to the garbage collector. Slabs are heap buffers, or
+ * direct buffers if direct is set.
+ *
+ * The pool size limits the outstanding requested bytes as in SimpleMemoryPool, the memory retained is larger since
+ * slabs are rounded up to their size class and free slabs are retained.
+ *
+ * Since released memory is handed out again, a buffer must not be accessed at all once it has been release()ed.
+ */
+public class RecyclingMemoryPool extends SimpleMemoryPool {
+    public static final int DEFAULT_MIN_SLAB_SIZE = 4096;
+
+    private final int minSlabSizeShift;
+    private final long maxFreeBytes;
+    private final boolean direct;
+    //free slabs by size class, used as stacks so that recently used (and likely cached) slabs are reused first
+    private final ConcurrentLinkedDeque<ByteBuffer>[] freeSlabs;
+    private final AtomicLong freeBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    //heap slices are mapped back to their slab through the shared backing array, direct ones need to be tracked
+    private final Map<SliceKey, ByteBuffer> directSlabs;
+
+    public RecyclingMemoryPool(long sizeInBytes, int maxSingleAllocationBytes, boolean strict, Sensor oomPeriodSensor,
+                               long maxFreeBytes, boolean direct) {
+        this(sizeInBytes, maxSingleAllocationBytes, strict, oomPeriodSensor, DEFAULT_MIN_SLAB_SIZE, maxFreeBytes, direct);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RecyclingMemoryPool(long sizeInBytes, int maxSingleAllocationBytes, boolean strict, Sensor oomPeriodSensor,
+                               int minSlabSize, long maxFreeBytes, boolean direct) {
+        super(sizeInBytes, maxSingleAllocationBytes, strict, oomPeriodSensor);
+        if (minSlabSize <= 0 || Integer.bitCount(minSlabSize) != 1)
+            throw new IllegalArgumentException("min slab size must be a positive power of two, provided " + minSlabSize);
+        if (maxFreeBytes < 0)
+            throw new IllegalArgumentException("max free bytes must not be negative, provided " + maxFreeBytes);
+        this.minSlabSizeShift = Integer.numberOfTrailingZeros(minSlabSize);
+        this.maxFreeBytes = maxFreeBytes;
+        this.direct = direct;
+        this.freeSlabs = new ConcurrentLinkedDeque[sizeClass(maxSingleAllocationBytes) + 1];
+        for (int i = 0; i < freeSlabs.length; i++)
+            freeSlabs[i] = new ConcurrentLinkedDeque<>();
+        this.directSlabs = direct ? new ConcurrentHashMap<>() : null;
+    }
+
+    @Override
+    protected ByteBuffer allocateBuffer(int sizeBytes) {
+        int sizeClass = sizeClass(sizeBytes);
+        ByteBuffer slab = freeSlabs[sizeClass].pollFirst();
+        if (slab != null) {
+            freeBytes.addAndGet(-slab.capacity());
+            hits.incrementAndGet();
+        } else {
+            int slabSize = slabSize(sizeClass);
+            slab = direct ? ByteBuffer.allocateDirect(slabSize) : ByteBuffer.allocate(slabSize);
+            misses.incrementAndGet();
+        }
+        slab.clear().limit(sizeBytes);
+        ByteBuffer slice = slab.slice();
+        if (direct)
+            directSlabs.put(new SliceKey(slice), slab);
+        return slice;
+    }
+
+    @Override
+    public void release(ByteBuffer previouslyAllocated) {
+        super.release(previouslyAllocated);
+        ByteBuffer slab = direct ? directSlabs.remove(new SliceKey(previouslyAllocated)) : heapSlab(previouslyAllocated);
+        if (slab == null) {
+            log.warn("released buffer of size {} was not allocated by this pool", previouslyAllocated.capacity());
+            return;
+        }
+        int slabSize = slab.capacity();
+        if (freeBytes.addAndGet(slabSize) <= maxFreeBytes)
+            freeSlabs[sizeClass(slabSize)].offerFirst(slab);
+        else
+            freeBytes.addAndGet(-slabSize);
+    }
+
+    private ByteBuffer heapSlab(ByteBuffer buffer) {
+        if (!buffer.hasArray())
+            return null;
+        byte[] array = buffer.array();
+        if (Integer.bitCount(array.length) != 1 || array.length < slabSize(0) || sizeClass(array.length) >= freeSlabs.length)
+            return null;
+        return ByteBuffer.wrap(array);
+    }
+
+    private int sizeClass(int sizeBytes) {
+        if (sizeBytes <= 1 << minSlabSizeShift)
+            return 0;
+        //the number of bits needed for sizeBytes - 1 is the exponent of the smallest power of two >= sizeBytes
+        return 32 - Integer.numberOfLeadingZeros(sizeBytes - 1) - minSlabSizeShift;
+    }
+
+    private int slabSize(int sizeClass) {
+        return 1 << (minSlabSizeShift + sizeClass);
+    }
+
+    @Override
+    public boolean reusesReleasedBuffers() {
+        return true;
+    }
+
+    /**
+     * Returns the number of allocations that were served from a released buffer
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of allocations that required new memory
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the bytes of released buffers retained for reuse
+     */
+    public long freeBytes() {
+        return freeBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        long allocated = sizeBytes - availableMemory.get();
+        return "RecyclingMemoryPool{" + Utils.formatBytes(allocated) + "/" + Utils.formatBytes(sizeBytes) + " used, " +
+            Utils.formatBytes(freeBytes.get()) + " free for reuse}";
+    }
+
+    private static final class SliceKey {
+        private final ByteBuffer slice;
+
+        private SliceKey(ByteBuffer slice) {
+            this.slice = slice;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SliceKey && ((SliceKey) o).slice == slice;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(slice);
+        }
+    }
+}
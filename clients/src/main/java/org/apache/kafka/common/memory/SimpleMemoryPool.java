@@ -79,11 +79,17 @@ public class SimpleMemoryPool implements MemoryPool {
             return null;
         }
 
-        ByteBuffer allocated = ByteBuffer.allocate(sizeBytes);
+        ByteBuffer allocated = allocateBuffer(sizeBytes);
         bufferToBeReturned(allocated);
         return allocated;
     }
 
+    //allows subclasses to provide the memory once the allocation has been accounted for. must return a buffer of
+    //exactly sizeBytes capacity since that is the amount of memory marked as reclaimed on release()
+    protected ByteBuffer allocateBuffer(int sizeBytes) {
+        return ByteBuffer.allocate(sizeBytes);
+    }
+
     @Override
     public void release(ByteBuffer previouslyAllocated) {
         if (previouslyAllocated == null)
@@ -19,6 +19,7 @@ package org.apache.kafka.common.network;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * A send backed by an array of byte buffers
@@ -29,6 +30,7 @@ public class ByteBufferSend implements Send {
     protected final ByteBuffer[] buffers;
     private long remaining;
     private boolean pending = false;
+    private Runnable releaseAction;
 
     public ByteBufferSend(ByteBuffer... buffers) {
         this.buffers = buffers;
@@ -38,9 +40,18 @@ public class ByteBufferSend implements Send {
     }
 
     public ByteBufferSend(ByteBuffer[] buffers, long size) {
+        this(buffers, size, null);
+    }
+
+    /**
+     * Construct a send whose buffers are backed by pooled memory, which releaseAction returns to its pool on
+     * {@link #release()}.
+     */
+    public ByteBufferSend(ByteBuffer[] buffers, long size, Runnable releaseAction) {
         this.buffers = buffers;
         this.size = size;
         this.remaining = size;
+        this.releaseAction = releaseAction;
     }
 
     @Override
@@ -67,6 +78,14 @@ public class ByteBufferSend implements Send {
         return remaining;
     }
 
+    @Override
+    public void release() {
+        if (releaseAction != null) {
+            releaseAction.run();
+            releaseAction = null;
+        }
+    }
+
     @Override
     public String toString() {
         return "ByteBufferSend(" +
@@ -81,4 +100,27 @@ public class ByteBufferSend implements Send {
         sizeBuffer.putInt(0, buffer.remaining());
         return new ByteBufferSend(sizeBuffer, buffer);
     }
+
+    /**
+     * Combine sends that have not been written yet into a single send, so that the buffers of all of them are
+     * written to the channel by the same gathering writes. The combined send does not release the memory of the
+     * sends, they must still be released individually.
+     */
+    public static ByteBufferSend concat(List<ByteBufferSend> sends) {
+        int bufferCount = 0;
+        long size = 0;
+        for (ByteBufferSend send : sends) {
+            if (send.remaining != send.size)
+                throw new IllegalArgumentException("Cannot combine a send that has been partially written: " + send);
+            bufferCount += send.buffers.length;
+            size += send.size;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        int index = 0;
+        for (ByteBufferSend send : sends) {
+            System.arraycopy(send.buffers, 0, buffers, index, send.buffers.length);
+            index += send.buffers.length;
+        }
+        return new ByteBufferSend(buffers, size);
+    }
 }
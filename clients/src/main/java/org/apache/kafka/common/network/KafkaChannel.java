@@ -125,6 +125,9 @@ public class KafkaChannel implements AutoCloseable {
     private final ChannelMetadataRegistry metadataRegistry;
     private NetworkReceive receive;
     private NetworkSend send;
+    // File bytes the transport layer had to copy into memory while writing the current and the last completed send
+    private long sendCopiedFileBytes;
+    private long completedSendCopiedFileBytes;
     // Track connection and mute state of channels to enable outstanding requests on channels to be
     // processed after the channel is disconnected.
     private boolean disconnected;
@@ -389,6 +392,8 @@ public class KafkaChannel implements AutoCloseable {
             transportLayer.removeInterestOps(SelectionKey.OP_WRITE);
             NetworkSend result = send;
             send = null;
+            completedSendCopiedFileBytes = sendCopiedFileBytes;
+            sendCopiedFileBytes = 0L;
             return result;
         }
         return null;
@@ -427,7 +432,18 @@ public class KafkaChannel implements AutoCloseable {
             return 0;
 
         midWrite = true;
-        return send.writeTo(transportLayer);
+        long written = send.writeTo(transportLayer);
+        sendCopiedFileBytes += transportLayer.drainCopiedFileBytes();
+        return written;
+    }
+
+    /**
+     * Returns the number of file bytes that were copied into memory to write the send last returned by
+     * {@link #maybeCompleteSend()}. This is 0 unless the send contained file data and the transport layer
+     * could not transfer it to the socket directly.
+     */
+    public long completedSendCopiedFileBytes() {
+        return completedSendCopiedFileBytes;
     }
 
     /**
@@ -89,6 +89,7 @@ public class SaslChannelBuilder implements ChannelBuilder, ListenerReconfigurabl
     private final Supplier<ApiVersionsResponse> apiVersionSupplier;
 
     private SslFactory sslFactory;
+    private final TransferBufferPool transferBufferPool = new TransferBufferPool();
     private Map<String, ?> configs;
     private final String sslClientAuthOverride;
 
@@ -249,6 +250,7 @@ public class SaslChannelBuilder implements ChannelBuilder, ListenerReconfigurabl
         for (AuthenticateCallbackHandler handler : saslCallbackHandlers.values())
             handler.close();
         if (sslFactory != null) sslFactory.close();
+        transferBufferPool.close();
     }
 
     // Visible to override for testing
@@ -257,7 +259,7 @@ public class SaslChannelBuilder implements ChannelBuilder, ListenerReconfigurabl
         if (this.securityProtocol == SecurityProtocol.SASL_SSL) {
             return SslTransportLayer.create(id, key,
                 sslFactory.createSslEngine(socketChannel.socket()),
-                metadataRegistry);
+                metadataRegistry, transferBufferPool);
         } else {
             return new PlaintextTransportLayer(key);
         }
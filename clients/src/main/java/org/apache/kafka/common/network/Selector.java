@@ -652,6 +652,9 @@ public class Selector implements Selectable, AutoCloseable {
             if (send != null) {
                 this.completedSends.add(send);
                 this.sensors.recordCompletedSend(nodeId, send.size(), currentTimeMs);
+                long copiedFileBytes = channel.completedSendCopiedFileBytes();
+                if (copiedFileBytes > 0)
+                    this.sensors.copiedFileBytes.record(copiedFileBytes, currentTimeMs);
             }
         }
     }
@@ -1132,6 +1135,7 @@ public class Selector implements Selectable, AutoCloseable {
         public final Sensor requestsSent;
         public final Sensor bytesReceived;
         public final Sensor responsesReceived;
+        public final Sensor copiedFileBytes;
         public final Sensor selectTime;
         public final Sensor ioTime;
         public final IntGaugeSuite<CipherInformation> connectionsByCipher;
@@ -1220,6 +1224,16 @@ public class Selector implements Selectable, AutoCloseable {
             this.responsesReceived.add(createMeter(metrics, metricGrpName, metricTags,
                     new WindowedCount(), "response", "responses received"));
 
+            this.copiedFileBytes = sensor("copied-file-bytes:" + tagsSuffix);
+            this.copiedFileBytes.add(createMeter(metrics, metricGrpName, metricTags,
+                    "copied-file-byte", "file bytes copied into memory before being sent, e.g. to be encrypted"));
+            metricName = metrics.metricName("copied-file-bytes-per-send-avg", metricGrpName,
+                    "The average number of file bytes copied into memory per send that could not be transferred to the socket directly.", metricTags);
+            this.copiedFileBytes.add(metricName, new Avg());
+            metricName = metrics.metricName("copied-file-bytes-per-send-max", metricGrpName,
+                    "The maximum number of file bytes copied into memory for any send that could not be transferred to the socket directly.", metricTags);
+            this.copiedFileBytes.add(metricName, new Max());
+
             this.selectTime = sensor("select-time:" + tagsSuffix);
             this.selectTime.add(createMeter(metrics, metricGrpName, metricTags,
                     new WindowedCount(), "select", "times the I/O layer checked for new I/O to perform"));
@@ -42,4 +42,11 @@ public interface Send {
      */
     long size();
 
+    /**
+     * Release the pooled memory backing this send, if any. This is called once the send has been completed or will
+     * not be written, the send must not be used afterwards.
+     */
+    default void release() {
+    }
+
 }
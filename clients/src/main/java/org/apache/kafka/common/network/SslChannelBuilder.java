@@ -44,6 +44,7 @@ public class SslChannelBuilder implements ChannelBuilder, ListenerReconfigurable
     private final ListenerName listenerName;
     private final boolean isInterBrokerListener;
     private SslFactory sslFactory;
+    private final TransferBufferPool transferBufferPool = new TransferBufferPool();
     private Mode mode;
     private Map<String, ?> configs;
     private SslPrincipalMapper sslPrincipalMapper;
@@ -116,12 +117,13 @@ public class SslChannelBuilder implements ChannelBuilder, ListenerReconfigurable
     @Override
     public void close() {
         if (sslFactory != null) sslFactory.close();
+        transferBufferPool.close();
     }
 
     protected SslTransportLayer buildTransportLayer(SslFactory sslFactory, String id, SelectionKey key, ChannelMetadataRegistry metadataRegistry) throws IOException {
         SocketChannel socketChannel = (SocketChannel) key.channel();
         return SslTransportLayer.create(id, key, sslFactory.createSslEngine(socketChannel.socket()),
-            metadataRegistry);
+            metadataRegistry, transferBufferPool);
     }
 
     /**
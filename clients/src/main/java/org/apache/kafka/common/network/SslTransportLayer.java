@@ -40,7 +40,6 @@ import org.apache.kafka.common.errors.SslAuthenticationException;
 import org.apache.kafka.common.security.auth.KafkaPrincipal;
 import org.apache.kafka.common.utils.ByteUtils;
 import org.apache.kafka.common.utils.LogContext;
-import org.apache.kafka.common.utils.ByteBufferUnmapper;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 
@@ -76,6 +75,8 @@ public class SslTransportLayer implements TransportLayer {
     private final SelectionKey key;
     private final SocketChannel socketChannel;
     private final ChannelMetadataRegistry metadataRegistry;
+    private final TransferBufferPool transferBufferPool;
+    private final boolean ownsTransferBufferPool;
     private final Logger log;
 
     private HandshakeStatus handshakeStatus;
@@ -86,22 +87,42 @@ public class SslTransportLayer implements TransportLayer {
     private ByteBuffer netWriteBuffer;
     private ByteBuffer appReadBuffer;
     private ByteBuffer fileChannelBuffer;
+    private long copiedFileBytes;
     private boolean hasBytesBuffered;
 
     public static SslTransportLayer create(String channelId, SelectionKey key, SSLEngine sslEngine,
                                            ChannelMetadataRegistry metadataRegistry) throws IOException {
-        return new SslTransportLayer(channelId, key, sslEngine, metadataRegistry);
+        return create(channelId, key, sslEngine, metadataRegistry, null);
+    }
+
+    /**
+     * Create a transport layer which borrows the buffers used by `transferFrom` from `transferBufferPool`. If the
+     * pool is null, the transport layer keeps a single buffer of its own.
+     */
+    public static SslTransportLayer create(String channelId, SelectionKey key, SSLEngine sslEngine,
+                                           ChannelMetadataRegistry metadataRegistry,
+                                           TransferBufferPool transferBufferPool) throws IOException {
+        return new SslTransportLayer(channelId, key, sslEngine, metadataRegistry, transferBufferPool);
     }
 
     // Prefer `create`, only use this in tests
     SslTransportLayer(String channelId, SelectionKey key, SSLEngine sslEngine,
                       ChannelMetadataRegistry metadataRegistry) {
+        this(channelId, key, sslEngine, metadataRegistry, null);
+    }
+
+    // Prefer `create`, only use this in tests
+    SslTransportLayer(String channelId, SelectionKey key, SSLEngine sslEngine,
+                      ChannelMetadataRegistry metadataRegistry, TransferBufferPool transferBufferPool) {
         this.channelId = channelId;
         this.key = key;
         this.socketChannel = (SocketChannel) key.channel();
         this.sslEngine = sslEngine;
         this.state = State.NOT_INITIALIZED;
         this.metadataRegistry = metadataRegistry;
+        this.ownsTransferBufferPool = transferBufferPool == null;
+        this.transferBufferPool = ownsTransferBufferPool ?
+            new TransferBufferPool(TransferBufferPool.DEFAULT_BUFFER_SIZE, 1) : transferBufferPool;
 
         final LogContext logContext = new LogContext(String.format("[SslTransportLayer channelId=%s key=%s] ", channelId, key));
         this.log = logContext.logger(getClass());
@@ -202,10 +223,9 @@ public class SslTransportLayer implements TransportLayer {
             netReadBuffer = null;
             netWriteBuffer = null;
             appReadBuffer = null;
-            if (fileChannelBuffer != null) {
-                ByteBufferUnmapper.unmap("fileChannelBuffer", fileChannelBuffer);
-                fileChannelBuffer = null;
-            }
+            releaseFileChannelBuffer();
+            if (ownsTransferBufferPool)
+                transferBufferPool.close();
         }
     }
 
@@ -958,15 +978,12 @@ public class SslTransportLayer implements TransportLayer {
         int totalBytesToWrite = (int) Math.min(Math.min(count, channelSize - position), Integer.MAX_VALUE);
 
         if (fileChannelBuffer == null) {
-            // Pick a size that allows for reasonably efficient disk reads, keeps the memory overhead per connection
-            // manageable and can typically be drained in a single `write` call. The `netWriteBuffer` is typically 16k
-            // and the socket send buffer is 100k by default, so 32k is a good number given the mentioned trade-offs.
-            int transferSize = 32768;
-            // Allocate a direct buffer to avoid one heap to heap buffer copy. SSLEngine copies the source
+            // Use a direct buffer to avoid one heap to heap buffer copy. SSLEngine copies the source
             // buffer (fileChannelBuffer) to the destination buffer (netWriteBuffer) and then encrypts in-place.
             // FileChannel.read() to a heap buffer requires a copy from a direct buffer to a heap buffer, which is not
-            // useful here.
-            fileChannelBuffer = ByteBuffer.allocateDirect(transferSize);
+            // useful here. The buffer is borrowed from a pool shared by all connections of the channel builder and
+            // returned once it has been drained, so idle connections don't hold on to direct memory.
+            fileChannelBuffer = transferBufferPool.acquire();
             // The loop below drains any remaining bytes from the buffer before reading from disk, so we ensure there
             // are no remaining bytes in the empty buffer
             fileChannelBuffer.position(fileChannelBuffer.limit());
@@ -984,6 +1001,7 @@ public class SslTransportLayer implements TransportLayer {
                     int bytesRead = fileChannel.read(fileChannelBuffer, pos);
                     if (bytesRead <= 0)
                         break;
+                    copiedFileBytes += bytesRead;
                     fileChannelBuffer.flip();
                 }
                 int networkBytesWritten = write(fileChannelBuffer);
@@ -1001,6 +1019,23 @@ public class SslTransportLayer implements TransportLayer {
             if (totalBytesWritten > 0)
                 return totalBytesWritten;
             throw e;
+        } finally {
+            if (fileChannelBuffer != null && !fileChannelBuffer.hasRemaining())
+                releaseFileChannelBuffer();
+        }
+    }
+
+    @Override
+    public long drainCopiedFileBytes() {
+        long copied = copiedFileBytes;
+        copiedFileBytes = 0;
+        return copied;
+    }
+
+    private void releaseFileChannelBuffer() {
+        if (fileChannelBuffer != null) {
+            transferBufferPool.release(fileChannelBuffer);
+            fileChannelBuffer = null;
         }
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.network;
+
+import org.apache.kafka.common.utils.ByteBufferUnmapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers used by {@link SslTransportLayer#transferFrom(java.nio.channels.FileChannel, long, long)}
+ * to read file data that has to be encrypted before it is written to the socket.
+ *
+ * Connections borrow a buffer only while file data is in flight and return it once the buffer has been drained,
+ * so the direct memory used is bounded by the number of concurrent transfers rather than by the number of
+ * connections. Up to `maxPooledBuffers` free buffers are retained for reuse, any others are unmapped on release.
+ */
+public class TransferBufferPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TransferBufferPool.class);
+
+    // Pick a size that allows for reasonably efficient disk reads, keeps the memory overhead per transfer
+    // manageable and can typically be drained in a single `write` call. The `netWriteBuffer` is typically 16k
+    // and the socket send buffer is 100k by default, so 32k is a good number given the mentioned trade-offs.
+    public static final int DEFAULT_BUFFER_SIZE = 32768;
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    public TransferBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    public TransferBufferPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize <= 0 || maxPooledBuffers < 0)
+            throw new IllegalArgumentException("Invalid transfer buffer pool with buffer size " + bufferSize +
+                " and " + maxPooledBuffers + " pooled buffers");
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Borrow a cleared direct buffer of `bufferSize()` bytes, allocating one if no free buffer is available.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+        pooledBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from `acquire()`. The caller must not use the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!closed) {
+            if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+                freeBuffers.offer(buffer);
+                // `close()` may have drained the free buffers concurrently
+                if (closed)
+                    unmapFreeBuffers();
+                return;
+            }
+            pooledBuffers.decrementAndGet();
+        }
+        unmap(buffer);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * The number of free buffers retained for reuse.
+     */
+    public int pooledBuffers() {
+        return freeBuffers.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        unmapFreeBuffers();
+    }
+
+    private void unmapFreeBuffers() {
+        ByteBuffer buffer;
+        while ((buffer = freeBuffers.poll()) != null)
+            unmap(buffer);
+    }
+
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            ByteBufferUnmapper.unmap("transfer buffer", buffer);
+        } catch (IOException e) {
+            log.warn("Failed to unmap transfer buffer", e);
+        }
+    }
+}
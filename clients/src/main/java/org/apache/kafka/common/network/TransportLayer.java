@@ -90,4 +90,12 @@ public interface TransportLayer extends ScatteringByteChannel, TransferableChann
      * which may be processed without reading additional data from the network.
      */
     boolean hasBytesBuffered();
+
+    /**
+     * Returns the number of file bytes that `transferFrom` had to copy into memory since the previous call,
+     * e.g. to encrypt them. Transport layers that transfer file data to the socket without copying return 0.
+     */
+    default long drainCopiedFileBytes() {
+        return 0L;
+    }
 }
@@ -165,10 +165,16 @@ public enum ApiKeys {
         this.name = messageType.name;
         this.clusterAction = clusterAction;
         this.minRequiredInterBrokerMagic = minRequiredInterBrokerMagic;
-        this.requiresDelayedAllocation = forwardable || shouldRetainsBufferReference(messageType.requestSchemas());
+        this.requiresDelayedAllocation = forwardable || isParsedIntoView(messageType) ||
+            shouldRetainsBufferReference(messageType.requestSchemas());
         this.forwardable = forwardable;
     }
 
+    // Requests which are parsed into a view over their buffer retain a reference to it, even without fields of buffer types
+    private static boolean isParsedIntoView(ApiMessageType messageType) {
+        return messageType == ApiMessageType.PRODUCE || messageType == ApiMessageType.FETCH;
+    }
+
     private static boolean shouldRetainsBufferReference(Schema[] requestSchemas) {
         boolean requestRetainsBufferReference = false;
         for (Schema requestVersionSchema : requestSchemas) {
@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.protocol;
 
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.network.ByteBufferSend;
 import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.record.BaseRecords;
@@ -29,6 +30,7 @@ import org.apache.kafka.common.utils.ByteUtils;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
 
@@ -40,9 +42,20 @@ import java.util.Queue;
  *
  * See {@link org.apache.kafka.common.requests.EnvelopeRequest#toSend(RequestHeader)}
  * for example usage.
+ *
+ * The serialized bytes are written into a single buffer of the size of the message, or, if a
+ * {@link MemoryPool} is provided, into a chain of buffers of at most {@link #POOLED_CHUNK_SIZE}
+ * bytes allocated from the pool. These are returned to the pool by {@link Send#release()}.
  */
 public class SendBuilder implements Writable {
-    private final ByteBuffer buffer;
+    public static final int POOLED_CHUNK_SIZE = 64 * 1024;
+
+    private final MemoryPool memoryPool;
+    private final int size;
+    private final int chunkSize;
+    private final List<ByteBuffer> pooledBuffers;
+    private ByteBuffer buffer;
+    private int bytesCopied = 0;
 
     private final Queue<Send> sends = new ArrayDeque<>(1);
     private long sizeOfSends = 0;
@@ -51,42 +64,85 @@ public class SendBuilder implements Writable {
     private long sizeOfBuffers = 0;
 
     SendBuilder(int size) {
-        this.buffer = ByteBuffer.allocate(size);
+        this(size, MemoryPool.NONE, Integer.MAX_VALUE);
+    }
+
+    SendBuilder(int size, MemoryPool memoryPool, int chunkSize) {
+        this.memoryPool = memoryPool;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.pooledBuffers = memoryPool == MemoryPool.NONE ? Collections.emptyList() : new ArrayList<>();
+        this.buffer = allocate(Math.min(size, chunkSize));
         this.buffer.mark();
     }
 
+    private ByteBuffer allocate(int bytes) {
+        if (memoryPool == MemoryPool.NONE || bytes == 0)
+            return ByteBuffer.allocate(bytes);
+        ByteBuffer allocated = memoryPool.tryAllocate(bytes);
+        if (allocated == null)
+            return ByteBuffer.allocate(bytes);
+        pooledBuffers.add(allocated);
+        return allocated;
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() < bytes)
+            nextChunk(bytes);
+    }
+
+    // Continue in a new buffer, which is sized for the rest of the message unless that exceeds the chunk size
+    private void nextChunk(int minBytes) {
+        flushPendingBuffer();
+        buffer = allocate(Math.max(minBytes, Math.min(size - bytesCopied, chunkSize)));
+        buffer.mark();
+    }
+
     @Override
     public void writeByte(byte val) {
+        ensureRemaining(1);
         buffer.put(val);
     }
 
     @Override
     public void writeShort(short val) {
+        ensureRemaining(2);
         buffer.putShort(val);
     }
 
     @Override
     public void writeInt(int val) {
+        ensureRemaining(4);
         buffer.putInt(val);
     }
 
     @Override
     public void writeLong(long val) {
+        ensureRemaining(8);
         buffer.putLong(val);
     }
 
     @Override
     public void writeDouble(double val) {
+        ensureRemaining(8);
         buffer.putDouble(val);
     }
 
     @Override
     public void writeByteArray(byte[] arr) {
-        buffer.put(arr);
+        int offset = 0;
+        while (arr.length - offset > buffer.remaining()) {
+            int length = buffer.remaining();
+            buffer.put(arr, offset, length);
+            offset += length;
+            nextChunk(1);
+        }
+        buffer.put(arr, offset, arr.length - offset);
     }
 
     @Override
     public void writeUnsignedVarint(int i) {
+        ensureRemaining(ByteUtils.sizeOfUnsignedVarint(i));
         ByteUtils.writeUnsignedVarint(i, buffer);
     }
 
@@ -104,11 +160,13 @@ public class SendBuilder implements Writable {
 
     @Override
     public void writeVarint(int i) {
+        ensureRemaining(ByteUtils.sizeOfVarint(i));
         ByteUtils.writeVarint(i, buffer);
     }
 
     @Override
     public void writeVarlong(long i) {
+        ensureRemaining(ByteUtils.sizeOfVarlong(i));
         ByteUtils.writeVarlong(i, buffer);
     }
 
@@ -162,6 +220,7 @@ public class SendBuilder implements Writable {
 
         if (latestPosition > buffer.position()) {
             buffer.limit(latestPosition);
+            bytesCopied += latestPosition - buffer.position();
             addBuffer(buffer.slice());
 
             buffer.position(latestPosition);
@@ -171,6 +230,19 @@ public class SendBuilder implements Writable {
     }
 
     public Send build() {
+        if (!pooledBuffers.isEmpty()) {
+            MemoryPool pool = memoryPool;
+            List<ByteBuffer> allocated = pooledBuffers;
+            Runnable releaseAction = () -> allocated.forEach(pool::release);
+            flushPendingBuffer();
+            if (sends.isEmpty()) {
+                return new ByteBufferSend(buffers.toArray(new ByteBuffer[0]), sizeOfBuffers, releaseAction);
+            } else {
+                flushPendingSend();
+                return new MultiRecordsSend(sends, sizeOfSends, releaseAction);
+            }
+        }
+
         flushPendingSend();
 
         if (sends.size() == 1) {
@@ -188,7 +260,8 @@ public class SendBuilder implements Writable {
             header.data(),
             header.headerVersion(),
             apiRequest,
-            header.apiVersion()
+            header.apiVersion(),
+            MemoryPool.NONE
         );
     }
 
@@ -196,12 +269,26 @@ public class SendBuilder implements Writable {
         ResponseHeader header,
         Message apiResponse,
         short apiVersion
+    ) {
+        return buildResponseSend(header, apiResponse, apiVersion, MemoryPool.NONE);
+    }
+
+    /**
+     * Build the send of a response, serializing it into buffers allocated from the memory pool unless the pool
+     * is {@link MemoryPool#NONE}. The buffers are returned to the pool by {@link Send#release()}.
+     */
+    public static Send buildResponseSend(
+        ResponseHeader header,
+        Message apiResponse,
+        short apiVersion,
+        MemoryPool memoryPool
     ) {
         return buildSend(
             header.data(),
             header.headerVersion(),
             apiResponse,
-            apiVersion
+            apiVersion,
+            memoryPool
         );
     }
 
@@ -209,7 +296,8 @@ public class SendBuilder implements Writable {
         Message header,
         short headerVersion,
         Message apiMessage,
-        short apiVersion
+        short apiVersion,
+        MemoryPool memoryPool
     ) {
         ObjectSerializationCache serializationCache = new ObjectSerializationCache();
 
@@ -217,7 +305,9 @@ public class SendBuilder implements Writable {
         header.addSize(messageSize, serializationCache, headerVersion);
         apiMessage.addSize(messageSize, serializationCache, apiVersion);
 
-        SendBuilder builder = new SendBuilder(messageSize.sizeExcludingZeroCopy() + 4);
+        int size = messageSize.sizeExcludingZeroCopy() + 4;
+        SendBuilder builder = memoryPool == MemoryPool.NONE ? new SendBuilder(size) :
+            new SendBuilder(size, memoryPool, POOLED_CHUNK_SIZE);
         builder.writeInt(messageSize.totalSize());
         header.write(builder, serializationCache, headerVersion);
         apiMessage.write(builder, serializationCache, apiVersion);
@@ -41,6 +41,7 @@ public class MultiRecordsSend implements Send {
 
     private long totalWritten = 0;
     private Send current;
+    private Runnable releaseAction;
 
     /**
      * Construct a MultiRecordsSend from a queue of Send objects. The queue will be consumed as the MultiRecordsSend
@@ -58,9 +59,18 @@ public class MultiRecordsSend implements Send {
     }
 
     public MultiRecordsSend(Queue<Send> sends, long size) {
+        this(sends, size, null);
+    }
+
+    /**
+     * Construct a MultiRecordsSend whose sends are partly backed by pooled memory, which releaseAction returns to its
+     * pool on {@link #release()}.
+     */
+    public MultiRecordsSend(Queue<Send> sends, long size, Runnable releaseAction) {
         this.sendQueue = sends;
         this.size = size;
         this.current = sendQueue.poll();
+        this.releaseAction = releaseAction;
     }
 
     @Override
@@ -110,6 +120,14 @@ public class MultiRecordsSend implements Send {
         return totalWrittenPerCall;
     }
 
+    @Override
+    public void release() {
+        if (releaseAction != null) {
+            releaseAction.run();
+            releaseAction = null;
+        }
+    }
+
     /**
      * Get any statistics that were recorded as part of executing this {@link MultiRecordsSend}.
      * @return Records processing statistics (could be null if no statistics were collected)
@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.requests;
 
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
@@ -43,6 +44,14 @@ public abstract class AbstractResponse implements AbstractRequestResponse {
         return SendBuilder.buildResponseSend(header, data(), version);
     }
 
+    /**
+     * Like `toSend`, but serializes the response into buffers allocated from the given memory pool, which are
+     * returned to the pool by {@link Send#release()}.
+     */
+    public final Send toSend(ResponseHeader header, short version, MemoryPool memoryPool) {
+        return SendBuilder.buildResponseSend(header, data(), version, memoryPool);
+    }
+
     /**
      * Serializes header and body without prefixing with size (unlike `toSend`, which does include a size prefix).
      */
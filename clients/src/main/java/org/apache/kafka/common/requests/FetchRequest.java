@@ -19,10 +19,12 @@ package org.apache.kafka.common.requests;
 import org.apache.kafka.common.IsolationLevel;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.message.FetchRequestData;
+import org.apache.kafka.common.message.FetchRequestDataView;
 import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.ByteBufferAccessor;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.MessageUtil;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.utils.Utils;
 
@@ -44,11 +46,22 @@ public class FetchRequest extends AbstractRequest {
     public static final int DEFAULT_RESPONSE_MAX_BYTES = Integer.MAX_VALUE;
     public static final long INVALID_LOG_START_OFFSET = -1L;
 
-    private final FetchRequestData data;
+    // A request parsed from a buffer only has a view over the buffer until its data is requested, and a request built
+    // from data only has a view once it is requested. FETCH requests retain the receive buffer until they are handled,
+    // so the view references it without copying.
+    private volatile FetchRequestData data;
+    private volatile FetchRequestDataView view;
 
     // These are immutable read-only structures derived from FetchRequestData
-    private final Map<TopicPartition, PartitionData> fetchData;
-    private final List<TopicPartition> toForget;
+    private final int replicaId;
+    private final int maxWait;
+    private final int minBytes;
+    private final int maxBytes;
+    private final byte isolationLevel;
+    private final String rackId;
+    // These are lazily initialized, since the broker reads the partitions of a request parsed from a buffer from its view
+    private volatile Map<TopicPartition, PartitionData> fetchData;
+    private volatile List<TopicPartition> toForget;
     private final FetchMetadata metadata;
 
     public static final class PartitionData {
@@ -81,6 +94,19 @@ public class FetchRequest extends AbstractRequest {
             this.lastFetchedEpoch = lastFetchedEpoch;
         }
 
+        /**
+         * Read the partition which the given cursor of a request view was advanced to last.
+         */
+        public static PartitionData fromView(FetchRequestDataView.FetchPartitionView fetchPartition) {
+            return new PartitionData(
+                fetchPartition.fetchOffset(),
+                fetchPartition.logStartOffset(),
+                fetchPartition.partitionMaxBytes(),
+                optionalEpoch(fetchPartition.currentLeaderEpoch()),
+                optionalEpoch(fetchPartition.lastFetchedEpoch())
+            );
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -110,7 +136,7 @@ public class FetchRequest extends AbstractRequest {
         }
     }
 
-    private Optional<Integer> optionalEpoch(int rawEpochValue) {
+    private static Optional<Integer> optionalEpoch(int rawEpochValue) {
         if (rawEpochValue < 0) {
             return Optional.empty();
         } else {
@@ -143,6 +169,31 @@ public class FetchRequest extends AbstractRequest {
         return result;
     }
 
+    private Map<TopicPartition, PartitionData> toPartitionDataMap(FetchRequestDataView.FetchTopicView fetchTopics) {
+        Map<TopicPartition, PartitionData> result = new LinkedHashMap<>();
+        while (fetchTopics.hasNext()) {
+            FetchRequestDataView.FetchTopicView fetchTopic = fetchTopics.next();
+            FetchRequestDataView.FetchPartitionView fetchPartitions = fetchTopic.partitions();
+            while (fetchPartitions.hasNext()) {
+                FetchRequestDataView.FetchPartitionView fetchPartition = fetchPartitions.next();
+                result.put(new TopicPartition(fetchTopic.topic(), fetchPartition.partition()),
+                    PartitionData.fromView(fetchPartition));
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private List<TopicPartition> toForgottenTopicList(FetchRequestDataView.ForgottenTopicView forgottenTopics) {
+        List<TopicPartition> result = new ArrayList<>();
+        while (forgottenTopics.hasNext()) {
+            FetchRequestDataView.ForgottenTopicView forgottenTopic = forgottenTopics.next();
+            for (int i = 0; i < forgottenTopic.partitionsCount(); i++) {
+                result.add(new TopicPartition(forgottenTopic.topic(), forgottenTopic.partitions(i)));
+            }
+        }
+        return result;
+    }
+
     public static class Builder extends AbstractRequest.Builder<FetchRequest> {
         private final int maxWait;
         private final int minBytes;
@@ -282,11 +333,27 @@ public class FetchRequest extends AbstractRequest {
     public FetchRequest(FetchRequestData fetchRequestData, short version) {
         super(ApiKeys.FETCH, version);
         this.data = fetchRequestData;
-        this.fetchData = toPartitionDataMap(fetchRequestData.topics());
-        this.toForget = toForgottenTopicList(fetchRequestData.forgottenTopicsData());
+        this.replicaId = fetchRequestData.replicaId();
+        this.maxWait = fetchRequestData.maxWaitMs();
+        this.minBytes = fetchRequestData.minBytes();
+        this.maxBytes = fetchRequestData.maxBytes();
+        this.isolationLevel = fetchRequestData.isolationLevel();
+        this.rackId = fetchRequestData.rackId();
         this.metadata = new FetchMetadata(fetchRequestData.sessionId(), fetchRequestData.sessionEpoch());
     }
 
+    private FetchRequest(FetchRequestDataView view) {
+        super(ApiKeys.FETCH, view.version());
+        this.view = view;
+        this.replicaId = view.replicaId();
+        this.maxWait = view.maxWaitMs();
+        this.minBytes = view.minBytes();
+        this.maxBytes = view.maxBytes();
+        this.isolationLevel = view.isolationLevel();
+        this.rackId = view.rackId();
+        this.metadata = new FetchMetadata(view.sessionId(), view.sessionEpoch());
+    }
+
     @Override
     public AbstractResponse getErrorResponse(int throttleTimeMs, Throwable e) {
         // The error is indicated in two ways: by setting the same error code in all partitions, and by
@@ -297,34 +364,59 @@ public class FetchRequest extends AbstractRequest {
         // is essential for them.
         Errors error = Errors.forException(e);
         LinkedHashMap<TopicPartition, FetchResponseData.PartitionData> responseData = new LinkedHashMap<>();
-        for (Map.Entry<TopicPartition, PartitionData> entry : fetchData.entrySet()) {
+        for (Map.Entry<TopicPartition, PartitionData> entry : fetchData().entrySet()) {
             responseData.put(entry.getKey(), FetchResponse.partitionResponse(entry.getKey().partition(), error));
         }
-        return FetchResponse.of(error, throttleTimeMs, data.sessionId(), responseData);
+        return FetchResponse.of(error, throttleTimeMs, metadata.sessionId(), responseData);
     }
 
     public int replicaId() {
-        return data.replicaId();
+        return replicaId;
     }
 
     public int maxWait() {
-        return data.maxWaitMs();
+        return maxWait;
     }
 
     public int minBytes() {
-        return data.minBytes();
+        return minBytes;
     }
 
     public int maxBytes() {
-        return data.maxBytes();
+        return maxBytes;
     }
 
     public Map<TopicPartition, PartitionData> fetchData() {
-        return fetchData;
+        // Store it in a local variable to protect against concurrent updates
+        Map<TopicPartition, PartitionData> tmp = fetchData;
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = fetchData;
+                if (tmp == null) {
+                    FetchRequestData tmpData = data;
+                    tmp = tmpData != null ? toPartitionDataMap(tmpData.topics()) : toPartitionDataMap(view.topics());
+                    fetchData = tmp;
+                }
+            }
+        }
+        return tmp;
     }
 
     public List<TopicPartition> toForget() {
-        return toForget;
+        // Store it in a local variable to protect against concurrent updates
+        List<TopicPartition> tmp = toForget;
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = toForget;
+                if (tmp == null) {
+                    FetchRequestData tmpData = data;
+                    tmp = tmpData != null ? toForgottenTopicList(tmpData.forgottenTopicsData()) :
+                        toForgottenTopicList(view.forgottenTopicsData());
+                    toForget = tmp;
+                }
+            }
+        }
+        return tmp;
     }
 
     public boolean isFromFollower() {
@@ -332,7 +424,7 @@ public class FetchRequest extends AbstractRequest {
     }
 
     public IsolationLevel isolationLevel() {
-        return IsolationLevel.forId(data.isolationLevel());
+        return IsolationLevel.forId(isolationLevel);
     }
 
     public FetchMetadata metadata() {
@@ -340,15 +432,45 @@ public class FetchRequest extends AbstractRequest {
     }
 
     public String rackId() {
-        return data.rackId();
+        return rackId;
     }
 
     public static FetchRequest parse(ByteBuffer buffer, short version) {
-        return new FetchRequest(new FetchRequestData(new ByteBufferAccessor(buffer), version), version);
+        return new FetchRequest(new FetchRequestDataView(buffer, version));
     }
 
     @Override
     public FetchRequestData data() {
-        return data;
+        // Store it in a local variable to protect against concurrent updates
+        FetchRequestData tmp = data;
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = data;
+                if (tmp == null) {
+                    tmp = new FetchRequestData(new ByteBufferAccessor(view.buffer()), version());
+                    data = tmp;
+                }
+            }
+        }
+        return tmp;
+    }
+
+    /**
+     * A view over the serialized request, which allows the topics and partitions of the request to be iterated
+     * without materializing its data. The cursors returned by the view are not thread safe.
+     */
+    public FetchRequestDataView view() {
+        // Store it in a local variable to protect against concurrent updates
+        FetchRequestDataView tmp = view;
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = view;
+                if (tmp == null) {
+                    tmp = new FetchRequestDataView(MessageUtil.toByteBuffer(data, version()), version());
+                    view = tmp;
+                }
+            }
+        }
+        return tmp;
     }
 }
@@ -20,10 +20,12 @@ import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
 import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceRequestDataView;
 import org.apache.kafka.common.message.ProduceResponseData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.ByteBufferAccessor;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.MessageUtil;
 import org.apache.kafka.common.record.BaseRecords;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.RecordBatch;
@@ -112,10 +114,13 @@ public class ProduceRequest extends AbstractRequest {
     private final short acks;
     private final int timeout;
     private final String transactionalId;
-    // This is set to null by `clearPartitionRecords` to prevent unnecessary memory retention when a produce request is
+    // These are set to null by `clearPartitionRecords` to prevent unnecessary memory retention when a produce request is
     // put in the purgatory (due to client throttling, it can take a while before the response is sent).
-    // Care should be taken in methods that use this field.
+    // Care should be taken in methods that use these fields.
+    // A request parsed from a buffer only has a view over the buffer until its data is requested, and a request built
+    // from data only has a view once it is requested.
     private volatile ProduceRequestData data;
+    private volatile ProduceRequestDataView view;
     // the partitionSizes is lazily initialized since it is used by server-side in production.
     private volatile Map<TopicPartition, Integer> partitionSizes;
 
@@ -127,20 +132,43 @@ public class ProduceRequest extends AbstractRequest {
         this.transactionalId = data.transactionalId();
     }
 
+    private ProduceRequest(ProduceRequestDataView view) {
+        super(ApiKeys.PRODUCE, view.version());
+        this.view = view;
+        this.acks = view.acks();
+        this.timeout = view.timeoutMs();
+        this.transactionalId = view.transactionalId();
+    }
+
     // visible for testing
     Map<TopicPartition, Integer> partitionSizes() {
         if (partitionSizes == null) {
             // this method may be called by different thread (see the comment on data)
             synchronized (this) {
                 if (partitionSizes == null) {
-                    partitionSizes = new HashMap<>();
-                    data.topicData().forEach(topicData ->
-                        topicData.partitionData().forEach(partitionData ->
-                            partitionSizes.compute(new TopicPartition(topicData.name(), partitionData.index()),
-                                (ignored, previousValue) ->
-                                    partitionData.records().sizeInBytes() + (previousValue == null ? 0 : previousValue))
-                        )
-                    );
+                    Map<TopicPartition, Integer> sizes = new HashMap<>();
+                    ProduceRequestData tmpData = data;
+                    if (tmpData != null) {
+                        tmpData.topicData().forEach(topicData ->
+                            topicData.partitionData().forEach(partitionData ->
+                                sizes.merge(new TopicPartition(topicData.name(), partitionData.index()),
+                                    partitionData.records().sizeInBytes(), Integer::sum)
+                            )
+                        );
+                    } else {
+                        // avoid materializing the data of a request that was parsed from a buffer
+                        ProduceRequestDataView.TopicProduceDataView topics = view().topicData();
+                        while (topics.hasNext()) {
+                            ProduceRequestDataView.TopicProduceDataView topic = topics.next();
+                            ProduceRequestDataView.PartitionProduceDataView partitions = topic.partitionData();
+                            while (partitions.hasNext()) {
+                                ProduceRequestDataView.PartitionProduceDataView partition = partitions.next();
+                                sizes.merge(new TopicPartition(topic.name(), partition.index()),
+                                    partition.recordsSizeInBytes(), Integer::sum);
+                            }
+                        }
+                    }
+                    partitionSizes = sizes;
                 }
             }
         }
@@ -154,8 +182,42 @@ public class ProduceRequest extends AbstractRequest {
     public ProduceRequestData data() {
         // Store it in a local variable to protect against concurrent updates
         ProduceRequestData tmp = data;
-        if (tmp == null)
-            throw new IllegalStateException("The partition records are no longer available because clearPartitionRecords() has been invoked.");
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = data;
+                if (tmp == null) {
+                    ProduceRequestDataView tmpView = view;
+                    if (tmpView == null)
+                        throw new IllegalStateException("The partition records are no longer available because clearPartitionRecords() has been invoked.");
+                    tmp = new ProduceRequestData(new ByteBufferAccessor(tmpView.buffer()), version());
+                    data = tmp;
+                }
+            }
+        }
+        return tmp;
+    }
+
+    /**
+     * A view over the serialized request, which allows the topics and partitions of the request to be iterated
+     * without materializing its data. The cursors returned by the view are not thread safe.
+     *
+     * @return view or IllegalStateException if the data is removed (to prevent unnecessary memory retention).
+     */
+    public ProduceRequestDataView view() {
+        // Store it in a local variable to protect against concurrent updates
+        ProduceRequestDataView tmp = view;
+        if (tmp == null) {
+            synchronized (this) {
+                tmp = view;
+                if (tmp == null) {
+                    ProduceRequestData tmpData = data;
+                    if (tmpData == null)
+                        throw new IllegalStateException("The partition records are no longer available because clearPartitionRecords() has been invoked.");
+                    tmp = new ProduceRequestDataView(MessageUtil.toByteBuffer(tmpData, version()), version());
+                    view = tmp;
+                }
+            }
+        }
         return tmp;
     }
 
@@ -220,7 +282,10 @@ public class ProduceRequest extends AbstractRequest {
     public void clearPartitionRecords() {
         // lazily initialize partitionSizes.
         partitionSizes();
-        data = null;
+        synchronized (this) {
+            data = null;
+            view = null;
+        }
     }
 
     public static void validateRecords(short version, BaseRecords baseRecords) {
@@ -253,7 +318,7 @@ public class ProduceRequest extends AbstractRequest {
     }
 
     public static ProduceRequest parse(ByteBuffer buffer, short version) {
-        return new ProduceRequest(new ProduceRequestData(new ByteBufferAccessor(buffer), version), version);
+        return new ProduceRequest(new ProduceRequestDataView(buffer, version));
     }
 
     public static byte requiredMagicForVersion(short produceRequestVersion) {
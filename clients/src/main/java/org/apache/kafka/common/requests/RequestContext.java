@@ -17,6 +17,7 @@
 package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.errors.InvalidRequestException;
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.message.ApiVersionsRequestData;
 import org.apache.kafka.common.network.ClientInformation;
 import org.apache.kafka.common.network.ListenerName;
@@ -111,6 +112,15 @@ public class RequestContext implements AuthorizableRequestContext {
         return body.toSend(header.toResponseHeader(), apiVersion());
     }
 
+    /**
+     * Build a {@link Send} for direct transmission of the provided response over the network, serialized into
+     * buffers allocated from the memory pool. The send must be {@link Send#release() released} once it has been
+     * written or dropped.
+     */
+    public Send buildResponseSend(AbstractResponse body, MemoryPool memoryPool) {
+        return body.toSend(header.toResponseHeader(), apiVersion(), memoryPool);
+    }
+
     /**
      * Serialize a response into a {@link ByteBuffer}. This is used when the response
      * will be encapsulated in an {@link EnvelopeResponse}. The buffer will contain
@@ -16,7 +16,7 @@
  */
 package org.apache.kafka.common.requests;
 
-import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceRequestDataView;
 import org.apache.kafka.common.protocol.ByteBufferAccessor;
 import org.apache.kafka.common.protocol.Message;
 import org.apache.kafka.common.protocol.ObjectSerializationCache;
@@ -48,10 +48,13 @@ public final class RequestUtils {
      * @return true if there is any matched flag in the produce request. Otherwise, false
      */
     static boolean flag(ProduceRequest request, Predicate<RecordBatch> predicate) {
-        for (ProduceRequestData.TopicProduceData tp : request.data().topicData()) {
-            for (ProduceRequestData.PartitionProduceData p : tp.partitionData()) {
-                if (p.records() instanceof Records) {
-                    Iterator<? extends RecordBatch> iter = (((Records) p.records())).batchIterator();
+        ProduceRequestDataView.TopicProduceDataView topics = request.view().topicData();
+        while (topics.hasNext()) {
+            ProduceRequestDataView.PartitionProduceDataView partitions = topics.next().partitionData();
+            while (partitions.hasNext()) {
+                Records records = partitions.next().records();
+                if (records != null) {
+                    Iterator<? extends RecordBatch> iter = records.batchIterator();
                     if (iter.hasNext() && predicate.test(iter.next())) return true;
                 }
             }
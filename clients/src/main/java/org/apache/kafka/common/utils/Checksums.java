@@ -16,6 +16,9 @@
  */
 package org.apache.kafka.common.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
@@ -30,6 +33,24 @@ import java.util.zip.Checksum;
  */
 public final class Checksums {
 
+    // `Checksum.update(ByteBuffer)` was introduced in Java 9. `java.util.zip.CRC32C` and `java.util.zip.CRC32`
+    // implement it with intrinsics that read direct buffers in place instead of a byte at a time.
+    private static final MethodHandle BYTE_BUFFER_UPDATE;
+
+    static {
+        MethodHandle byteBufferUpdate = null;
+        if (Java.IS_JAVA9_COMPATIBLE) {
+            try {
+                byteBufferUpdate = MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (ReflectiveOperationException e) {
+                // Should never happen
+                throw new RuntimeException(e);
+            }
+        }
+        BYTE_BUFFER_UPDATE = byteBufferUpdate;
+    }
+
     private Checksums() {
     }
 
@@ -40,6 +61,17 @@ public final class Checksums {
     public static void update(Checksum checksum, ByteBuffer buffer, int offset, int length) {
         if (buffer.hasArray()) {
             checksum.update(buffer.array(), buffer.position() + buffer.arrayOffset() + offset, length);
+        } else if (BYTE_BUFFER_UPDATE != null) {
+            ByteBuffer range = buffer.duplicate();
+            int start = buffer.position() + offset;
+            range.limit(start + length);
+            range.position(start);
+            try {
+                BYTE_BUFFER_UPDATE.invokeExact(checksum, range);
+            } catch (Throwable t) {
+                // Should never happen
+                throw new RuntimeException(t);
+            }
         } else {
             int start = buffer.position() + offset;
             for (int i = start; i < start + length; i++)
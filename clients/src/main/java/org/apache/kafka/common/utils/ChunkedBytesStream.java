@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffered input stream similar to {@link java.io.BufferedInputStream} whose buffer is obtained from a
+ * {@link BufferSupplier} and returned to it when the stream is closed. Decompression streams wrap the
+ * decompressor in this class so that reading a record batch doesn't allocate a new intermediate buffer when the
+ * caller reuses a caching supplier, e.g. the one of a request handler thread.
+ *
+ * Reads that are at least as large as the buffer bypass it. Mark and reset are not supported.
+ *
+ * NOTE: This class is intended for INTERNAL usage only within Kafka.
+ */
+public class ChunkedBytesStream extends FilterInputStream {
+    private final BufferSupplier bufferSupplier;
+    private ByteBuffer intermediateBuffer;
+    private final byte[] bytes;
+    private final int arrayOffset;
+    private final int capacity;
+    // the next byte to read and the end of the buffered bytes, relative to `arrayOffset`
+    private int pos = 0;
+    private int limit = 0;
+
+    public ChunkedBytesStream(InputStream in, BufferSupplier bufferSupplier, int bufferSize) {
+        super(in);
+        this.bufferSupplier = bufferSupplier;
+        this.intermediateBuffer = bufferSupplier.get(bufferSize);
+        if (!intermediateBuffer.hasArray())
+            throw new IllegalArgumentException("Buffer supplier must provide heap buffers");
+        this.bytes = intermediateBuffer.array();
+        this.arrayOffset = intermediateBuffer.arrayOffset();
+        this.capacity = intermediateBuffer.capacity();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (intermediateBuffer == null)
+            throw new IOException("Stream closed");
+    }
+
+    /**
+     * Fill the buffer from the underlying stream once all buffered bytes have been read.
+     *
+     * @return false if the end of the underlying stream has been reached
+     */
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int read = in.read(bytes, arrayOffset, capacity);
+        if (read <= 0)
+            return false;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (pos >= limit && !fill())
+            return -1;
+        return bytes[arrayOffset + pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        int buffered = limit - pos;
+        if (buffered <= 0) {
+            // read large chunks directly into the destination
+            if (len >= capacity)
+                return in.read(b, off, len);
+            if (!fill())
+                return -1;
+            buffered = limit;
+        }
+        int copied = Math.min(buffered, len);
+        System.arraycopy(bytes, arrayOffset + pos, b, off, copied);
+        pos += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0)
+            return 0;
+        int buffered = limit - pos;
+        if (buffered <= 0)
+            return in.skip(n);
+        long skipped = Math.min(buffered, n);
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        int buffered = limit - pos;
+        int available = in.available();
+        return buffered > Integer.MAX_VALUE - available ? Integer.MAX_VALUE : buffered + available;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (intermediateBuffer != null) {
+            bufferSupplier.release(intermediateBuffer);
+            intermediateBuffer = null;
+        }
+        in.close();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecyclingMemoryPoolTest {
+
+    @Test
+    public void testInvalidMinSlabSize() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new RecyclingMemoryPool(1000, 100, false, null, 1000, 1000, false));
+    }
+
+    @Test
+    public void testAllocatedBuffersHaveExactSize() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(100000, 10000, false, null, 1024, 100000, false);
+        ByteBuffer buffer = pool.tryAllocate(1000);
+        assertEquals(0, buffer.position());
+        assertEquals(1000, buffer.limit());
+        assertEquals(1000, buffer.capacity());
+        assertEquals(99000, pool.availableMemory());
+        pool.release(buffer);
+        assertEquals(100000, pool.availableMemory());
+    }
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(100000, 10000, false, null, 1024, 100000, false);
+        ByteBuffer first = pool.tryAllocate(1000);
+        first.put(0, (byte) 1);
+        pool.release(first);
+        assertEquals(1024, pool.freeBytes());
+
+        ByteBuffer second = pool.tryAllocate(700);
+        assertSame(first.array(), second.array());
+        assertEquals(700, second.capacity());
+        assertEquals(0, pool.freeBytes());
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.misses());
+        pool.release(second);
+    }
+
+    @Test
+    public void testSizeClasses() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(100000, 10000, false, null, 1024, 100000, false);
+        ByteBuffer large = pool.tryAllocate(1025);
+        assertEquals(2048, large.array().length);
+        pool.release(large);
+
+        // a smaller size class does not reuse the larger slab
+        ByteBuffer small = pool.tryAllocate(10);
+        assertEquals(1024, small.array().length);
+        assertEquals(0, pool.hits());
+        pool.release(small);
+
+        ByteBuffer max = pool.tryAllocate(10000);
+        assertEquals(16384, max.array().length);
+        pool.release(max);
+        assertEquals(1024 + 2048 + 16384, pool.freeBytes());
+    }
+
+    @Test
+    public void testFreeBytesAreBounded() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(100000, 10000, false, null, 1024, 2048, false);
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = pool.tryAllocate(1024);
+        for (ByteBuffer buffer : buffers)
+            pool.release(buffer);
+        assertEquals(2048, pool.freeBytes());
+        assertEquals(100000, pool.availableMemory());
+    }
+
+    @Test
+    public void testDirectBuffersAreReused() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(100000, 10000, false, null, 1024, 100000, true);
+        ByteBuffer first = pool.tryAllocate(1000);
+        assertTrue(first.isDirect());
+        assertEquals(1000, first.capacity());
+        first.putInt(0, 42);
+        pool.release(first);
+
+        ByteBuffer second = pool.tryAllocate(1000);
+        assertTrue(second.isDirect());
+        assertEquals(42, second.getInt(0));
+        assertEquals(1, pool.hits());
+        pool.release(second);
+        assertEquals(1024, pool.freeBytes());
+    }
+
+    @Test
+    public void testPoolSizeIsStillEnforced() {
+        RecyclingMemoryPool pool = new RecyclingMemoryPool(2000, 1500, true, null, 1024, 100000, false);
+        ByteBuffer buffer = pool.tryAllocate(1500);
+        assertNull(pool.tryAllocate(1000));
+        assertFalse(pool.isOutOfMemory());
+        pool.release(buffer);
+        pool.release(pool.tryAllocate(1000));
+        assertTrue(pool.reusesReleasedBuffers());
+    }
+}
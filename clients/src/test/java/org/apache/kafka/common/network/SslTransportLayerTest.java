@@ -24,6 +24,8 @@ import org.apache.kafka.common.errors.InvalidConfigurationException;
 import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.message.ApiMessageType;
 import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.DefaultRecordsSend;
+import org.apache.kafka.common.record.FileRecords;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
 import org.apache.kafka.common.security.TestSecurityConfig;
 import org.apache.kafka.common.security.auth.SecurityProtocol;
@@ -51,8 +53,10 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -684,6 +688,51 @@ public class SslTransportLayerTest {
         server.waitForMetric("response", 1);
     }
 
+    /**
+     * File data sent over TLS has to be read into memory to be encrypted. Verify that it is sent intact using the
+     * pooled transfer buffers and that the copied bytes are recorded.
+     */
+    @ParameterizedTest
+    @ArgumentsSource(SslTransportLayerArgumentsProvider.class)
+    public void testFileTransferCopiedBytesMetric(Args args) throws Exception {
+        String node = "0";
+        server = createEchoServer(args, SecurityProtocol.SSL);
+        Metrics metrics = new Metrics();
+        LogContext logContext = new LogContext();
+        ChannelBuilder channelBuilder = new SslChannelBuilder(Mode.CLIENT, null, false, logContext);
+        channelBuilder.configure(args.sslClientConfigs);
+        selector = new Selector(5000, metrics, time, "MetricGroup", channelBuilder, logContext);
+        InetSocketAddress addr = new InetSocketAddress("localhost", server.port());
+        selector.connect(node, addr, BUFFER_SIZE, BUFFER_SIZE);
+        // Files are only transferred once any TLSv1.3 post-handshake messages have been processed
+        NetworkTestUtils.checkClientConnection(selector, node, 100, 1);
+
+        // A size-prefixed message spanning several transfer buffers, sent from a file like a fetch response
+        String message = TestUtils.randomString(100000);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + message.length());
+        buffer.putInt(message.length());
+        buffer.put(message.getBytes());
+        buffer.flip();
+        File file = TestUtils.tempFile();
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining())
+                fileChannel.write(buffer);
+        }
+        try (FileRecords records = FileRecords.open(file)) {
+            selector.send(new NetworkSend(node, new DefaultRecordsSend<>(records)));
+            TestUtils.waitForCondition(() -> {
+                selector.poll(100L);
+                return !selector.completedReceives().isEmpty();
+            }, "Timed out waiting for the file to be echoed");
+            NetworkReceive receive = selector.completedReceives().iterator().next();
+            assertEquals(message, new String(Utils.toArray(receive.payload())));
+        }
+
+        double totalBytes = 4 + message.length();
+        assertEquals(totalBytes, metrics.metric(metrics.metricName("copied-file-byte-total", "MetricGroup-metrics")).metricValue());
+        assertEquals(totalBytes, metrics.metric(metrics.metricName("copied-file-bytes-per-send-max", "MetricGroup-metrics")).metricValue());
+    }
+
     /**
      * selector.poll() should be able to fetch more data than netReadBuffer from the socket.
      */
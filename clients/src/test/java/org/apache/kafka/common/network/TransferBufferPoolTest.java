@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransferBufferPoolTest {
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        TransferBufferPool pool = new TransferBufferPool(1024, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        assertEquals(1024, buffer.remaining());
+
+        buffer.position(100);
+        pool.release(buffer);
+        assertEquals(1, pool.pooledBuffers());
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1024, reused.limit());
+        assertEquals(0, pool.pooledBuffers());
+        pool.close();
+    }
+
+    @Test
+    public void testPooledBuffersAreBounded() {
+        TransferBufferPool pool = new TransferBufferPool(1024, 2);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.pooledBuffers());
+
+        pool.acquire();
+        pool.acquire();
+        assertEquals(0, pool.pooledBuffers());
+        pool.close();
+    }
+
+    @Test
+    public void testReleaseAfterClose() {
+        TransferBufferPool pool = new TransferBufferPool(1024, 2);
+        ByteBuffer buffer = pool.acquire();
+        pool.release(pool.acquire());
+        assertEquals(1, pool.pooledBuffers());
+
+        pool.close();
+        assertEquals(0, pool.pooledBuffers());
+        pool.release(buffer);
+        assertEquals(0, pool.pooledBuffers());
+    }
+
+    @Test
+    public void testInvalidPool() {
+        assertThrows(IllegalArgumentException.class, () -> new TransferBufferPool(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TransferBufferPool(1024, -1));
+    }
+}
@@ -28,6 +28,7 @@ public class ProtoUtilsTest {
         for (ApiKeys key : ApiKeys.values()) {
             switch (key) {
                 case PRODUCE:
+                case FETCH:
                 case JOIN_GROUP:
                 case SYNC_GROUP:
                 case SASL_AUTHENTICATE:
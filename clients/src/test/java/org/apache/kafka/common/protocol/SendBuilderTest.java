@@ -16,6 +16,8 @@
  */
 package org.apache.kafka.common.protocol;
 
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.SimpleMemoryPool;
 import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
@@ -133,6 +135,29 @@ public class SendBuilderTest {
     }
 
 
+    @Test
+    public void testPooledBuffersAreChainedAndReleased() {
+        MemoryPool pool = new SimpleMemoryPool(1024, 16, false, null);
+        byte[] data = Utils.utf8("longer than a chunk of 16 bytes");
+
+        SendBuilder builder = new SendBuilder(4 + data.length + 8, pool, 16);
+        builder.writeInt(5);
+        builder.writeByteArray(data);
+        builder.writeLong(15L);
+        Send send = builder.build();
+        assertEquals(1024 - send.size(), pool.availableMemory());
+
+        ByteBuffer buffer = TestUtils.toBuffer(send);
+        assertEquals(5, buffer.getInt());
+        assertEquals("longer than a chunk of 16 bytes", getString(buffer, data.length));
+        assertEquals(15L, buffer.getLong());
+
+        send.release();
+        assertEquals(1024, pool.availableMemory());
+        send.release();
+        assertEquals(1024, pool.availableMemory());
+    }
+
     private String getString(ByteBuffer buffer, int size) {
         byte[] readData = new byte[size];
         buffer.get(readData);
@@ -20,6 +20,7 @@ package org.apache.kafka.common.requests;
 import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
 import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceRequestDataView;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
@@ -293,6 +294,44 @@ public class ProduceRequestTest {
         assertTrue(RequestTestUtils.hasIdempotentRecords(request));
     }
 
+    @Test
+    public void testParsedRequestViewMatchesData() {
+        final MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE, simpleRecord);
+        final ProduceRequest.Builder builder = ProduceRequest.forCurrentMagic(new ProduceRequestData()
+                .setTopicData(new ProduceRequestData.TopicProduceDataCollection(Arrays.asList(
+                        new ProduceRequestData.TopicProduceData().setName("foo").setPartitionData(Arrays.asList(
+                                new ProduceRequestData.PartitionProduceData().setIndex(0).setRecords(records),
+                                new ProduceRequestData.PartitionProduceData().setIndex(1).setRecords(records))),
+                        new ProduceRequestData.TopicProduceData().setName("bar").setPartitionData(Collections.singletonList(
+                                new ProduceRequestData.PartitionProduceData().setIndex(0).setRecords(records))))
+                        .iterator()))
+                .setAcks((short) -1)
+                .setTimeoutMs(5000));
+
+        for (short version = builder.oldestAllowedVersion(); version <= builder.latestAllowedVersion(); version++) {
+            ProduceRequest request = builder.build(version);
+            ProduceRequest parsed = ProduceRequest.parse(request.serialize(), version);
+            ProduceRequestDataView view = parsed.view();
+            assertEquals((short) -1, view.acks());
+            assertEquals(5000, view.timeoutMs());
+
+            ProduceRequestDataView.TopicProduceDataView topics = view.topicData();
+            assertEquals(2, topics.count());
+            assertEquals("foo", topics.next().name());
+            ProduceRequestDataView.PartitionProduceDataView partitions = topics.partitionData();
+            assertEquals(2, partitions.count());
+            assertEquals(0, partitions.next().index());
+            assertEquals(records, partitions.records());
+            assertEquals(1, partitions.next().index());
+            assertFalse(partitions.hasNext());
+            assertEquals("bar", topics.next().name());
+            assertFalse(topics.hasNext());
+
+            assertEquals(request.data(), parsed.data());
+            assertEquals(request.partitionSizes(), parsed.partitionSizes());
+        }
+    }
+
     private static <T extends Throwable> void assertThrowsForAllVersions(ProduceRequest.Builder builder,
                                                                          Class<T> expectedType) {
         IntStream.range(builder.oldestAllowedVersion(), builder.latestAllowedVersion() + 1)
@@ -111,6 +111,7 @@ import org.apache.kafka.common.message.EndTxnResponseData;
 import org.apache.kafka.common.message.ExpireDelegationTokenRequestData;
 import org.apache.kafka.common.message.ExpireDelegationTokenResponseData;
 import org.apache.kafka.common.message.FetchRequestData;
+import org.apache.kafka.common.message.FetchRequestDataView;
 import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.message.FindCoordinatorRequestData;
 import org.apache.kafka.common.message.HeartbeatRequestData;
@@ -966,6 +967,30 @@ public class RequestResponseTest {
         assertEquals(request.isolationLevel(), deserialized.isolationLevel());
     }
 
+    @Test
+    public void testParsedFetchRequestViewMatchesData() {
+        List<TopicPartition> toForget = Collections.singletonList(new TopicPartition("test3", 1));
+        for (short version = 7; version <= ApiKeys.FETCH.latestVersion(); version++) {
+            FetchRequest request = createFetchRequest(version, new FetchMetadata(123, 2), toForget);
+            FetchRequest parsed = FetchRequest.parse(request.serialize(), version);
+
+            FetchRequestDataView.FetchTopicView topics = parsed.view().topics();
+            assertEquals(2, topics.count());
+            assertEquals("test1", topics.next().topic());
+            FetchRequestDataView.FetchPartitionView partitions = topics.partitions();
+            assertEquals(0, partitions.next().partition());
+            assertEquals(request.fetchData().get(new TopicPartition("test1", 0)),
+                FetchRequest.PartitionData.fromView(partitions));
+            assertFalse(partitions.hasNext());
+            assertEquals("test2", topics.next().topic());
+            assertFalse(topics.hasNext());
+
+            assertEquals(request.fetchData(), parsed.fetchData());
+            assertEquals(toForget, parsed.toForget());
+            assertEquals(request.data(), parsed.data());
+        }
+    }
+
     @Test
     public void testFetchRequestCompat() {
         Map<TopicPartition, FetchRequest.PartitionData> fetchData = new HashMap<>();
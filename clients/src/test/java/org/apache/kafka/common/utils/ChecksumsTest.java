@@ -49,6 +49,27 @@ public class ChecksumsTest {
         doTestUpdateByteBufferWithOffsetPosition(bytes, ByteBuffer.allocateDirect(bytes.length), 2);
     }
 
+    @Test
+    public void testUpdateByteBufferRange() {
+        byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        doTestUpdateByteBufferRange(bytes, ByteBuffer.allocate(bytes.length));
+        doTestUpdateByteBufferRange(bytes, ByteBuffer.allocateDirect(bytes.length));
+    }
+
+    private void doTestUpdateByteBufferRange(byte[] bytes, ByteBuffer buffer) {
+        buffer.put(bytes);
+        buffer.position(10);
+        buffer.limit(30);
+
+        Checksum bufferCrc = Crc32C.create();
+        Checksums.update(bufferCrc, buffer, 5, 50);
+        assertEquals(Crc32C.compute(bytes, 15, 50), bufferCrc.getValue());
+        assertEquals(10, buffer.position());
+        assertEquals(30, buffer.limit());
+    }
+
     @Test
     public void testUpdateInt() {
         final int value = 1000;
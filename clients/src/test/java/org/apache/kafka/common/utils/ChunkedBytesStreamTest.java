@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChunkedBytesStreamTest {
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testReadSingleBytesAndChunks() throws IOException {
+        byte[] bytes = randomBytes(1000);
+        try (ChunkedBytesStream stream = new ChunkedBytesStream(new ByteArrayInputStream(bytes), BufferSupplier.create(), 64)) {
+            assertEquals(bytes[0] & 0xff, stream.read());
+            byte[] chunk = new byte[10];
+            assertEquals(10, stream.read(chunk, 0, 10));
+            assertArrayEquals(Arrays.copyOfRange(bytes, 1, 11), chunk);
+
+            // a read larger than the buffer returns the buffered bytes first and then bypasses the buffer
+            byte[] large = new byte[200];
+            assertEquals(53, stream.read(large, 0, 200));
+            assertArrayEquals(Arrays.copyOfRange(bytes, 11, 64), Arrays.copyOfRange(large, 0, 53));
+            assertEquals(200, stream.read(large, 0, 200));
+            assertArrayEquals(Arrays.copyOfRange(bytes, 64, 264), large);
+
+            assertEquals(10, stream.skip(10));
+            assertEquals(bytes[274] & 0xff, stream.read());
+
+            byte[] rest = new byte[1000];
+            int read = 0;
+            int n;
+            while ((n = stream.read(rest, read, rest.length - read)) > 0)
+                read += n;
+            assertEquals(725, read);
+            assertArrayEquals(Arrays.copyOfRange(bytes, 275, 1000), Arrays.copyOfRange(rest, 0, read));
+            assertEquals(-1, stream.read());
+        }
+    }
+
+    @Test
+    public void testBufferIsReturnedToSupplierOnClose() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        AtomicInteger releases = new AtomicInteger();
+        BufferSupplier supplier = new BufferSupplier() {
+            @Override
+            public ByteBuffer get(int capacity) {
+                return buffer;
+            }
+
+            @Override
+            public void release(ByteBuffer released) {
+                assertSame(buffer, released);
+                releases.incrementAndGet();
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        ChunkedBytesStream stream = new ChunkedBytesStream(new ByteArrayInputStream(randomBytes(10)), supplier, 64);
+        stream.read();
+        stream.close();
+        assertEquals(1, releases.get());
+        assertThrows(IOException.class, stream::read);
+
+        // closing twice doesn't release the buffer again
+        stream.close();
+        assertEquals(1, releases.get());
+    }
+}
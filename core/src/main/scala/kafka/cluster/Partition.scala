@@ -16,6 +16,7 @@
  */
 package kafka.cluster
 
+import java.util.concurrent.atomic.AtomicReference
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import java.util.Optional
 import kafka.api.{ApiVersion, LeaderAndIsr}
@@ -41,6 +42,7 @@ import org.apache.kafka.common.requests.OffsetsForLeaderEpochResponse.{UNDEFINED
 import org.apache.kafka.common.utils.Time
 import org.apache.kafka.common.{IsolationLevel, TopicPartition, Uuid}
 
+import scala.annotation.tailrec
 import scala.collection.{Map, Seq}
 import scala.jdk.CollectionConverters._
 
@@ -192,6 +194,22 @@ case class CommittedIsr(
   }
 }
 
+/**
+ * A high watermark claimed by a follower fetch without holding the ISR lock of the partition.
+ *
+ * @param version       The version of the leader state, which is odd while the state is updated under the write lock
+ * @param leaderEpoch   The leader epoch that `highWatermark` was claimed in
+ * @param highWatermark The highest offset claimed in `leaderEpoch`, which may not have reached the log yet
+ */
+private[cluster] case class HighWatermarkPublication(version: Long, leaderEpoch: Int, highWatermark: Long) {
+  def isLeaderStateUpdating: Boolean = (version & 1) == 1
+
+  def published(epoch: Int, offset: Long): HighWatermarkPublication = {
+    if (epoch == leaderEpoch) copy(highWatermark = math.max(highWatermark, offset))
+    else copy(leaderEpoch = epoch, highWatermark = offset)
+  }
+}
+
 
 /**
  * Data structure that represents a topic partition. The leader maintains the AR, ISR, CUR, RAR
@@ -207,7 +225,10 @@ case class CommittedIsr(
  *    This can introduce delays in produce and replica fetch requests, but these operations are typically
  *    infrequent.
  * 4) HW updates are synchronized using ISR read lock. @Log lock is acquired during the update with
- *    locking order Partition lock -> Log lock.
+ *    locking order Partition lock -> Log lock. HW updates triggered by follower fetches are computed and claimed
+ *    without the ISR lock, through a compare-and-set on `hwPublication` which fails if the leader state
+ *    has been updated under the ISR write lock since the HW was computed, and only take the read lock to write
+ *    the claimed HW to the log. See maybeIncrementLeaderHWOnFetch().
  * 5) lock is used to prevent the follower replica from being updated while ReplicaAlterDirThread is
  *    executing maybeReplaceCurrentWithFutureReplica() to replace follower replica with the future replica.
  */
@@ -227,8 +248,12 @@ class Partition(val topicPartition: TopicPartition,
 
   private val stateChangeLogger = new StateChangeLogger(localBrokerId, inControllerContext = false, None)
   private val remoteReplicasMap = new Pool[Int, Replica]
+  // the values of remoteReplicasMap, for iterating over them in the hot path without allocating
+  @volatile private var remoteReplicasArray = Array.empty[Replica]
   // The read lock is only required when multiple reads are executed and needs to be in a consistent manner
   private val leaderIsrUpdateLock = new ReentrantReadWriteLock
+  // the version of the leader state guarded by leaderIsrUpdateLock together with the last HW claimed without it
+  private val hwPublication = new AtomicReference(HighWatermarkPublication(0L, LeaderAndIsr.initialLeaderEpoch - 1, -1L))
 
   // lock to prevent the follower replica log update while checking if the log dir could be replaced with future log.
   private val futureLogLock = new Object()
@@ -280,6 +305,21 @@ class Partition(val topicPartition: TopicPartition,
 
   def inSyncReplicaIds: Set[Int] = isrState.isr
 
+  /**
+   * Run `fun` with the ISR write lock held. The version of `hwPublication` is odd while the outermost write lock
+   * is held, so that no HW is claimed without the lock while the leader state is being updated.
+   */
+  private def inLeaderIsrWriteLock[T](fun: => T): T = inWriteLock(leaderIsrUpdateLock) {
+    val outermost = leaderIsrUpdateLock.getWriteHoldCount == 1
+    if (outermost)
+      hwPublication.updateAndGet(publication => publication.copy(version = publication.version + 1))
+    try fun
+    finally {
+      if (outermost)
+        hwPublication.updateAndGet(publication => publication.copy(version = publication.version + 1))
+    }
+  }
+
   /**
     * Create the future replica if 1) the current replica is not in the given log directory and 2) the future replica
     * does not exist. This method assumes that the current replica has already been created.
@@ -292,7 +332,7 @@ class Partition(val topicPartition: TopicPartition,
     // The writeLock is needed to make sure that while the caller checks the log directory of the
     // current replica and the existence of the future replica, no other thread can update the log directory of the
     // current replica or remove the future replica.
-    inWriteLock(leaderIsrUpdateLock) {
+    inLeaderIsrWriteLock {
       val currentLogDir = localLogOrException.parentDir
       if (currentLogDir == logDir) {
         info(s"Current log directory $currentLogDir is same as requested log dir $logDir. " +
@@ -442,7 +482,7 @@ class Partition(val topicPartition: TopicPartition,
   }
 
   def removeFutureLocalReplica(deleteFromLogDir: Boolean = true): Unit = {
-    inWriteLock(leaderIsrUpdateLock) {
+    inLeaderIsrWriteLock {
       futureLog = None
       if (deleteFromLogDir)
         logManager.asyncDelete(topicPartition, isFuture = true)
@@ -460,7 +500,7 @@ class Partition(val topicPartition: TopicPartition,
       if (futureReplicaLEO.contains(localReplicaLEO)) {
         // The write lock is needed to make sure that while ReplicaAlterDirThread checks the LEO of the
         // current replica, no other thread can update LEO of the current replica via log truncation or log append operation.
-        inWriteLock(leaderIsrUpdateLock) {
+        inLeaderIsrWriteLock {
           futureLog match {
             case Some(futurePartitionLog) =>
               if (log.exists(_.logEndOffset == futurePartitionLog.logEndOffset)) {
@@ -487,8 +527,9 @@ class Partition(val topicPartition: TopicPartition,
    */
   def delete(): Unit = {
     // need to hold the lock to prevent appendMessagesToLeader() from hitting I/O exceptions due to log being deleted
-    inWriteLock(leaderIsrUpdateLock) {
+    inLeaderIsrWriteLock {
       remoteReplicasMap.clear()
+      remoteReplicasArray = Array.empty
       assignmentState = SimpleAssignmentState(Seq.empty)
       log = None
       futureLog = None
@@ -511,7 +552,7 @@ class Partition(val topicPartition: TopicPartition,
   def makeLeader(partitionState: LeaderAndIsrPartitionState,
                  highWatermarkCheckpoints: OffsetCheckpoints,
                  topicId: Option[Uuid]): Boolean = {
-    val (leaderHWIncremented, isNewLeader) = inWriteLock(leaderIsrUpdateLock) {
+    val (leaderHWIncremented, isNewLeader) = inLeaderIsrWriteLock {
       // record the epoch of the controller that made the leadership decision. This is useful while updating the isr
       // to maintain the decision maker controller's epoch in the zookeeper path
       controllerEpoch = partitionState.controllerEpoch
@@ -593,7 +634,7 @@ class Partition(val topicPartition: TopicPartition,
   def makeFollower(partitionState: LeaderAndIsrPartitionState,
                    highWatermarkCheckpoints: OffsetCheckpoints,
                    topicId: Option[Uuid]): Boolean = {
-    inWriteLock(leaderIsrUpdateLock) {
+    inLeaderIsrWriteLock {
       val newLeaderBrokerId = partitionState.leader
       val oldLeaderEpoch = leaderEpoch
       // record the epoch of the controller that made the leadership decision. This is useful while updating the isr
@@ -646,6 +687,29 @@ class Partition(val topicPartition: TopicPartition,
                                followerStartOffset: Long,
                                followerFetchTimeMs: Long,
                                leaderEndOffset: Long): Boolean = {
+    updateFollowerFetchStateDeferringCompletion(followerId, followerFetchOffsetMetadata, followerStartOffset,
+      followerFetchTimeMs, leaderEndOffset) match {
+      case Some(watermarksIncremented) =>
+        // some delayed operations may be unblocked after HW or LW changed
+        if (watermarksIncremented)
+          tryCompleteDelayedRequests()
+        true
+      case None =>
+        false
+    }
+  }
+
+  /**
+   * Update the follower's state like updateFollowerFetchState(), but leave it to the caller to complete the delayed
+   * operations of the partition which may have been unblocked.
+   *
+   * @return whether the HW or LW of the partition was incremented, or None if the followerId is not recognized
+   */
+  def updateFollowerFetchStateDeferringCompletion(followerId: Int,
+                                                  followerFetchOffsetMetadata: LogOffsetMetadata,
+                                                  followerStartOffset: Long,
+                                                  followerFetchTimeMs: Long,
+                                                  leaderEndOffset: Long): Option[Boolean] = {
     getReplica(followerId) match {
       case Some(followerReplica) =>
         // No need to calculate low watermark if there is no delayed DeleteRecordsRequest
@@ -668,25 +732,17 @@ class Partition(val topicPartition: TopicPartition,
         // check if the HW of the partition can now be incremented
         // since the replica may already be in the ISR and its LEO has just incremented
         val leaderHWIncremented = if (prevFollowerEndOffset != followerReplica.logEndOffset) {
-          // the leader log may be updated by ReplicaAlterLogDirsThread so the following method must be in lock of
-          // leaderIsrUpdateLock to prevent adding new hw to invalid log.
-          inReadLock(leaderIsrUpdateLock) {
-            leaderLogIfLocal.exists(leaderLog => maybeIncrementLeaderHW(leaderLog, followerFetchTimeMs))
-          }
+          maybeIncrementLeaderHWOnFetch(followerFetchTimeMs)
         } else {
           false
         }
 
-        // some delayed operations may be unblocked after HW or LW changed
-        if (leaderLWIncremented || leaderHWIncremented)
-          tryCompleteDelayedRequests()
-
         debug(s"Recorded replica $followerId log end offset (LEO) position " +
           s"${followerFetchOffsetMetadata.messageOffset} and log start offset $followerStartOffset.")
-        true
+        Some(leaderLWIncremented || leaderHWIncremented)
 
       case None =>
-        false
+        None
     }
   }
 
@@ -716,6 +772,7 @@ class Partition(val topicPartition: TopicPartition,
     // first add the new replicas and then remove the old ones
     newRemoteReplicas.foreach(id => remoteReplicasMap.getAndMaybePut(id, new Replica(id, topicPartition)))
     remoteReplicasMap.removeAll(removedReplicas)
+    remoteReplicasArray = remoteReplicasMap.values.toArray
 
     if (addingReplicas.nonEmpty || removingReplicas.nonEmpty)
       assignmentState = OngoingReassignmentState(addingReplicas, removingReplicas, assignment)
@@ -743,7 +800,7 @@ class Partition(val topicPartition: TopicPartition,
       needsExpandIsr(followerReplica)
     }
     if (needsIsrUpdate) {
-      inWriteLock(leaderIsrUpdateLock) {
+      inLeaderIsrWriteLock {
         // check if this replica needs to be added to the ISR
         if (needsExpandIsr(followerReplica)) {
           expandIsr(followerReplica.brokerId)
@@ -764,7 +821,13 @@ class Partition(val topicPartition: TopicPartition,
   private def isFollowerAtHighwatermark(followerReplica: Replica): Boolean = {
     leaderLogIfLocal.exists { leaderLog =>
       val followerEndOffset = followerReplica.logEndOffset
-      followerEndOffset >= leaderLog.highWatermark && leaderEpochStartOffsetOpt.exists(followerEndOffset >= _)
+      // a HW claimed without the ISR lock may not have reached the log yet
+      val publication = hwPublication.get
+      val highWatermark = if (publication.leaderEpoch == leaderEpoch)
+        math.max(leaderLog.highWatermark, publication.highWatermark)
+      else
+        leaderLog.highWatermark
+      followerEndOffset >= highWatermark && leaderEpochStartOffsetOpt.exists(followerEndOffset >= _)
     }
   }
 
@@ -838,17 +901,92 @@ class Partition(val topicPartition: TopicPartition,
    * @return true if the HW was incremented, and false otherwise.
    */
   private def maybeIncrementLeaderHW(leaderLog: Log, curTime: Long = time.milliseconds): Boolean = {
-    // maybeIncrementLeaderHW is in the hot path, the following code is written to
-    // avoid unnecessary collection generation
+    publishHighWatermark(leaderLog, highWatermarkBound(leaderLog, curTime))
+  }
+
+  /**
+   * The smallest log end offset among the leader and the replicas that are in the "maximal" ISR or caught up, see
+   * maybeIncrementLeaderHW().
+   */
+  private def highWatermarkBound(leaderLog: Log, curTime: Long): LogOffsetMetadata = {
+    // this is in the hot path, the following code is written to avoid unnecessary collection generation
+    val maximalIsr = isrState.maximalIsr
+    val replicas = remoteReplicasArray
     var newHighWatermark = leaderLog.logEndOffsetMetadata
-    remoteReplicasMap.values.foreach { replica =>
+    var i = 0
+    while (i < replicas.length) {
+      val replica = replicas(i)
+      val replicaEndOffset = replica.logEndOffsetMetadata
       // Note here we are using the "maximal", see explanation above
-      if (replica.logEndOffsetMetadata.messageOffset < newHighWatermark.messageOffset &&
-        (curTime - replica.lastCaughtUpTimeMs <= replicaLagTimeMaxMs || isrState.maximalIsr.contains(replica.brokerId))) {
-        newHighWatermark = replica.logEndOffsetMetadata
+      if (replicaEndOffset.messageOffset < newHighWatermark.messageOffset &&
+        (curTime - replica.lastCaughtUpTimeMs <= replicaLagTimeMaxMs || maximalIsr.contains(replica.brokerId))) {
+        newHighWatermark = replicaEndOffset
+      }
+      i += 1
+    }
+    newHighWatermark
+  }
+
+  /**
+   * Check and maybe increment the high watermark after a follower's log end offset has changed, only acquiring
+   * the leaderIsrUpdateLock if the HW can be incremented.
+   *
+   * The HW is computed from the leader state of the current version of `hwPublication` and claimed with a
+   * compare-and-set of `hwPublication`, which orders the claim before any later update of the leader state under the
+   * write lock, so that such an update sees the claimed HW when it checks whether a follower can join the ISR. The
+   * claimed HW is then written to the log under the read lock, and only if the version is still current: otherwise
+   * the leader may have become a follower and truncated its log, or its log may have been replaced by the future log,
+   * and the HW is computed again from the current leader state instead.
+   *
+   * @return true if the HW was incremented, and false otherwise.
+   */
+  private def maybeIncrementLeaderHWOnFetch(curTime: Long): Boolean = {
+    val (publication, claimedHighWatermark) = tryClaimLeaderHWWithoutLock(curTime)
+    if (claimedHighWatermark.isEmpty && hwPublication.get.version == publication.version &&
+      !publication.isLeaderStateUpdating) {
+      false
+    } else inReadLock(leaderIsrUpdateLock) {
+      leaderLogIfLocal.exists { leaderLog =>
+        claimedHighWatermark match {
+          // no write lock holder has updated the leader state since the HW was computed
+          case Some(newHighWatermark) if hwPublication.get.version == publication.version =>
+            publishHighWatermark(leaderLog, newHighWatermark)
+          case _ =>
+            maybeIncrementLeaderHW(leaderLog, curTime)
+        }
       }
     }
+  }
+
+  /**
+   * @return the publication that the HW was computed with, and the HW if it was claimed. No HW is claimed if it would
+   *         not be incremented, or if the leader state was updated before it could be claimed.
+   */
+  @tailrec
+  private def tryClaimLeaderHWWithoutLock(curTime: Long): (HighWatermarkPublication, Option[LogOffsetMetadata]) = {
+    val publication = hwPublication.get
+    if (publication.isLeaderStateUpdating) {
+      (publication, None)
+    } else leaderLogIfLocal match {
+      case Some(leaderLog) =>
+        val epoch = leaderEpoch
+        val newHighWatermark = highWatermarkBound(leaderLog, curTime)
+        if (newHighWatermark.messageOffset <= leaderLog.highWatermark)
+          (publication, None)
+        else if (hwPublication.compareAndSet(publication, publication.published(epoch, newHighWatermark.messageOffset)))
+          (publication, Some(newHighWatermark))
+        else if (hwPublication.get.version == publication.version)
+          // another follower fetch claimed a HW first, so compute it again
+          tryClaimLeaderHWWithoutLock(curTime)
+        else
+          (publication, None)
+
+      case None =>
+        (publication, None)
+    }
+  }
 
+  private def publishHighWatermark(leaderLog: Log, newHighWatermark: LogOffsetMetadata): Boolean = {
     leaderLog.maybeIncrementHighWatermark(newHighWatermark) match {
       case Some(oldHighWatermark) =>
         debug(s"High watermark updated from $oldHighWatermark to $newHighWatermark")
@@ -904,7 +1042,7 @@ class Partition(val topicPartition: TopicPartition,
     val needsIsrUpdate = !isrState.isInflight && inReadLock(leaderIsrUpdateLock) {
       needsShrinkIsr()
     }
-    val leaderHWIncremented = needsIsrUpdate && inWriteLock(leaderIsrUpdateLock) {
+    val leaderHWIncremented = needsIsrUpdate && inLeaderIsrWriteLock {
       leaderLogIfLocal.exists { leaderLog =>
         val outOfSyncReplicaIds = getOutOfSyncReplicas(replicaLagTimeMaxMs)
         if (outOfSyncReplicaIds.nonEmpty) {
@@ -1018,6 +1156,26 @@ class Partition(val topicPartition: TopicPartition,
     }
   }
 
+  /**
+   * Perform an append to the follower log with the leader and ISR lock held, unless this replica is no longer a
+   * follower in the given leader epoch. This fences the appends which are performed on another thread than the replica
+   * fetcher: the replica cannot become the leader or follow another leader epoch while such an append is in progress,
+   * and the appends which are still queued when it does are skipped.
+   *
+   * The future log lock taken by the append is acquired before the leader and ISR lock, in the same order as
+   * `maybeReplaceCurrentWithFutureReplica()`, which would otherwise deadlock with the append.
+   *
+   * @return None if the append was fenced, the outcome of `append` otherwise
+   */
+  def appendToFollowerInLeaderEpoch(leaderEpoch: Int)(append: => Option[LogAppendInfo]): Option[LogAppendInfo] = {
+    futureLogLock.synchronized {
+      inReadLock(leaderIsrUpdateLock) {
+        if (this.leaderEpoch != leaderEpoch || isLeader) None
+        else append
+      }
+    }
+  }
+
   def appendRecordsToLeader(records: MemoryRecords, origin: AppendOrigin, requiredAcks: Int,
                             requestLocal: RequestLocal): LogAppendInfo = {
     val (info, leaderHWIncremented) = inReadLock(leaderIsrUpdateLock) {
@@ -1353,7 +1511,7 @@ class Partition(val topicPartition: TopicPartition,
    * or LeaderAndIsr
    */
   private def handleAlterIsrResponse(proposedIsrState: IsrState)(result: Either[Errors, LeaderAndIsr]): Unit = {
-    inWriteLock(leaderIsrUpdateLock) {
+    inLeaderIsrWriteLock {
       if (isrState != proposedIsrState) {
         // This means isrState was updated through leader election or some other mechanism before we got the AlterIsr
         // response. We don't know what happened on the controller exactly, but we do know this response is out of date
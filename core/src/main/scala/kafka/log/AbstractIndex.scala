@@ -137,13 +137,29 @@ abstract class AbstractIndex(@volatile private var _file: File, val baseOffset:
     }
   }
 
+  /**
+   * The memory map for lookups that do not take the lock. Entries are read with absolute gets, so the buffer is not
+   * duplicated.
+   *
+   * @throws NullPointerException if the index has been closed
+   */
+  protected def mmapForRead: MappedByteBuffer = {
+    val idx = mmap
+    if (idx == null)
+      throw new NullPointerException(s"Index ${file.getAbsolutePath} has been closed")
+    idx
+  }
+
   /**
    * The maximum number of entries this index can hold
    */
   @volatile
   private[this] var _maxEntries: Int = mmap.limit() / entrySize
 
-  /** The number of entries in this index */
+  /**
+   * The number of entries in this index. Entries are written to the mmap before this is incremented, so readers that
+   * read this once before reading the mmap see fully written entries without taking the lock.
+   */
   @volatile
   protected var _entries: Int = mmap.position() / entrySize
 
@@ -350,29 +366,41 @@ abstract class AbstractIndex(@volatile private var _file: File, val baseOffset:
    */
   protected def parseEntry(buffer: ByteBuffer, n: Int): IndexEntry
 
+  /**
+   * The key of the entry in the given slot, i.e. `parseEntry(buffer, n).indexKey` without creating the entry.
+   */
+  protected def parseKey(buffer: ByteBuffer, n: Int): Long
+
+  /**
+   * The value of the entry in the given slot, i.e. `parseEntry(buffer, n).indexValue` without creating the entry.
+   */
+  protected def parseValue(buffer: ByteBuffer, n: Int): Long
+
   /**
    * Find the slot in which the largest entry less than or equal to the given target key or value is stored.
    * The comparison is made using the `IndexEntry.compareTo()` method.
    *
    * @param idx The index buffer
+   * @param entries The number of entries to search, which must be read before `idx` by lock-free readers
    * @param target The index key to look for
    * @return The slot found or -1 if the least entry in the index is larger than the target key or the index is empty
    */
-  protected def largestLowerBoundSlotFor(idx: ByteBuffer, target: Long, searchEntity: IndexSearchType): Int =
-    indexSlotRangeFor(idx, target, searchEntity)._1
+  protected def largestLowerBoundSlotFor(idx: ByteBuffer, entries: Int, target: Long, searchEntity: IndexSearchType): Int =
+    indexSlotRangeFor(idx, entries, target, searchEntity)._1
 
   /**
    * Find the smallest entry greater than or equal the target key or value. If none can be found, -1 is returned.
    */
-  protected def smallestUpperBoundSlotFor(idx: ByteBuffer, target: Long, searchEntity: IndexSearchType): Int =
-    indexSlotRangeFor(idx, target, searchEntity)._2
+  protected def smallestUpperBoundSlotFor(idx: ByteBuffer, entries: Int, target: Long, searchEntity: IndexSearchType): Int =
+    indexSlotRangeFor(idx, entries, target, searchEntity)._2
 
   /**
-   * Lookup lower and upper bounds for the given target.
+   * Lookup lower and upper bounds for the given target among the first `entries` entries. The entries are read with
+   * absolute gets and without creating index entries, so concurrent lookups neither lock nor allocate per probe.
    */
-  private def indexSlotRangeFor(idx: ByteBuffer, target: Long, searchEntity: IndexSearchType): (Int, Int) = {
+  private def indexSlotRangeFor(idx: ByteBuffer, entries: Int, target: Long, searchEntity: IndexSearchType): (Int, Int) = {
     // check if the index is empty
-    if(_entries == 0)
+    if(entries == 0)
       return (-1, -1)
 
     def binarySearch(begin: Int, end: Int) : (Int, Int) = {
@@ -381,8 +409,7 @@ abstract class AbstractIndex(@volatile private var _file: File, val baseOffset:
       var hi = end
       while(lo < hi) {
         val mid = (lo + hi + 1) >>> 1
-        val found = parseEntry(idx, mid)
-        val compareResult = compareIndexEntry(found, target, searchEntity)
+        val compareResult = compareIndexEntry(idx, mid, target, searchEntity)
         if(compareResult > 0)
           hi = mid - 1
         else if(compareResult < 0)
@@ -390,26 +417,26 @@ abstract class AbstractIndex(@volatile private var _file: File, val baseOffset:
         else
           return (mid, mid)
       }
-      (lo, if (lo == _entries - 1) -1 else lo + 1)
+      (lo, if (lo == entries - 1) -1 else lo + 1)
     }
 
-    val firstHotEntry = Math.max(0, _entries - 1 - _warmEntries)
+    val firstHotEntry = Math.max(0, entries - 1 - _warmEntries)
     // check if the target offset is in the warm section of the index
-    if(compareIndexEntry(parseEntry(idx, firstHotEntry), target, searchEntity) < 0) {
-      return binarySearch(firstHotEntry, _entries - 1)
+    if(compareIndexEntry(idx, firstHotEntry, target, searchEntity) < 0) {
+      return binarySearch(firstHotEntry, entries - 1)
     }
 
     // check if the target offset is smaller than the least offset
-    if(compareIndexEntry(parseEntry(idx, 0), target, searchEntity) > 0)
+    if(compareIndexEntry(idx, 0, target, searchEntity) > 0)
       return (-1, 0)
 
     binarySearch(0, firstHotEntry)
   }
 
-  private def compareIndexEntry(indexEntry: IndexEntry, target: Long, searchEntity: IndexSearchType): Int = {
+  private def compareIndexEntry(idx: ByteBuffer, n: Int, target: Long, searchEntity: IndexSearchType): Int = {
     searchEntity match {
-      case IndexSearchType.KEY => java.lang.Long.compare(indexEntry.indexKey, target)
-      case IndexSearchType.VALUE => java.lang.Long.compare(indexEntry.indexValue, target)
+      case IndexSearchType.KEY => java.lang.Long.compare(parseKey(idx, n), target)
+      case IndexSearchType.VALUE => java.lang.Long.compare(parseValue(idx, n), target)
     }
   }
 
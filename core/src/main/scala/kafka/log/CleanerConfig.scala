@@ -28,6 +28,8 @@ package kafka.log
  * @param backOffMs The amount of time to wait before rechecking if no logs are eligible for cleaning
  * @param enableCleaner Allows completely disabling the log cleaner
  * @param hashAlgorithm The hash algorithm to use in key comparison.
+ * @param dedupeMapType The offset map implementation used for deduplication, see [[CleanerConfig.DedupeMapTypes]]
+ * @param partitionParallelism The number of segment groups of a single log each cleaner thread rewrites concurrently
  */
 case class CleanerConfig(numThreads: Int = 1,
                          dedupeBufferSize: Long = 4*1024*1024L,
@@ -37,5 +39,16 @@ case class CleanerConfig(numThreads: Int = 1,
                          maxIoBytesPerSecond: Double = Double.MaxValue,
                          backOffMs: Long = 15 * 1000,
                          enableCleaner: Boolean = true,
-                         hashAlgorithm: String = "MD5") {
+                         hashAlgorithm: String = "MD5",
+                         dedupeMapType: String = CleanerConfig.SkimpyDedupeMapType,
+                         partitionParallelism: Int = 1) {
+}
+
+object CleanerConfig {
+  /* the heap-based map of MD5 digests, see SkimpyOffsetMap */
+  val SkimpyDedupeMapType = "skimpy"
+  /* the off-heap Robin Hood hash map of MurmurHash3 hashes, see OpenAddressingOffsetMap */
+  val OpenAddressingDedupeMapType = "open-addressing"
+
+  val DedupeMapTypes = Seq(SkimpyDedupeMapType, OpenAddressingDedupeMapType)
 }
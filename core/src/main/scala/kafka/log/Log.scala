@@ -22,7 +22,7 @@ import java.nio.file.Files
 import java.text.NumberFormat
 import java.util.Optional
 import java.util.concurrent.atomic._
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ExecutorService, TimeUnit}
 import java.util.regex.Pattern
 import kafka.api.{ApiVersion, KAFKA_0_10_0_IV0}
 import kafka.common.{LongRef, OffsetsOutOfOrderException, UnexpectedAppendOffsetException}
@@ -253,6 +253,7 @@ case object SnapshotGenerated extends LogStartOffsetIncrementReason {
  *                                  is downgraded below 2.8, a topic ID may be lost and a new ID generated upon re-upgrade.
  *                                  If the inter-broker protocol version on a ZK cluster is below 2.8, partition.metadata
  *                                  will be deleted to avoid ID conflicts upon re-upgrade.
+ * @param tailCache The optional in-memory cache of the most recent bytes of the active segment
  */
 @threadsafe
 class Log(@volatile private var _dir: File,
@@ -270,7 +271,8 @@ class Log(@volatile private var _dir: File,
           val producerStateManager: ProducerStateManager,
           logDirFailureChannel: LogDirFailureChannel,
           @volatile private var _topicId: Option[Uuid],
-          val keepPartitionMetadataFile: Boolean) extends Logging with KafkaMetricsGroup {
+          val keepPartitionMetadataFile: Boolean,
+          val tailCache: Option[PartitionTailCache] = None) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
@@ -664,6 +666,7 @@ class Log(@volatile private var _dir: File,
         producerStateManager.takeSnapshot()
         segments.close()
       }
+      tailCache.foreach(_.clear())
     }
   }
 
@@ -698,6 +701,7 @@ class Log(@volatile private var _dir: File,
     debug("Closing handlers")
     lock synchronized {
       segments.closeHandlers()
+      tailCache.foreach(_.clear())
       isMemoryMappedBufferClosed = true
     }
   }
@@ -894,14 +898,16 @@ class Log(@volatile private var _dir: File,
               appendInfo.logStartOffset = logStartOffset
             case None =>
               // Before appending update the first offset metadata to include segment information
+              val appendPosition = segment.size
               appendInfo.firstOffset = appendInfo.firstOffset.map { offsetMetadata =>
-                offsetMetadata.copy(segmentBaseOffset = segment.baseOffset, relativePositionInSegment = segment.size)
+                offsetMetadata.copy(segmentBaseOffset = segment.baseOffset, relativePositionInSegment = appendPosition)
               }
 
               segment.append(largestOffset = appendInfo.lastOffset,
                 largestTimestamp = appendInfo.maxTimestamp,
                 shallowOffsetOfMaxTimestamp = appendInfo.offsetOfMaxTimestamp,
                 records = validRecords)
+              tailCache.foreach(_.append(segment.baseOffset, appendPosition, validRecords))
 
               // Increment the log end offset. We do this immediately after the append because a
               // write to the transaction index below may fail and we want to ensure that the offsets
@@ -1238,7 +1244,9 @@ class Log(@volatile private var _dir: File,
             if (maxOffsetMetadata.segmentBaseOffset == segment.baseOffset) maxOffsetMetadata.relativePositionInSegment
             else segment.size
 
-          fetchDataInfo = segment.read(startOffset, maxLength, maxPosition, minOneMessage)
+          // Reads from the tail of the active segment are served from memory when the tail cache is enabled
+          fetchDataInfo = tailCache.flatMap(_.read(baseOffset, startOffset, maxLength, maxPosition, minOneMessage))
+            .getOrElse(segment.read(startOffset, maxLength, maxPosition, minOneMessage))
           if (fetchDataInfo != null) {
             if (includeAbortedTxns)
               fetchDataInfo = addAbortedTransactions(startOffset, segment, fetchDataInfo)
@@ -1722,6 +1730,7 @@ class Log(@volatile private var _dir: File,
         producerExpireCheck.cancel(true)
         removeAndDeleteSegments(logSegments, asyncDelete = false, LogDeletion)
         leaderEpochCache.foreach(_.clear())
+        tailCache.foreach(_.clear())
         Utils.delete(dir)
         // File handlers will be closed if this log is deleted
         isMemoryMappedBufferClosed = true
@@ -1827,6 +1836,7 @@ class Log(@volatile private var _dir: File,
     startOffset: Long,
     endOffset: Long
   ): Unit = {
+    tailCache.foreach(_.clear())
     logStartOffset = startOffset
     nextOffsetMetadata = LogOffsetMetadata(endOffset, activeSegment.baseOffset, activeSegment.size)
     recoveryPoint = math.min(recoveryPoint, endOffset)
@@ -2023,7 +2033,10 @@ object Log extends Logging {
             logDirFailureChannel: LogDirFailureChannel,
             lastShutdownClean: Boolean = true,
             topicId: Option[Uuid],
-            keepPartitionMetadataFile: Boolean): Log = {
+            keepPartitionMetadataFile: Boolean,
+            tailCache: Option[LogTailCache] = None,
+            producerSnapshotFullInterval: Int = 1,
+            recoveryExecutor: Option[ExecutorService] = None): Log = {
     // create the log directory if it doesn't exist
     Files.createDirectories(dir.toPath)
     val topicPartition = Log.parseTopicPartitionName(dir)
@@ -2034,7 +2047,8 @@ object Log extends Logging {
       logDirFailureChannel,
       config.messageFormatVersion.recordVersion,
       s"[Log partition=$topicPartition, dir=${dir.getParent}] ")
-    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs, time)
+    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs, time,
+      producerSnapshotFullInterval)
     val offsets = LogLoader.load(LoadLogParams(
       dir,
       topicPartition,
@@ -2048,10 +2062,12 @@ object Log extends Logging {
       recoveryPoint,
       maxProducerIdExpirationMs,
       leaderEpochCache,
-      producerStateManager))
+      producerStateManager,
+      recoveryExecutor))
     new Log(dir, config, segments, offsets.logStartOffset, offsets.recoveryPoint, offsets.nextOffsetMetadata, scheduler,
       brokerTopicStats, time, producerIdExpirationCheckIntervalMs, topicPartition, leaderEpochCache,
-      producerStateManager, logDirFailureChannel, topicId, keepPartitionMetadataFile)
+      producerStateManager, logDirFailureChannel, topicId, keepPartitionMetadataFile,
+      tailCache.map(_.newPartitionCache(topicPartition)))
   }
 
   /**
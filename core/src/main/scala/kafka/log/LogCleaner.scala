@@ -20,7 +20,8 @@ package kafka.log
 import java.io.{File, IOException}
 import java.nio._
 import java.util.Date
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ExecutionException, ExecutorService, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicBoolean
 import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{BrokerReconfigurable, KafkaConfig, LogDirFailureChannel}
@@ -31,7 +32,7 @@ import org.apache.kafka.common.errors.{CorruptRecordException, KafkaStorageExcep
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter.BatchRetention
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.{BufferSupplier, Time}
+import org.apache.kafka.common.utils.{BufferSupplier, KafkaThread, Time}
 
 import scala.jdk.CollectionConverters._
 import scala.collection.mutable.ListBuffer
@@ -291,18 +292,25 @@ class LogCleaner(initialConfig: CleanerConfig,
 
     protected override def loggerName = classOf[LogCleaner].getName
 
-    if (config.dedupeBufferSize / config.numThreads > Int.MaxValue)
+    if (config.dedupeMapType == CleanerConfig.SkimpyDedupeMapType && config.dedupeBufferSize / config.numThreads > Int.MaxValue)
       warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
 
+    /* the workers that rewrite the segment groups of a log concurrently, if enabled */
+    private val groupExecutor: Option[ExecutorService] =
+      if (config.partitionParallelism > 1)
+        Some(Executors.newFixedThreadPool(config.partitionParallelism,
+          (runnable: Runnable) => KafkaThread.nonDaemon(s"$name-worker", runnable)))
+      else None
+
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
-                                                              hashAlgorithm = config.hashAlgorithm),
+                              offsetMap = LogCleaner.createOffsetMap(config),
                               ioBufferSize = config.ioBufferSize / config.numThreads / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
                               time = time,
-                              checkDone = checkDone)
+                              checkDone = checkDone,
+                              groupExecutor = groupExecutor)
 
     @volatile var lastStats: CleanerStats = new CleanerStats()
     @volatile var lastPreCleanStats: PreCleanStats = new PreCleanStats()
@@ -313,6 +321,12 @@ class LogCleaner(initialConfig: CleanerConfig,
       cleanerManager.checkCleaningAborted(topicPartition)
     }
 
+    override def shutdown(): Unit = {
+      super.shutdown()
+      // the workers are idle once the thread has stopped since it waits for all groups it submitted
+      groupExecutor.foreach(_.shutdown())
+    }
+
     /**
      * The main loop for the cleaner thread
      * Clean a log if there is a dirty log available, otherwise sleep for a bit
@@ -435,7 +449,8 @@ object LogCleaner {
     KafkaConfig.LogCleanerIoBufferSizeProp,
     KafkaConfig.MessageMaxBytesProp,
     KafkaConfig.LogCleanerIoMaxBytesPerSecondProp,
-    KafkaConfig.LogCleanerBackoffMsProp
+    KafkaConfig.LogCleanerBackoffMsProp,
+    KafkaConfig.LogCleanerPartitionParallelismProp
   )
 
   def cleanerConfig(config: KafkaConfig): CleanerConfig = {
@@ -446,10 +461,23 @@ object LogCleaner {
       maxMessageSize = config.messageMaxBytes,
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
-      enableCleaner = config.logCleanerEnable)
+      enableCleaner = config.logCleanerEnable,
+      dedupeMapType = config.logCleanerDedupeMapType,
+      partitionParallelism = config.logCleanerPartitionParallelism)
 
   }
 
+  /**
+   * Create the offset map of a single cleaner thread, which gets an equal share of the dedupe buffer
+   */
+  private[log] def createOffsetMap(config: CleanerConfig): OffsetMap = {
+    val memory = config.dedupeBufferSize / config.numThreads
+    config.dedupeMapType match {
+      case CleanerConfig.OpenAddressingDedupeMapType => new OpenAddressingOffsetMap(memory)
+      case _ => new SkimpyOffsetMap(memory = math.min(memory, Int.MaxValue).toInt, hashAlgorithm = config.hashAlgorithm)
+    }
+  }
+
   def createNewCleanedSegment(dir: File, logConfig: LogConfig, baseOffset: Long): LogSegment = {
     LogSegment.deleteIfExists(dir, baseOffset, fileSuffix = Log.CleanedFileSuffix)
     LogSegment.open(dir, baseOffset, logConfig, Time.SYSTEM,
@@ -467,6 +495,8 @@ object LogCleaner {
  * @param throttler The throttler instance to use for limiting I/O rate.
  * @param time The time instance
  * @param checkDone Check if the cleaning for a partition is finished or aborted.
+ * @param groupExecutor The workers used to clean the segment groups of a log concurrently, groups are cleaned
+ *                      sequentially by the calling thread if this is not defined
  */
 private[log] class Cleaner(val id: Int,
                            val offsetMap: OffsetMap,
@@ -475,7 +505,8 @@ private[log] class Cleaner(val id: Int,
                            dupBufferLoadFactor: Double,
                            throttler: Throttler,
                            time: Time,
-                           checkDone: TopicPartition => Unit) extends Logging {
+                           checkDone: TopicPartition => Unit,
+                           groupExecutor: Option[ExecutorService] = None) extends Logging {
 
   protected override def loggerName = classOf[LogCleaner].getName
 
@@ -529,12 +560,16 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizonMs), new Date(deleteHorizonMs)))
-    val transactionMetadata = new CleanedTransactionMetadata
-
     val groupedSegments = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize,
       log.config.maxIndexSize, cleanable.firstUncleanableOffset)
-    for (group <- groupedSegments)
-      cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    groupExecutor match {
+      case Some(executor) if groupedSegments.size > 1 =>
+        cleanSegmentGroupsConcurrently(executor, log, groupedSegments, deleteHorizonMs, stats)
+      case _ =>
+        val transactionMetadata = new CleanedTransactionMetadata
+        for (group <- groupedSegments)
+          cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    }
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -544,6 +579,85 @@ private[log] class Cleaner(val id: Int,
     (endOffset, stats)
   }
 
+  /**
+   * Clean each group of segments into its own replacement segment using the given workers. The result is the same
+   * as when cleaning the groups one after the other: every group starts from the transaction state that sequential
+   * cleaning would have reached at its first segment, see [[transactionMetadataForGroups]].
+   *
+   * All submitted groups have completed when this returns. If cleaning a group fails, groups that have not started
+   * yet are skipped, and the first failure is rethrown once the groups in progress have finished.
+   */
+  private def cleanSegmentGroupsConcurrently(executor: ExecutorService,
+                                             log: Log,
+                                             groupedSegments: List[Seq[LogSegment]],
+                                             deleteHorizonMs: Long,
+                                             stats: CleanerStats): Unit = {
+    info(s"Cleaning ${groupedSegments.size} segment groups of log ${log.name} concurrently")
+    val map = new SynchronizedOffsetMap(offsetMap)
+    val failed = new AtomicBoolean(false)
+    val tasks = groupedSegments.zip(transactionMetadataForGroups(log, groupedSegments)).map { case (group, transactionMetadata) =>
+      val groupStats = new CleanerStats(time)
+      val task: Runnable = () => {
+        if (!failed.get) {
+          // each worker needs its own I/O buffers
+          val worker = new Cleaner(id, map, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+          try worker.cleanSegments(log, group, map, deleteHorizonMs, groupStats, transactionMetadata)
+          catch {
+            case e: Throwable =>
+              failed.set(true)
+              throw e
+          }
+        }
+      }
+      (executor.submit(task), groupStats)
+    }
+
+    var failure: Throwable = null
+    tasks.foreach { case (future, groupStats) =>
+      try {
+        future.get()
+        stats.add(groupStats)
+      } catch {
+        case e: ExecutionException =>
+          if (failure == null)
+            failure = e.getCause
+      }
+    }
+    if (failure != null)
+      throw failure
+  }
+
+  /**
+   * Compute the transaction state at the start of each group by replaying the batch headers of all but the last
+   * group. The state only depends on the sequence of batches and not on which of them are retained, so this is
+   * exactly the state sequential cleaning passes from one group to the next.
+   */
+  private[log] def transactionMetadataForGroups(log: Log, groupedSegments: List[Seq[LogSegment]]): List[CleanedTransactionMetadata] = {
+    val transactionMetadata = new CleanedTransactionMetadata
+    val result = List.newBuilder[CleanedTransactionMetadata]
+    var remaining = groupedSegments
+    while (remaining.nonEmpty) {
+      result += transactionMetadata.copy()
+      val group = remaining.head
+      remaining = remaining.tail
+      if (remaining.nonEmpty) {
+        group.zipWithIndex.foreach { case (segment, i) =>
+          checkDone(log.topicPartition)
+          // the same bounds cleanSegments uses for each segment of the group
+          val upperBoundOffset = if (i + 1 < group.size) group(i + 1).baseOffset else offsetMap.latestOffset + 1
+          transactionMetadata.addAbortedTransactions(log.collectAbortedTransactions(segment.baseOffset, upperBoundOffset))
+          segment.log.batches.forEach { batch =>
+            if (batch.isControlBatch)
+              transactionMetadata.onControlBatchRead(batch)
+            else
+              transactionMetadata.onBatchRead(batch)
+          }
+        }
+      }
+    }
+    result.result()
+  }
+
   /**
    * Clean a group of segments into a single replacement segment
    *
@@ -1062,6 +1176,17 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
 
   def elapsedIndexSecs: Double = (mapCompleteTime - startTime) / 1000.0
 
+  /**
+   * Add the rewrite statistics collected while cleaning a single segment group
+   */
+  def add(other: CleanerStats): Unit = {
+    messagesRead += other.messagesRead
+    bytesRead += other.bytesRead
+    messagesWritten += other.messagesWritten
+    bytesWritten += other.bytesWritten
+    invalidMessagesRead += other.invalidMessagesRead
+  }
+
 }
 
 /**
@@ -1097,6 +1222,21 @@ private[log] class CleanedTransactionMetadata {
   // Output cleaned index to write retained aborted transactions
   var cleanedIndex: Option[TransactionIndex] = None
 
+  /**
+   * A copy of the current transaction state without the cleaned index
+   */
+  def copy(): CleanedTransactionMetadata = {
+    val copy = new CleanedTransactionMetadata
+    copy.ongoingCommittedTxns ++= ongoingCommittedTxns
+    ongoingAbortedTxns.foreach { case (producerId, abortedTxnMetadata) =>
+      val abortedTxnMetadataCopy = new AbortedTransactionMetadata(abortedTxnMetadata.abortedTxn)
+      abortedTxnMetadataCopy.lastObservedBatchOffset = abortedTxnMetadata.lastObservedBatchOffset
+      copy.ongoingAbortedTxns.put(producerId, abortedTxnMetadataCopy)
+    }
+    copy.abortedTransactions ++= abortedTransactions
+    copy
+  }
+
   def addAbortedTransactions(abortedTransactions: List[AbortedTxn]): Unit = {
     this.abortedTransactions ++= abortedTransactions
   }
@@ -1171,3 +1311,23 @@ private class AbortedTransactionMetadata(val abortedTxn: AbortedTxn) {
 
   override def toString: String = s"(txn: $abortedTxn, lastOffset: $lastObservedBatchOffset)"
 }
+
+/**
+ * Serializes access to an offset map so that the segment groups of a log can be cleaned concurrently. The
+ * offset map implementations keep per-lookup state, so even concurrent reads need to be synchronized.
+ */
+private[log] class SynchronizedOffsetMap(underlying: OffsetMap) extends OffsetMap {
+  override def slots: Int = underlying.slots
+
+  override def put(key: ByteBuffer, offset: Long): Unit = synchronized(underlying.put(key, offset))
+
+  override def get(key: ByteBuffer): Long = synchronized(underlying.get(key))
+
+  override def updateLatestOffset(offset: Long): Unit = synchronized(underlying.updateLatestOffset(offset))
+
+  override def clear(): Unit = synchronized(underlying.clear())
+
+  override def size: Int = synchronized(underlying.size)
+
+  override def latestOffset: Long = synchronized(underlying.latestOffset)
+}
@@ -19,6 +19,8 @@ package kafka.log
 
 import java.io.{File, IOException}
 import java.nio.file.{Files, NoSuchFileException}
+import java.util.concurrent.{ExecutionException, ExecutorService, FutureTask}
+import java.util.concurrent.atomic.AtomicBoolean
 
 import kafka.common.LogSegmentOffsetOverflowException
 import kafka.log.Log.{CleanedFileSuffix, DeletedFileSuffix, SwapFileSuffix, isIndexFile, isLogFile, offsetFromFile, offsetFromFileName}
@@ -53,6 +55,7 @@ case class LoadedLogOffsets(logStartOffset: Long,
  *                                  considered expired
  * @param leaderEpochCache An optional LeaderEpochFileCache instance to be updated during recovery
  * @param producerStateManager The ProducerStateManager instance to be updated during recovery
+ * @param recoveryExecutor An optional executor used to validate unflushed segments concurrently during recovery
  */
 case class LoadLogParams(dir: File,
                          topicPartition: TopicPartition,
@@ -66,7 +69,8 @@ case class LoadLogParams(dir: File,
                          recoveryPointCheckpoint: Long,
                          maxProducerIdExpirationMs: Int,
                          leaderEpochCache: Option[LeaderEpochFileCache],
-                         producerStateManager: ProducerStateManager) {
+                         producerStateManager: ProducerStateManager,
+                         recoveryExecutor: Option[ExecutorService] = None) {
   val logIdentifier: String = s"[LogLoader partition=$topicPartition, dir=${dir.getParent}] "
 }
 
@@ -318,17 +322,22 @@ object LogLoader extends Logging {
    *
    * @param segment Segment to recover
    * @param params The parameters for the log being loaded from disk
+   * @param indexRecovery The task validating the segment and rebuilding its indexes, if it has been scheduled
+   *                      on the recovery executor
    *
    * @return The number of bytes truncated from the segment
    *
    * @throws LogSegmentOffsetOverflowException if the segment contains messages that cause index offset overflow
    */
-  private def recoverSegment(segment: LogSegment, params: LoadLogParams): Int = {
+  private def recoverSegment(segment: LogSegment,
+                             params: LoadLogParams,
+                             indexRecovery: Option[FutureTask[Int]] = None): Int = {
     val producerStateManager = new ProducerStateManager(
       params.topicPartition,
       params.dir,
       params.maxProducerIdExpirationMs,
-      params.time)
+      params.time,
+      params.producerStateManager.fullSnapshotInterval)
     Log.rebuildProducerState(
       producerStateManager,
       params.segments,
@@ -338,7 +347,14 @@ object LogLoader extends Logging {
       params.time,
       reloadFromCleanShutdown = false,
       params.logIdentifier)
-    val bytesTruncated = segment.recover(producerStateManager, params.leaderEpochCache)
+    val bytesTruncated = indexRecovery match {
+      case Some(task) =>
+        val truncated = awaitIndexRecovery(task)
+        segment.recoverProducerState(producerStateManager, params.leaderEpochCache)
+        truncated
+      case None =>
+        segment.recover(producerStateManager, params.leaderEpochCache)
+    }
     // once we have recovered the segment's data, take a snapshot to ensure that we won't
     // need to reload the same segment again while recovering another segment.
     producerStateManager.takeSnapshot()
@@ -438,29 +454,52 @@ object LogLoader extends Logging {
 
     // If we have the clean shutdown marker, skip recovery.
     if (!params.hadCleanShutdown) {
-      val unflushed = params.segments.values(params.recoveryPointCheckpoint, Long.MaxValue).iterator
+      val unflushedSegments = params.segments.values(params.recoveryPointCheckpoint, Long.MaxValue).toList
+      // Validating the batches and rebuilding the indexes of a segment does not depend on the other segments, so
+      // it is scheduled for all unflushed segments upfront. The producer state is still rebuilt in offset order.
+      val aborted = new AtomicBoolean(false)
+      val indexRecoveries = params.recoveryExecutor match {
+        case Some(executor) if unflushedSegments.size > 1 =>
+          unflushedSegments.map { segment =>
+            val task = new FutureTask[Int](() => if (aborted.get) 0 else segment.recoverIndexes())
+            executor.execute(task)
+            Some(task)
+          }
+        case _ => unflushedSegments.map(_ => None)
+      }
+      val unflushed = unflushedSegments.iterator.zip(indexRecoveries.iterator)
       var truncated = false
+      var numRecovered = 0
 
-      while (unflushed.hasNext && !truncated) {
-        val segment = unflushed.next()
-        info(s"${params.logIdentifier}Recovering unflushed segment ${segment.baseOffset}")
-        val truncatedBytes =
-          try {
-            recoverSegment(segment, params)
-          } catch {
-            case _: InvalidOffsetException =>
-              val startOffset = segment.baseOffset
-              warn(s"${params.logIdentifier}Found invalid offset during recovery. Deleting the" +
-                s" corrupt segment and creating an empty one with starting offset $startOffset")
-              segment.truncateTo(startOffset)
+      try {
+        while (unflushed.hasNext && !truncated) {
+          val (segment, indexRecovery) = unflushed.next()
+          numRecovered += 1
+          info(s"${params.logIdentifier}Recovering unflushed segment ${segment.baseOffset} " +
+            s"($numRecovered/${unflushedSegments.size})")
+          val truncatedBytes =
+            try {
+              recoverSegment(segment, params, indexRecovery)
+            } catch {
+              case _: InvalidOffsetException =>
+                val startOffset = segment.baseOffset
+                warn(s"${params.logIdentifier}Found invalid offset during recovery. Deleting the" +
+                  s" corrupt segment and creating an empty one with starting offset $startOffset")
+                segment.truncateTo(startOffset)
+            }
+          if (truncatedBytes > 0) {
+            // we had an invalid message, delete all remaining log
+            warn(s"${params.logIdentifier}Corruption found in segment ${segment.baseOffset}," +
+              s" truncating to offset ${segment.readNextOffset}")
+            val remaining = unflushed.toList
+            cancelIndexRecoveries(aborted, remaining.flatMap(_._2))
+            removeAndDeleteSegmentsAsync(remaining.map(_._1), params)
+            truncated = true
           }
-        if (truncatedBytes > 0) {
-          // we had an invalid message, delete all remaining log
-          warn(s"${params.logIdentifier}Corruption found in segment ${segment.baseOffset}," +
-            s" truncating to offset ${segment.readNextOffset}")
-          removeAndDeleteSegmentsAsync(unflushed.toList, params)
-          truncated = true
         }
+      } finally {
+        // make sure no segment is still being recovered once the log is handed over or loading is retried
+        cancelIndexRecoveries(aborted, indexRecoveries.flatten)
       }
     }
 
@@ -493,6 +532,29 @@ object LogLoader extends Logging {
     }
   }
 
+  /**
+   * Wait for the index recovery of a segment. The task is run by the calling thread if no recovery thread has
+   * picked it up yet, so loading a log never waits for a task queued behind the loading of other logs.
+   */
+  private def awaitIndexRecovery(task: FutureTask[Int]): Int = {
+    task.run()
+    try task.get()
+    catch {
+      case e: ExecutionException => throw e.getCause
+    }
+  }
+
+  /**
+   * Skip the index recoveries that have not started yet and wait for the running ones to complete.
+   */
+  private def cancelIndexRecoveries(aborted: AtomicBoolean, tasks: Iterable[FutureTask[Int]]): Unit = {
+    aborted.set(true)
+    tasks.foreach { task =>
+      task.run()
+      CoreUtils.swallow(task.get(), this)
+    }
+  }
+
   /**
    * This method deletes the given log segments and the associated producer snapshots, by doing the
    * following for each of them:
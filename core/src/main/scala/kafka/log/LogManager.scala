@@ -63,7 +63,9 @@ class LogManager(logDirs: Seq[File],
                  brokerTopicStats: BrokerTopicStats,
                  logDirFailureChannel: LogDirFailureChannel,
                  time: Time,
-                 val keepPartitionMetadataFile: Boolean) extends Logging with KafkaMetricsGroup {
+                 val keepPartitionMetadataFile: Boolean,
+                 val tailCache: Option[LogTailCache] = None,
+                 val producerSnapshotFullInterval: Int = 1) extends Logging with KafkaMetricsGroup {
 
   import LogManager._
 
@@ -122,6 +124,8 @@ class LogManager(logDirs: Seq[File],
 
   newGauge("OfflineLogDirectoryCount", () => offlineLogDirs.size)
 
+  private val logRecoveryTimeHist = newHistogram(LogRecoveryTimeMetricName)
+
   for (dir <- logDirs) {
     newGauge("LogDirectoryOffline",
       () => if (_liveLogDirs.contains(dir)) 0 else 1,
@@ -253,7 +257,8 @@ class LogManager(logDirs: Seq[File],
                            hadCleanShutdown: Boolean,
                            recoveryPoints: Map[TopicPartition, Long],
                            logStartOffsets: Map[TopicPartition, Long],
-                           topicConfigOverrides: Map[String, LogConfig]): Log = {
+                           topicConfigOverrides: Map[String, LogConfig],
+                           recoveryExecutor: Option[ExecutorService] = None): Log = {
     val topicPartition = Log.parseTopicPartitionName(logDir)
     val config = topicConfigOverrides.getOrElse(topicPartition.topic, currentDefaultConfig)
     val logRecoveryPoint = recoveryPoints.getOrElse(topicPartition, 0L)
@@ -272,7 +277,10 @@ class LogManager(logDirs: Seq[File],
       logDirFailureChannel = logDirFailureChannel,
       lastShutdownClean = hadCleanShutdown,
       topicId = None,
-      keepPartitionMetadataFile = keepPartitionMetadataFile)
+      keepPartitionMetadataFile = keepPartitionMetadataFile,
+      tailCache = tailCache,
+      producerSnapshotFullInterval = producerSnapshotFullInterval,
+      recoveryExecutor = recoveryExecutor)
 
     if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
       addLogToBeDeleted(log)
@@ -303,18 +311,20 @@ class LogManager(logDirs: Seq[File],
   private[log] def loadLogs(topicConfigOverrides: Map[String, LogConfig]): Unit = {
     info(s"Loading logs from log dirs $liveLogDirs")
     val startMs = time.hiResClockMs()
-    val threadPools = ArrayBuffer.empty[ExecutorService]
     val offlineDirs = mutable.Set.empty[(String, IOException)]
     val jobs = ArrayBuffer.empty[Seq[Future[_]]]
+    val recoveringDirs = ArrayBuffer.empty[String]
     var numTotalLogs = 0
 
-    for (dir <- liveLogDirs) {
+    // The recovery threads of all log dirs are shared, so that threads whose log dir is done pick up the logs of the
+    // other log dirs and the unflushed segments of the logs being recovered.
+    val dirs = liveLogDirs
+    val pool = Executors.newFixedThreadPool(math.max(1, numRecoveryThreadsPerDataDir * dirs.size))
+
+    for (dir <- dirs) {
       val logDirAbsolutePath = dir.getAbsolutePath
       var hadCleanShutdown: Boolean = false
       try {
-        val pool = Executors.newFixedThreadPool(numRecoveryThreadsPerDataDir)
-        threadPools.append(pool)
-
         val cleanShutdownFile = new File(dir, Log.CleanShutdownFile)
         if (cleanShutdownFile.exists) {
           info(s"Skipping recovery for all logs in $logDirAbsolutePath since clean shutdown file was found")
@@ -349,6 +359,11 @@ class LogManager(logDirs: Seq[File],
           logDir.isDirectory && Log.parseTopicPartitionName(logDir).topic != KafkaRaftServer.MetadataTopic)
         val numLogsLoaded = new AtomicInteger(0)
         numTotalLogs += logsToLoad.length
+        if (!hadCleanShutdown) {
+          newGauge(RemainingLogsToRecoverMetricName, () => logsToLoad.length - numLogsLoaded.get,
+            Map("logDirectory" -> logDirAbsolutePath))
+          recoveringDirs += logDirAbsolutePath
+        }
 
         val jobsForDir = logsToLoad.map { logDir =>
           val runnable: Runnable = () => {
@@ -356,9 +371,12 @@ class LogManager(logDirs: Seq[File],
               debug(s"Loading log $logDir")
 
               val logLoadStartMs = time.hiResClockMs()
-              val log = loadLog(logDir, hadCleanShutdown, recoveryPoints, logStartOffsets, topicConfigOverrides)
+              val log = loadLog(logDir, hadCleanShutdown, recoveryPoints, logStartOffsets, topicConfigOverrides,
+                Some(pool))
               val logLoadDurationMs = time.hiResClockMs() - logLoadStartMs
               val currentNumLoaded = numLogsLoaded.incrementAndGet()
+              if (!hadCleanShutdown)
+                logRecoveryTimeHist.update(logLoadDurationMs)
 
               info(s"Completed load of $log with ${log.numberOfSegments} segments in ${logLoadDurationMs}ms " +
                 s"($currentNumLoaded/${logsToLoad.length} loaded in $logDirAbsolutePath)")
@@ -392,7 +410,8 @@ class LogManager(logDirs: Seq[File],
         error(s"There was an error in one of the threads during logs loading: ${e.getCause}")
         throw e.getCause
     } finally {
-      threadPools.foreach(_.shutdown())
+      pool.shutdown()
+      recoveringDirs.foreach(dir => removeMetric(RemainingLogsToRecoverMetricName, Map("logDirectory" -> dir)))
     }
 
     info(s"Loaded $numTotalLogs logs in ${time.hiResClockMs() - startMs}ms.")
@@ -466,6 +485,7 @@ class LogManager(logDirs: Seq[File],
     info("Shutting down.")
 
     removeMetric("OfflineLogDirectoryCount")
+    removeMetric(LogRecoveryTimeMetricName)
     for (dir <- logDirs) {
       removeMetric("LogDirectoryOffline", Map("logDirectory" -> dir.getAbsolutePath))
     }
@@ -478,6 +498,8 @@ class LogManager(logDirs: Seq[File],
       CoreUtils.swallow(cleaner.shutdown(), this)
     }
 
+    tailCache.foreach(cache => CoreUtils.swallow(cache.shutdown(), this))
+
     val localLogsByDir = logsByDir
 
     // close logs in each dir
@@ -833,7 +855,9 @@ class LogManager(logDirs: Seq[File],
           brokerTopicStats = brokerTopicStats,
           logDirFailureChannel = logDirFailureChannel,
           topicId = topicId,
-          keepPartitionMetadataFile = keepPartitionMetadataFile)
+          keepPartitionMetadataFile = keepPartitionMetadataFile,
+          tailCache = tailCache,
+          producerSnapshotFullInterval = producerSnapshotFullInterval)
 
         if (isFuture)
           futureLogs.put(topicPartition, log)
@@ -1225,6 +1249,9 @@ object LogManager {
   val LogStartOffsetCheckpointFile = "log-start-offset-checkpoint"
   val ProducerIdExpirationCheckIntervalMs = 10 * 60 * 1000
 
+  val RemainingLogsToRecoverMetricName = "RemainingLogsToRecover"
+  val LogRecoveryTimeMetricName = "LogRecoveryTimeMs"
+
   def apply(config: KafkaConfig,
             initialOfflineDirs: Seq[String],
             configRepository: ConfigRepository,
@@ -1255,7 +1282,9 @@ object LogManager {
       brokerTopicStats = brokerTopicStats,
       logDirFailureChannel = logDirFailureChannel,
       time = time,
-      keepPartitionMetadataFile = keepPartitionMetadataFile)
+      keepPartitionMetadataFile = keepPartitionMetadataFile,
+      tailCache = LogTailCache(config.logTailCacheMaxBytes, config.logTailCachePartitionMaxBytes),
+      producerSnapshotFullInterval = config.logProducerSnapshotFullInterval)
   }
 
 }
@@ -333,9 +333,23 @@ class LogSegment private[log] (val log: FileRecords,
    */
   @nonthreadsafe
   def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochFileCache] = None): Int = {
+    val truncated = recoverIndexes()
+    recoverProducerState(producerStateManager, leaderEpochCache)
+    truncated
+  }
+
+  /**
+   * Validate the batches of the segment, rebuild the offset and time indexes and lop off any invalid bytes from the
+   * end of the log and index. This does not depend on the state of other segments, so different segments of a log
+   * can be recovered concurrently.
+   *
+   * @return The number of bytes truncated from the log
+   * @throws LogSegmentOffsetOverflowException if the log segment contains an offset that causes the index offset to overflow
+   */
+  @nonthreadsafe
+  private[log] def recoverIndexes(): Int = {
     offsetIndex.reset()
     timeIndex.reset()
-    txnIndex.reset()
     var validBytes = 0
     var lastIndexEntry = 0
     maxTimestampSoFar = RecordBatch.NO_TIMESTAMP
@@ -357,14 +371,6 @@ class LogSegment private[log] (val log: FileRecords,
           lastIndexEntry = validBytes
         }
         validBytes += batch.sizeInBytes()
-
-        if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
-          leaderEpochCache.foreach { cache =>
-            if (batch.partitionLeaderEpoch >= 0 && cache.latestEpoch.forall(batch.partitionLeaderEpoch > _))
-              cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
-          }
-          updateProducerState(producerStateManager, batch)
-        }
       }
     } catch {
       case e@ (_: CorruptRecordException | _: InvalidRecordException) =>
@@ -383,6 +389,29 @@ class LogSegment private[log] (val log: FileRecords,
     truncated
   }
 
+  /**
+   * Rebuild the transaction index and update the producer state and leader epoch cache from a segment whose batches
+   * have already been validated by `recoverIndexes`. This only reads the batch headers, but it must be done in offset
+   * order across the segments of a log.
+   *
+   * @param producerStateManager Producer state corresponding to the segment's base offset
+   * @param leaderEpochCache Optionally a cache for updating the leader epoch during recovery.
+   */
+  @nonthreadsafe
+  private[log] def recoverProducerState(producerStateManager: ProducerStateManager,
+                                        leaderEpochCache: Option[LeaderEpochFileCache]): Unit = {
+    txnIndex.reset()
+    for (batch <- log.batches.asScala) {
+      if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
+        leaderEpochCache.foreach { cache =>
+          if (batch.partitionLeaderEpoch >= 0 && cache.latestEpoch.forall(batch.partitionLeaderEpoch > _))
+            cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
+        }
+        updateProducerState(producerStateManager, batch)
+      }
+    }
+  }
+
   private def loadLargestTimestamp(): Unit = {
     // Get the last time index entry. If the time index is empty, it will return (-1, baseOffset)
     val lastTimeIndexEntry = timeIndex.lastEntry
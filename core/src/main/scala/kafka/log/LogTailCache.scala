@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{ConcurrentLinkedQueue, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong}
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.server.{FetchDataInfo, LogOffsetMetadata}
+import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
+import kafka.utils.{Logging, nonthreadsafe, threadsafe}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.MemoryRecords
+
+import scala.jdk.CollectionConverters._
+
+/**
+ * A broker-wide, size-bounded cache of the bytes most recently appended to the active segment of each log.
+ *
+ * Caught-up consumers and followers almost always read from the tail of the log. Serving those reads from memory
+ * keeps their latency independent of page cache pressure caused by lagging readers or the log cleaner.
+ *
+ * Memory is handed out in fixed-size blocks. Blocks are evicted broker-wide in allocation order once the total
+ * exceeds `maxBytes`, which always drops the oldest data of some partition first. Evicted blocks are released to
+ * the garbage collector rather than recycled, so a fetch response that still references one is never corrupted.
+ *
+ * @param maxBytes The maximum number of bytes cached across all partitions
+ * @param partitionMaxBytes The maximum number of bytes cached for a single partition
+ */
+@threadsafe
+class LogTailCache(val maxBytes: Long, val partitionMaxBytes: Int) extends Logging with KafkaMetricsGroup {
+  import LogTailCache._
+
+  if (partitionMaxBytes <= 0 || partitionMaxBytes > maxBytes)
+    throw new IllegalArgumentException(s"Invalid tail cache partition size $partitionMaxBytes for total size $maxBytes")
+
+  private[log] val blockSize: Int = math.max(1, partitionMaxBytes / BlocksPerPartition)
+
+  /* all live blocks in allocation order; released blocks are purged lazily */
+  private val blocks = new ConcurrentLinkedQueue[Block]()
+  private val releasedBlocks = new AtomicInteger(0)
+  private val cachedBytes = new AtomicLong(0L)
+
+  private val hitRate = newMeter(HitsPerSecMetricName, "hits", TimeUnit.SECONDS)
+  private val missRate = newMeter(MissesPerSecMetricName, "misses", TimeUnit.SECONDS)
+  private val evictionRate = newMeter(EvictionsPerSecMetricName, "evictions", TimeUnit.SECONDS)
+  newGauge(SizeMetricName, () => cachedBytes.get)
+
+  /**
+   * Create the cache of a single log. The returned instance must be cleared when the log is closed or deleted.
+   */
+  def newPartitionCache(topicPartition: TopicPartition): PartitionTailCache =
+    new PartitionTailCache(topicPartition, this)
+
+  def sizeInBytes: Long = cachedBytes.get
+
+  private[log] def recordHit(): Unit = hitRate.mark()
+
+  private[log] def recordMiss(): Unit = missRate.mark()
+
+  /**
+   * Allocate a new block, evicting the oldest blocks of any partition if the cache is full.
+   */
+  private[log] def allocate(position: Int): Block = {
+    val block = new Block(position, ByteBuffer.allocate(blockSize))
+    cachedBytes.addAndGet(blockSize)
+    blocks.add(block)
+    while (cachedBytes.get > maxBytes) {
+      val victim = blocks.poll()
+      if (victim == null)
+        return block
+      if (victim.release()) {
+        cachedBytes.addAndGet(-blockSize)
+        evictionRate.mark()
+      } else {
+        releasedBlocks.updateAndGet(count => math.max(count - 1, 0))
+      }
+    }
+    block
+  }
+
+  /**
+   * Return a block to the cache. Its memory becomes available immediately and its entry in the eviction queue
+   * is purged once enough released blocks have accumulated.
+   */
+  private[log] def free(block: Block): Unit = {
+    if (block.release()) {
+      cachedBytes.addAndGet(-blockSize)
+      if (releasedBlocks.incrementAndGet() > blocks.size / 2) {
+        releasedBlocks.set(0)
+        blocks.removeIf(_.isReleased)
+      }
+    }
+  }
+
+  def shutdown(): Unit = {
+    blocks.asScala.foreach(_.release())
+    blocks.clear()
+    cachedBytes.set(0L)
+    removeMetric(HitsPerSecMetricName)
+    removeMetric(MissesPerSecMetricName)
+    removeMetric(EvictionsPerSecMetricName)
+    removeMetric(SizeMetricName)
+  }
+}
+
+object LogTailCache {
+  private[log] val BlocksPerPartition = 4
+
+  val HitsPerSecMetricName = "TailCacheHitsPerSec"
+  val MissesPerSecMetricName = "TailCacheMissesPerSec"
+  val EvictionsPerSecMetricName = "TailCacheEvictionsPerSec"
+  val SizeMetricName = "TailCacheSizeBytes"
+
+  def apply(maxBytes: Long, partitionMaxBytes: Int): Option[LogTailCache] =
+    if (maxBytes > 0) Some(new LogTailCache(maxBytes, math.min(maxBytes, partitionMaxBytes.toLong).toInt))
+    else None
+
+  /**
+   * A fixed-size region of cached segment bytes starting at `position` in the segment.
+   */
+  private[log] class Block(val position: Int, private val data: ByteBuffer) {
+    private val released = new AtomicBoolean(false)
+    @volatile private var buffer: ByteBuffer = data
+
+    /* only accessed by the appending thread, which holds the partition write lock */
+    private var written = 0
+
+    def remaining: Int = data.capacity - written
+
+    def endPosition: Int = position + written
+
+    def write(source: ByteBuffer, length: Int): Unit = {
+      val src = source.duplicate()
+      src.limit(src.position() + length)
+      val dst = data.duplicate()
+      dst.position(written)
+      dst.put(src)
+      source.position(source.position() + length)
+      written += length
+    }
+
+    /**
+     * The cached bytes, or null if the block has been evicted.
+     */
+    def bytes: ByteBuffer = buffer
+
+    def isReleased: Boolean = released.get
+
+    def release(): Boolean = {
+      if (released.compareAndSet(false, true)) {
+        buffer = null
+        true
+      } else false
+    }
+  }
+
+  private[log] case class CachedBatch(baseOffset: Long, position: Int, size: Int)
+}
+
+/**
+ * The tail cache of a single log. Appends happen under the log lock, reads do not take the log lock and may
+ * race with appends, truncation and broker-wide eviction; a read that cannot be fully served from memory is a miss.
+ */
+@threadsafe
+class PartitionTailCache private[log] (val topicPartition: TopicPartition, cache: LogTailCache) {
+  import LogTailCache._
+
+  private val lock = new ReentrantReadWriteLock()
+
+  /* the base offset of the segment whose tail is cached, or -1 if nothing is cached */
+  private var segmentBaseOffset = -1L
+  /* the position in the segment right after the last cached byte */
+  private var endPosition = 0
+  private val blocks = new java.util.ArrayDeque[Block]()
+  /* the cached batches keyed by their last offset */
+  private val batches = new java.util.TreeMap[java.lang.Long, CachedBatch]()
+
+  /**
+   * Copy records that were just appended to the segment at the given position.
+   */
+  @nonthreadsafe
+  def append(baseOffset: Long, position: Int, records: MemoryRecords): Unit = inWriteLock(lock) {
+    val size = records.sizeInBytes
+    if (baseOffset != segmentBaseOffset || position != endPosition || size > cache.partitionMaxBytes) {
+      reset()
+      segmentBaseOffset = baseOffset
+      endPosition = position
+      if (size > cache.partitionMaxBytes) {
+        endPosition += size
+        return
+      }
+    }
+
+    val source = records.buffer
+    var remaining = size
+    while (remaining > 0) {
+      var block = blocks.peekLast()
+      if (block == null || block.remaining == 0) {
+        block = cache.allocate(endPosition)
+        blocks.addLast(block)
+      }
+      val length = math.min(block.remaining, remaining)
+      block.write(source, length)
+      endPosition += length
+      remaining -= length
+    }
+
+    var batchPosition = position
+    records.batches.forEach { batch =>
+      batches.put(batch.lastOffset, CachedBatch(batch.baseOffset, batchPosition, batch.sizeInBytes))
+      batchPosition += batch.sizeInBytes
+    }
+
+    while (blocks.size > 1 && endPosition - blocks.peekFirst().position > cache.partitionMaxBytes)
+      cache.free(blocks.pollFirst())
+    trimReleasedBlocks()
+  }
+
+  /**
+   * Read from the cached tail of the segment with the given base offset. The semantics match `LogSegment.read`.
+   *
+   * @return The fetched data or None if the read cannot be served from the cache
+   */
+  def read(baseOffset: Long,
+           startOffset: Long,
+           maxSize: Int,
+           maxPosition: Long,
+           minOneMessage: Boolean): Option[FetchDataInfo] = {
+    val result = inReadLock(lock) {
+      if (baseOffset != segmentBaseOffset || batches.isEmpty || startOffset < batches.firstEntry.getValue.baseOffset) None
+      else {
+        val entry = batches.ceilingEntry(startOffset)
+        if (entry == null) None
+        else {
+          val batch = entry.getValue
+          val offsetMetadata = LogOffsetMetadata(startOffset, baseOffset, batch.position)
+          val adjustedMaxSize = if (minOneMessage) math.max(maxSize, batch.size) else maxSize
+          if (adjustedMaxSize == 0)
+            Some(FetchDataInfo(offsetMetadata, MemoryRecords.EMPTY))
+          else {
+            val fetchSize = math.min(maxPosition - batch.position, adjustedMaxSize.toLong).toInt
+            slice(batch.position, math.max(fetchSize, 0)).map { buffer =>
+              FetchDataInfo(offsetMetadata, MemoryRecords.readableRecords(buffer),
+                firstEntryIncomplete = adjustedMaxSize < batch.size)
+            }
+          }
+        }
+      }
+    }
+    if (result.isDefined) cache.recordHit() else cache.recordMiss()
+    result
+  }
+
+  /**
+   * Drop all cached data, e.g. because the log was truncated or closed.
+   */
+  def clear(): Unit = inWriteLock(lock) {
+    reset()
+  }
+
+  def sizeInBytes: Int = inReadLock(lock) {
+    if (blocks.isEmpty) 0 else endPosition - blocks.peekFirst().position
+  }
+
+  /**
+   * Return the bytes in [position, position + length) of the cached segment, copying only if they span blocks.
+   */
+  private def slice(position: Int, length: Int): Option[ByteBuffer] = {
+    if (position + length > endPosition)
+      return None
+
+    val iterator = blocks.iterator
+    var result: ByteBuffer = null
+    var copied = 0
+    while (iterator.hasNext && copied < length) {
+      val block = iterator.next()
+      val start = position + copied
+      if (block.endPosition > start) {
+        val bytes = block.bytes
+        if (bytes == null || block.position > start)
+          return None
+        val view = bytes.duplicate()
+        view.position(start - block.position)
+        view.limit(math.min(block.endPosition, position + length) - block.position)
+        if (result == null && view.remaining == length)
+          return Some(view.slice())
+        if (result == null)
+          result = ByteBuffer.allocate(length)
+        copied += view.remaining
+        result.put(view)
+      }
+    }
+    if (length == 0) Some(ByteBuffer.allocate(0))
+    else if (copied < length) None
+    else {
+      result.flip()
+      Some(result)
+    }
+  }
+
+  private def trimReleasedBlocks(): Unit = {
+    while (!blocks.isEmpty && blocks.peekFirst().isReleased)
+      blocks.pollFirst()
+    val startPosition = if (blocks.isEmpty) endPosition else blocks.peekFirst().position
+    while (!batches.isEmpty && batches.firstEntry.getValue.position < startPosition)
+      batches.pollFirstEntry()
+  }
+
+  private def reset(): Unit = {
+    blocks.forEach(block => cache.free(block))
+    blocks.clear()
+    batches.clear()
+    segmentBaseOffset = -1L
+    endPosition = 0
+  }
+}
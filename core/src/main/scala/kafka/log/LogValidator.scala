@@ -351,6 +351,17 @@ private[log] object LogValidator extends Logging {
    * 1. Source and target compression codec are different
    * 2. When the target magic is not equal to batches' magic, meaning format conversion is needed.
    * 3. When the target magic is equal to V0, meaning absolute offsets need to be re-assigned.
+   * 4. When the inner offsets are not 0 to count - 1, which some older clients send for magic V1.
+   * In these cases every record is validated and the batch is rebuilt, including recompression if enabled.
+   *
+   * When in place assignment is possible, the records must still be decompressed to check the record count and the
+   * inner offsets. If the batch is V2 and none of the record level checks apply (the topic is not compacted and
+   * record timestamps are not checked against `timestampDiffMaxMs`), the records are streamed through without
+   * reading their keys, values and headers or retaining them, see `validateInPlaceByStreaming`. Otherwise, each
+   * record is validated before the batch header is updated in place.
+   *
+   * The number of batches taking each of the three paths is recorded in the `StreamingValidatedBatchesPerSec`,
+   * `RecordValidatedBatchesPerSec` and `RebuiltBatchesPerSec` broker topic metrics, which only exist for all topics.
    */
   def validateMessagesAndAssignOffsetsCompressed(records: MemoryRecords,
                                                  topicPartition: TopicPartition,
@@ -404,6 +415,18 @@ private[log] object LogValidator extends Logging {
     if (sourceCodec == NoCompressionCodec && firstBatch.isControlBatch)
       inPlaceAssignment = true
 
+    if (inPlaceAssignment && canValidateInPlaceByStreaming(firstBatch, compactedTopic, timestampType, timestampDiffMaxMs)) {
+      validateBatch(topicPartition, firstBatch, firstBatch, origin, toMagic, brokerTopicStats)
+      validateInPlaceByStreaming(records, firstBatch, offsetCounter, now, toMagic, timestampType, partitionLeaderEpoch,
+        requestLocal) match {
+        case Some(result) =>
+          brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.foreach(_.mark())
+          return result
+        case None =>
+          // the inner offsets have to be rewritten, so validate each record and rebuild the batch below
+      }
+    }
+
     records.batches.forEach { batch =>
       validateBatch(topicPartition, firstBatch, batch, origin, toMagic, brokerTopicStats)
       uncompressedSizeInBytes += AbstractRecords.recordBatchHeaderSizeInBytes(toMagic, batch.compressionType())
@@ -461,33 +484,112 @@ private[log] object LogValidator extends Logging {
         val first = records.batches.asScala.head
         (first.producerId, first.producerEpoch, first.baseSequence, first.isTransactional)
       }
-      buildRecordsAndAssignOffsets(toMagic, offsetCounter, time, timestampType, CompressionType.forId(targetCodec.codec),
-        now, validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch,
-        uncompressedSizeInBytes)
+      val result = buildRecordsAndAssignOffsets(toMagic, offsetCounter, time, timestampType,
+        CompressionType.forId(targetCodec.codec), now, validatedRecords, producerId, producerEpoch, sequence,
+        isTransactional, partitionLeaderEpoch, uncompressedSizeInBytes)
+      brokerTopicStats.allTopicsStats.rebuiltBatchesRate.foreach(_.mark())
+      result
     } else {
       // we can update the batch only and write the compressed payload as is;
       // again we assume only one record batch within the compressed set
-      val batch = records.batches.iterator.next()
-      val lastOffset = offsetCounter.addAndGet(validatedRecords.size) - 1
+      val result = assignOffsetsInPlace(records, offsetCounter, validatedRecords.size, maxTimestamp, now, toMagic,
+        timestampType, partitionLeaderEpoch, uncompressedSizeInBytes)
+      brokerTopicStats.allTopicsStats.recordValidatedBatchesRate.foreach(_.mark())
+      result
+    }
+  }
 
-      batch.setLastOffset(lastOffset)
+  /**
+   * Whether none of the checks of `validateRecord` and `validateRecordCompression` can fail for the records of a V2
+   * batch, so that the records don't need to be validated individually:
+   * 1. V2 records have no magic, CRC or compression attribute of their own.
+   * 2. Records of topics that are not compacted may have null keys.
+   * 3. Record timestamps are only checked against `timestampDiffMaxMs` for CreateTime topics with a bounded
+   *    difference. If the batch itself claims LogAppendTime, every record is rejected, so the records must be visited
+   *    to report them.
+   */
+  private def canValidateInPlaceByStreaming(batch: RecordBatch,
+                                            compactedTopic: Boolean,
+                                            timestampType: TimestampType,
+                                            timestampDiffMaxMs: Long): Boolean = {
+    batch.magic >= RecordBatch.MAGIC_VALUE_V2 &&
+      !compactedTopic &&
+      batch.timestampType != TimestampType.LOG_APPEND_TIME &&
+      (timestampType == TimestampType.LOG_APPEND_TIME || timestampDiffMaxMs == Long.MaxValue)
+  }
 
-      if (timestampType == TimestampType.LOG_APPEND_TIME)
-        maxTimestamp = now
+  /**
+   * Stream through the records of a V2 batch that can be written in place to verify the record count and the inner
+   * offsets, and to find the max timestamp. The keys, values and headers of the records are skipped and the records
+   * are not retained. V2 requests contain exactly one batch, which has already been validated by `validateBatch`.
+   *
+   * Returns None if the inner offsets are not 0 to count - 1, in which case the batch has to be rebuilt.
+   */
+  private def validateInPlaceByStreaming(records: MemoryRecords,
+                                         batch: RecordBatch,
+                                         offsetCounter: LongRef,
+                                         now: Long,
+                                         toMagic: Byte,
+                                         timestampType: TimestampType,
+                                         partitionLeaderEpoch: Int,
+                                         requestLocal: RequestLocal): Option[ValidationAndOffsetAssignResult] = {
+    var maxTimestamp = RecordBatch.NO_TIMESTAMP
+    var uncompressedSizeInBytes = AbstractRecords.recordBatchHeaderSizeInBytes(toMagic, batch.compressionType())
+    var numRecords = 0
+    var sequentialOffsets = true
+
+    val recordsIterator = batch.skipKeyValueIterator(requestLocal.bufferSupplier)
+    try {
+      while (sequentialOffsets && recordsIterator.hasNext) {
+        val record = recordsIterator.next()
+        if (record.offset != numRecords) {
+          sequentialOffsets = false
+        } else {
+          if (record.timestamp > maxTimestamp)
+            maxTimestamp = record.timestamp
+          uncompressedSizeInBytes += record.sizeInBytes()
+          numRecords += 1
+        }
+      }
+    } finally {
+      recordsIterator.close()
+    }
 
-      if (toMagic >= RecordBatch.MAGIC_VALUE_V1)
-        batch.setMaxTimestamp(timestampType, maxTimestamp)
+    if (sequentialOffsets)
+      Some(assignOffsetsInPlace(records, offsetCounter, numRecords, maxTimestamp, now, toMagic, timestampType,
+        partitionLeaderEpoch, uncompressedSizeInBytes))
+    else
+      None
+  }
 
-      if (toMagic >= RecordBatch.MAGIC_VALUE_V2)
-        batch.setPartitionLeaderEpoch(partitionLeaderEpoch)
+  private def assignOffsetsInPlace(records: MemoryRecords,
+                                   offsetCounter: LongRef,
+                                   numRecords: Int,
+                                   recordsMaxTimestamp: Long,
+                                   now: Long,
+                                   toMagic: Byte,
+                                   timestampType: TimestampType,
+                                   partitionLeaderEpoch: Int,
+                                   uncompressedSizeInBytes: Int): ValidationAndOffsetAssignResult = {
+    val batch = records.batches.iterator.next()
+    val lastOffset = offsetCounter.addAndGet(numRecords) - 1
 
-      val recordConversionStats = new RecordConversionStats(uncompressedSizeInBytes, 0, 0)
-      ValidationAndOffsetAssignResult(validatedRecords = records,
-        maxTimestamp = maxTimestamp,
-        shallowOffsetOfMaxTimestamp = lastOffset,
-        messageSizeMaybeChanged = false,
-        recordConversionStats = recordConversionStats)
-    }
+    batch.setLastOffset(lastOffset)
+
+    val maxTimestamp = if (timestampType == TimestampType.LOG_APPEND_TIME) now else recordsMaxTimestamp
+
+    if (toMagic >= RecordBatch.MAGIC_VALUE_V1)
+      batch.setMaxTimestamp(timestampType, maxTimestamp)
+
+    if (toMagic >= RecordBatch.MAGIC_VALUE_V2)
+      batch.setPartitionLeaderEpoch(partitionLeaderEpoch)
+
+    val recordConversionStats = new RecordConversionStats(uncompressedSizeInBytes, 0, 0)
+    ValidationAndOffsetAssignResult(validatedRecords = records,
+      maxTimestamp = maxTimestamp,
+      shallowOffsetOfMaxTimestamp = lastOffset,
+      messageSizeMaybeChanged = false,
+      recordConversionStats = recordConversionStats)
   }
 
   private def buildRecordsAndAssignOffsets(magic: Byte,
@@ -87,8 +87,9 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
    */
   def lookup(targetOffset: Long): OffsetPosition = {
     maybeLock(lock) {
-      val idx = mmap.duplicate
-      val slot = largestLowerBoundSlotFor(idx, targetOffset, IndexSearchType.KEY)
+      val entries = _entries
+      val idx = mmapForRead
+      val slot = largestLowerBoundSlotFor(idx, entries, targetOffset, IndexSearchType.KEY)
       if(slot == -1)
         OffsetPosition(baseOffset, 0)
       else
@@ -103,8 +104,9 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
    */
   def fetchUpperBoundOffset(fetchOffset: OffsetPosition, fetchSize: Int): Option[OffsetPosition] = {
     maybeLock(lock) {
-      val idx = mmap.duplicate
-      val slot = smallestUpperBoundSlotFor(idx, fetchOffset.position + fetchSize, IndexSearchType.VALUE)
+      val entries = _entries
+      val idx = mmapForRead
+      val slot = smallestUpperBoundSlotFor(idx, entries, fetchOffset.position + fetchSize, IndexSearchType.VALUE)
       if (slot == -1)
         None
       else
@@ -120,6 +122,10 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
     OffsetPosition(baseOffset + relativeOffset(buffer, n), physical(buffer, n))
   }
 
+  override protected def parseKey(buffer: ByteBuffer, n: Int): Long = baseOffset + relativeOffset(buffer, n)
+
+  override protected def parseValue(buffer: ByteBuffer, n: Int): Long = physical(buffer, n)
+
   /**
    * Get the nth offset mapping from the index
    * @param n The entry number in the index
@@ -160,7 +166,7 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
   override def truncateTo(offset: Long): Unit = {
     inLock(lock) {
       val idx = mmap.duplicate
-      val slot = largestLowerBoundSlotFor(idx, offset, IndexSearchType.KEY)
+      val slot = largestLowerBoundSlotFor(idx, _entries, offset, IndexSearchType.KEY)
 
       /* There are 3 cases for choosing the new size
        * 1) if there is no entry in the index <= the offset, delete everything
@@ -19,7 +19,7 @@ package kafka.log
 
 import java.util.Arrays
 import java.security.MessageDigest
-import java.nio.ByteBuffer
+import java.nio.{ByteBuffer, ByteOrder}
 import kafka.utils._
 import org.apache.kafka.common.utils.Utils
 
@@ -199,3 +199,263 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   }
   
 }
+
+/**
+ * An off-heap hash table used for deduplicating the log. Like [[SkimpyOffsetMap]] it stores a 128-bit hash of each
+ * key in place of the key itself, but it uses the non-cryptographic MurmurHash3 x64/128 function, which is several
+ * times cheaper than MD5, and Robin Hood linear probing. Robin Hood probing keeps probe sequences short and lets
+ * lookups of absent keys stop early, so the map remains fast at load factors well above 0.9.
+ *
+ * The table lives in direct memory split across chunks, which allows a single cleaner thread to use more than 2G of
+ * dedupe buffer. Each entry takes 24 bytes: the two halves of the hash followed by the offset. An all-zero hash marks
+ * an empty slot. This hash table does not support deletes.
+ *
+ * @param memory The amount of memory this map can use
+ */
+@nonthreadsafe
+class OpenAddressingOffsetMap(val memory: Long) extends OffsetMap {
+  import OpenAddressingOffsetMap._
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = math.min(memory / BytesPerEntry, Int.MaxValue.toLong).toInt
+
+  require(slots > 0, s"Offset map memory $memory is too small to hold a single entry")
+
+  private val chunks: Array[ByteBuffer] = {
+    val numChunks = ((slots.toLong + SlotsPerChunk - 1) / SlotsPerChunk).toInt
+    Array.tabulate(numChunks) { i =>
+      val chunkSlots = math.min(SlotsPerChunk.toLong, slots.toLong - i.toLong * SlotsPerChunk).toInt
+      ByteBuffer.allocateDirect(chunkSlots * BytesPerEntry)
+    }
+  }
+
+  /* the two halves of the hash of the last key passed to put or get */
+  private var hash1 = 0L
+  private var hash2 = 0L
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* number of lookups on the map */
+  private var lookups = 0L
+
+  /* the number of probes for all lookups */
+  private var probes = 0L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  /**
+   * Associate this offset to the given key.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long): Unit = {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    lookups += 1
+    hashKey(key)
+    var h1 = hash1
+    var h2 = hash2
+    var value = offset
+    var slot = homeSlot(h1)
+    var distance = 0
+    var inserting = false
+    while (true) {
+      probes += 1
+      val chunk = chunks(slot >>> ChunkShift)
+      val pos = (slot & ChunkMask) * BytesPerEntry
+      val residentH1 = chunk.getLong(pos)
+      val residentH2 = chunk.getLong(pos + 8)
+      if (residentH1 == 0L && residentH2 == 0L) {
+        writeEntry(chunk, pos, h1, h2, value)
+        entries += 1
+        lastOffset = offset
+        return
+      }
+      if (!inserting && residentH1 == h1 && residentH2 == h2) {
+        // we found an existing entry, overwrite it and return (size does not change)
+        chunk.putLong(pos + 16, value)
+        lastOffset = offset
+        return
+      }
+      val residentDistance = distanceFromHome(homeSlot(residentH1), slot)
+      if (residentDistance < distance) {
+        // the resident entry is closer to its home slot than the one being placed, so take its slot and
+        // continue placing the displaced entry. A new key is never present further along the probe sequence.
+        val residentValue = chunk.getLong(pos + 16)
+        writeEntry(chunk, pos, h1, h2, value)
+        h1 = residentH1
+        h2 = residentH2
+        value = residentValue
+        distance = residentDistance
+        inserting = true
+      }
+      slot = nextSlot(slot)
+      distance += 1
+    }
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    lookups += 1
+    hashKey(key)
+    var slot = homeSlot(hash1)
+    var distance = 0
+    while (distance < slots) {
+      probes += 1
+      val chunk = chunks(slot >>> ChunkShift)
+      val pos = (slot & ChunkMask) * BytesPerEntry
+      val residentH1 = chunk.getLong(pos)
+      val residentH2 = chunk.getLong(pos + 8)
+      if (residentH1 == 0L && residentH2 == 0L)
+        return -1L
+      if (residentH1 == hash1 && residentH2 == hash2)
+        return chunk.getLong(pos + 16)
+      // with Robin Hood probing the key would have displaced any entry closer to its home slot
+      if (distanceFromHome(homeSlot(residentH1), slot) < distance)
+        return -1L
+      slot = nextSlot(slot)
+      distance += 1
+    }
+    -1L
+  }
+
+  override def clear(): Unit = {
+    this.entries = 0
+    this.lookups = 0L
+    this.probes = 0L
+    this.lastOffset = -1L
+    chunks.foreach { chunk =>
+      var pos = 0
+      while (pos < chunk.capacity) {
+        chunk.putLong(pos, 0L)
+        pos += 8
+      }
+    }
+  }
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The average number of slots probed per lookup beyond the first
+   */
+  def collisionRate: Double =
+    (this.probes - this.lookups) / this.lookups.toDouble
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  override def updateLatestOffset(offset: Long): Unit = {
+    lastOffset = offset
+  }
+
+  private def writeEntry(chunk: ByteBuffer, pos: Int, h1: Long, h2: Long, value: Long): Unit = {
+    chunk.putLong(pos, h1)
+    chunk.putLong(pos + 8, h2)
+    chunk.putLong(pos + 16, value)
+  }
+
+  /**
+   * Map the upper half of the hash onto [0, slots) without a division
+   */
+  private def homeSlot(h1: Long): Int = (((h1 >>> 32) * slots) >>> 32).toInt
+
+  private def nextSlot(slot: Int): Int = if (slot + 1 == slots) 0 else slot + 1
+
+  private def distanceFromHome(home: Int, slot: Int): Int =
+    if (slot >= home) slot - home else slot + slots - home
+
+  /**
+   * Compute the MurmurHash3 x64/128 hash of the remaining bytes of the key into hash1 and hash2 without modifying
+   * the position of the key. A hash of all zeros is remapped since it marks empty slots.
+   */
+  private def hashKey(key: ByteBuffer): Unit = {
+    val start = key.position()
+    val length = key.remaining()
+    val littleEndian = key.order() == ByteOrder.LITTLE_ENDIAN
+    var h1 = Seed
+    var h2 = Seed
+
+    val blockEnd = start + (length & ~15)
+    var i = start
+    while (i < blockEnd) {
+      var k1 = if (littleEndian) key.getLong(i) else java.lang.Long.reverseBytes(key.getLong(i))
+      var k2 = if (littleEndian) key.getLong(i + 8) else java.lang.Long.reverseBytes(key.getLong(i + 8))
+
+      k1 *= C1; k1 = java.lang.Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1
+      h1 = java.lang.Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729
+
+      k2 *= C2; k2 = java.lang.Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2
+      h2 = java.lang.Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5
+      i += 16
+    }
+
+    var k1 = 0L
+    var k2 = 0L
+    val tail = length & 15
+    var j = tail - 1
+    while (j >= 8) {
+      k2 ^= (key.get(blockEnd + j) & 0xffL) << ((j - 8) * 8)
+      j -= 1
+    }
+    while (j >= 0) {
+      k1 ^= (key.get(blockEnd + j) & 0xffL) << (j * 8)
+      j -= 1
+    }
+    if (tail > 8) {
+      k2 *= C2; k2 = java.lang.Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2
+    }
+    if (tail > 0) {
+      k1 *= C1; k1 = java.lang.Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1
+    }
+
+    h1 ^= length
+    h2 ^= length
+    h1 += h2
+    h2 += h1
+    h1 = fmix64(h1)
+    h2 = fmix64(h2)
+    h1 += h2
+    h2 += h1
+
+    if (h1 == 0L && h2 == 0L)
+      h2 = 1L
+    hash1 = h1
+    hash2 = h2
+  }
+}
+
+object OpenAddressingOffsetMap {
+  /* the two halves of the 128-bit hash plus an 8 byte offset */
+  val BytesPerEntry = 24
+
+  /* each direct buffer holds 2^25 entries (768 MB) so that slot lookups need only a shift and a mask */
+  private val ChunkShift = 25
+  private val SlotsPerChunk = 1 << ChunkShift
+  private val ChunkMask = SlotsPerChunk - 1
+
+  private val Seed = 0x9747b28cL
+  private val C1 = 0x87c37b91114253d5L
+  private val C2 = 0x4cf5ad432745937fL
+
+  private def fmix64(h: Long): Long = {
+    var k = h
+    k ^= k >>> 33
+    k *= 0xff51afd7ed558ccdL
+    k ^= k >>> 33
+    k *= 0xc4ceb9fe1a85ec53L
+    k ^= k >>> 33
+    k
+  }
+}
@@ -20,8 +20,9 @@ import java.io.File
 import java.nio.ByteBuffer
 import java.nio.channels.FileChannel
 import java.nio.file.{Files, StandardOpenOption}
-import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.{ConcurrentSkipListMap, TimeUnit}
 import kafka.log.Log.offsetFromFile
+import kafka.metrics.{KafkaMetricsGroup, KafkaTimer}
 import kafka.server.LogOffsetMetadata
 import kafka.utils.{Logging, nonthreadsafe, threadsafe}
 import org.apache.kafka.common.{KafkaException, TopicPartition}
@@ -346,8 +347,19 @@ private[log] class ProducerAppendInfo(val topicPartition: TopicPartition,
   }
 }
 
+/**
+ * The contents of a producer state snapshot file. A full snapshot contains every producer. A delta snapshot only
+ * contains the producers updated and removed since the full snapshot at `baseOffset` and is applied on top of it.
+ */
+case class ProducerSnapshot(baseOffset: Option[Long],
+                            entries: Iterable[ProducerStateEntry],
+                            removedProducerIds: Iterable[Long]) {
+  def isDelta: Boolean = baseOffset.isDefined
+}
+
 object ProducerStateManager {
   private val ProducerSnapshotVersion: Short = 1
+  private val ProducerSnapshotDeltaVersion: Short = 2
   private val VersionField = "version"
   private val CrcField = "crc"
   private val ProducerIdField = "producer_id"
@@ -359,10 +371,14 @@ object ProducerStateManager {
   private val ProducerEntriesField = "producer_entries"
   private val CoordinatorEpochField = "coordinator_epoch"
   private val CurrentTxnFirstOffsetField = "current_txn_first_offset"
+  private val BaseOffsetField = "base_offset"
+  private val RemovedProducerIdsField = "removed_producer_ids"
 
   private val VersionOffset = 0
   private val CrcOffset = VersionOffset + 2
   private val ProducerEntriesOffset = CrcOffset + 4
+  // the base offset of a delta snapshot is the first field covered by the CRC
+  private val BaseOffsetOffset = ProducerEntriesOffset
 
   val ProducerSnapshotEntrySchema = new Schema(
     new Field(ProducerIdField, Type.INT64, "The producer ID"),
@@ -377,14 +393,27 @@ object ProducerStateManager {
     new Field(VersionField, Type.INT16, "Version of the snapshot file"),
     new Field(CrcField, Type.UNSIGNED_INT32, "CRC of the snapshot data"),
     new Field(ProducerEntriesField, new ArrayOf(ProducerSnapshotEntrySchema), "The entries in the producer table"))
+  val PidSnapshotDeltaSchema = new Schema(
+    new Field(VersionField, Type.INT16, "Version of the snapshot file"),
+    new Field(CrcField, Type.UNSIGNED_INT32, "CRC of the snapshot data"),
+    new Field(BaseOffsetField, Type.INT64, "The offset of the full snapshot this delta applies to"),
+    new Field(ProducerEntriesField, new ArrayOf(ProducerSnapshotEntrySchema),
+      "The entries of the producers updated since the full snapshot"),
+    new Field(RemovedProducerIdsField, new ArrayOf(Type.INT64), "The producers removed since the full snapshot"))
 
-  def readSnapshot(file: File): Iterable[ProducerStateEntry] = {
+  /**
+   * Read the producer entries of a snapshot file. For a delta snapshot these are only the updated producers.
+   */
+  def readSnapshot(file: File): Iterable[ProducerStateEntry] = readSnapshotFile(file).entries
+
+  def readSnapshotFile(file: File): ProducerSnapshot = {
     try {
       val buffer = Files.readAllBytes(file.toPath)
-      val struct = PidSnapshotMapSchema.read(ByteBuffer.wrap(buffer))
+      val isDelta = buffer.length >= CrcOffset && ByteBuffer.wrap(buffer).getShort(VersionOffset) == ProducerSnapshotDeltaVersion
+      val struct = (if (isDelta) PidSnapshotDeltaSchema else PidSnapshotMapSchema).read(ByteBuffer.wrap(buffer))
 
       val version = struct.getShort(VersionField)
-      if (version != ProducerSnapshotVersion)
+      if (version != ProducerSnapshotVersion && version != ProducerSnapshotDeltaVersion)
         throw new CorruptSnapshotException(s"Snapshot contained an unknown file version $version")
 
       val crc = struct.getUnsignedInt(CrcField)
@@ -393,7 +422,7 @@ object ProducerStateManager {
         throw new CorruptSnapshotException(s"Snapshot is corrupt (CRC is no longer valid). " +
           s"Stored crc: $crc. Computed crc: $computedCrc")
 
-      struct.getArray(ProducerEntriesField).map { producerEntryObj =>
+      val entries = struct.getArray(ProducerEntriesField).map { producerEntryObj =>
         val producerEntryStruct = producerEntryObj.asInstanceOf[Struct]
         val producerId = producerEntryStruct.getLong(ProducerIdField)
         val producerEpoch = producerEntryStruct.getShort(ProducerEpochField)
@@ -411,20 +440,62 @@ object ProducerStateManager {
           coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
         newEntry
       }
+
+      if (isDelta)
+        ProducerSnapshot(Some(struct.getLong(BaseOffsetField)), entries,
+          struct.getArray(RemovedProducerIdsField).map(_.asInstanceOf[Long]))
+      else
+        ProducerSnapshot(None, entries, Seq.empty)
     } catch {
       case e: SchemaException =>
         throw new CorruptSnapshotException(s"Snapshot failed schema validation: ${e.getMessage}")
     }
   }
 
-  private def writeSnapshot(file: File, entries: mutable.Map[Long, ProducerStateEntry]): Unit = {
-    val struct = new Struct(PidSnapshotMapSchema)
-    struct.set(VersionField, ProducerSnapshotVersion)
+  /**
+   * Read only the header of a snapshot file to find out whether it is a delta snapshot, without validating it.
+   *
+   * @return The offset of the full snapshot the delta applies to, or None for a full or unreadable snapshot
+   */
+  private def readSnapshotBaseOffset(file: File): Option[Long] = {
+    try {
+      val fileChannel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+      try {
+        val header = ByteBuffer.allocate(BaseOffsetOffset + 8)
+        while (header.hasRemaining && fileChannel.read(header) >= 0) {}
+        if (!header.hasRemaining && header.getShort(VersionOffset) == ProducerSnapshotDeltaVersion)
+          Some(header.getLong(BaseOffsetOffset))
+        else
+          None
+      } finally {
+        fileChannel.close()
+      }
+    } catch {
+      case _: java.io.IOException => None
+    }
+  }
+
+  /**
+   * Write a full snapshot if `baseOffset` is not defined, otherwise a delta snapshot on top of the full snapshot
+   * at `baseOffset`.
+   *
+   * @return The size of the snapshot in bytes
+   */
+  private def writeSnapshot(file: File,
+                            baseOffset: Option[Long],
+                            entries: Iterable[ProducerStateEntry],
+                            removedProducerIds: Iterable[Long]): Int = {
+    val struct = new Struct(if (baseOffset.isDefined) PidSnapshotDeltaSchema else PidSnapshotMapSchema)
+    struct.set(VersionField, if (baseOffset.isDefined) ProducerSnapshotDeltaVersion else ProducerSnapshotVersion)
     struct.set(CrcField, 0L) // we'll fill this after writing the entries
+    baseOffset.foreach { offset =>
+      struct.set(BaseOffsetField, offset)
+      struct.set(RemovedProducerIdsField, removedProducerIds.map(Long.box).toArray[AnyRef])
+    }
     val entriesArray = entries.map {
-      case (producerId, entry) =>
+      entry =>
         val producerEntryStruct = struct.instance(ProducerEntriesField)
-        producerEntryStruct.set(ProducerIdField, producerId)
+        producerEntryStruct.set(ProducerIdField, entry.producerId)
           .set(ProducerEpochField, entry.producerEpoch)
           .set(LastSequenceField, entry.lastSeq)
           .set(LastOffsetField, entry.lastDataOffset)
@@ -444,13 +515,15 @@ object ProducerStateManager {
     val crc = Crc32C.compute(buffer, ProducerEntriesOffset, buffer.limit() - ProducerEntriesOffset)
     ByteUtils.writeUnsignedInt(buffer, CrcOffset, crc)
 
-    val fileChannel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+    val fileChannel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING)
     try {
       fileChannel.write(buffer)
       fileChannel.force(true)
     } finally {
       fileChannel.close()
     }
+    buffer.limit()
   }
 
   private def isSnapshotFile(file: File): Boolean = file.getName.endsWith(Log.ProducerSnapshotFileSuffix)
@@ -480,21 +553,44 @@ object ProducerStateManager {
  * age. This ensures that producer ids will not be expired until either the max expiration time has been reached,
  * or if the topic also is configured for deletion, the segment containing the last written offset has
  * been deleted.
+ *
+ * Snapshots are either full or deltas. A delta snapshot only stores the producers updated or removed since the latest
+ * full snapshot, so that taking a snapshot on every segment roll does not scale with the number of producers. Every
+ * `fullSnapshotInterval` snapshots, or once a delta would no longer be small, a new full snapshot is taken. A full
+ * snapshot is kept on disk as long as a delta based on it is retained, even once its own segment has been deleted.
  */
 @nonthreadsafe
 class ProducerStateManager(val topicPartition: TopicPartition,
                            @volatile var _logDir: File,
                            val maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-                           val time: Time = Time.SYSTEM) extends Logging {
+                           val time: Time = Time.SYSTEM,
+                           val fullSnapshotInterval: Int = 1) extends Logging {
   import ProducerStateManager._
   import java.util
 
   this.logIdent = s"[ProducerStateManager partition=$topicPartition] "
 
+  // guards the snapshot files against concurrent deletion by the segment deletion task
+  private val snapshotLock = new Object
+
+  // the offset of the full snapshot each delta snapshot in `snapshots` is based on
+  private val deltaSnapshotBases = new ConcurrentSkipListMap[java.lang.Long, java.lang.Long]()
+
+  // full snapshots no longer in `snapshots` which are kept since delta snapshots are based on them
+  private val retainedBaseSnapshots = new ConcurrentSkipListMap[java.lang.Long, SnapshotFile]()
+
   private var snapshots: ConcurrentSkipListMap[java.lang.Long, SnapshotFile] = locally {
     loadSnapshots()
   }
 
+  // the full snapshot that new delta snapshots are based on and the number of deltas taken since
+  private var fullSnapshotOffset: Option[Long] = None
+  private var deltaSnapshotsSinceFull = 0
+
+  // the producers updated and removed since the full snapshot
+  private val updatedProducerIds = mutable.Set.empty[Long]
+  private val removedProducerIds = mutable.Set.empty[Long]
+
   private val producers = mutable.Map.empty[Long, ProducerStateEntry]
   private var lastMapOffset = 0L
   private var lastSnapOffset = 0L
@@ -510,8 +606,11 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    */
   private def loadSnapshots(): ConcurrentSkipListMap[java.lang.Long, SnapshotFile] = {
     val tm = new ConcurrentSkipListMap[java.lang.Long, SnapshotFile]()
+    deltaSnapshotBases.clear()
+    retainedBaseSnapshots.clear()
     for (f <- listSnapshotFiles(_logDir)) {
       tm.put(f.offset, f)
+      readSnapshotBaseOffset(f.file).foreach(baseOffset => deltaSnapshotBases.put(f.offset, baseOffset))
     }
     tm
   }
@@ -524,10 +623,11 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    * The goal here is to remove any snapshot files which do not have an associated segment file, but not to remove the
    * largest stray snapshot file which was emitted during clean shutdown.
    */
-  private[log] def removeStraySnapshots(segmentBaseOffsets: Seq[Long]): Unit = {
+  private[log] def removeStraySnapshots(segmentBaseOffsets: Seq[Long]): Unit = snapshotLock synchronized {
     val maxSegmentBaseOffset = if (segmentBaseOffsets.isEmpty) None else Some(segmentBaseOffsets.max)
     val baseOffsets = segmentBaseOffsets.toSet
     var latestStraySnapshot: Option[SnapshotFile] = None
+    val straySnapshots = mutable.ListBuffer.empty[SnapshotFile]
 
     val ss = loadSnapshots()
     for (snapshot <- ss.values().asScala) {
@@ -536,7 +636,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         case Some(prev) =>
           if (!baseOffsets.contains(key)) {
             // this snapshot is now the largest stray snapshot.
-            prev.deleteIfExists()
+            straySnapshots += prev
             ss.remove(prev.offset)
             latestStraySnapshot = Some(snapshot)
           }
@@ -551,11 +651,13 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     // delete the largestStraySnapshot.
     for (strayOffset <- latestStraySnapshot.map(_.offset); maxOffset <- maxSegmentBaseOffset) {
       if (strayOffset < maxOffset) {
-        Option(ss.remove(strayOffset)).foreach(_.deleteIfExists())
+        Option(ss.remove(strayOffset)).foreach(straySnapshots += _)
       }
     }
 
     this.snapshots = ss
+    // stray full snapshots which remaining deltas are based on are retained
+    straySnapshots.foreach(releaseSnapshot)
   }
 
   /**
@@ -609,10 +711,20 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         case Some(snapshot) =>
           try {
             info(s"Loading producer state from snapshot file '$snapshot'")
-            val loadedProducers = readSnapshot(snapshot.file).filter { producerEntry => !isProducerExpired(currentTime, producerEntry) }
+            val (baseOffset, baseProducerIds, deltaProducerIds, entries) = readSnapshotWithBase(snapshot)
+            val loadedProducers = entries.filter { producerEntry => !isProducerExpired(currentTime, producerEntry) }
             loadedProducers.foreach(loadProducerEntry)
             lastSnapOffset = snapshot.offset
             lastMapOffset = lastSnapOffset
+
+            // track the changes relative to the full snapshot so that the next snapshot can be a delta
+            fullSnapshotOffset = Some(baseOffset)
+            deltaSnapshotsSinceFull = deltaSnapshotBases.headMap(snapshot.offset, true).values.asScala.count(_ == baseOffset)
+            updatedProducerIds.clear()
+            updatedProducerIds ++= deltaProducerIds.filter(producers.contains)
+            removedProducerIds.clear()
+            removedProducerIds ++= baseProducerIds
+            removedProducerIds --= producers.keys
             return
           } catch {
             case e: CorruptSnapshotException =>
@@ -622,15 +734,52 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         case None =>
           lastSnapOffset = logStartOffset
           lastMapOffset = logStartOffset
+          resetSnapshotTracking()
           return
       }
     }
   }
 
+  /**
+   * Read the producer entries as of the given snapshot, applying a delta snapshot on top of its full snapshot.
+   *
+   * @return The offset of the full snapshot, the producers in the full snapshot, the producers in the delta snapshot
+   *         and the resulting entries
+   */
+  private def readSnapshotWithBase(snapshot: SnapshotFile): (Long, Set[Long], Set[Long], Iterable[ProducerStateEntry]) = {
+    val snapshotContents = readSnapshotFile(snapshot.file)
+    snapshotContents.baseOffset match {
+      case None =>
+        (snapshot.offset, snapshotContents.entries.map(_.producerId).toSet, Set.empty, snapshotContents.entries)
+      case Some(baseOffset) =>
+        val baseSnapshot = Option(snapshots.get(baseOffset)).orElse(Option(retainedBaseSnapshots.get(baseOffset))).getOrElse {
+          throw new CorruptSnapshotException(s"Full snapshot at offset $baseOffset of delta snapshot is missing")
+        }
+        val baseContents = readSnapshotFile(baseSnapshot.file)
+        if (baseContents.isDelta)
+          throw new CorruptSnapshotException(s"Snapshot at offset $baseOffset of delta snapshot is not a full snapshot")
+        val entries = mutable.LinkedHashMap.empty[Long, ProducerStateEntry]
+        baseContents.entries.foreach(entry => entries.put(entry.producerId, entry))
+        entries --= snapshotContents.removedProducerIds
+        snapshotContents.entries.foreach(entry => entries.put(entry.producerId, entry))
+        (baseOffset, baseContents.entries.map(_.producerId).toSet, snapshotContents.entries.map(_.producerId).toSet,
+          entries.values)
+    }
+  }
+
+  private def resetSnapshotTracking(): Unit = {
+    fullSnapshotOffset = None
+    deltaSnapshotsSinceFull = 0
+    updatedProducerIds.clear()
+    removedProducerIds.clear()
+  }
+
   // visible for testing
   private[log] def loadProducerEntry(entry: ProducerStateEntry): Unit = {
     val producerId = entry.producerId
     producers.put(producerId, entry)
+    updatedProducerIds += producerId
+    removedProducerIds -= producerId
     entry.currentTxnFirstOffset.foreach { offset =>
       ongoingTxns.put(offset, new TxnMetadata(producerId, offset))
     }
@@ -643,7 +792,10 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    * Expire any producer ids which have been idle longer than the configured maximum expiration timeout.
    */
   def removeExpiredProducers(currentTimeMs: Long): Unit = {
-    producers --= producers.filter { case (_, lastEntry) => isProducerExpired(currentTimeMs, lastEntry) }.keySet
+    val expiredProducerIds = producers.filter { case (_, lastEntry) => isProducerExpired(currentTimeMs, lastEntry) }.keySet
+    producers --= expiredProducerIds
+    updatedProducerIds --= expiredProducerIds
+    removedProducerIds ++= expiredProducerIds
   }
 
   /**
@@ -689,6 +841,8 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         s"for partition $topicPartition")
 
     trace(s"Updated producer ${appendInfo.producerId} state to $appendInfo")
+    updatedProducerIds += appendInfo.producerId
+    removedProducerIds -= appendInfo.producerId
     val updatedEntry = appendInfo.toEntry
     producers.get(appendInfo.producerId) match {
       case Some(currentEntry) =>
@@ -720,22 +874,61 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     if (lastMapOffset > lastSnapOffset) {
       val snapshotFile = SnapshotFile(Log.producerSnapshotFile(_logDir, lastMapOffset))
       val start = time.hiResClockMs()
-      writeSnapshot(snapshotFile.file, producers)
-      info(s"Wrote producer snapshot at offset $lastMapOffset with ${producers.size} producer ids in ${time.hiResClockMs() - start} ms.")
-
-      snapshots.put(snapshotFile.offset, snapshotFile)
+      snapshotLock synchronized {
+        fullSnapshotOffset.filter(canTakeDeltaSnapshot) match {
+          case Some(baseOffset) =>
+            val size = ProducerSnapshotStats.snapshotWriteTimer.time {
+              writeSnapshot(snapshotFile.file, Some(baseOffset), updatedProducerIds.toSeq.flatMap(producers.get),
+                removedProducerIds)
+            }
+            ProducerSnapshotStats.deltaSnapshotSizeHist.update(size)
+            info(s"Wrote delta producer snapshot at offset $lastMapOffset based on offset $baseOffset with " +
+              s"${updatedProducerIds.size} updated and ${removedProducerIds.size} removed producer ids in " +
+              s"${time.hiResClockMs() - start} ms.")
+            deltaSnapshotBases.put(snapshotFile.offset, baseOffset)
+            deltaSnapshotsSinceFull += 1
+
+          case None =>
+            val size = ProducerSnapshotStats.snapshotWriteTimer.time {
+              writeSnapshot(snapshotFile.file, None, producers.values, Seq.empty)
+            }
+            ProducerSnapshotStats.fullSnapshotSizeHist.update(size)
+            info(s"Wrote producer snapshot at offset $lastMapOffset with ${producers.size} producer ids in ${time.hiResClockMs() - start} ms.")
+            deltaSnapshotBases.remove(snapshotFile.offset)
+            retainedBaseSnapshots.remove(snapshotFile.offset)
+            fullSnapshotOffset = Some(snapshotFile.offset)
+            deltaSnapshotsSinceFull = 0
+            updatedProducerIds.clear()
+            removedProducerIds.clear()
+        }
+        snapshots.put(snapshotFile.offset, snapshotFile)
+      }
 
       // Update the last snap offset according to the serialized map
       lastSnapOffset = lastMapOffset
     }
   }
 
+  /**
+   * A delta snapshot is taken if the full snapshot still exists, the interval between full snapshots has not been
+   * reached and the delta is less than half the size of a full snapshot.
+   */
+  private def canTakeDeltaSnapshot(baseOffset: Long): Boolean = {
+    deltaSnapshotsSinceFull + 1 < fullSnapshotInterval &&
+      baseOffset < lastMapOffset &&
+      (snapshots.containsKey(baseOffset) || retainedBaseSnapshots.containsKey(baseOffset)) &&
+      // never overwrite a full snapshot that deltas are based on
+      !deltaSnapshotBases.containsValue(lastMapOffset) &&
+      2 * (updatedProducerIds.size + removedProducerIds.size) < producers.size
+  }
+
   /**
    * Update the parentDir for this ProducerStateManager and all of the snapshot files which it manages.
    */
   def updateParentDir(parentDir: File): Unit = {
     _logDir = parentDir
     snapshots.forEach((_, s) => s.updateParentDir(parentDir))
+    retainedBaseSnapshots.forEach((_, s) => s.updateParentDir(parentDir))
   }
 
   /**
@@ -783,6 +976,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     }
     lastSnapOffset = 0L
     lastMapOffset = offset
+    resetSnapshotTracking()
   }
 
   /**
@@ -828,11 +1022,36 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    * Removes the producer state snapshot file metadata corresponding to the provided offset if it exists from this
    * ProducerStateManager, and deletes the backing snapshot file.
    */
-  private[log] def removeAndDeleteSnapshot(snapshotOffset: Long): Unit = {
-    Option(snapshots.remove(snapshotOffset)).foreach(_.deleteIfExists())
+  private[log] def removeAndDeleteSnapshot(snapshotOffset: Long): Unit = snapshotLock synchronized {
+    Option(snapshots.remove(snapshotOffset)).foreach(releaseSnapshot)
+  }
+
+  /**
+   * Delete a snapshot that has been removed from `snapshots`, unless it is a full snapshot that a remaining delta is
+   * based on. Retained full snapshots are deleted once no delta is based on them anymore.
+   */
+  private def releaseSnapshot(snapshot: SnapshotFile): Unit = snapshotLock synchronized {
+    deltaSnapshotBases.remove(snapshot.offset)
+    if (deltaSnapshotBases.containsValue(snapshot.offset))
+      retainedBaseSnapshots.put(snapshot.offset, snapshot)
+    else
+      snapshot.deleteIfExists()
+
+    retainedBaseSnapshots.values.asScala.toList.foreach { baseSnapshot =>
+      if (!deltaSnapshotBases.containsValue(baseSnapshot.offset)) {
+        retainedBaseSnapshots.remove(baseSnapshot.offset)
+        baseSnapshot.deleteIfExists()
+      }
+    }
   }
 }
 
+object ProducerSnapshotStats extends KafkaMetricsGroup {
+  val snapshotWriteTimer = new KafkaTimer(newTimer("ProducerSnapshotWriteRateAndTimeMs", TimeUnit.MILLISECONDS, TimeUnit.SECONDS))
+  val fullSnapshotSizeHist = newHistogram("ProducerSnapshotSizeBytes", tags = Map("type" -> "full"))
+  val deltaSnapshotSizeHist = newHistogram("ProducerSnapshotSizeBytes", tags = Map("type" -> "delta"))
+}
+
 case class SnapshotFile private[log] (private var _file: File,
                                       offset: Long) {
   def deleteIfExists(): Boolean = {
@@ -100,6 +100,10 @@ class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable:
     TimestampOffset(timestamp(buffer, n), baseOffset + relativeOffset(buffer, n))
   }
 
+  override protected def parseKey(buffer: ByteBuffer, n: Int): Long = timestamp(buffer, n)
+
+  override protected def parseValue(buffer: ByteBuffer, n: Int): Long = baseOffset + relativeOffset(buffer, n)
+
   /**
    * Attempt to append a time index entry to the time index.
    * The new entry is appended only if both the timestamp and offset are greater than the last appended timestamp and
@@ -150,8 +154,9 @@ class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable:
    */
   def lookup(targetTimestamp: Long): TimestampOffset = {
     maybeLock(lock) {
-      val idx = mmap.duplicate
-      val slot = largestLowerBoundSlotFor(idx, targetTimestamp, IndexSearchType.KEY)
+      val entries = _entries
+      val idx = mmapForRead
+      val slot = largestLowerBoundSlotFor(idx, entries, targetTimestamp, IndexSearchType.KEY)
       if (slot == -1)
         TimestampOffset(RecordBatch.NO_TIMESTAMP, baseOffset)
       else
@@ -168,7 +173,7 @@ class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable:
   override def truncateTo(offset: Long): Unit = {
     inLock(lock) {
       val idx = mmap.duplicate
-      val slot = largestLowerBoundSlotFor(idx, offset, IndexSearchType.VALUE)
+      val slot = largestLowerBoundSlotFor(idx, _entries, offset, IndexSearchType.VALUE)
 
       /* There are 3 cases for choosing the new size
        * 1) if there is no entry in the index <= the offset, delete everything
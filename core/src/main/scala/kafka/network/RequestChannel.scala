@@ -20,6 +20,7 @@ package kafka.network
 import java.net.InetAddress
 import java.nio.ByteBuffer
 import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
 
 import com.fasterxml.jackson.databind.JsonNode
 import com.typesafe.scalalogging.Logger
@@ -48,13 +49,54 @@ object RequestChannel extends Logging {
 
   val RequestQueueSizeMetric = "RequestQueueSize"
   val ResponseQueueSizeMetric = "ResponseQueueSize"
+  val RequestQueueTimeMetric = "RequestQueueTimeMs"
+  val RequestHandlerBusyPercentMetric = "RequestHandlerBusyPercent"
   val ProcessorMetricTag = "processor"
+  val RequestClassMetricTag = "requestClass"
 
   def isRequestLoggingEnabled: Boolean = requestLogger.underlying.isDebugEnabled
 
+  // Read-only APIs whose requests may be processed concurrently with other such requests from the same connection
+  private val PipelinableApis = Set(ApiKeys.METADATA, ApiKeys.LIST_OFFSETS, ApiKeys.OFFSET_FETCH, ApiKeys.FIND_COORDINATOR,
+    ApiKeys.DESCRIBE_GROUPS, ApiKeys.LIST_GROUPS, ApiKeys.OFFSET_FOR_LEADER_EPOCH, ApiKeys.DESCRIBE_ACLS,
+    ApiKeys.DESCRIBE_CONFIGS, ApiKeys.DESCRIBE_LOG_DIRS, ApiKeys.DESCRIBE_DELEGATION_TOKEN,
+    ApiKeys.LIST_PARTITION_REASSIGNMENTS, ApiKeys.DESCRIBE_CLIENT_QUOTAS, ApiKeys.DESCRIBE_USER_SCRAM_CREDENTIALS,
+    ApiKeys.DESCRIBE_CLUSTER, ApiKeys.DESCRIBE_PRODUCERS, ApiKeys.DESCRIBE_TRANSACTIONS, ApiKeys.LIST_TRANSACTIONS)
+
+  private val BufferHandledFlag = 1
+  private val BufferResponseCompleteFlag = 2
+  private val BufferReleasableFlags = BufferHandledFlag | BufferResponseCompleteFlag
+
   sealed trait BaseRequest
   case object ShutdownRequest extends BaseRequest
 
+  /**
+   * The classes that data-plane requests are queued by when `request.class.weights` is set. Follower fetches and
+   * controller requests are grouped as replication traffic so that they are not queued behind client requests.
+   */
+  sealed abstract class RequestClass(val name: String) {
+    override def toString: String = name
+  }
+
+  object RequestClass {
+    case object Replication extends RequestClass("replication")
+    case object Produce extends RequestClass("produce")
+    case object Fetch extends RequestClass("fetch")
+    case object Other extends RequestClass("other")
+
+    val values: Seq[RequestClass] = Seq(Replication, Produce, Fetch, Other)
+
+    def forName(name: String): Option[RequestClass] = values.find(_.name == name)
+
+    def apply(request: Request): RequestClass = request.header.apiKey match {
+      case ApiKeys.FETCH =>
+        if (request.body[FetchRequest].isFromFollower) Replication else Fetch
+      case ApiKeys.PRODUCE => Produce
+      case ApiKeys.LEADER_AND_ISR | ApiKeys.STOP_REPLICA | ApiKeys.UPDATE_METADATA => Replication
+      case _ => Other
+    }
+  }
+
   case class Session(principal: KafkaPrincipal, clientAddress: InetAddress) {
     val sanitizedUser: String = Sanitizer.sanitize(principal.getName)
   }
@@ -95,6 +137,10 @@ object RequestChannel extends Logging {
     @volatile var apiThrottleTimeMs = 0L
     @volatile var temporaryMemoryBytes = 0L
     @volatile var recordNetworkThreadTimeCallback: Option[Long => Unit] = None
+    // Whether the request has been handled and whether its response is complete, for pools that reuse buffers
+    private val bufferReleaseFlags = new AtomicInteger(0)
+    // Position of the request on its connection, only assigned and read by the network thread when pipelining
+    private[network] var pipelineSequence = -1L
 
     val session = Session(context.principal, context.clientAddress)
 
@@ -121,14 +167,31 @@ object RequestChannel extends Logging {
 
     def isForwarded: Boolean = envelope.isDefined
 
-    def buildResponseSend(abstractResponse: AbstractResponse): Send = {
+    /**
+     * Whether the request may be processed concurrently with the other pipelinable requests from its connection. Only
+     * read-only requests qualify. Fetches qualify only when they neither use nor create a fetch session, since the
+     * session epoch orders the fetches of a session, and when they are not from a follower, since follower fetches
+     * update the replica state of the partitions.
+     */
+    def isPipelinable: Boolean = header.apiKey match {
+      case ApiKeys.FETCH =>
+        val fetchRequest = body[FetchRequest]
+        fetchRequest.metadata.epoch == FetchMetadata.FINAL_EPOCH && !fetchRequest.isFromFollower
+      case apiKey => PipelinableApis.contains(apiKey)
+    }
+
+    /**
+     * Serialize the response into a send, whose buffers are allocated from `responseMemoryPool`. The send is released
+     * once the response has been sent or dropped, see `updateRequestMetrics`.
+     */
+    def buildResponseSend(abstractResponse: AbstractResponse, responseMemoryPool: MemoryPool = MemoryPool.NONE): Send = {
       envelope match {
         case Some(request) =>
           val responseBytes = context.buildResponseEnvelopePayload(abstractResponse)
           val envelopeResponse = new EnvelopeResponse(responseBytes, Errors.NONE)
-          request.context.buildResponseSend(envelopeResponse)
+          request.context.buildResponseSend(envelopeResponse, responseMemoryPool)
         case None =>
-          context.buildResponseSend(abstractResponse)
+          context.buildResponseSend(abstractResponse, responseMemoryPool)
       }
     }
 
@@ -260,6 +323,41 @@ object RequestChannel extends Logging {
           messageConversionsTimeMs)
         requestLogger.debug("Completed request:" + desc.toString)
       }
+
+      releaseBufferAfterResponse()
+      response match {
+        case sendResponse: SendResponse => sendResponse.responseSend.release()
+        case _ =>
+      }
+    }
+
+    /**
+     * Release the buffer once the request has been handled. Pools that reuse released buffers require the buffer to
+     * be retained until the response is complete as well, since the request may still be read after it has been
+     * handled (e.g. when it is forwarded to the controller) and the response may complete before the request handler
+     * is done with the request.
+     */
+    def releaseBufferAfterHandling(): Unit = {
+      if (envelope.fold(memoryPool)(_.memoryPool).reusesReleasedBuffers)
+        markBufferReleasable(BufferHandledFlag)
+      else
+        releaseBuffer()
+    }
+
+    private def releaseBufferAfterResponse(): Unit = {
+      if (envelope.fold(memoryPool)(_.memoryPool).reusesReleasedBuffers)
+        markBufferReleasable(BufferResponseCompleteFlag)
+    }
+
+    private def markBufferReleasable(flag: Int): Unit = {
+      envelope match {
+        case Some(request) =>
+          request.markBufferReleasable(flag)
+        case None =>
+          val previousFlags = bufferReleaseFlags.getAndUpdate(_ | flag)
+          if ((previousFlags | flag) == BufferReleasableFlags && previousFlags != BufferReleasableFlags)
+            releaseBuffer()
+      }
     }
 
     def releaseBuffer(): Unit = {
@@ -330,14 +428,46 @@ object RequestChannel extends Logging {
 class RequestChannel(val queueSize: Int,
                      val metricNamePrefix: String,
                      time: Time,
-                     val metrics: RequestChannel.Metrics) extends KafkaMetricsGroup {
+                     val metrics: RequestChannel.Metrics,
+                     requestClassWeights: Map[RequestChannel.RequestClass, Int] = Map.empty,
+                     responseMemoryPool: MemoryPool = MemoryPool.NONE) extends KafkaMetricsGroup {
   import RequestChannel._
+  require(requestClassWeights.isEmpty || RequestClass.values.forall(requestClassWeights.contains),
+    s"Weights must be defined for all request classes: $requestClassWeights")
   private val requestQueue = new ArrayBlockingQueue[BaseRequest](queueSize)
+  // per-class queues, which replace `requestQueue` for requests when request class weights are configured
+  private val classQueues =
+    if (requestClassWeights.isEmpty) None
+    else Some(new WeightedRequestQueue(requestClassWeights, queueSize))
+  val requestClassesEnabled: Boolean = classQueues.isDefined
   private val processors = new ConcurrentHashMap[Int, Processor]()
   val requestQueueSizeMetricName = metricNamePrefix.concat(RequestQueueSizeMetric)
   val responseQueueSizeMetricName = metricNamePrefix.concat(ResponseQueueSizeMetric)
+  val requestQueueTimeMetricName = metricNamePrefix.concat(RequestQueueTimeMetric)
+  val requestHandlerBusyPercentMetricName = metricNamePrefix.concat(RequestHandlerBusyPercentMetric)
+
+  newGauge(requestQueueSizeMetricName, () => classQueues.map(_.size).getOrElse(requestQueue.size))
+
+  private class RequestClassMetrics(requestClass: RequestClass, queues: WeightedRequestQueue) {
+    private val tags = Map(RequestClassMetricTag -> requestClass.name)
 
-  newGauge(requestQueueSizeMetricName, () => requestQueue.size)
+    newGauge(requestQueueSizeMetricName, () => queues.size(requestClass), tags)
+    // time a request of this class spent in its queue
+    val queueTimeHist = newHistogram(requestQueueTimeMetricName, biased = true, tags)
+    // share of the request handler threads' time spent on this class, the remainder of the pool's idle percent
+    val handlerBusyMeter = newMeter(requestHandlerBusyPercentMetricName, "percent", TimeUnit.NANOSECONDS, tags)
+
+    def removeMetrics(): Unit = {
+      removeMetric(requestQueueSizeMetricName, tags)
+      removeMetric(requestQueueTimeMetricName, tags)
+      removeMetric(requestHandlerBusyPercentMetricName, tags)
+    }
+  }
+
+  private val requestClassMetrics: Map[RequestClass, RequestClassMetrics] = classQueues match {
+    case Some(queues) => requestClassWeights.keys.map(requestClass => requestClass -> new RequestClassMetrics(requestClass, queues)).toMap
+    case None => Map.empty
+  }
 
   newGauge(responseQueueSizeMetricName, () => {
     processors.values.asScala.foldLeft(0) {(total, processor) =>
@@ -360,7 +490,10 @@ class RequestChannel(val queueSize: Int,
 
   /** Send a request to be handled, potentially blocking until there is room in the queue for the request */
   def sendRequest(request: RequestChannel.Request): Unit = {
-    requestQueue.put(request)
+    classQueues match {
+      case Some(queues) => queues.put(RequestClass(request), request)
+      case None => requestQueue.put(request)
+    }
   }
 
   def closeConnection(
@@ -381,7 +514,7 @@ class RequestChannel(val queueSize: Int,
     updateErrorMetrics(request.header.apiKey, response.errorCounts.asScala)
     sendResponse(new RequestChannel.SendResponse(
       request,
-      request.buildResponseSend(response),
+      request.buildResponseSend(response, responseMemoryPool),
       request.responseNode(response),
       onComplete
     ))
@@ -435,16 +568,43 @@ class RequestChannel(val queueSize: Int,
     // are closed, so the response is dropped.
     if (processor != null) {
       processor.enqueueResponse(response)
+    } else {
+      response match {
+        case sendResponse: SendResponse => sendResponse.responseSend.release()
+        case _ =>
+      }
     }
   }
 
   /** Get the next request or block until specified time has elapsed */
-  def receiveRequest(timeout: Long): RequestChannel.BaseRequest =
-    requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+  def receiveRequest(timeout: Long): RequestChannel.BaseRequest = classQueues match {
+    case Some(queues) => recordQueueTime(queues.poll(timeout, TimeUnit.MILLISECONDS))
+    case None => requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+  }
 
   /** Get the next request or block until there is one */
-  def receiveRequest(): RequestChannel.BaseRequest =
-    requestQueue.take()
+  def receiveRequest(): RequestChannel.BaseRequest = classQueues match {
+    case Some(queues) => recordQueueTime(queues.take())
+    case None => requestQueue.take()
+  }
+
+  private def recordQueueTime(request: RequestChannel.BaseRequest): RequestChannel.BaseRequest = {
+    request match {
+      case r: RequestChannel.Request =>
+        val queueTimeMs = TimeUnit.NANOSECONDS.toMillis(math.max(time.nanoseconds - r.startTimeNanos, 0L))
+        requestClassMetrics(RequestClass(r)).queueTimeHist.update(queueTimeMs)
+      case _ =>
+    }
+    request
+  }
+
+  /**
+   * Record the time a handler thread spent on a request against the request's class. The time should already be
+   * discounted by the number of handler threads, as is done for the pool's aggregate idle meter.
+   */
+  def recordHandlerTime(request: RequestChannel.Request, handlerTimeNanos: Long): Unit = {
+    requestClassMetrics.get(RequestClass(request)).foreach(_.handlerBusyMeter.mark(handlerTimeNanos))
+  }
 
   def updateErrorMetrics(apiKey: ApiKeys, errors: collection.Map[Errors, Integer]): Unit = {
     errors.forKeyValue { (error, count) =>
@@ -454,14 +614,19 @@ class RequestChannel(val queueSize: Int,
 
   def clear(): Unit = {
     requestQueue.clear()
+    classQueues.foreach(_.clear())
   }
 
   def shutdown(): Unit = {
     clear()
     metrics.close()
+    requestClassMetrics.values.foreach(_.removeMetrics())
   }
 
-  def sendShutdownRequest(): Unit = requestQueue.put(ShutdownRequest)
+  def sendShutdownRequest(): Unit = classQueues match {
+    case Some(queues) => queues.put(RequestClass.Other, ShutdownRequest)
+    case None => requestQueue.put(ShutdownRequest)
+  }
 
 }
 
@@ -39,12 +39,13 @@ import kafka.utils._
 import org.apache.kafka.common.config.ConfigException
 import org.apache.kafka.common.config.internals.QuotaConfigs
 import org.apache.kafka.common.errors.InvalidRequestException
-import org.apache.kafka.common.memory.{MemoryPool, SimpleMemoryPool}
+import org.apache.kafka.common.memory.{MemoryPool, RecyclingMemoryPool, SimpleMemoryPool}
 import org.apache.kafka.common.metrics._
-import org.apache.kafka.common.metrics.stats.{Avg, CumulativeSum, Meter, Rate}
-import org.apache.kafka.common.network.KafkaChannel.ChannelMuteEvent
-import org.apache.kafka.common.network.{ChannelBuilder, ChannelBuilders, ClientInformation, KafkaChannel, ListenerName, ListenerReconfigurable, NetworkSend, Selectable, Send, Selector => KSelector}
-import org.apache.kafka.common.protocol.ApiKeys
+import org.apache.kafka.common.metrics.stats.{Avg, CumulativeSum, Max, Meter, Rate}
+import org.apache.kafka.common.network.KafkaChannel.{ChannelMuteEvent, ChannelMuteState}
+import org.apache.kafka.common.network.{ByteBufferSend, ChannelBuilder, ChannelBuilders, ClientInformation, KafkaChannel, ListenerName, ListenerReconfigurable, NetworkReceive, NetworkSend, Selectable, Send, Selector => KSelector}
+import org.apache.kafka.common.protocol.{ApiKeys, SendBuilder}
+import org.apache.kafka.common.record.MultiRecordsSend
 import org.apache.kafka.common.requests.{ApiVersionsRequest, RequestContext, RequestHeader}
 import org.apache.kafka.common.security.auth.SecurityProtocol
 import org.apache.kafka.common.utils.{KafkaThread, LogContext, Time, Utils}
@@ -93,11 +94,25 @@ class SocketServer(val config: KafkaConfig,
   private val memoryPoolDepletedPercentMetricName = metrics.metricName("MemoryPoolAvgDepletedPercent", MetricsGroup)
   private val memoryPoolDepletedTimeMetricName = metrics.metricName("MemoryPoolDepletedTimeTotal", MetricsGroup)
   memoryPoolSensor.add(new Meter(TimeUnit.MILLISECONDS, memoryPoolDepletedPercentMetricName, memoryPoolDepletedTimeMetricName))
-  private val memoryPool = if (config.queuedMaxBytes > 0) new SimpleMemoryPool(config.queuedMaxBytes, config.socketRequestMaxBytes, false, memoryPoolSensor) else MemoryPool.NONE
+  private val memoryPool =
+    if (config.socketRequestBufferPoolBytes > 0) {
+      val poolSize = if (config.queuedMaxBytes > 0) config.queuedMaxBytes else Long.MaxValue
+      new RecyclingMemoryPool(poolSize, config.socketRequestMaxBytes, false, memoryPoolSensor,
+        config.socketRequestBufferPoolBytes, config.socketRequestBufferPoolDirect)
+    }
+    else if (config.queuedMaxBytes > 0) new SimpleMemoryPool(config.queuedMaxBytes, config.socketRequestMaxBytes, false, memoryPoolSensor)
+    else MemoryPool.NONE
+  // responses are serialized into chunks recycled by this pool, its size does not limit the bytes in use
+  private val responseMemoryPool =
+    if (config.socketResponseBufferPoolBytes > 0)
+      new RecyclingMemoryPool(Long.MaxValue, SendBuilder.POOLED_CHUNK_SIZE, false, null,
+        config.socketResponseBufferPoolBytes, false)
+    else MemoryPool.NONE
   // data-plane
   private val dataPlaneProcessors = new ConcurrentHashMap[Int, Processor]()
   private[network] val dataPlaneAcceptors = new ConcurrentHashMap[EndPoint, Acceptor]()
-  val dataPlaneRequestChannel = new RequestChannel(maxQueuedRequests, DataPlaneMetricPrefix, time, apiVersionManager.newRequestMetrics)
+  val dataPlaneRequestChannel = new RequestChannel(maxQueuedRequests, DataPlaneMetricPrefix, time,
+    apiVersionManager.newRequestMetrics, config.requestClassWeights, responseMemoryPool)
   // control-plane
   private var controlPlaneProcessorOpt : Option[Processor] = None
   private[network] var controlPlaneAcceptorOpt : Option[Acceptor] = None
@@ -152,6 +167,21 @@ class SocketServer(val config: KafkaConfig,
     })
     newGauge("MemoryPoolAvailable", () => memoryPool.availableMemory)
     newGauge("MemoryPoolUsed", () => memoryPool.size() - memoryPool.availableMemory)
+    memoryPool match {
+      case recyclingPool: RecyclingMemoryPool =>
+        newGauge("MemoryPoolFreeBytes", () => recyclingPool.freeBytes)
+        newGauge("MemoryPoolAllocationHits", () => recyclingPool.hits)
+        newGauge("MemoryPoolAllocationMisses", () => recyclingPool.misses)
+      case _ =>
+    }
+    responseMemoryPool match {
+      case recyclingPool: RecyclingMemoryPool =>
+        newGauge("ResponseMemoryPoolUsed", () => recyclingPool.size() - recyclingPool.availableMemory)
+        newGauge("ResponseMemoryPoolFreeBytes", () => recyclingPool.freeBytes)
+        newGauge("ResponseMemoryPoolAllocationHits", () => recyclingPool.hits)
+        newGauge("ResponseMemoryPoolAllocationMisses", () => recyclingPool.misses)
+      case _ =>
+    }
     newGauge(s"${DataPlaneMetricPrefix}ExpiredConnectionsKilledCount", () => SocketServer.this.synchronized {
       val expiredConnectionsKilledCountMetricNames = dataPlaneProcessors.values.asScala.iterator.map { p =>
         metrics.metricName("expired-connections-killed-count", MetricsGroup, p.metricTags)
@@ -285,7 +315,19 @@ class SocketServer(val config: KafkaConfig,
   private def createAcceptor(endPoint: EndPoint, metricPrefix: String) : Acceptor = {
     val sendBufferSize = config.socketSendBufferBytes
     val recvBufferSize = config.socketReceiveBufferBytes
-    new Acceptor(endPoint, sendBufferSize, recvBufferSize, nodeId, connectionQuotas, metricPrefix, time)
+    val leastLoadedAssignment = config.connectionAssignmentStrategy == "least_loaded"
+    // like the connection limits, handshake admission does not apply to the inter-broker listener unless it is the only one
+    val protectedListener = endPoint.listenerName == config.interBrokerListenerName && config.listeners.size > 1
+    val handshakeAdmission =
+      if (metricPrefix == ControlPlaneMetricPrefix || protectedListener)
+        None
+      else if (config.maxConnectionHandshakeRate == Int.MaxValue && config.maxConnectionHandshakeRatePerIp == Int.MaxValue)
+        None
+      else
+        Some(new HandshakeAdmission(config.maxConnectionHandshakeRate, config.maxConnectionHandshakeRatePerIp,
+          config.connectionHandshakeQueueTimeoutMs, time))
+    new Acceptor(endPoint, sendBufferSize, recvBufferSize, nodeId, connectionQuotas, metricPrefix, time,
+      leastLoadedAssignment = leastLoadedAssignment, handshakeAdmission = handshakeAdmission)
   }
 
   private def addDataPlaneProcessors(acceptor: Acceptor, endpoint: EndPoint, newProcessorsPerListener: Int): Unit = {
@@ -553,7 +595,9 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
                               connectionQuotas: ConnectionQuotas,
                               metricPrefix: String,
                               time: Time,
-                              logPrefix: String = "") extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
+                              logPrefix: String = "",
+                              leastLoadedAssignment: Boolean = false,
+                              handshakeAdmission: Option[HandshakeAdmission] = None) extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
 
   this.logIdent = logPrefix
   private val nioSelector = NSelector.open()
@@ -562,6 +606,13 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
   private val processorsStarted = new AtomicBoolean
   private val blockedPercentMeter = newMeter(s"${metricPrefix}AcceptorBlockedPercent",
     "blocked time", TimeUnit.NANOSECONDS, Map(ListenerMetricTag -> endPoint.listenerName.value))
+  private val handshakeQueueTimeHist = handshakeAdmission.map { _ =>
+    newHistogram(s"$metricPrefix${Acceptor.HandshakeQueueTimeMetricName}", tags = Map(ListenerMetricTag -> endPoint.listenerName.value))
+  }
+  private val handshakeQueueTimeoutMeter = handshakeAdmission.map { _ =>
+    newMeter(s"$metricPrefix${Acceptor.HandshakeQueueTimeoutsMetricName}", "connections", TimeUnit.SECONDS,
+      Map(ListenerMetricTag -> endPoint.listenerName.value))
+  }
   private var currentProcessorIndex = 0
   private[network] val throttledSockets = new mutable.PriorityQueue[DelayedCloseSocket]()
 
@@ -625,6 +676,7 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
       while (isRunning) {
         try {
           acceptNewConnections()
+          admitQueuedConnections()
           closeThrottledConnections()
         }
         catch {
@@ -641,6 +693,7 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
       CoreUtils.swallow(nioSelector.close(), this, Level.ERROR)
       throttledSockets.foreach(throttledSocket => closeSocket(throttledSocket.socket))
       throttledSockets.clear()
+      handshakeAdmission.foreach(_.closeAll(socketChannel => close(endPoint.listenerName, socketChannel)))
       shutdownComplete()
     }
   }
@@ -670,10 +723,11 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
   }
 
   /**
-   * Listen for new connections and assign accepted connections to processors using round-robin.
+   * Listen for new connections and assign accepted connections to processors, or queue them for admission to their
+   * handshake if `handshakeAdmission` is set.
    */
   private def acceptNewConnections(): Unit = {
-    val ready = nioSelector.select(500)
+    val ready = nioSelector.select(handshakeAdmission.fold(500L)(_.pollTimeoutMs(500L)))
     if (ready > 0) {
       val keys = nioSelector.selectedKeys()
       val iter = keys.iterator()
@@ -684,21 +738,10 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
 
           if (key.isAcceptable) {
             accept(key).foreach { socketChannel =>
-              // Assign the channel to the next processor (using round-robin) to which the
-              // channel can be added without blocking. If newConnections queue is full on
-              // all processors, block until the last one is able to accept a connection.
-              var retriesLeft = synchronized(processors.length)
-              var processor: Processor = null
-              do {
-                retriesLeft -= 1
-                processor = synchronized {
-                  // adjust the index (if necessary) and retrieve the processor atomically for
-                  // correct behaviour in case the number of processors is reduced dynamically
-                  currentProcessorIndex = currentProcessorIndex % processors.length
-                  processors(currentProcessorIndex)
-                }
-                currentProcessorIndex += 1
-              } while (!assignNewConnection(socketChannel, processor, retriesLeft == 0))
+              handshakeAdmission match {
+                case Some(admission) => admission.enqueue(socketChannel)
+                case None => assignToProcessor(socketChannel)
+              }
             }
           } else
             throw new IllegalStateException("Unrecognized key state for acceptor thread.")
@@ -709,6 +752,62 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
     }
   }
 
+  /**
+   * Assign queued connections to processors as far as the handshake rates allow, and close those that have waited
+   * for too long.
+   */
+  private def admitQueuedConnections(): Unit = {
+    handshakeAdmission.foreach { admission =>
+      admission.poll(
+        admit = (socketChannel, queueTimeMs) => {
+          handshakeQueueTimeHist.foreach(_.update(queueTimeMs))
+          try {
+            assignToProcessor(socketChannel)
+          } catch {
+            case e: Throwable =>
+              error("Error while assigning connection", e)
+              close(endPoint.listenerName, socketChannel)
+          }
+        },
+        expire = socketChannel => {
+          debug(s"Closing connection from ${socketChannel.socket.getInetAddress} which has waited too long for its handshake")
+          handshakeQueueTimeoutMeter.foreach(_.mark())
+          close(endPoint.listenerName, socketChannel)
+        })
+    }
+  }
+
+  /**
+   * Assign an accepted connection to a processor using round-robin, or to the less loaded of the next processor in
+   * turn and a random one if `leastLoadedAssignment` is set.
+   */
+  private def assignToProcessor(socketChannel: SocketChannel): Unit = {
+    // Assign the channel to the next processor (using round-robin) to which the
+    // channel can be added without blocking. If newConnections queue is full on
+    // all processors, block until the last one is able to accept a connection.
+    var retriesLeft = synchronized(processors.length)
+    var firstAttempt = true
+    var processor: Processor = null
+    do {
+      retriesLeft -= 1
+      processor = synchronized {
+        // adjust the index (if necessary) and retrieve the processor atomically for
+        // correct behaviour in case the number of processors is reduced dynamically
+        currentProcessorIndex = currentProcessorIndex % processors.length
+        val nextProcessor = processors(currentProcessorIndex)
+        if (leastLoadedAssignment && firstAttempt && processors.length > 1) {
+          // any processor other than the next one
+          val otherIndex = (currentProcessorIndex + 1 + ThreadLocalRandom.current.nextInt(processors.length - 1)) %
+            processors.length
+          lessLoaded(nextProcessor, processors(otherIndex))
+        } else
+          nextProcessor
+      }
+      firstAttempt = false
+      currentProcessorIndex += 1
+    } while (!assignNewConnection(socketChannel, processor, retriesLeft == 0))
+  }
+
   /**
    * Accept a new connection
    */
@@ -749,6 +848,22 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
     }
   }
 
+  /**
+   * The processor that has been idle for a larger fraction of time recently or, if both have been about as idle, the
+   * one with fewer connections. Choosing between two processors rather than taking the least loaded of all of them
+   * avoids sending a burst of new connections to the same processor before its idle time reflects their load.
+   */
+  private def lessLoaded(first: Processor, second: Processor): Processor = {
+    val firstIdleRatio = first.idleRatio
+    val secondIdleRatio = second.idleRatio
+    if (Math.abs(firstIdleRatio - secondIdleRatio) > Acceptor.SimilarIdleRatioDifference) {
+      if (firstIdleRatio > secondIdleRatio) first else second
+    } else if (second.connectionCount < first.connectionCount)
+      second
+    else
+      first
+  }
+
   private def assignNewConnection(socketChannel: SocketChannel, processor: Processor, mayBlock: Boolean): Boolean = {
     if (processor.accept(socketChannel, mayBlock, blockedPercentMeter)) {
       debug(s"Accepted connection from ${socketChannel.socket.getRemoteSocketAddress} on" +
@@ -768,8 +883,146 @@ private[kafka] class Acceptor(val endPoint: EndPoint,
 
 }
 
+private[kafka] object Acceptor {
+  // Processors whose idle ratios differ by at most this much are compared by their number of connections
+  val SimilarIdleRatioDifference = 0.05
+  val HandshakeQueueTimeMetricName = "HandshakeQueueTimeMs"
+  val HandshakeQueueTimeoutsMetricName = "HandshakeQueueTimeoutsPerSec"
+}
+
+/**
+ * A token bucket which holds up to one second's worth of tokens at `ratePerSec`, so that bursts of up to that size are
+ * admitted at once.
+ */
+private[network] class ConnectionTokenBucket(ratePerSec: Int, nowMs: Long) {
+  private val capacity = ratePerSec.toDouble
+  private var tokens = capacity
+  private var lastRefillMs = nowMs
+
+  private def refill(nowMs: Long): Unit = {
+    if (nowMs > lastRefillMs) {
+      tokens = math.min(capacity, tokens + (nowMs - lastRefillMs) * capacity / 1000)
+      lastRefillMs = nowMs
+    }
+  }
+
+  def tryAcquire(nowMs: Long): Boolean = {
+    refill(nowMs)
+    if (tokens >= 1) {
+      tokens -= 1
+      true
+    } else
+      false
+  }
+
+  def available(nowMs: Long): Boolean = {
+    refill(nowMs)
+    tokens >= 1
+  }
+
+  def isFull(nowMs: Long): Boolean = {
+    refill(nowMs)
+    tokens >= capacity
+  }
+
+  /** The time until the next token is available, 0 if one is available now */
+  def timeUntilTokenMs(nowMs: Long): Long = {
+    refill(nowMs)
+    if (tokens >= 1) 0 else math.ceil((1 - tokens) * 1000 / capacity).toLong
+  }
+}
+
+/**
+ * Admits the accepted connections of a listener to their handshake at no more than `maxRate` connections per second,
+ * and no more than `maxRatePerIp` connections per second from each client address. Connections beyond those rates
+ * wait in a queue instead of being handed to a processor, which defers their TLS handshake and SASL authentication.
+ * Connections from an address that is over its rate do not hold up those from other addresses. Connections which have
+ * waited for `queueTimeoutMs` are closed, since their clients have likely given up on them already.
+ *
+ * Only accessed by the acceptor thread.
+ */
+private[network] class HandshakeAdmission(maxRate: Int, maxRatePerIp: Int, queueTimeoutMs: Long, time: Time) {
+  private case class QueuedConnection(socketChannel: SocketChannel, address: InetAddress, enqueueTimeMs: Long)
+
+  private val listenerBucket = new ConnectionTokenBucket(maxRate, time.milliseconds)
+  private val ipBuckets = mutable.Map[InetAddress, ConnectionTokenBucket]()
+  private val queue = new util.ArrayDeque[QueuedConnection]()
+  private var lastPurgeMs = time.milliseconds
+
+  def queueSize: Int = queue.size
+
+  def enqueue(socketChannel: SocketChannel): Unit = {
+    queue.add(QueuedConnection(socketChannel, socketChannel.socket.getInetAddress, time.milliseconds))
+  }
+
+  /**
+   * Admit the queued connections that the rates allow in the order they were accepted, passing them to `admit`
+   * together with the time they have waited, and pass those that have waited for too long to `expire`.
+   */
+  def poll(admit: (SocketChannel, Long) => Unit, expire: SocketChannel => Unit): Unit = {
+    val nowMs = time.milliseconds
+    val iter = queue.iterator
+    // connections are queued in the order they are accepted, so no connection after the first one that can neither
+    // expire nor be admitted needs to be looked at once the listener is out of tokens
+    var listenerAvailable = true
+    while (iter.hasNext && listenerAvailable) {
+      val queued = iter.next()
+      val queueTimeMs = nowMs - queued.enqueueTimeMs
+      if (queueTimeMs >= queueTimeoutMs) {
+        iter.remove()
+        expire(queued.socketChannel)
+      } else if (!listenerBucket.available(nowMs)) {
+        listenerAvailable = false
+      } else if (ipBucket(queued.address, nowMs).tryAcquire(nowMs)) {
+        listenerBucket.tryAcquire(nowMs)
+        iter.remove()
+        admit(queued.socketChannel, queueTimeMs)
+      }
+    }
+    maybePurgeIpBuckets(nowMs)
+  }
+
+  /**
+   * The time the acceptor may wait for new connections before queued connections may be admitted.
+   */
+  def pollTimeoutMs(maxTimeoutMs: Long): Long = {
+    if (queue.isEmpty)
+      maxTimeoutMs
+    else {
+      val nowMs = time.milliseconds
+      // when the listener has tokens, the queued connections wait for the tokens of their addresses
+      val untilTokenMs = listenerBucket.timeUntilTokenMs(nowMs)
+      val timeoutMs = if (untilTokenMs > 0) untilTokenMs else HandshakeAdmission.IpTokenPollMs
+      math.max(1, math.min(maxTimeoutMs, timeoutMs))
+    }
+  }
+
+  def closeAll(closeSocket: SocketChannel => Unit): Unit = {
+    queue.forEach(queued => closeSocket(queued.socketChannel))
+    queue.clear()
+  }
+
+  private def ipBucket(address: InetAddress, nowMs: Long): ConnectionTokenBucket =
+    ipBuckets.getOrElseUpdate(address, new ConnectionTokenBucket(maxRatePerIp, nowMs))
+
+  // A full bucket admits the same connections as a new one, so only the buckets of addresses that have connected
+  // recently need to be kept
+  private def maybePurgeIpBuckets(nowMs: Long): Unit = {
+    if (nowMs - lastPurgeMs >= HandshakeAdmission.IpBucketPurgeIntervalMs) {
+      ipBuckets.filter { case (_, bucket) => bucket.isFull(nowMs) }.keys.foreach(ipBuckets.remove)
+      lastPurgeMs = nowMs
+    }
+  }
+}
+
+private[network] object HandshakeAdmission {
+  val IpTokenPollMs = 10L
+  val IpBucketPurgeIntervalMs = 1000L
+}
+
 private[kafka] object Processor {
   val IdlePercentMetricName = "IdlePercent"
+  val HandshakeTimeMetricName = "ConnectionHandshakeTimeMs"
   val NetworkProcessorMetricTag = "networkProcessor"
   val ListenerMetricTag = "listener"
   val ConnectionQueueSize = 20
@@ -819,27 +1072,53 @@ private[kafka] class Processor(val id: Int,
   }
 
   private val newConnections = new ArrayBlockingQueue[SocketChannel](connectionQueueSize)
-  private val inflightResponses = mutable.Map[String, RequestChannel.Response]()
+  // The responses whose send is in progress, more than one if they are written together
+  private val inflightResponses = mutable.Map[String, Seq[RequestChannel.Response]]()
+  private val maxPipelinedRequests = config.maxPipelinedRequestsPerConnection
+  private val maxCoalescedResponseBytes = config.socketResponseCoalesceMaxBytes
+  // Only populated when pipelining is enabled, for connections that have sent a request
+  private val pipelines = mutable.Map[String, RequestPipeline]()
   private val responseQueue = new LinkedBlockingDeque[RequestChannel.Response]()
+  // The connections whose TLS handshake or SASL authentication is in progress, with the time they were registered
+  private val handshakingConnections = mutable.Map[String, Long]()
 
   private[kafka] val metricTags = mutable.LinkedHashMap(
     ListenerMetricTag -> listenerName.value,
     NetworkProcessorMetricTag -> id.toString
   ).asJava
 
-  newGauge(IdlePercentMetricName, () => {
-    Option(metrics.metric(metrics.metricName("io-wait-ratio", MetricsGroup, metricTags))).fold(0.0)(m =>
-      Math.min(m.metricValue.asInstanceOf[Double], 1.0))
-  },
+  newGauge(IdlePercentMetricName, () => idleRatio,
     // for compatibility, only add a networkProcessor tag to the Yammer Metrics alias (the equivalent Selector metric
     // also includes the listener name)
     Map(NetworkProcessorMetricTag -> id.toString)
   )
 
+  /** The fraction of time the processor has recently been waiting for network events */
+  private[network] def idleRatio: Double = {
+    Option(metrics.metric(metrics.metricName("io-wait-ratio", MetricsGroup, metricTags))).fold(0.0)(m =>
+      Math.min(m.metricValue.asInstanceOf[Double], 1.0))
+  }
+
+  /** The number of connections of the processor, including those that have not been registered with its selector yet */
+  private[network] def connectionCount: Int = {
+    val registered = Option(metrics.metric(metrics.metricName("connection-count", MetricsGroup, metricTags)))
+      .fold(0)(_.metricValue.asInstanceOf[Double].toInt)
+    registered + newConnections.size
+  }
+
+  private val handshakeTimeHist = newHistogram(HandshakeTimeMetricName, tags = metricTags.asScala)
+
   val expiredConnectionsKilledCount = new CumulativeSum()
   private val expiredConnectionsKilledCountMetricName = metrics.metricName("expired-connections-killed-count", MetricsGroup, metricTags)
   metrics.addMetric(expiredConnectionsKilledCountMetricName, expiredConnectionsKilledCount)
 
+  private val responsesPerWriteSensorName = s"ResponsesPerWrite-${listenerName.value}-$id"
+  private val responsesPerWriteSensor = metrics.sensor(responsesPerWriteSensorName)
+  responsesPerWriteSensor.add(metrics.metricName("responses-per-write-avg", MetricsGroup,
+    "The average number of responses written to a connection together", metricTags), new Avg)
+  responsesPerWriteSensor.add(metrics.metricName("responses-per-write-max", MetricsGroup,
+    "The maximum number of responses written to a connection together", metricTags), new Max)
+
   private val selector = createSelector(
     ChannelBuilders.serverChannelBuilder(
       listenerName,
@@ -890,6 +1169,7 @@ private[kafka] class Processor(val id: Int,
           // register any new responses for writing
           processNewResponses()
           poll()
+          recordCompletedHandshakes()
           processCompletedReceives()
           processCompletedSends()
           processDisconnected()
@@ -932,6 +1212,10 @@ private[kafka] class Processor(val id: Int,
       val channelId = currentResponse.request.context.connectionId
       try {
         currentResponse match {
+          case response @ (_: SendResponse | _: NoOpResponse) if pipelines.contains(channelId) =>
+            pipelines(channelId).complete(response)
+            sendPipelinedResponses(channelId)
+
           case response: NoOpResponse =>
             // There is no response to send to the client, we need to read more pipelined requests
             // that are sitting in the server's socket buffer
@@ -949,6 +1233,19 @@ private[kafka] class Processor(val id: Int,
             updateRequestMetrics(response)
             trace("Closing socket connection actively according to the response code.")
             close(channelId)
+          case _: StartThrottlingResponse if pipelines.contains(channelId) =>
+            // A pipelined connection may still be reading requests, stop that for the duration of the throttling.
+            // Throttling of several of its requests can overlap, reading resumes once the last one has ended.
+            if (pipelines(channelId).throttlingStarted()) {
+              muteForPendingResponse(channelId)
+              handlePipelinedThrottleEvent(channelId, ChannelMuteEvent.THROTTLE_STARTED, ChannelMuteState.MUTED_AND_RESPONSE_PENDING)
+            }
+          case _: EndThrottlingResponse if pipelines.contains(channelId) =>
+            if (pipelines(channelId).throttlingEnded()) {
+              handlePipelinedThrottleEvent(channelId, ChannelMuteEvent.THROTTLE_ENDED,
+                ChannelMuteState.MUTED_AND_THROTTLED, ChannelMuteState.MUTED_AND_THROTTLED_AND_RESPONSE_PENDING)
+              tryUnmuteChannel(channelId)
+            }
           case _: StartThrottlingResponse =>
             handleChannelMuteEvent(channelId, ChannelMuteEvent.THROTTLE_STARTED)
           case _: EndThrottlingResponse =>
@@ -968,19 +1265,27 @@ private[kafka] class Processor(val id: Int,
 
   // `protected` for test usage
   protected[network] def sendResponse(response: RequestChannel.Response, responseSend: Send): Unit = {
-    val connectionId = response.request.context.connectionId
-    trace(s"Socket server received response to send to $connectionId, registering for write and sending data: $response")
+    sendResponses(Seq(response), responseSend)
+  }
+
+  /**
+   * Send the responses of a connection with a single send, in which they are written in order
+   */
+  private def sendResponses(responses: Seq[RequestChannel.Response], responsesSend: Send): Unit = {
+    val connectionId = responses.head.request.context.connectionId
+    trace(s"Socket server received responses to send to $connectionId, registering for write and sending data: $responses")
     // `channel` can be None if the connection was closed remotely or if selector closed it for being idle for too long
     if (channel(connectionId).isEmpty) {
       warn(s"Attempting to send response via channel for which there is no open connection, connection id $connectionId")
-      response.request.updateRequestMetrics(0L, response)
+      responses.foreach(response => response.request.updateRequestMetrics(0L, response))
     }
     // Invoke send for closingChannel as well so that the send is failed and the channel closed properly and
     // removed from the Selector after discarding any pending staged receives.
     // `openOrClosingChannel` can be None if the selector closed the connection because it was idle for too long
     if (openOrClosingChannel(connectionId).isDefined) {
-      selector.send(new NetworkSend(connectionId, responseSend))
-      inflightResponses += (connectionId -> response)
+      selector.send(new NetworkSend(connectionId, responsesSend))
+      inflightResponses += (connectionId -> responses)
+      responsesPerWriteSensor.record(responses.size)
     }
   }
 
@@ -1004,45 +1309,37 @@ private[kafka] class Processor(val id: Int,
     }
   }
 
+  /**
+   * Record the handshake time of connections which have completed their handshake, and stop tracking those which
+   * have been closed before completing it.
+   */
+  private def recordCompletedHandshakes(): Unit = {
+    if (handshakingConnections.nonEmpty) {
+      val nowNanos = time.nanoseconds
+      val done = handshakingConnections.filter { case (connectionId, startNanos) =>
+        if (selector.isChannelReady(connectionId)) {
+          handshakeTimeHist.update(TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos))
+          true
+        } else
+          selector.channel(connectionId) == null
+      }
+      handshakingConnections --= done.keys
+    }
+  }
+
   private def processCompletedReceives(): Unit = {
     selector.completedReceives.forEach { receive =>
       try {
         openOrClosingChannel(receive.source) match {
           case Some(channel) =>
             val header = parseRequestHeader(receive.payload)
-            if (header.apiKey == ApiKeys.SASL_HANDSHAKE && channel.maybeBeginServerReauthentication(receive,
-              () => time.nanoseconds()))
-              trace(s"Begin re-authentication: $channel")
-            else {
-              val nowNanos = time.nanoseconds()
-              if (channel.serverAuthenticationSessionExpired(nowNanos)) {
-                // be sure to decrease connection count and drop any in-flight responses
-                debug(s"Disconnecting expired channel: $channel : $header")
-                close(channel.id)
-                expiredConnectionsKilledCount.record(null, 1, 0)
-              } else {
-                val connectionId = receive.source
-                val context = new RequestContext(header, connectionId, channel.socketAddress,
-                  channel.principal, listenerName, securityProtocol,
-                  channel.channelMetadataRegistry.clientInformation, isPrivilegedListener, channel.principalSerde)
-
-                val req = new RequestChannel.Request(processor = id, context = context,
-                  startTimeNanos = nowNanos, memoryPool, receive.payload, requestChannel.metrics, None)
-
-                // KIP-511: ApiVersionsRequest is intercepted here to catch the client software name
-                // and version. It is done here to avoid wiring things up to the api layer.
-                if (header.apiKey == ApiKeys.API_VERSIONS) {
-                  val apiVersionsRequest = req.body[ApiVersionsRequest]
-                  if (apiVersionsRequest.isValid) {
-                    channel.channelMetadataRegistry.registerClientInformation(new ClientInformation(
-                      apiVersionsRequest.data.clientSoftwareName,
-                      apiVersionsRequest.data.clientSoftwareVersion))
-                  }
-                }
-                requestChannel.sendRequest(req)
-                selector.mute(connectionId)
-                handleChannelMuteEvent(connectionId, ChannelMuteEvent.REQUEST_RECEIVED)
-              }
+            pipelines.get(receive.source) match {
+              case Some(pipeline) if header.apiKey == ApiKeys.SASL_HANDSHAKE && pipeline.hasRequestsInProgress =>
+                // Re-authentication must not start while responses to the earlier requests are still to be sent
+                pipeline.deferHandshake(receive)
+                muteForPendingResponse(receive.source)
+              case _ =>
+                processReceive(channel, receive, header)
             }
           case None =>
             // This should never happen since completed receives are processed immediately after `poll()`
@@ -1058,22 +1355,81 @@ private[kafka] class Processor(val id: Int,
     selector.clearCompletedReceives()
   }
 
+  // Begin the re-authentication of the channel or dispatch the received request
+  private def processReceive(channel: KafkaChannel, receive: NetworkReceive, header: RequestHeader): Unit = {
+    if (header.apiKey == ApiKeys.SASL_HANDSHAKE && channel.maybeBeginServerReauthentication(receive,
+      () => time.nanoseconds()))
+      trace(s"Begin re-authentication: $channel")
+    else {
+      val nowNanos = time.nanoseconds()
+      if (channel.serverAuthenticationSessionExpired(nowNanos)) {
+        // be sure to decrease connection count and drop any in-flight responses
+        debug(s"Disconnecting expired channel: $channel : $header")
+        close(channel.id)
+        expiredConnectionsKilledCount.record(null, 1, 0)
+      } else {
+        val connectionId = receive.source
+        val context = new RequestContext(header, connectionId, channel.socketAddress,
+          channel.principal, listenerName, securityProtocol,
+          channel.channelMetadataRegistry.clientInformation, isPrivilegedListener, channel.principalSerde)
+
+        val req = new RequestChannel.Request(processor = id, context = context,
+          startTimeNanos = nowNanos, memoryPool, receive.payload, requestChannel.metrics, None)
+
+        // KIP-511: ApiVersionsRequest is intercepted here to catch the client software name
+        // and version. It is done here to avoid wiring things up to the api layer.
+        if (header.apiKey == ApiKeys.API_VERSIONS) {
+          val apiVersionsRequest = req.body[ApiVersionsRequest]
+          if (apiVersionsRequest.isValid) {
+            channel.channelMetadataRegistry.registerClientInformation(new ClientInformation(
+              apiVersionsRequest.data.clientSoftwareName,
+              apiVersionsRequest.data.clientSoftwareVersion))
+          }
+        }
+        if (maxPipelinedRequests > 1) {
+          val pipeline = pipelines.getOrElseUpdate(connectionId, new RequestPipeline(maxPipelinedRequests))
+          if (pipeline.add(req))
+            requestChannel.sendRequest(req)
+          if (!pipeline.canReceive)
+            muteForPendingResponse(connectionId)
+        } else {
+          requestChannel.sendRequest(req)
+          selector.mute(connectionId)
+          handleChannelMuteEvent(connectionId, ChannelMuteEvent.REQUEST_RECEIVED)
+        }
+      }
+    }
+  }
+
   private def processCompletedSends(): Unit = {
     selector.completedSends.forEach { send =>
       try {
-        val response = inflightResponses.remove(send.destinationId).getOrElse {
+        val responses = inflightResponses.remove(send.destinationId).getOrElse {
           throw new IllegalStateException(s"Send for ${send.destinationId} completed, but not in `inflightResponses`")
         }
-        updateRequestMetrics(response)
-
-        // Invoke send completion callback
-        response.onComplete.foreach(onComplete => onComplete(send))
+        responses.foreach { response =>
+          updateRequestMetrics(response)
+
+          // Invoke send completion callback with the send of the response, which the completed send wraps, possibly
+          // together with the sends of other responses of the connection
+          response match {
+            case sendResponse: SendResponse =>
+              sendResponse.onComplete.foreach(onComplete => onComplete(sendResponse.responseSend))
+            case _ =>
+          }
+        }
 
-        // Try unmuting the channel. If there was no quota violation and the channel has not been throttled,
-        // it will be unmuted immediately. If the channel has been throttled, it will unmuted only if the throttling
-        // delay has already passed by now.
-        handleChannelMuteEvent(send.destinationId, ChannelMuteEvent.RESPONSE_SENT)
-        tryUnmuteChannel(send.destinationId)
+        pipelines.get(send.destinationId) match {
+          case Some(pipeline) =>
+            responses.foreach(_ => pipelinedResponseSent(send.destinationId, pipeline))
+            sendPipelinedResponses(send.destinationId)
+          case None =>
+            // Try unmuting the channel. If there was no quota violation and the channel has not been throttled,
+            // it will be unmuted immediately. If the channel has been throttled, it will unmuted only if the throttling
+            // delay has already passed by now.
+            handleChannelMuteEvent(send.destinationId, ChannelMuteEvent.RESPONSE_SENT)
+            tryUnmuteChannel(send.destinationId)
+        }
       } catch {
         case e: Throwable => processChannelException(send.destinationId,
           s"Exception while processing completed send to ${send.destinationId}", e)
@@ -1082,6 +1438,132 @@ private[kafka] class Processor(val id: Int,
     selector.clearCompletedSends()
   }
 
+  /**
+   * Send the completed responses of a pipelined connection in the order their requests were received. The selector
+   * only allows a single send per channel, so consecutive completed responses that are small enough are combined
+   * into one send rather than each waiting for the previous one to be written. Runs of responses without records
+   * are written with a single gathering write, and the records of fetch responses are still transferred by their own
+   * sends, so they are not copied. Responses without a payload are skipped over.
+   */
+  private def sendPipelinedResponses(connectionId: String): Unit = {
+    pipelines.get(connectionId).foreach { pipeline =>
+      var done = inflightResponses.contains(connectionId)
+      while (!done) {
+        pipeline.nextResponse() match {
+          case Some(response: SendResponse) =>
+            coalescibleSend(response) match {
+              case Some(send) =>
+                val responses = ArrayBuffer(response)
+                val sends = ArrayBuffer(send)
+                var size = send.size
+                var coalescing = true
+                while (coalescing) {
+                  pipeline.peekResponse() match {
+                    case Some(next: SendResponse) if coalescibleSend(next).exists(size + _.size <= maxCoalescedResponseBytes) =>
+                      pipeline.nextResponse()
+                      val nextSend = coalescibleSend(next).get
+                      responses += next
+                      sends += nextSend
+                      size += nextSend.size
+                    case _ =>
+                      coalescing = false
+                  }
+                }
+                if (responses.size == 1)
+                  sendResponse(response, send)
+                else
+                  sendResponses(responses, combinedSend(sends))
+              case None =>
+                sendResponse(response, response.responseSend)
+            }
+            // the connection is gone if the response could not be sent, the pipeline is dropped with it
+            if (!inflightResponses.contains(connectionId))
+              closePipeline(connectionId)
+            done = true
+          case Some(response) =>
+            updateRequestMetrics(response)
+            pipelinedResponseSent(connectionId, pipeline)
+          case None =>
+            done = true
+        }
+      }
+    }
+  }
+
+  // The send of a response that may be written together with other responses, the size of a fetch response includes its records
+  private def coalescibleSend(response: SendResponse): Option[Send] =
+    Some(response.responseSend).filter(_.size <= maxCoalescedResponseBytes)
+
+  /**
+   * Combine the sends of responses into one, in which they are written in order. Consecutive sends without records are
+   * concatenated so that they are written with a single gathering write. The send of a response with records is kept
+   * as a whole, so the records are not copied and the send still collects the conversion stats of the response, which
+   * its completion callback is given. The combined send does not release the sends, each of them is released with its
+   * own response.
+   */
+  private def combinedSend(sends: Seq[Send]): Send = {
+    val combined = new util.ArrayDeque[Send]
+    val buffered = ArrayBuffer[ByteBufferSend]()
+    def flushBuffered(): Unit = {
+      if (buffered.size == 1)
+        combined.add(buffered.head)
+      else if (buffered.nonEmpty)
+        combined.add(ByteBufferSend.concat(buffered.asJava))
+      buffered.clear()
+    }
+    sends.foreach {
+      case send: ByteBufferSend => buffered += send
+      case send =>
+        flushBuffered()
+        combined.add(send)
+    }
+    flushBuffered()
+    if (combined.size == 1) combined.peek
+    else new MultiRecordsSend(combined)
+  }
+
+  private def pipelinedResponseSent(connectionId: String, pipeline: RequestPipeline): Unit = {
+    pipeline.responseSent().foreach(requestChannel.sendRequest)
+    // the responses to the requests received before a re-authentication handshake have all been sent
+    pipeline.takeDeferredHandshake().foreach { receive =>
+      openOrClosingChannel(connectionId).foreach { channel =>
+        processReceive(channel, receive, parseRequestHeader(receive.payload))
+      }
+    }
+    if (pipeline.canReceive) {
+      // The mute state machine tracks the pipeline as a whole: the channel was only marked as having a response
+      // pending when the pipeline stopped reading requests, and reading resumes once it has room again
+      openOrClosingChannel(connectionId).foreach { channel =>
+        channel.muteState match {
+          case ChannelMuteState.MUTED_AND_RESPONSE_PENDING | ChannelMuteState.MUTED_AND_THROTTLED_AND_RESPONSE_PENDING =>
+            channel.handleChannelMuteEvent(ChannelMuteEvent.RESPONSE_SENT)
+          case _ =>
+        }
+      }
+      tryUnmuteChannel(connectionId)
+    }
+  }
+
+  private def closePipeline(connectionId: String): Unit = {
+    pipelines.remove(connectionId).foreach(_.close().foreach(updateRequestMetrics))
+  }
+
+  private def handlePipelinedThrottleEvent(connectionId: String, event: ChannelMuteEvent, fromStates: ChannelMuteState*): Unit = {
+    openOrClosingChannel(connectionId).foreach { channel =>
+      if (fromStates.contains(channel.muteState))
+        channel.handleChannelMuteEvent(event)
+    }
+  }
+
+  // Stop reading requests from a pipelined connection until one of its pending responses has been sent
+  private def muteForPendingResponse(connectionId: String): Unit = {
+    openOrClosingChannel(connectionId).foreach { channel =>
+      selector.mute(connectionId)
+      if (channel.muteState == ChannelMuteState.MUTED)
+        channel.handleChannelMuteEvent(ChannelMuteEvent.REQUEST_RECEIVED)
+    }
+  }
+
   private def updateRequestMetrics(response: RequestChannel.Response): Unit = {
     val request = response.request
     val networkThreadTimeNanos = openOrClosingChannel(request.context.connectionId).fold(0L)(_.getAndResetNetworkThreadTimeNanos())
@@ -1094,7 +1576,8 @@ private[kafka] class Processor(val id: Int,
         val remoteHost = ConnectionId.fromString(connectionId).getOrElse {
           throw new IllegalStateException(s"connectionId has unexpected format: $connectionId")
         }.remoteHost
-        inflightResponses.remove(connectionId).foreach(updateRequestMetrics)
+        inflightResponses.remove(connectionId).foreach(_.foreach(updateRequestMetrics))
+        closePipeline(connectionId)
         // the channel has been closed by the selector but the quotas still need to be updated
         connectionQuotas.dec(listenerName, InetAddress.getByName(remoteHost))
       } catch {
@@ -1126,7 +1609,8 @@ private[kafka] class Processor(val id: Int,
         connectionQuotas.dec(listenerName, address)
       selector.close(connectionId)
 
-      inflightResponses.remove(connectionId).foreach(response => updateRequestMetrics(response))
+      inflightResponses.remove(connectionId).foreach(_.foreach(response => updateRequestMetrics(response)))
+      closePipeline(connectionId)
     }
   }
 
@@ -1163,7 +1647,10 @@ private[kafka] class Processor(val id: Int,
       val channel = newConnections.poll()
       try {
         debug(s"Processor $id listening to new connection from ${channel.socket.getRemoteSocketAddress}")
-        selector.register(connectionId(channel.socket), channel)
+        val newConnectionId = connectionId(channel.socket)
+        selector.register(newConnectionId, channel)
+        if (!selector.isChannelReady(newConnectionId))
+          handshakingConnections.put(newConnectionId, time.nanoseconds)
         connectionsProcessed += 1
       } catch {
         // We explicitly catch all exceptions and close the socket to avoid a socket leak.
@@ -1188,6 +1675,7 @@ private[kafka] class Processor(val id: Int,
     }
     selector.close()
     removeMetric(IdlePercentMetricName, Map(NetworkProcessorMetricTag -> id.toString))
+    removeMetric(HandshakeTimeMetricName, metricTags.asScala)
   }
 
   // 'protected` to allow override for testing
@@ -1230,7 +1718,9 @@ private[kafka] class Processor(val id: Int,
   }
 
   private def tryUnmuteChannel(connectionId: String) = {
-    openOrClosingChannel(connectionId).foreach(c => selector.unmute(c.id))
+    // a pipelined connection that is waiting for responses stays muted even once its throttling has ended
+    if (pipelines.get(connectionId).forall(_.canReceive))
+      openOrClosingChannel(connectionId).foreach(c => selector.unmute(c.id))
   }
 
   /* For test usage */
@@ -1245,7 +1735,137 @@ private[kafka] class Processor(val id: Int,
   override def initiateShutdown(): Unit = {
     super.initiateShutdown()
     removeMetric("IdlePercent", Map("networkProcessor" -> id.toString))
+    removeMetric(HandshakeTimeMetricName, metricTags.asScala)
     metrics.removeMetric(expiredConnectionsKilledCountMetricName)
+    metrics.removeSensor(responsesPerWriteSensorName)
+  }
+}
+
+/**
+ * The requests of a connection that are being processed when `max.pipelined.requests.per.connection` is greater
+ * than 1. Pipelinable requests are dispatched to the request handlers while earlier ones are still in progress, up to
+ * `maxInProgress` of them. Any other request waits until the in-progress requests have completed and is then processed
+ * on its own, so that it is ordered with respect to every other request of the connection as without pipelining.
+ *
+ * Requests are numbered in the order they are received and their responses are released in that order, since clients
+ * expect the responses of a connection in request order.
+ *
+ * A SASL handshake that starts a re-authentication is held back until the responses to the earlier requests have been
+ * sent, and the throttling of several requests is tracked so that the connection stays muted until the last of them
+ * has ended.
+ *
+ * Only accessed by the processor thread that owns the connection.
+ */
+private[network] class RequestPipeline(maxInProgress: Int) {
+  private var nextSequence = 0L
+  private var nextResponseSequence = 0L
+  private val completedResponses = mutable.Map[Long, RequestChannel.Response]()
+  private var inProgress = 0
+  // whether the request in progress is not pipelinable, in which case it is the only one
+  private var exclusive = false
+  private var deferredRequest: Option[RequestChannel.Request] = None
+  private var deferredHandshake: Option[NetworkReceive] = None
+  private var throttledRequests = 0
+
+  /**
+   * Add a request received from the connection. Returns true if the request should be dispatched now, or false if it
+   * has been deferred until the requests in progress complete.
+   */
+  def add(request: RequestChannel.Request): Boolean = {
+    request.pipelineSequence = nextSequence
+    nextSequence += 1
+    if (inProgress == 0 || (!exclusive && deferredRequest.isEmpty && request.isPipelinable)) {
+      start(request)
+      true
+    } else {
+      if (deferredRequest.isDefined)
+        throw new IllegalStateException(s"Received request $request while request ${deferredRequest.get} is deferred")
+      deferredRequest = Some(request)
+      false
+    }
+  }
+
+  private def start(request: RequestChannel.Request): Unit = {
+    inProgress += 1
+    exclusive = !request.isPipelinable
+  }
+
+  /** Whether more requests may be read from the connection */
+  def canReceive: Boolean = deferredRequest.isEmpty && deferredHandshake.isEmpty && !exclusive && inProgress < maxInProgress
+
+  def hasRequestsInProgress: Boolean = inProgress > 0
+
+  /** Hold back a SASL handshake received while requests are in progress, no more requests are read until it is taken */
+  def deferHandshake(receive: NetworkReceive): Unit = {
+    if (deferredHandshake.isDefined || deferredRequest.isDefined)
+      throw new IllegalStateException(s"Received SASL handshake from ${receive.source} while another receive is deferred")
+    deferredHandshake = Some(receive)
+  }
+
+  /** Remove and return the deferred SASL handshake once no request is in progress */
+  def takeDeferredHandshake(): Option[NetworkReceive] = {
+    if (inProgress == 0) {
+      val deferred = deferredHandshake
+      deferredHandshake = None
+      deferred
+    } else
+      None
+  }
+
+  /** Record that throttling of a request has started. Returns true if the connection was not throttled before */
+  def throttlingStarted(): Boolean = {
+    throttledRequests += 1
+    throttledRequests == 1
+  }
+
+  /** Record that throttling of a request has ended. Returns true if the connection is no longer throttled */
+  def throttlingEnded(): Boolean = {
+    throttledRequests = math.max(0, throttledRequests - 1)
+    throttledRequests == 0
+  }
+
+  def complete(response: RequestChannel.Response): Unit =
+    completedResponses.put(response.request.pipelineSequence, response)
+
+  /** Remove and return the response that is next in request order, if its request has completed */
+  def nextResponse(): Option[RequestChannel.Response] = {
+    val response = completedResponses.remove(nextResponseSequence)
+    if (response.isDefined)
+      nextResponseSequence += 1
+    response
+  }
+
+  /** Return the response that `nextResponse` would return without removing it */
+  def peekResponse(): Option[RequestChannel.Response] = completedResponses.get(nextResponseSequence)
+
+  /**
+   * Record that a response returned by `nextResponse` has been sent. Returns the deferred request if it should be
+   * dispatched now.
+   */
+  def responseSent(): Option[RequestChannel.Request] = {
+    inProgress -= 1
+    if (inProgress == 0) {
+      exclusive = false
+      val deferred = deferredRequest
+      deferredRequest = None
+      deferred.foreach(start)
+      deferred
+    } else
+      None
+  }
+
+  /**
+   * Drop the state of a closed connection. The deferred request is released and the completed responses that were
+   * not sent are returned so that their requests can be completed.
+   */
+  def close(): Iterable[RequestChannel.Response] = {
+    deferredRequest.foreach(_.releaseBuffer())
+    deferredRequest = None
+    deferredHandshake.foreach(_.close())
+    deferredHandshake = None
+    val responses = completedResponses.values.toList
+    completedResponses.clear()
+    responses
   }
 }
 
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.network
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ArrayBlockingQueue, Semaphore, TimeUnit}
+
+import kafka.network.RequestChannel.{BaseRequest, RequestClass}
+
+/**
+ * A set of bounded request queues, one per request class, which are drained in weighted round-robin order.
+ *
+ * Each class gets a separate queue of `capacityPerClass` requests so that a burst of one class only blocks the
+ * network threads enqueuing requests of that class. Dequeuing walks a fixed schedule in which every class appears
+ * as many times as its weight, interleaved so that heavier classes do not get served in long runs, and takes from
+ * the next non-empty queue starting at the current schedule position.
+ *
+ * A semaphore counts the queued requests so that an idle handler thread blocks until a request of any class is
+ * enqueued. A thread that acquired a permit is guaranteed to find a request in one of the queues.
+ */
+class WeightedRequestQueue(weights: Map[RequestClass, Int], capacityPerClass: Int) {
+  require(weights.nonEmpty, "At least one request class is required")
+  require(weights.values.forall(_ > 0), s"Request class weights must be positive: $weights")
+
+  private val queues: Map[RequestClass, ArrayBlockingQueue[BaseRequest]] =
+    weights.keys.map(requestClass => requestClass -> new ArrayBlockingQueue[BaseRequest](capacityPerClass)).toMap
+
+  private val schedule: Array[ArrayBlockingQueue[BaseRequest]] = {
+    val classes = RequestClass.values.filter(weights.contains)
+    (0 until weights.values.max).flatMap { round =>
+      classes.filter(weights(_) > round).map(queues)
+    }.toArray
+  }
+
+  private val available = new Semaphore(0)
+  private val position = new AtomicInteger(0)
+
+  /** Enqueue a request, blocking until there is room in the queue of its class */
+  def put(requestClass: RequestClass, request: BaseRequest): Unit = {
+    queues(requestClass).put(request)
+    available.release()
+  }
+
+  /** Dequeue the next request or block until the specified time has elapsed, returning null on timeout */
+  def poll(timeout: Long, unit: TimeUnit): BaseRequest = {
+    if (available.tryAcquire(timeout, unit))
+      dequeue()
+    else
+      null
+  }
+
+  /** Dequeue the next request or block until there is one */
+  def take(): BaseRequest = {
+    available.acquire()
+    dequeue()
+  }
+
+  def size: Int = queues.values.foldLeft(0)(_ + _.size)
+
+  def size(requestClass: RequestClass): Int = queues.get(requestClass).map(_.size).getOrElse(0)
+
+  def clear(): Unit = {
+    while (available.tryAcquire())
+      dequeue()
+  }
+
+  // Must only be called after acquiring a permit, so that there is at least one request left for this thread
+  private def dequeue(): BaseRequest = {
+    var request: BaseRequest = null
+    while (request == null) {
+      val next = position.getAndIncrement()
+      val start = Math.floorMod(next, schedule.length)
+      var skipped = 0
+      while (request == null && skipped < schedule.length) {
+        request = schedule((start + skipped) % schedule.length).poll()
+        if (request == null)
+          skipped += 1
+      }
+      // Move past the slots of the empty classes so that the classes with queued requests keep sharing the
+      // schedule by weight, rather than the class following an empty one getting its slots as well
+      if (request != null && skipped > 0)
+        position.compareAndSet(next + 1, next + 1 + skipped)
+    }
+    request
+  }
+}
@@ -21,7 +21,7 @@ import kafka.cluster.BrokerEndPoint
 import kafka.common.ClientIdAndBroker
 import kafka.log.LogAppendInfo
 import kafka.metrics.KafkaMetricsGroup
-import kafka.server.AbstractFetcherThread.{ReplicaFetch, ResultWithPartitions}
+import kafka.server.AbstractFetcherThread.{HandedOffAppend, InFlightFetch, PipelinedFetchClient, ReplicaFetch, ResultWithPartitions}
 import kafka.utils.CoreUtils.inLock
 import kafka.utils.Implicits._
 import kafka.utils.{DelayedItem, Pool, ShutdownableThread}
@@ -33,18 +33,20 @@ import org.apache.kafka.common.protocol.Errors
 import org.apache.kafka.common.record.{FileRecords, MemoryRecords, Records}
 import org.apache.kafka.common.requests.OffsetsForLeaderEpochResponse.{UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET}
 import org.apache.kafka.common.requests._
+import org.apache.kafka.common.utils.{Time, Utils}
 import org.apache.kafka.common.{InvalidRecordException, TopicPartition}
 
 import java.nio.ByteBuffer
 import java.util
 import java.util.Optional
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 import java.util.concurrent.locks.ReentrantLock
 import scala.collection.{Map, Set, mutable}
 import scala.compat.java8.OptionConverters._
 import scala.jdk.CollectionConverters._
 import scala.math._
+import scala.util.{Failure, Success, Try}
 
 /**
  *  Abstract class for fetching data from multiple partitions from the same broker.
@@ -55,7 +57,8 @@ abstract class AbstractFetcherThread(name: String,
                                      failedPartitions: FailedPartitions,
                                      fetchBackOffMs: Int = 0,
                                      isInterruptible: Boolean = true,
-                                     val brokerTopicStats: BrokerTopicStats) //BrokerTopicStats's lifecycle managed by ReplicaManager
+                                     val brokerTopicStats: BrokerTopicStats, //BrokerTopicStats's lifecycle managed by ReplicaManager
+                                     time: Time = Time.SYSTEM)
   extends ShutdownableThread(name, isInterruptible) {
 
   type FetchData = FetchResponseData.PartitionData
@@ -69,6 +72,15 @@ abstract class AbstractFetcherThread(name: String,
   val fetcherStats = new FetcherStats(metricId)
   val fetcherLagStats = new FetcherLagStats(metricId)
 
+  // the fetch requests of the lanes that have one in flight, and the responses that are yet to be processed. These are
+  // only used when pipelining and only accessed by the fetcher thread
+  private val inFlightFetches = mutable.Map[Int, InFlightFetch]()
+  private val completedFetches = new util.ArrayDeque[(Int, Try[Map[TopicPartition, FetchData]])]()
+
+  // the appends that have been handed off by the fetcher thread, at most one per partition. The data of a partition
+  // is not fetched while it has a pending append. Only accessed with the partition map lock held
+  private val pendingAppends = mutable.Map[TopicPartition, HandedOffAppend]()
+
   /* callbacks to be defined in subclass */
 
   // process fetched data
@@ -76,6 +88,14 @@ abstract class AbstractFetcherThread(name: String,
                                      fetchOffset: Long,
                                      partitionData: FetchData): Option[LogAppendInfo]
 
+  // hand the fetched data of a partition off to be appended by another thread rather than by `processPartitionData`,
+  // or return None to append it on the fetcher thread. The fetcher does not wait for the appends of partitions whose
+  // fetch state is replaced by a new leader epoch, so the append must be fenced by the leader epoch of `fetchState`.
+  // `onPendingAppendCompleted` must be called once the append has completed
+  protected def submitPartitionData(topicPartition: TopicPartition,
+                                    fetchState: PartitionFetchState,
+                                    partitionData: FetchData): Option[PendingAppend] = None
+
   protected def truncate(topicPartition: TopicPartition, truncationState: OffsetTruncationState): Unit
 
   protected def truncateFullyAndStartAt(topicPartition: TopicPartition, offset: Long): Unit
@@ -102,6 +122,33 @@ abstract class AbstractFetcherThread(name: String,
 
   protected val isTruncationOnFetchSupported: Boolean
 
+  /* pipelined fetching, which is only used by fetchers that keep more than one fetch request in flight */
+
+  // the client through which the fetch requests are kept in flight, or None if the fetcher sends one fetch request at
+  // a time with `fetchFromLeader`
+  protected def pipelinedFetchClient: Option[PipelinedFetchClient] = None
+
+  protected def buildFetch(lane: Int, partitionMap: Map[TopicPartition, PartitionFetchState]): ResultWithPartitions[Option[ReplicaFetch]] =
+    buildFetch(partitionMap)
+
+  // build a fetch which does not fetch the data of the partitions with a pending append. A fetcher with fetch sessions
+  // should keep them in its session rather than leave them out, which would remove them from the session and add
+  // them back with their full state once their appends complete
+  protected def buildFetch(lane: Int,
+                           partitionMap: Map[TopicPartition, PartitionFetchState],
+                           pendingAppendPartitions: Set[TopicPartition]): ResultWithPartitions[Option[ReplicaFetch]] = {
+    if (pendingAppendPartitions.isEmpty) {
+      buildFetch(lane, partitionMap)
+    } else {
+      val fetchable = mutable.LinkedHashMap.empty[TopicPartition, PartitionFetchState]
+      partitionMap.forKeyValue { (tp, state) =>
+        if (!pendingAppendPartitions.contains(tp))
+          fetchable.put(tp, state)
+      }
+      buildFetch(lane, fetchable)
+    }
+  }
+
   override def shutdown(): Unit = {
     initiateShutdown()
     inLock(partitionMapLock) {
@@ -115,13 +162,18 @@ abstract class AbstractFetcherThread(name: String,
   }
 
   override def doWork(): Unit = {
+    completePendingAppends()
     maybeTruncate()
-    maybeFetch()
+    pipelinedFetchClient match {
+      case Some(client) => maybePipelineFetches(client)
+      case None => maybeFetch()
+    }
   }
 
   private def maybeFetch(): Unit = {
     val fetchRequestOpt = inLock(partitionMapLock) {
-      val ResultWithPartitions(fetchRequestOpt, partitionsWithError) = buildFetch(partitionStates.partitionStateMap.asScala)
+      val ResultWithPartitions(fetchRequestOpt, partitionsWithError) = buildFetch(lane = 0,
+        partitionStates.partitionStateMap.asScala, pendingAppends.keySet)
 
       handlePartitionsWithErrors(partitionsWithError, "maybeFetch")
 
@@ -138,6 +190,57 @@ abstract class AbstractFetcherThread(name: String,
     }
   }
 
+  /**
+   * Send a fetch request for every lane which has none in flight, and process the responses of the lanes whose
+   * requests have completed. The appends of one response overlap with the network round trips of the other lanes.
+   */
+  private def maybePipelineFetches(client: PipelinedFetchClient): Unit = {
+    val numLanes = client.maxInFlightFetches
+    val fetchRequests = inLock(partitionMapLock) {
+      val idleLanes = (0 until numLanes).filterNot(inFlightFetches.contains)
+      val fetchRequests = if (idleLanes.isEmpty) Seq.empty else {
+        val lanePartitionMaps = Array.fill(numLanes)(mutable.LinkedHashMap.empty[TopicPartition, PartitionFetchState])
+        partitionStates.partitionStateMap.forEach { (tp, state) =>
+          lanePartitionMaps(fetchLane(tp, numLanes)).put(tp, state)
+        }
+        idleLanes.flatMap { lane =>
+          val ResultWithPartitions(fetchRequestOpt, partitionsWithError) = buildFetch(lane, lanePartitionMaps(lane),
+            pendingAppends.keySet)
+          handlePartitionsWithErrors(partitionsWithError, "maybePipelineFetches")
+          fetchRequestOpt.map(lane -> _)
+        }
+      }
+
+      if (fetchRequests.isEmpty && inFlightFetches.isEmpty) {
+        trace(s"There are no active partitions. Back off for $fetchBackOffMs ms before sending a fetch request")
+        partitionMapCond.await(fetchBackOffMs, TimeUnit.MILLISECONDS)
+      }
+
+      fetchRequests
+    }
+
+    fetchRequests.foreach { case (lane, ReplicaFetch(sessionPartitions, fetchRequest)) =>
+      trace(s"Sending fetch request $fetchRequest")
+      inFlightFetches.put(lane, InFlightFetch(sessionPartitions, fetchRequest, time.hiResClockMs))
+      fetcherStats.inFlightRequestCount.incrementAndGet()
+      client.sendFetch(lane, fetchRequest)(responseData => completedFetches.add(lane -> responseData))
+    }
+
+    if (completedFetches.isEmpty && inFlightFetches.nonEmpty)
+      client.poll()
+
+    while (!completedFetches.isEmpty) {
+      val (lane, responseData) = completedFetches.poll()
+      inFlightFetches.remove(lane).foreach { case InFlightFetch(sessionPartitions, fetchRequest, sendTimeMs) =>
+        fetcherStats.inFlightRequestCount.decrementAndGet()
+        fetcherStats.roundTripTime.update(time.hiResClockMs - sendTimeMs)
+        processFetchResponse(sessionPartitions, fetchRequest, responseData)
+      }
+    }
+  }
+
+  private def fetchLane(topicPartition: TopicPartition, numLanes: Int): Int = Utils.abs(topicPartition.hashCode) % numLanes
+
   // deal with partitions with errors, potentially due to leadership changes
   private def handlePartitionsWithErrors(partitions: Iterable[TopicPartition], methodName: String): Unit = {
     if (partitions.nonEmpty) {
@@ -156,6 +259,7 @@ abstract class AbstractFetcherThread(name: String,
 
     partitionStates.partitionStateMap.forEach { (tp, state) =>
       if (state.isTruncating) {
+        fenceAndAwaitPendingAppends(Seq(tp))
         latestEpoch(tp) match {
           case Some(epoch) if isOffsetForLeaderEpochSupported =>
             partitionsWithEpochs += tp -> new EpochData()
@@ -182,6 +286,7 @@ abstract class AbstractFetcherThread(name: String,
   }
 
   private def doTruncate(topicPartition: TopicPartition, truncationState: OffsetTruncationState): Boolean = {
+    fenceAndAwaitPendingAppends(Seq(topicPartition))
     try {
       truncate(topicPartition, truncationState)
       true
@@ -260,6 +365,7 @@ abstract class AbstractFetcherThread(name: String,
                                              latestEpochsForPartitions: Map[TopicPartition, EpochData]): ResultWithPartitions[Map[TopicPartition, OffsetTruncationState]] = {
     val fetchOffsets = mutable.HashMap.empty[TopicPartition, OffsetTruncationState]
     val partitionsWithError = mutable.HashSet.empty[TopicPartition]
+    fenceAndAwaitPendingAppends(fetchedEpochs.keys)
 
     fetchedEpochs.forKeyValue { (tp, leaderEpochOffset) =>
       Errors.forCode(leaderEpochOffset.errorCode) match {
@@ -304,23 +410,42 @@ abstract class AbstractFetcherThread(name: String,
 
   private def processFetchRequest(sessionPartitions: util.Map[TopicPartition, FetchRequest.PartitionData],
                                   fetchRequest: FetchRequest.Builder): Unit = {
+    trace(s"Sending fetch request $fetchRequest")
+    val sendTimeMs = time.hiResClockMs
+    fetcherStats.inFlightRequestCount.incrementAndGet()
+    val responseData = try Success(fetchFromLeader(fetchRequest)) catch {
+      case t: Throwable => Failure(t)
+    }
+    fetcherStats.inFlightRequestCount.decrementAndGet()
+    fetcherStats.roundTripTime.update(time.hiResClockMs - sendTimeMs)
+    processFetchResponse(sessionPartitions, fetchRequest, responseData)
+  }
+
+  private def processFetchResponse(sessionPartitions: util.Map[TopicPartition, FetchRequest.PartitionData],
+                                   fetchRequest: FetchRequest.Builder,
+                                   fetchResponseData: Try[Map[TopicPartition, FetchData]]): Unit = {
     val partitionsWithError = mutable.Set[TopicPartition]()
     val divergingEndOffsets = mutable.Map.empty[TopicPartition, EpochEndOffset]
     var responseData: Map[TopicPartition, FetchData] = Map.empty
 
-    try {
-      trace(s"Sending fetch request $fetchRequest")
-      responseData = fetchFromLeader(fetchRequest)
-    } catch {
-      case t: Throwable =>
+    fetchResponseData match {
+      case Success(data) =>
+        responseData = data
+      case Failure(t) =>
         if (isRunning) {
           warn(s"Error in response for fetch request $fetchRequest", t)
           inLock(partitionMapLock) {
-            partitionsWithError ++= partitionStates.partitionSet.asScala
-            // there is an error occurred while fetching partitions, sleep a while
-            // note that `AbstractFetcherThread.handlePartitionsWithError` will also introduce the same delay for every
-            // partition with error effectively doubling the delay. It would be good to improve this.
-            partitionMapCond.await(fetchBackOffMs, TimeUnit.MILLISECONDS)
+            if (pipelinedFetchClient.isDefined) {
+              // only the partitions of the failed lane are affected, the other lanes continue to fetch while they
+              // are delayed
+              partitionsWithError ++= sessionPartitions.keySet.asScala
+            } else {
+              partitionsWithError ++= partitionStates.partitionSet.asScala
+              // there is an error occurred while fetching partitions, sleep a while
+              // note that `AbstractFetcherThread.handlePartitionsWithError` will also introduce the same delay for every
+              // partition with error effectively doubling the delay. It would be good to improve this.
+              partitionMapCond.await(fetchBackOffMs, TimeUnit.MILLISECONDS)
+            }
           }
         }
     }
@@ -333,31 +458,23 @@ abstract class AbstractFetcherThread(name: String,
           Option(partitionStates.stateValue(topicPartition)).foreach { currentFetchState =>
             // It's possible that a partition is removed and re-added or truncated when there is a pending fetch request.
             // In this case, we only want to process the fetch response if the partition state is ready for fetch and
-            // the current offset is the same as the offset requested.
+            // the current offset is the same as the offset requested. The response for a partition whose data is
+            // still being appended is ignored, the partition is only kept in the fetch session
             val fetchPartitionData = sessionPartitions.get(topicPartition)
-            if (fetchPartitionData != null && fetchPartitionData.fetchOffset == currentFetchState.fetchOffset && currentFetchState.isReadyForFetch) {
+            if (fetchPartitionData != null && fetchPartitionData.fetchOffset == currentFetchState.fetchOffset &&
+                currentFetchState.isReadyForFetch && !pendingAppends.contains(topicPartition)) {
               Errors.forCode(partitionData.errorCode) match {
                 case Errors.NONE =>
                   try {
                     // Once we hand off the partition data to the subclass, we can't mess with it any more in this thread
-                    val logAppendInfoOpt = processPartitionData(topicPartition, currentFetchState.fetchOffset,
-                      partitionData)
-
-                    logAppendInfoOpt.foreach { logAppendInfo =>
-                      val validBytes = logAppendInfo.validBytes
-                      val nextOffset = if (validBytes > 0) logAppendInfo.lastOffset + 1 else currentFetchState.fetchOffset
-                      val lag = Math.max(0L, partitionData.highWatermark - nextOffset)
-                      fetcherLagStats.getAndMaybePut(topicPartition).lag = lag
-
-                      // ReplicaDirAlterThread may have removed topicPartition from the partitionStates after processing the partition data
-                      if (validBytes > 0 && partitionStates.contains(topicPartition)) {
-                        // Update partitionStates only if there is no exception during processPartitionData
-                        val newFetchState = PartitionFetchState(nextOffset, Some(lag),
-                          currentFetchState.currentLeaderEpoch, state = Fetching,
-                          logAppendInfo.lastLeaderEpoch)
-                        partitionStates.updateAndMoveToEnd(topicPartition, newFetchState)
-                        fetcherStats.byteRate.mark(validBytes)
-                      }
+                    submitPartitionData(topicPartition, currentFetchState, partitionData) match {
+                      case Some(pendingAppend) =>
+                        // the fetch state is updated once the append has completed, see `completePendingAppends`
+                        pendingAppends.put(topicPartition, HandedOffAppend(pendingAppend, partitionData.highWatermark))
+                      case None =>
+                        processPartitionData(topicPartition, currentFetchState.fetchOffset, partitionData).foreach { logAppendInfo =>
+                          onPartitionDataAppended(topicPartition, currentFetchState, partitionData.highWatermark, logAppendInfo)
+                        }
                     }
                     if (isTruncationOnFetchSupported) {
                       FetchResponse.divergingEpoch(partitionData).ifPresent { divergingEpoch =>
@@ -369,24 +486,8 @@ abstract class AbstractFetcherThread(name: String,
                       }
                     }
                   } catch {
-                    case ime@( _: CorruptRecordException | _: InvalidRecordException) =>
-                      // we log the error and continue. This ensures two things
-                      // 1. If there is a corrupt message in a topic partition, it does not bring the fetcher thread
-                      //    down and cause other topic partition to also lag
-                      // 2. If the message is corrupt due to a transient state in the log (truncation, partial writes
-                      //    can cause this), we simply continue and should get fixed in the subsequent fetches
-                      error(s"Found invalid messages during fetch for partition $topicPartition " +
-                        s"offset ${currentFetchState.fetchOffset}", ime)
-                      partitionsWithError += topicPartition
-                    case e: KafkaStorageException =>
-                      error(s"Error while processing data for partition $topicPartition " +
-                        s"at offset ${currentFetchState.fetchOffset}", e)
-                      markPartitionFailed(topicPartition)
                     case t: Throwable =>
-                      // stop monitoring this partition and add it to the set of failed partitions
-                      error(s"Unexpected error occurred while processing data for partition $topicPartition " +
-                        s"at offset ${currentFetchState.fetchOffset}", t)
-                      markPartitionFailed(topicPartition)
+                      onPartitionDataError(topicPartition, currentFetchState.fetchOffset, t, partitionsWithError)
                   }
                 case Errors.OFFSET_OUT_OF_RANGE =>
                   if (handleOutOfRangeError(topicPartition, currentFetchState, fetchPartitionData.currentLeaderEpoch))
@@ -429,6 +530,103 @@ abstract class AbstractFetcherThread(name: String,
     }
   }
 
+  private def onPartitionDataError(topicPartition: TopicPartition,
+                                   fetchOffset: Long,
+                                   t: Throwable,
+                                   partitionsWithError: mutable.Set[TopicPartition]): Unit = t match {
+    case ime@( _: CorruptRecordException | _: InvalidRecordException) =>
+      // we log the error and continue. This ensures two things
+      // 1. If there is a corrupt message in a topic partition, it does not bring the fetcher thread
+      //    down and cause other topic partition to also lag
+      // 2. If the message is corrupt due to a transient state in the log (truncation, partial writes
+      //    can cause this), we simply continue and should get fixed in the subsequent fetches
+      error(s"Found invalid messages during fetch for partition $topicPartition " +
+        s"offset $fetchOffset", ime)
+      partitionsWithError += topicPartition
+    case e: KafkaStorageException =>
+      error(s"Error while processing data for partition $topicPartition " +
+        s"at offset $fetchOffset", e)
+      markPartitionFailed(topicPartition)
+    case t: Throwable =>
+      // stop monitoring this partition and add it to the set of failed partitions
+      error(s"Unexpected error occurred while processing data for partition $topicPartition " +
+        s"at offset $fetchOffset", t)
+      markPartitionFailed(topicPartition)
+  }
+
+  // advance the fetch offset of a partition past the data that has been appended to its log
+  private def onPartitionDataAppended(topicPartition: TopicPartition,
+                                      currentFetchState: PartitionFetchState,
+                                      leaderHighWatermark: Long,
+                                      logAppendInfo: LogAppendInfo): Unit = {
+    val validBytes = logAppendInfo.validBytes
+    val nextOffset = if (validBytes > 0) logAppendInfo.lastOffset + 1 else currentFetchState.fetchOffset
+    val lag = Math.max(0L, leaderHighWatermark - nextOffset)
+    fetcherLagStats.getAndMaybePut(topicPartition).lag = lag
+
+    // ReplicaDirAlterThread may have removed topicPartition from the partitionStates after processing the partition data
+    if (validBytes > 0 && partitionStates.contains(topicPartition)) {
+      // Update partitionStates only if there is no exception during processPartitionData
+      val newFetchState = PartitionFetchState(nextOffset, Some(lag),
+        currentFetchState.currentLeaderEpoch, state = Fetching,
+        logAppendInfo.lastLeaderEpoch)
+      partitionStates.updateAndMoveToEnd(topicPartition, newFetchState)
+      fetcherStats.byteRate.mark(validBytes)
+    }
+  }
+
+  /**
+   * Update the fetch states of the partitions whose handed off appends have completed, which makes them available to
+   * be fetched again.
+   */
+  private def completePendingAppends(): Unit = inLock(partitionMapLock) {
+    if (pendingAppends.nonEmpty) {
+      val partitionsWithError = mutable.Set[TopicPartition]()
+      pendingAppends.filter { case (_, handedOff) => handedOff.pendingAppend.isDone }.forKeyValue { (topicPartition, handedOff) =>
+        pendingAppends.remove(topicPartition)
+        val append = handedOff.pendingAppend
+        Option(partitionStates.stateValue(topicPartition)).foreach { currentFetchState =>
+          if (currentFetchState.fetchOffset == append.fetchOffset && currentFetchState.state == Fetching) {
+            append.await() match {
+              case Success(logAppendInfoOpt) =>
+                logAppendInfoOpt.foreach(onPartitionDataAppended(topicPartition, currentFetchState, handedOff.leaderHighWatermark, _))
+              case Failure(t) =>
+                onPartitionDataError(topicPartition, append.fetchOffset, t, partitionsWithError)
+            }
+          }
+        }
+      }
+      handlePartitionsWithErrors(partitionsWithError, "completePendingAppends")
+    }
+  }
+
+  /**
+   * Wake the fetcher thread up if it is backing off because all of its partitions are waiting for their appends. A
+   * fetcher thread waiting for a fetch response is not woken up, so the fetches which keep partitions with a pending
+   * append in the session should not be held by the leader for long.
+   */
+  protected def onPendingAppendCompleted(): Unit = inLock(partitionMapLock) {
+    partitionMapCond.signalAll()
+  }
+
+  // fence the pending appends of the partitions so that the ones which have not started are never performed, and
+  // return the ones which have started and may still be in progress. Called with the partition map lock held
+  private def fencePendingAppends(topicPartitions: Iterable[TopicPartition]): Map[TopicPartition, PendingAppend] = {
+    if (pendingAppends.isEmpty) {
+      Map.empty
+    } else {
+      topicPartitions.flatMap { tp =>
+        pendingAppends.remove(tp).map(_.pendingAppend).filterNot(_.fence()).map(tp -> _)
+      }.toMap
+    }
+  }
+
+  // the fetcher thread reads or truncates the logs of partitions in the truncating phase, which do not fetch and so
+  // have no pending append unless one was handed off just before, which is then waited for
+  private def fenceAndAwaitPendingAppends(topicPartitions: Iterable[TopicPartition]): Unit = inLock(partitionMapLock) {
+    fencePendingAppends(topicPartitions).values.foreach(_.await())
+  }
+
   /**
    * This is used to mark partitions for truncation in ReplicaAlterLogDirsThread after leader
    * offsets are known.
@@ -485,6 +683,10 @@ abstract class AbstractFetcherThread(name: String,
 
       initialFetchStates.forKeyValue { (tp, initialFetchState) =>
         val currentState = partitionStates.stateValue(tp)
+        // the pending append of a partition that moves to a new leader epoch is fenced by that epoch, it is neither in
+        // progress nor will it be performed once the partition is in the new epoch, so it is not waited for
+        if (currentState == null || currentState.currentLeaderEpoch != initialFetchState.currentLeaderEpoch)
+          fencePendingAppends(Seq(tp))
         val updatedState = partitionFetchState(tp, initialFetchState, currentState)
         partitionStates.updateAndMoveToEnd(tp, updatedState)
       }
@@ -626,6 +828,7 @@ abstract class AbstractFetcherThread(name: String,
    * Handle a partition whose offset is out of range and return a new fetch offset.
    */
   protected def fetchOffsetAndTruncate(topicPartition: TopicPartition, currentLeaderEpoch: Int): PartitionFetchState = {
+    fenceAndAwaitPendingAppends(Seq(topicPartition))
     val replicaEndOffset = logEndOffset(topicPartition)
 
     /**
@@ -702,14 +905,29 @@ abstract class AbstractFetcherThread(name: String,
 
   def removePartitions(topicPartitions: Set[TopicPartition]): Map[TopicPartition, PartitionFetchState] = {
     partitionMapLock.lockInterruptibly()
-    try {
-      topicPartitions.map { topicPartition =>
+    val (removedStates, startedAppends) = try {
+      val startedAppends = fencePendingAppends(topicPartitions)
+      val removedStates = topicPartitions.map { topicPartition =>
         val state = partitionStates.stateValue(topicPartition)
         partitionStates.remove(topicPartition)
         fetcherLagStats.unregister(topicPartition)
         topicPartition -> state
       }.filter(_._2 != null).toMap
+      (removedStates, startedAppends)
     } finally partitionMapLock.unlock()
+
+    // The appends which had already started are waited for without the lock, so that the caller can rely on no more
+    // data being appended once the partitions are removed. The returned fetch offsets include their data
+    removedStates.map { case (topicPartition, state) =>
+      val appendInfoOpt = startedAppends.get(topicPartition).flatMap(_.await().toOption.flatten)
+      appendInfoOpt match {
+        case Some(logAppendInfo) if logAppendInfo.validBytes > 0 =>
+          topicPartition -> state.copy(fetchOffset = logAppendInfo.lastOffset + 1,
+            lastFetchedEpoch = logAppendInfo.lastLeaderEpoch)
+        case _ =>
+          topicPartition -> state
+      }
+    }
   }
 
   def partitionCount: Int = {
@@ -743,14 +961,38 @@ abstract class AbstractFetcherThread(name: String,
 object AbstractFetcherThread {
 
   case class ReplicaFetch(partitionData: util.Map[TopicPartition, FetchRequest.PartitionData], fetchRequest: FetchRequest.Builder)
+  private[server] case class HandedOffAppend(pendingAppend: PendingAppend, leaderHighWatermark: Long)
+  private[server] case class InFlightFetch(sessionPartitions: util.Map[TopicPartition, FetchRequest.PartitionData],
+                                   fetchRequest: FetchRequest.Builder,
+                                   sendTimeMs: Long)
   case class ResultWithPartitions[R](result: R, partitionsWithError: Set[TopicPartition])
 
+  /**
+   * Sends the fetch requests of a fetcher that keeps several of them in flight. The partitions are divided between
+   * `maxInFlightFetches` lanes, each of which has at most one request in flight, so a partition is never in more than
+   * one request.
+   */
+  trait PipelinedFetchClient {
+
+    def maxInFlightFetches: Int
+
+    // send the fetch request of a lane without waiting for its response, which is passed to `onComplete` on the fetcher
+    // thread from within `poll`
+    def sendFetch(lane: Int, fetchRequest: FetchRequest.Builder)
+                 (onComplete: Try[Map[TopicPartition, FetchResponseData.PartitionData]] => Unit): Unit
+
+    // wait for the responses of in-flight fetch requests, returning after at least one of them has completed or a timeout
+    def poll(): Unit
+  }
+
 }
 
 object FetcherMetrics {
   val ConsumerLag = "ConsumerLag"
   val RequestsPerSec = "RequestsPerSec"
   val BytesPerSec = "BytesPerSec"
+  val InFlightRequestCount = "InFlightRequestCount"
+  val RoundTripTimeMs = "RoundTripTimeMs"
 }
 
 class FetcherLagMetrics(metricId: ClientIdTopicPartition) extends KafkaMetricsGroup {
@@ -803,9 +1045,16 @@ class FetcherStats(metricId: ClientIdAndBroker) extends KafkaMetricsGroup {
 
   val byteRate = newMeter(FetcherMetrics.BytesPerSec, "bytes", TimeUnit.SECONDS, tags)
 
+  val inFlightRequestCount = new AtomicInteger()
+  newGauge(FetcherMetrics.InFlightRequestCount, () => inFlightRequestCount.get, tags)
+
+  val roundTripTime = newHistogram(FetcherMetrics.RoundTripTimeMs, biased = true, tags)
+
   def unregister(): Unit = {
     removeMetric(FetcherMetrics.RequestsPerSec, tags)
     removeMetric(FetcherMetrics.BytesPerSec, tags)
+    removeMetric(FetcherMetrics.InFlightRequestCount, tags)
+    removeMetric(FetcherMetrics.RoundTripTimeMs, tags)
   }
 
 }
@@ -129,16 +129,29 @@ abstract class DelayedOperation(override val delayMs: Long,
   }
 }
 
-object DelayedOperationPurgatory {
+object DelayedOperationPurgatory extends KafkaMetricsGroup {
 
   private val Shards = 512 // Shard the watcher list to reduce lock contention
 
+  private[server] val ExpirationLatencyMetricName = "ExpirationLatencyMs"
+
+  /**
+   * Create a purgatory with a `SystemTimer`, or with a `StripedSystemTimer` if `timerStripes` is greater than 1.
+   * The timer records the expiration latency of the operations in the purgatory's `ExpirationLatencyMs` histogram.
+   */
   def apply[T <: DelayedOperation](purgatoryName: String,
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000,
                                    reaperEnabled: Boolean = true,
-                                   timerEnabled: Boolean = true): DelayedOperationPurgatory[T] = {
-    val timer = new SystemTimer(purgatoryName)
+                                   timerEnabled: Boolean = true,
+                                   timerStripes: Int = 1): DelayedOperationPurgatory[T] = {
+    val expirationLatency = newHistogram(ExpirationLatencyMetricName, tags = Map("delayedOperation" -> purgatoryName))
+    val recordExpirationLatency = (latencyMs: Long) => expirationLatency.update(latencyMs)
+    val timer =
+      if (timerStripes > 1)
+        new StripedSystemTimer(purgatoryName, timerStripes, recordExpirationLatency = recordExpirationLatency)
+      else
+        new SystemTimer(purgatoryName, recordExpirationLatency = recordExpirationLatency)
     new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled)
   }
 
@@ -183,6 +196,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
   private val metricsTags = Map("delayedOperation" -> purgatoryName)
   newGauge("PurgatorySize", () => watched, metricsTags)
   newGauge("NumDelayedOperations", () => numDelayed, metricsTags)
+  // sampled on every run of the expiration reaper
+  private val numDelayedHistogram = newHistogram("SampledDelayedOperations", tags = metricsTags)
 
   if (reaperEnabled)
     expirationReaper.start()
@@ -331,6 +346,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     timeoutTimer.shutdown()
     removeMetric("PurgatorySize", metricsTags)
     removeMetric("NumDelayedOperations", metricsTags)
+    removeMetric("SampledDelayedOperations", metricsTags)
+    removeMetric(DelayedOperationPurgatory.ExpirationLatencyMetricName, metricsTags)
   }
 
   /**
@@ -405,6 +422,7 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
 
   def advanceClock(timeoutMs: Long): Unit = {
     timeoutTimer.advanceClock(timeoutMs)
+    numDelayedHistogram.update(numDelayed)
 
     // Trigger a purge if the number of completed but still being watched operations is larger than
     // the purge threshold. That number is computed by the difference btw the estimated total number of
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ArrayBlockingQueue, RejectedExecutionException, ThreadFactory, ThreadPoolExecutor, TimeUnit}
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.Logging
+import org.apache.kafka.common.utils.{KafkaThread, Time}
+
+object FetchReadScheduler {
+  val ReadTimeMetricName = "ReadTimeMs"
+  val ColdReadQueueTimeMetricName = "ColdReadQueueTimeMs"
+  val ColdReadQueueSizeMetricName = "ColdReadQueueSize"
+  val RejectedColdReadsMetricName = "RejectedColdReadsPerSec"
+  val TailReadClass = "tail"
+  val ColdReadClass = "cold"
+}
+
+/**
+ * Separates the fetch requests which read far behind the log end, whose data is unlikely to still be in the page
+ * cache, from the fetch requests at the tail of the logs. A cold read is performed on a bounded pool of threads, so
+ * the random reads of a reader catching up do not hold up the request handler threads which serve the tail readers.
+ *
+ * At most `maxQueuedReads` cold reads wait for a thread of the pool. Once the queue is full, further cold reads are
+ * rejected, and the caller answers them without reading, rather than letting the queue grow without bound or blocking
+ * a request handler thread on the read.
+ */
+class FetchReadScheduler(numThreads: Int,
+                         maxQueuedReads: Int,
+                         coldOffsetLag: Long,
+                         time: Time) extends Logging with KafkaMetricsGroup {
+  import FetchReadScheduler._
+
+  private val queue = new ArrayBlockingQueue[Runnable](maxQueuedReads)
+  private val executor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS, queue,
+    new ThreadFactory {
+      private val threadIndex = new AtomicInteger()
+      override def newThread(r: Runnable): Thread = KafkaThread.daemon(s"ColdFetchReader-${threadIndex.getAndIncrement}", r)
+    })
+
+  private val tailReadTime = newHistogram(ReadTimeMetricName, tags = Map("readClass" -> TailReadClass))
+  private val coldReadTime = newHistogram(ReadTimeMetricName, tags = Map("readClass" -> ColdReadClass))
+  private val coldReadQueueTime = newHistogram(ColdReadQueueTimeMetricName)
+  private val rejectedColdReads = newMeter(RejectedColdReadsMetricName, "reads", TimeUnit.SECONDS)
+  newGauge(ColdReadQueueSizeMetricName, () => queue.size)
+
+  /**
+   * A read is cold if it starts more than `coldOffsetLag` offsets below the log end offset.
+   */
+  def isCold(fetchOffset: Long, logEndOffset: Long): Boolean = logEndOffset - fetchOffset > coldOffsetLag
+
+  /**
+   * Perform a read of tail data on the calling thread.
+   */
+  def readTail[T](read: => T): T = {
+    val startMs = time.hiResClockMs
+    try read
+    finally tailReadTime.update(time.hiResClockMs - startMs)
+  }
+
+  /**
+   * Perform a cold read on a thread of the pool. Returns false without performing the read if the queue is full.
+   * `read` is expected to complete the request itself, also when it fails, an exception thrown by it is only logged.
+   */
+  def submitCold(read: () => Unit): Boolean = {
+    val submitTimeMs = time.hiResClockMs
+    try {
+      executor.execute { () =>
+        val startMs = time.hiResClockMs
+        coldReadQueueTime.update(startMs - submitTimeMs)
+        try read()
+        catch {
+          case e: Throwable => error("Error while performing a cold fetch read", e)
+        } finally coldReadTime.update(time.hiResClockMs - startMs)
+      }
+      true
+    } catch {
+      case _: RejectedExecutionException =>
+        rejectedColdReads.mark()
+        false
+    }
+  }
+
+  def shutdown(): Unit = {
+    info("Shutting down")
+    executor.shutdown()
+    executor.awaitTermination(60, TimeUnit.SECONDS)
+    removeMetric(ReadTimeMetricName, Map("readClass" -> TailReadClass))
+    removeMetric(ReadTimeMetricName, Map("readClass" -> ColdReadClass))
+    removeMetric(ColdReadQueueTimeMetricName)
+    removeMetric(RejectedColdReadsMetricName)
+    removeMetric(ColdReadQueueSizeMetricName)
+    info("Shut down completely")
+  }
+}
@@ -540,29 +540,37 @@ class KafkaApis(val requestChannel: RequestChannel,
     val nonExistingTopicResponses = mutable.Map[TopicPartition, PartitionResponse]()
     val invalidRequestResponses = mutable.Map[TopicPartition, PartitionResponse]()
     val authorizedRequestInfo = mutable.Map[TopicPartition, MemoryRecords]()
+    // The topics and partitions are read through a view over the request buffer, which avoids materializing the
+    // request data. A topic name is decoded each time the cursor advances to its topic, so the topics are iterated
+    // once and the partitions of each topic are visited through their own cursor.
+    val topics = mutable.ArrayBuffer[(String, ProduceRequestDataView.PartitionProduceDataView)]()
+    val topicCursor = produceRequest.view.topicData
+    while (topicCursor.hasNext) {
+      val topic = topicCursor.next()
+      topics += topic.name -> topic.partitionData
+    }
     // cache the result to avoid redundant authorization calls
-    val authorizedTopics = authHelper.filterByAuthorized(request.context, WRITE, TOPIC,
-      produceRequest.data().topicData().asScala)(_.name())
-
-    produceRequest.data.topicData.forEach(topic => topic.partitionData.forEach { partition =>
-      val topicPartition = new TopicPartition(topic.name, partition.index)
-      // This caller assumes the type is MemoryRecords and that is true on current serialization
-      // We cast the type to avoid causing big change to code base.
-      // https://issues.apache.org/jira/browse/KAFKA-10698
-      val memoryRecords = partition.records.asInstanceOf[MemoryRecords]
-      if (!authorizedTopics.contains(topicPartition.topic))
-        unauthorizedTopicResponses += topicPartition -> new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED)
-      else if (!metadataCache.contains(topicPartition))
-        nonExistingTopicResponses += topicPartition -> new PartitionResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION)
-      else
-        try {
-          ProduceRequest.validateRecords(request.header.apiVersion, memoryRecords)
-          authorizedRequestInfo += (topicPartition -> memoryRecords)
-        } catch {
-          case e: ApiException =>
-            invalidRequestResponses += topicPartition -> new PartitionResponse(Errors.forException(e))
-        }
-    })
+    val authorizedTopics = authHelper.filterByAuthorized(request.context, WRITE, TOPIC, topics)(_._1)
+
+    topics.foreach { case (topicName, partitionCursor) =>
+      while (partitionCursor.hasNext) {
+        val partition = partitionCursor.next()
+        val topicPartition = new TopicPartition(topicName, partition.index)
+        val memoryRecords = partition.records
+        if (!authorizedTopics.contains(topicPartition.topic))
+          unauthorizedTopicResponses += topicPartition -> new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED)
+        else if (!metadataCache.contains(topicPartition))
+          nonExistingTopicResponses += topicPartition -> new PartitionResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION)
+        else
+          try {
+            ProduceRequest.validateRecords(request.header.apiVersion, memoryRecords)
+            authorizedRequestInfo += (topicPartition -> memoryRecords)
+          } catch {
+            case e: ApiException =>
+              invalidRequestResponses += topicPartition -> new PartitionResponse(Errors.forException(e))
+          }
+      }
+    }
 
     // the callback for sending a produce response
     // The construction of ProduceResponse is able to accept auto-generated protocol data so
@@ -662,9 +670,20 @@ class KafkaApis(val requestChannel: RequestChannel,
     val versionId = request.header.apiVersion
     val clientId = request.header.clientId
     val fetchRequest = request.body[FetchRequest]
+    // read the partitions directly from the request buffer rather than materializing the request data
+    val fetchData = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    val topicCursor = fetchRequest.view.topics
+    while (topicCursor.hasNext) {
+      val topic = topicCursor.next()
+      val partitionCursor = topic.partitions
+      while (partitionCursor.hasNext) {
+        val partition = partitionCursor.next()
+        fetchData.put(new TopicPartition(topic.topic, partition.partition), FetchRequest.PartitionData.fromView(partition))
+      }
+    }
     val fetchContext = fetchManager.newContext(
       fetchRequest.metadata,
-      fetchRequest.fetchData,
+      fetchData,
       fetchRequest.toForget,
       fetchRequest.isFromFollower)
 
@@ -918,7 +937,16 @@ class KafkaApis(val requestChannel: RequestChannel,
         replicationQuota(fetchRequest),
         processResponseCallback,
         fetchRequest.isolationLevel,
-        clientMetadata)
+        clientMetadata,
+        readCompletionCallback = readError => {
+          // the read of the cold partitions is part of the local processing of the request
+          request.apiLocalCompleteTimeNanos = time.nanoseconds
+          readError.foreach { e =>
+            error(s"Unexpected error handling request ${request.requestDesc(true)} " +
+              s"with context ${request.context}", e)
+            requestHelper.handleError(request, e)
+          }
+        })
     }
   }
 
@@ -1103,10 +1131,13 @@ class KafkaApis(val requestChannel: RequestChannel,
     topics: Set[String],
     listenerName: ListenerName,
     errorUnavailableEndpoints: Boolean,
-    errorUnavailableListeners: Boolean
+    errorUnavailableListeners: Boolean,
+    useCachedTopicMetadata: Boolean
   ): Seq[MetadataResponseTopic] = {
-    val topicResponses = metadataCache.getTopicMetadata(topics, listenerName,
-      errorUnavailableEndpoints, errorUnavailableListeners)
+    val topicResponses = if (useCachedTopicMetadata)
+      metadataCache.getCachedTopicMetadata(topics, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    else
+      metadataCache.getTopicMetadata(topics, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
 
     if (topics.isEmpty || topicResponses.size == topics.size || fetchAllTopics) {
       topicResponses
@@ -1194,9 +1225,14 @@ class KafkaApis(val requestChannel: RequestChannel,
     // From version 6 onwards, we return LISTENER_NOT_FOUND to enable diagnosis of configuration errors.
     val errorUnavailableListeners = requestVersion >= 6
 
+    // Cached topics are written out as they were serialized, so they cannot be used when the authorized
+    // operations of the topics are set below
+    val includeTopicAuthorizedOperations = requestVersion >= 8 && metadataRequest.data.includeTopicAuthorizedOperations
+    val useCachedTopicMetadata = config.metadataResponseTopicCacheEnable && !includeTopicAuthorizedOperations
+
     val allowAutoCreation = config.autoCreateTopicsEnable && metadataRequest.allowAutoTopicCreation && !metadataRequest.isAllTopics
     val topicMetadata = getTopicMetadata(request, metadataRequest.isAllTopics, allowAutoCreation, authorizedTopics,
-      request.context.listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+      request.context.listenerName, errorUnavailableEndpoints, errorUnavailableListeners, useCachedTopicMetadata)
 
     var clusterAuthorizedOperations = Int.MinValue // Default value in the schema
     if (requestVersion >= 8) {
@@ -1211,7 +1247,7 @@ class KafkaApis(val requestChannel: RequestChannel,
       }
 
       // get topic authorized operations
-      if (metadataRequest.data.includeTopicAuthorizedOperations) {
+      if (includeTopicAuthorizedOperations) {
         def setTopicAuthorizedOperations(topicMetadata: Seq[MetadataResponseTopic]): Unit = {
           topicMetadata.foreach { topicData =>
             topicData.setTopicAuthorizedOperations(authHelper.authorizedOperations(request, new Resource(ResourceType.TOPIC, topicData.name)))
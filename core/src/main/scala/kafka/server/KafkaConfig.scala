@@ -24,8 +24,9 @@ import kafka.api.{ApiVersion, ApiVersionValidator, KAFKA_0_10_0_IV1, KAFKA_2_1_I
 import kafka.cluster.EndPoint
 import kafka.coordinator.group.OffsetConfig
 import kafka.coordinator.transaction.{TransactionLog, TransactionStateManager}
-import kafka.log.LogConfig
+import kafka.log.{CleanerConfig, LogConfig}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, ZStdCompressionCodec}
+import kafka.network.RequestChannel
 import kafka.security.authorizer.AuthorizerUtils
 import kafka.server.KafkaRaftServer.{BrokerRole, ControllerRole, ProcessRole}
 import kafka.utils.CoreUtils
@@ -68,9 +69,12 @@ object Defaults {
   val MessageMaxBytes = 1024 * 1024 + Records.LOG_OVERHEAD
   val NumNetworkThreads = 3
   val NumIoThreads = 8
+  val NumIoVirtualThreads = 0
   val BackgroundThreads = 10
   val QueuedMaxRequests = 500
   val QueuedMaxRequestBytes = -1
+  val RequestClassWeights = ""
+  val MaxPipelinedRequestsPerConnection = 1
   val InitialBrokerRegistrationTimeoutMs = 60000
   val BrokerHeartbeatIntervalMs = 2000
   val BrokerSessionTimeoutMs = 9000
@@ -90,10 +94,19 @@ object Defaults {
   val SocketSendBufferBytes: Int = 100 * 1024
   val SocketReceiveBufferBytes: Int = 100 * 1024
   val SocketRequestMaxBytes: Int = 100 * 1024 * 1024
+  val SocketRequestBufferPoolBytes = 0L
+  val SocketRequestBufferPoolDirect = false
+  val SocketResponseBufferPoolBytes = 0L
+  val SocketResponseCoalesceMaxBytes: Int = 64 * 1024
+  val ConnectionAssignmentStrategy = "round_robin"
+  val ConnectionAssignmentStrategyValidValues = Array("round_robin", "least_loaded")
   val MaxConnectionsPerIp: Int = Int.MaxValue
   val MaxConnectionsPerIpOverrides: String = ""
   val MaxConnections: Int = Int.MaxValue
   val MaxConnectionCreationRate: Int = Int.MaxValue
+  val MaxConnectionHandshakeRate: Int = Int.MaxValue
+  val MaxConnectionHandshakeRatePerIp: Int = Int.MaxValue
+  val ConnectionHandshakeQueueTimeoutMs: Long = CommonClientConfigs.DEFAULT_SOCKET_CONNECTION_SETUP_TIMEOUT_MS
   val ConnectionsMaxIdleMs = 10 * 60 * 1000L
   val RequestTimeoutMs = 30000
   val ConnectionSetupTimeoutMs = CommonClientConfigs.DEFAULT_SOCKET_CONNECTION_SETUP_TIMEOUT_MS
@@ -118,6 +131,8 @@ object Defaults {
   val LogCleanerDedupeBufferSize = 128 * 1024 * 1024L
   val LogCleanerIoBufferSize = 512 * 1024
   val LogCleanerDedupeBufferLoadFactor = 0.9d
+  val LogCleanerDedupeMapType = CleanerConfig.SkimpyDedupeMapType
+  val LogCleanerPartitionParallelism = 1
   val LogCleanerBackoffMs = 15 * 1000
   val LogCleanerMinCleanRatio = 0.5d
   val LogCleanerEnable = true
@@ -137,7 +152,11 @@ object Defaults {
   val LogMessageTimestampType = "CreateTime"
   val LogMessageTimestampDifferenceMaxMs = Long.MaxValue
   val NumRecoveryThreadsPerDataDir = 1
+  val LogTailCacheMaxBytes = 0L
+  val LogTailCachePartitionMaxBytes = 1024 * 1024
+  val LogProducerSnapshotFullInterval = 1
   val AutoCreateTopicsEnable = true
+  val MetadataResponseTopicCacheEnable = false
   val MinInSyncReplicas = 1
   val MessageDownConversionEnable = true
 
@@ -153,11 +172,18 @@ object Defaults {
   val ReplicaFetchMinBytes = 1
   val ReplicaFetchResponseMaxBytes = 10 * 1024 * 1024
   val NumReplicaFetchers = 1
+  val ReplicaFetchMaxInFlightRequests = 1
+  val ReplicaFetchAppendQueueMaxBytes = 0
   val ReplicaFetchBackoffMs = 1000
   val ReplicaHighWatermarkCheckpointIntervalMs = 5000L
   val FetchPurgatoryPurgeIntervalRequests = 1000
   val ProducerPurgatoryPurgeIntervalRequests = 1000
   val DeleteRecordsPurgatoryPurgeIntervalRequests = 1
+  val FollowerFetchBatchedCompletionEnable = false
+  val NumColdFetchThreads = 0
+  val ColdFetchOffsetLag = 100000L
+  val ColdFetchQueueMaxReads = 100
+  val PurgatoryTimerStripes = 1
   val AutoLeaderRebalanceEnable = true
   val LeaderImbalancePerBrokerPercentage = 10
   val LeaderImbalanceCheckIntervalSeconds = 300
@@ -359,10 +385,13 @@ object KafkaConfig {
   val MessageMaxBytesProp = "message.max.bytes"
   val NumNetworkThreadsProp = "num.network.threads"
   val NumIoThreadsProp = "num.io.threads"
+  val NumIoVirtualThreadsProp = "num.io.virtual.threads"
   val BackgroundThreadsProp = "background.threads"
   val NumReplicaAlterLogDirsThreadsProp = "num.replica.alter.log.dirs.threads"
   val QueuedMaxRequestsProp = "queued.max.requests"
   val QueuedMaxBytesProp = "queued.max.request.bytes"
+  val RequestClassWeightsProp = "request.class.weights"
+  val MaxPipelinedRequestsPerConnectionProp = "max.pipelined.requests.per.connection"
   val RequestTimeoutMsProp = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG
   val ConnectionSetupTimeoutMsProp = CommonClientConfigs.SOCKET_CONNECTION_SETUP_TIMEOUT_MS_CONFIG
   val ConnectionSetupTimeoutMaxMsProp = CommonClientConfigs.SOCKET_CONNECTION_SETUP_TIMEOUT_MAX_MS_CONFIG
@@ -387,10 +416,18 @@ object KafkaConfig {
   val SocketSendBufferBytesProp = "socket.send.buffer.bytes"
   val SocketReceiveBufferBytesProp = "socket.receive.buffer.bytes"
   val SocketRequestMaxBytesProp = "socket.request.max.bytes"
+  val SocketRequestBufferPoolBytesProp = "socket.request.buffer.pool.bytes"
+  val SocketRequestBufferPoolDirectProp = "socket.request.buffer.pool.direct"
+  val SocketResponseBufferPoolBytesProp = "socket.response.buffer.pool.bytes"
+  val SocketResponseCoalesceMaxBytesProp = "socket.response.coalesce.max.bytes"
+  val ConnectionAssignmentStrategyProp = "connection.assignment.strategy"
   val MaxConnectionsPerIpProp = "max.connections.per.ip"
   val MaxConnectionsPerIpOverridesProp = "max.connections.per.ip.overrides"
   val MaxConnectionsProp = "max.connections"
   val MaxConnectionCreationRateProp = "max.connection.creation.rate"
+  val MaxConnectionHandshakeRateProp = "max.connection.handshake.rate"
+  val MaxConnectionHandshakeRatePerIpProp = "max.connection.handshake.rate.per.ip"
+  val ConnectionHandshakeQueueTimeoutMsProp = "connection.handshake.queue.timeout.ms"
   val ConnectionsMaxIdleMsProp = "connections.max.idle.ms"
   val FailedAuthenticationDelayMsProp = "connection.failed.authentication.delay.ms"
   /***************** rack configuration *************/
@@ -419,6 +456,8 @@ object KafkaConfig {
   val LogCleanerDedupeBufferSizeProp = "log.cleaner.dedupe.buffer.size"
   val LogCleanerIoBufferSizeProp = "log.cleaner.io.buffer.size"
   val LogCleanerDedupeBufferLoadFactorProp = "log.cleaner.io.buffer.load.factor"
+  val LogCleanerDedupeMapTypeProp = "log.cleaner.dedupe.map.type"
+  val LogCleanerPartitionParallelismProp = "log.cleaner.partition.parallelism"
   val LogCleanerBackoffMsProp = "log.cleaner.backoff.ms"
   val LogCleanerMinCleanRatioProp = "log.cleaner.min.cleanable.ratio"
   val LogCleanerEnableProp = "log.cleaner.enable"
@@ -439,7 +478,11 @@ object KafkaConfig {
   val LogMessageTimestampDifferenceMaxMsProp = LogConfigPrefix + "message.timestamp.difference.max.ms"
   val LogMaxIdMapSnapshotsProp = LogConfigPrefix + "max.id.map.snapshots"
   val NumRecoveryThreadsPerDataDirProp = "num.recovery.threads.per.data.dir"
+  val LogTailCacheMaxBytesProp = "log.tail.cache.max.bytes"
+  val LogTailCachePartitionMaxBytesProp = "log.tail.cache.partition.max.bytes"
+  val LogProducerSnapshotFullIntervalProp = "log.producer.snapshot.full.interval"
   val AutoCreateTopicsEnableProp = "auto.create.topics.enable"
+  val MetadataResponseTopicCacheEnableProp = "metadata.response.topic.cache.enable"
   val MinInSyncReplicasProp = "min.insync.replicas"
   val CreateTopicPolicyClassNameProp = "create.topic.policy.class.name"
   val AlterConfigPolicyClassNameProp = "alter.config.policy.class.name"
@@ -456,10 +499,17 @@ object KafkaConfig {
   val ReplicaFetchResponseMaxBytesProp = "replica.fetch.response.max.bytes"
   val ReplicaFetchBackoffMsProp = "replica.fetch.backoff.ms"
   val NumReplicaFetchersProp = "num.replica.fetchers"
+  val ReplicaFetchMaxInFlightRequestsProp = "replica.fetch.max.in.flight.requests"
+  val ReplicaFetchAppendQueueMaxBytesProp = "replica.fetch.append.queue.max.bytes"
   val ReplicaHighWatermarkCheckpointIntervalMsProp = "replica.high.watermark.checkpoint.interval.ms"
   val FetchPurgatoryPurgeIntervalRequestsProp = "fetch.purgatory.purge.interval.requests"
   val ProducerPurgatoryPurgeIntervalRequestsProp = "producer.purgatory.purge.interval.requests"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsProp = "delete.records.purgatory.purge.interval.requests"
+  val FollowerFetchBatchedCompletionEnableProp = "follower.fetch.batched.completion.enable"
+  val NumColdFetchThreadsProp = "num.cold.fetch.threads"
+  val ColdFetchOffsetLagProp = "cold.fetch.offset.lag"
+  val ColdFetchQueueMaxReadsProp = "cold.fetch.queue.max.reads"
+  val PurgatoryTimerStripesProp = "purgatory.timer.stripes"
   val AutoLeaderRebalanceEnableProp = "auto.leader.rebalance.enable"
   val LeaderImbalancePerBrokerPercentageProp = "leader.imbalance.per.broker.percentage"
   val LeaderImbalanceCheckIntervalSecondsProp = "leader.imbalance.check.interval.seconds"
@@ -646,10 +696,23 @@ object KafkaConfig {
     s"This can be set per topic with the topic level <code>${TopicConfig.MAX_MESSAGE_BYTES_CONFIG}</code> config."
   val NumNetworkThreadsDoc = "The number of threads that the server uses for receiving requests from the network and sending responses to the network"
   val NumIoThreadsDoc = "The number of threads that the server uses for processing requests, which may include disk I/O"
+  val NumIoVirtualThreadsDoc = "The maximum number of client requests that are processed concurrently on virtual threads. When positive " +
+    s"and the JVM supports virtual threads, the <code>$NumIoThreadsProp</code> request handler threads hand each request off to a " +
+    "virtual thread, so that requests that block (for example on the authorizer or on ZooKeeper) do not hold up a request handler " +
+    "thread. If the JVM does not support virtual threads, requests are processed on the request handler threads as when this is 0."
   val NumReplicaAlterLogDirsThreadsDoc = "The number of threads that can move replicas between log directories, which may include disk I/O"
   val BackgroundThreadsDoc = "The number of threads to use for various background processing tasks"
   val QueuedMaxRequestsDoc = "The number of queued requests allowed for data-plane, before blocking the network threads"
   val QueuedMaxRequestBytesDoc = "The number of queued bytes allowed before no more requests are read"
+  val RequestClassWeightsDoc = "A comma separated list of request class and weight pairs, e.g. <code>replication:8,produce:4,fetch:4,other:1</code>. " +
+    "When set, data-plane requests are queued per class instead of in a single queue, each class queue holding up to " +
+    s"<code>$QueuedMaxRequestsProp</code> requests, and the request handler threads dequeue from the classes in weighted round-robin order. " +
+    "The classes are <code>replication</code> (follower fetches and controller requests), <code>produce</code>, <code>fetch</code> " +
+    "(consumer fetches) and <code>other</code>; classes that are not listed get a weight of 1. An empty value uses a single queue."
+  val MaxPipelinedRequestsPerConnectionDoc = "The maximum number of requests from a single connection that are processed concurrently. " +
+    "Only read-only requests such as metadata, offset listing, describe requests and fetches that do not use a fetch session are " +
+    "processed concurrently, any other request waits for the requests in progress to complete and is processed on its own. " +
+    "Responses are always sent in request order. The default of 1 processes the requests of a connection one at a time."
   val RequestTimeoutMsDoc = CommonClientConfigs.REQUEST_TIMEOUT_MS_DOC
   val ConnectionSetupTimeoutMsDoc = CommonClientConfigs.SOCKET_CONNECTION_SETUP_TIMEOUT_MS_DOC
   val ConnectionSetupTimeoutMaxMsDoc = CommonClientConfigs.SOCKET_CONNECTION_SETUP_TIMEOUT_MAX_MS_DOC
@@ -716,6 +779,23 @@ object KafkaConfig {
   val SocketSendBufferBytesDoc = "The SO_SNDBUF buffer of the socket server sockets. If the value is -1, the OS default will be used."
   val SocketReceiveBufferBytesDoc = "The SO_RCVBUF buffer of the socket server sockets. If the value is -1, the OS default will be used."
   val SocketRequestMaxBytesDoc = "The maximum number of bytes in a socket request"
+  val SocketRequestBufferPoolBytesDoc = "The maximum number of bytes of released request buffers that are retained for reuse by later requests. " +
+    "When positive, request buffers are allocated in power-of-two size classes and recycled, otherwise every request gets a newly " +
+    s"allocated buffer. The number of bytes of outstanding request buffers is still limited by <code>$QueuedMaxBytesProp</code>."
+  val SocketRequestBufferPoolDirectDoc = s"Whether the request buffers recycled when <code>$SocketRequestBufferPoolBytesProp</code> is positive " +
+    "are allocated in direct memory rather than on the heap."
+  val SocketResponseBufferPoolBytesDoc = "The maximum number of bytes of released response buffers that are retained for reuse by later responses. " +
+    "When positive, responses are serialized into recycled buffers of up to 64 KiB, which are released once the response has been sent, " +
+    "otherwise every response is serialized into a newly allocated buffer. Records in fetch responses are not copied either way."
+  val SocketResponseCoalesceMaxBytesDoc = "The maximum total size of the responses of a connection that are written to the socket " +
+    "together with a single send. Responses are only ready to be written together when requests of a connection are " +
+    s"processed concurrently, that is when <code>$MaxPipelinedRequestsPerConnectionProp</code> is greater than 1. " +
+    "Consecutive responses without records are written with a single gathering write. The records of fetch responses are " +
+    "transferred without being copied, but count towards the total size. Set to 0 to write every response on its own."
+  val ConnectionAssignmentStrategyDoc = "How new connections of a listener are assigned to its network threads. With <code>round_robin</code> " +
+    "the network threads take turns. With <code>least_loaded</code> each new connection goes to the less loaded of the next " +
+    "network thread in turn and a randomly chosen one, that is to the thread that has recently been idle for a larger fraction " +
+    "of time or, when both have been about as idle, to the one with fewer connections."
   val MaxConnectionsPerIpDoc = "The maximum number of connections we allow from each ip address. This can be set to 0 if there are overrides " +
     s"configured using $MaxConnectionsPerIpOverridesProp property. New connections from the ip address are dropped if the limit is reached."
   val MaxConnectionsPerIpOverridesDoc = "A comma-separated list of per-ip or hostname overrides to the default maximum number of connections. " +
@@ -731,6 +811,16 @@ object KafkaConfig {
     "Broker-wide connection rate limit should be configured based on broker capacity while listener limits should be configured based on " +
     "application requirements. New connections will be throttled if either the listener or the broker limit is reached, with the exception " +
     "of inter-broker listener. Connections on the inter-broker listener will be throttled only when the listener-level rate limit is reached."
+  val MaxConnectionHandshakeRateDoc = "The maximum number of accepted connections per second that each listener hands to the network threads " +
+    "to start their TLS handshake and SASL authentication. Connections beyond this rate are queued by the acceptor until they are admitted " +
+    "or until they have waited for <code>" + ConnectionHandshakeQueueTimeoutMsProp + "</code>, which bounds the CPU spent on handshakes when " +
+    "many clients reconnect at once. Bursts of up to one second's worth of connections are admitted immediately. Connections on the " +
+    "inter-broker listener are not queued, unless it is the only listener."
+  val MaxConnectionHandshakeRatePerIpDoc = "The maximum number of accepted connections per second from each IP address that each listener " +
+    "hands to the network threads to start their handshake. Connections beyond this rate are queued like those beyond <code>" +
+    MaxConnectionHandshakeRateProp + "</code>, without holding up connections from other addresses."
+  val ConnectionHandshakeQueueTimeoutMsDoc = "The maximum time that an accepted connection waits to be admitted to its handshake when <code>" +
+    MaxConnectionHandshakeRateProp + "</code> or <code>" + MaxConnectionHandshakeRatePerIpProp + "</code> is set, after which it is closed."
   val ConnectionsMaxIdleMsDoc = "Idle connections timeout: the server socket processor threads close the connections that idle more than this"
   val FailedAuthenticationDelayMsDoc = "Connection close delay on failed authentication: this is the time (in milliseconds) by which connection close will be delayed on authentication failure. " +
     s"This must be configured to be less than $ConnectionsMaxIdleMsProp to prevent connection timeout."
@@ -760,6 +850,14 @@ object KafkaConfig {
   val LogCleanerIoBufferSizeDoc = "The total memory used for log cleaner I/O buffers across all cleaner threads"
   val LogCleanerDedupeBufferLoadFactorDoc = "Log cleaner dedupe buffer load factor. The percentage full the dedupe buffer can become. A higher value " +
   "will allow more log to be cleaned at once but will lead to more hash collisions"
+  val LogCleanerDedupeMapTypeDoc = "The implementation of the log cleaner dedupe map. <code>" + CleanerConfig.SkimpyDedupeMapType + "</code> " +
+    "stores MD5 digests of keys on the heap and is limited to 2G per cleaner thread. <code>" + CleanerConfig.OpenAddressingDedupeMapType +
+    "</code> stores MurmurHash3 hashes of keys in direct memory using Robin Hood probing, which is cheaper to compute, has no per-thread " +
+    "size limit and tolerates a higher " + LogCleanerDedupeBufferLoadFactorProp + ". The JVM must allow enough direct memory for " +
+    LogCleanerDedupeBufferSizeProp + " when it is used."
+  val LogCleanerPartitionParallelismDoc = "The number of segment groups of a single log that a cleaner thread rewrites concurrently. " +
+    "With a value above 1 each cleaner thread gets this many worker threads, so that one large compacted partition does not " +
+    "have to be rewritten sequentially. Each worker uses I/O buffers of the same size as its cleaner thread."
   val LogCleanerBackoffMsDoc = "The amount of time to sleep when there are no logs to clean"
   val LogCleanerMinCleanRatioDoc = "The minimum ratio of dirty log to total log for a log to eligible for cleaning. " +
     "If the " + LogCleanerMaxCompactionLagMsProp + " or the " + LogCleanerMinCompactionLagMsProp +
@@ -792,8 +890,19 @@ object KafkaConfig {
     "a message and the timestamp specified in the message. If log.message.timestamp.type=CreateTime, a message will be rejected " +
     "if the difference in timestamp exceeds this threshold. This configuration is ignored if log.message.timestamp.type=LogAppendTime." +
     "The maximum timestamp difference allowed should be no greater than log.retention.ms to avoid unnecessarily frequent log rolling."
-  val NumRecoveryThreadsPerDataDirDoc = "The number of threads per data directory to be used for log recovery at startup and flushing at shutdown"
+  val NumRecoveryThreadsPerDataDirDoc = "The number of threads per data directory to be used for log recovery at startup and flushing at shutdown. " +
+    "During recovery the threads of all data directories are shared, and the unflushed segments of a log are validated concurrently."
+  val LogTailCacheMaxBytesDoc = "The total memory used to cache the most recently appended bytes of every partition so that reads from " +
+    "the tail of the log are served without going through the page cache. The cache is disabled if set to 0."
+  val LogTailCachePartitionMaxBytesDoc = "The maximum number of recently appended bytes cached per partition when " +
+    s"$LogTailCacheMaxBytesProp is greater than 0."
+  val LogProducerSnapshotFullIntervalDoc = "The number of producer state snapshots taken on segment roll between two full snapshots. " +
+    "The snapshots in between only contain the producers that changed since the last full snapshot, or a full snapshot is " +
+    "taken earlier if that is not smaller. If set to 1, every snapshot is a full snapshot which older brokers can read."
   val AutoCreateTopicsEnableDoc = "Enable auto creation of topic on the server"
+  val MetadataResponseTopicCacheEnableDoc = "Whether the serialized metadata of topics is cached between metadata requests, so that " +
+    "metadata responses are mostly assembled from cached buffers. The cache is rebuilt lazily after every metadata update. " +
+    "Requests which include the authorized operations of topics are not served from the cache."
   val MinInSyncReplicasDoc = "When a producer sets acks to \"all\" (or \"-1\"), " +
     "min.insync.replicas specifies the minimum number of replicas that must acknowledge " +
     "a write for the write to be considered successful. If this minimum cannot be met, " +
@@ -832,11 +941,33 @@ object KafkaConfig {
     "<code>max.message.bytes</code> (topic config)."
   val NumReplicaFetchersDoc = "Number of fetcher threads used to replicate messages from a source broker. " +
   "Increasing this value can increase the degree of I/O parallelism in the follower broker."
+  val ReplicaFetchMaxInFlightRequestsDoc = "The number of fetch requests that each replica fetcher thread keeps in flight to its source broker. " +
+    "The partitions of the fetcher are divided between this many fetch sessions, each with its own connection, so that every " +
+    "partition is in at most one request. Values greater than 1 let the follower append the data of one response while " +
+    "the next responses are already on their way, which helps followers on high-latency links keep up with the leader."
+  val ReplicaFetchAppendQueueMaxBytesDoc = "If greater than 0, the replica fetcher threads hand the fetched data off to one append " +
+    "thread per log directory instead of appending it themselves, so that a slow log directory does not hold up the replication " +
+    "of partitions on the other log directories. This is the number of fetched bytes that may be queued for a log directory " +
+    "before its partitions are left out of fetch requests until the queue drains."
   val ReplicaFetchBackoffMsDoc = "The amount of time to sleep when fetch partition error occurs."
   val ReplicaHighWatermarkCheckpointIntervalMsDoc = "The frequency with which the high watermark is saved out to disk"
   val FetchPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the fetch request purgatory"
   val ProducerPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the producer request purgatory"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the delete records request purgatory"
+  val FollowerFetchBatchedCompletionEnableDoc = "If true, the leader completes the delayed produce, fetch and delete records " +
+    "requests unblocked by a follower fetch request in one pass after the fetch states of all of its partitions have been " +
+    "updated, instead of checking the purgatories each time the high watermark of one of its partitions is incremented."
+  val NumColdFetchThreadsDoc = "If greater than 0, the number of threads that serve the cold reads of fetch requests from consumers and " +
+    "followers, the reads which start more than <code>" + ColdFetchOffsetLagProp + "</code> offsets below the log end offset of " +
+    "a partition. The request handler threads then only read data at the tail of the logs, which is likely to be in the page cache."
+  val ColdFetchOffsetLagDoc = "The number of offsets below the log end offset of a partition beyond which a fetch from it is a cold read. " +
+    "Only used if <code>" + NumColdFetchThreadsProp + "</code> is greater than 0."
+  val ColdFetchQueueMaxReadsDoc = "The number of cold fetch reads that can wait for a cold fetch thread. Once this many reads are queued, " +
+    "the partitions of further cold reads are answered without data, after the maximum wait time of the fetch unless other partitions " +
+    "of the fetch returned data."
+  val PurgatoryTimerStripesDoc = "The number of independent timers used to expire the delayed operations of the producer and fetch request " +
+    "purgatories. Each timer has its own lock and expiration thread, so more timers reduce contention when many requests are delayed " +
+    "at the cost of two threads per timer."
   val AutoLeaderRebalanceEnableDoc = "Enables auto leader balancing. A background thread checks the distribution of partition leaders at regular intervals, configurable by `leader.imbalance.check.interval.seconds`. If the leader imbalance exceeds `leader.imbalance.per.broker.percentage`, leader rebalance to the preferred leader for partitions is triggered."
   val LeaderImbalancePerBrokerPercentageDoc = "The ratio of leader imbalance allowed per broker. The controller would trigger a leader balance if it goes above this value per broker. The value is specified in percentage."
   val LeaderImbalanceCheckIntervalSecondsDoc = "The frequency with which the partition rebalance check is triggered by the controller"
@@ -1032,10 +1163,13 @@ object KafkaConfig {
       .define(MessageMaxBytesProp, INT, Defaults.MessageMaxBytes, atLeast(0), HIGH, MessageMaxBytesDoc)
       .define(NumNetworkThreadsProp, INT, Defaults.NumNetworkThreads, atLeast(1), HIGH, NumNetworkThreadsDoc)
       .define(NumIoThreadsProp, INT, Defaults.NumIoThreads, atLeast(1), HIGH, NumIoThreadsDoc)
+      .define(NumIoVirtualThreadsProp, INT, Defaults.NumIoVirtualThreads, atLeast(0), LOW, NumIoVirtualThreadsDoc)
       .define(NumReplicaAlterLogDirsThreadsProp, INT, null, HIGH, NumReplicaAlterLogDirsThreadsDoc)
       .define(BackgroundThreadsProp, INT, Defaults.BackgroundThreads, atLeast(1), HIGH, BackgroundThreadsDoc)
       .define(QueuedMaxRequestsProp, INT, Defaults.QueuedMaxRequests, atLeast(1), HIGH, QueuedMaxRequestsDoc)
       .define(QueuedMaxBytesProp, LONG, Defaults.QueuedMaxRequestBytes, MEDIUM, QueuedMaxRequestBytesDoc)
+      .define(RequestClassWeightsProp, STRING, Defaults.RequestClassWeights, LOW, RequestClassWeightsDoc)
+      .define(MaxPipelinedRequestsPerConnectionProp, INT, Defaults.MaxPipelinedRequestsPerConnection, atLeast(1), LOW, MaxPipelinedRequestsPerConnectionDoc)
       .define(RequestTimeoutMsProp, INT, Defaults.RequestTimeoutMs, HIGH, RequestTimeoutMsDoc)
       .define(ConnectionSetupTimeoutMsProp, LONG, Defaults.ConnectionSetupTimeoutMs, MEDIUM, ConnectionSetupTimeoutMsDoc)
       .define(ConnectionSetupTimeoutMaxMsProp, LONG, Defaults.ConnectionSetupTimeoutMaxMs, MEDIUM, ConnectionSetupTimeoutMaxMsDoc)
@@ -1063,10 +1197,18 @@ object KafkaConfig {
       .define(SocketSendBufferBytesProp, INT, Defaults.SocketSendBufferBytes, HIGH, SocketSendBufferBytesDoc)
       .define(SocketReceiveBufferBytesProp, INT, Defaults.SocketReceiveBufferBytes, HIGH, SocketReceiveBufferBytesDoc)
       .define(SocketRequestMaxBytesProp, INT, Defaults.SocketRequestMaxBytes, atLeast(1), HIGH, SocketRequestMaxBytesDoc)
+      .define(SocketRequestBufferPoolBytesProp, LONG, Defaults.SocketRequestBufferPoolBytes, atLeast(0), LOW, SocketRequestBufferPoolBytesDoc)
+      .define(SocketRequestBufferPoolDirectProp, BOOLEAN, Defaults.SocketRequestBufferPoolDirect, LOW, SocketRequestBufferPoolDirectDoc)
+      .define(SocketResponseBufferPoolBytesProp, LONG, Defaults.SocketResponseBufferPoolBytes, atLeast(0), LOW, SocketResponseBufferPoolBytesDoc)
+      .define(SocketResponseCoalesceMaxBytesProp, INT, Defaults.SocketResponseCoalesceMaxBytes, atLeast(0), LOW, SocketResponseCoalesceMaxBytesDoc)
+      .define(ConnectionAssignmentStrategyProp, STRING, Defaults.ConnectionAssignmentStrategy, in(Defaults.ConnectionAssignmentStrategyValidValues:_*), LOW, ConnectionAssignmentStrategyDoc)
       .define(MaxConnectionsPerIpProp, INT, Defaults.MaxConnectionsPerIp, atLeast(0), MEDIUM, MaxConnectionsPerIpDoc)
       .define(MaxConnectionsPerIpOverridesProp, STRING, Defaults.MaxConnectionsPerIpOverrides, MEDIUM, MaxConnectionsPerIpOverridesDoc)
       .define(MaxConnectionsProp, INT, Defaults.MaxConnections, atLeast(0), MEDIUM, MaxConnectionsDoc)
       .define(MaxConnectionCreationRateProp, INT, Defaults.MaxConnectionCreationRate, atLeast(0), MEDIUM, MaxConnectionCreationRateDoc)
+      .define(MaxConnectionHandshakeRateProp, INT, Defaults.MaxConnectionHandshakeRate, atLeast(1), MEDIUM, MaxConnectionHandshakeRateDoc)
+      .define(MaxConnectionHandshakeRatePerIpProp, INT, Defaults.MaxConnectionHandshakeRatePerIp, atLeast(1), MEDIUM, MaxConnectionHandshakeRatePerIpDoc)
+      .define(ConnectionHandshakeQueueTimeoutMsProp, LONG, Defaults.ConnectionHandshakeQueueTimeoutMs, atLeast(0), LOW, ConnectionHandshakeQueueTimeoutMsDoc)
       .define(ConnectionsMaxIdleMsProp, LONG, Defaults.ConnectionsMaxIdleMs, MEDIUM, ConnectionsMaxIdleMsDoc)
       .define(FailedAuthenticationDelayMsProp, INT, Defaults.FailedAuthenticationDelayMs, atLeast(0), LOW, FailedAuthenticationDelayMsDoc)
 
@@ -1097,6 +1239,8 @@ object KafkaConfig {
       .define(LogCleanerDedupeBufferSizeProp, LONG, Defaults.LogCleanerDedupeBufferSize, MEDIUM, LogCleanerDedupeBufferSizeDoc)
       .define(LogCleanerIoBufferSizeProp, INT, Defaults.LogCleanerIoBufferSize, atLeast(0), MEDIUM, LogCleanerIoBufferSizeDoc)
       .define(LogCleanerDedupeBufferLoadFactorProp, DOUBLE, Defaults.LogCleanerDedupeBufferLoadFactor, MEDIUM, LogCleanerDedupeBufferLoadFactorDoc)
+      .define(LogCleanerDedupeMapTypeProp, STRING, Defaults.LogCleanerDedupeMapType, in(CleanerConfig.DedupeMapTypes: _*), LOW, LogCleanerDedupeMapTypeDoc)
+      .define(LogCleanerPartitionParallelismProp, INT, Defaults.LogCleanerPartitionParallelism, atLeast(1), LOW, LogCleanerPartitionParallelismDoc)
       .define(LogCleanerBackoffMsProp, LONG, Defaults.LogCleanerBackoffMs, atLeast(0), MEDIUM, LogCleanerBackoffMsDoc)
       .define(LogCleanerMinCleanRatioProp, DOUBLE, Defaults.LogCleanerMinCleanRatio, MEDIUM, LogCleanerMinCleanRatioDoc)
       .define(LogCleanerEnableProp, BOOLEAN, Defaults.LogCleanerEnable, MEDIUM, LogCleanerEnableDoc)
@@ -1113,7 +1257,11 @@ object KafkaConfig {
       .define(LogFlushStartOffsetCheckpointIntervalMsProp, INT, Defaults.LogFlushStartOffsetCheckpointIntervalMs, atLeast(0), HIGH, LogFlushStartOffsetCheckpointIntervalMsDoc)
       .define(LogPreAllocateProp, BOOLEAN, Defaults.LogPreAllocateEnable, MEDIUM, LogPreAllocateEnableDoc)
       .define(NumRecoveryThreadsPerDataDirProp, INT, Defaults.NumRecoveryThreadsPerDataDir, atLeast(1), HIGH, NumRecoveryThreadsPerDataDirDoc)
+      .define(LogTailCacheMaxBytesProp, LONG, Defaults.LogTailCacheMaxBytes, atLeast(0), LOW, LogTailCacheMaxBytesDoc)
+      .define(LogTailCachePartitionMaxBytesProp, INT, Defaults.LogTailCachePartitionMaxBytes, atLeast(1), LOW, LogTailCachePartitionMaxBytesDoc)
+      .define(LogProducerSnapshotFullIntervalProp, INT, Defaults.LogProducerSnapshotFullInterval, atLeast(1), LOW, LogProducerSnapshotFullIntervalDoc)
       .define(AutoCreateTopicsEnableProp, BOOLEAN, Defaults.AutoCreateTopicsEnable, HIGH, AutoCreateTopicsEnableDoc)
+      .define(MetadataResponseTopicCacheEnableProp, BOOLEAN, Defaults.MetadataResponseTopicCacheEnable, LOW, MetadataResponseTopicCacheEnableDoc)
       .define(MinInSyncReplicasProp, INT, Defaults.MinInSyncReplicas, atLeast(1), HIGH, MinInSyncReplicasDoc)
       .define(LogMessageFormatVersionProp, STRING, Defaults.LogMessageFormatVersion, ApiVersionValidator, MEDIUM, LogMessageFormatVersionDoc)
       .define(LogMessageTimestampTypeProp, STRING, Defaults.LogMessageTimestampType, in("CreateTime", "LogAppendTime"), MEDIUM, LogMessageTimestampTypeDoc)
@@ -1134,10 +1282,17 @@ object KafkaConfig {
       .define(ReplicaFetchMinBytesProp, INT, Defaults.ReplicaFetchMinBytes, HIGH, ReplicaFetchMinBytesDoc)
       .define(ReplicaFetchResponseMaxBytesProp, INT, Defaults.ReplicaFetchResponseMaxBytes, atLeast(0), MEDIUM, ReplicaFetchResponseMaxBytesDoc)
       .define(NumReplicaFetchersProp, INT, Defaults.NumReplicaFetchers, HIGH, NumReplicaFetchersDoc)
+      .define(ReplicaFetchMaxInFlightRequestsProp, INT, Defaults.ReplicaFetchMaxInFlightRequests, atLeast(1), MEDIUM, ReplicaFetchMaxInFlightRequestsDoc)
+      .define(ReplicaFetchAppendQueueMaxBytesProp, INT, Defaults.ReplicaFetchAppendQueueMaxBytes, atLeast(0), MEDIUM, ReplicaFetchAppendQueueMaxBytesDoc)
       .define(ReplicaHighWatermarkCheckpointIntervalMsProp, LONG, Defaults.ReplicaHighWatermarkCheckpointIntervalMs, HIGH, ReplicaHighWatermarkCheckpointIntervalMsDoc)
       .define(FetchPurgatoryPurgeIntervalRequestsProp, INT, Defaults.FetchPurgatoryPurgeIntervalRequests, MEDIUM, FetchPurgatoryPurgeIntervalRequestsDoc)
       .define(ProducerPurgatoryPurgeIntervalRequestsProp, INT, Defaults.ProducerPurgatoryPurgeIntervalRequests, MEDIUM, ProducerPurgatoryPurgeIntervalRequestsDoc)
       .define(DeleteRecordsPurgatoryPurgeIntervalRequestsProp, INT, Defaults.DeleteRecordsPurgatoryPurgeIntervalRequests, MEDIUM, DeleteRecordsPurgatoryPurgeIntervalRequestsDoc)
+      .define(FollowerFetchBatchedCompletionEnableProp, BOOLEAN, Defaults.FollowerFetchBatchedCompletionEnable, MEDIUM, FollowerFetchBatchedCompletionEnableDoc)
+      .define(NumColdFetchThreadsProp, INT, Defaults.NumColdFetchThreads, atLeast(0), MEDIUM, NumColdFetchThreadsDoc)
+      .define(ColdFetchOffsetLagProp, LONG, Defaults.ColdFetchOffsetLag, atLeast(1), MEDIUM, ColdFetchOffsetLagDoc)
+      .define(ColdFetchQueueMaxReadsProp, INT, Defaults.ColdFetchQueueMaxReads, atLeast(1), LOW, ColdFetchQueueMaxReadsDoc)
+      .define(PurgatoryTimerStripesProp, INT, Defaults.PurgatoryTimerStripes, atLeast(1), LOW, PurgatoryTimerStripesDoc)
       .define(AutoLeaderRebalanceEnableProp, BOOLEAN, Defaults.AutoLeaderRebalanceEnable, HIGH, AutoLeaderRebalanceEnableDoc)
       .define(LeaderImbalancePerBrokerPercentageProp, INT, Defaults.LeaderImbalancePerBrokerPercentage, HIGH, LeaderImbalancePerBrokerPercentageDoc)
       .define(LeaderImbalanceCheckIntervalSecondsProp, LONG, Defaults.LeaderImbalanceCheckIntervalSeconds, HIGH, LeaderImbalanceCheckIntervalSecondsDoc)
@@ -1522,7 +1677,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   def backgroundThreads = getInt(KafkaConfig.BackgroundThreadsProp)
   val queuedMaxRequests = getInt(KafkaConfig.QueuedMaxRequestsProp)
   val queuedMaxBytes = getLong(KafkaConfig.QueuedMaxBytesProp)
+  val requestClassWeights: Map[RequestChannel.RequestClass, Int] = parseRequestClassWeights()
+  val maxPipelinedRequestsPerConnection = getInt(KafkaConfig.MaxPipelinedRequestsPerConnectionProp)
   def numIoThreads = getInt(KafkaConfig.NumIoThreadsProp)
+  val numIoVirtualThreads = getInt(KafkaConfig.NumIoVirtualThreadsProp)
   def messageMaxBytes = getInt(KafkaConfig.MessageMaxBytesProp)
   val requestTimeoutMs = getInt(KafkaConfig.RequestTimeoutMsProp)
   val connectionSetupTimeoutMs = getLong(KafkaConfig.ConnectionSetupTimeoutMsProp)
@@ -1547,11 +1705,19 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   val socketSendBufferBytes = getInt(KafkaConfig.SocketSendBufferBytesProp)
   val socketReceiveBufferBytes = getInt(KafkaConfig.SocketReceiveBufferBytesProp)
   val socketRequestMaxBytes = getInt(KafkaConfig.SocketRequestMaxBytesProp)
+  val socketRequestBufferPoolBytes = getLong(KafkaConfig.SocketRequestBufferPoolBytesProp)
+  val socketRequestBufferPoolDirect = getBoolean(KafkaConfig.SocketRequestBufferPoolDirectProp)
+  val socketResponseBufferPoolBytes = getLong(KafkaConfig.SocketResponseBufferPoolBytesProp)
+  val socketResponseCoalesceMaxBytes = getInt(KafkaConfig.SocketResponseCoalesceMaxBytesProp)
+  val connectionAssignmentStrategy = getString(KafkaConfig.ConnectionAssignmentStrategyProp)
   val maxConnectionsPerIp = getInt(KafkaConfig.MaxConnectionsPerIpProp)
   val maxConnectionsPerIpOverrides: Map[String, Int] =
     getMap(KafkaConfig.MaxConnectionsPerIpOverridesProp, getString(KafkaConfig.MaxConnectionsPerIpOverridesProp)).map { case (k, v) => (k, v.toInt)}
   def maxConnections = getInt(KafkaConfig.MaxConnectionsProp)
   def maxConnectionCreationRate = getInt(KafkaConfig.MaxConnectionCreationRateProp)
+  val maxConnectionHandshakeRate = getInt(KafkaConfig.MaxConnectionHandshakeRateProp)
+  val maxConnectionHandshakeRatePerIp = getInt(KafkaConfig.MaxConnectionHandshakeRatePerIpProp)
+  val connectionHandshakeQueueTimeoutMs = getLong(KafkaConfig.ConnectionHandshakeQueueTimeoutMsProp)
   val connectionsMaxIdleMs = getLong(KafkaConfig.ConnectionsMaxIdleMsProp)
   val failedAuthenticationDelayMs = getInt(KafkaConfig.FailedAuthenticationDelayMsProp)
 
@@ -1561,12 +1727,16 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
 
   /** ********* Log Configuration ***********/
   val autoCreateTopicsEnable = getBoolean(KafkaConfig.AutoCreateTopicsEnableProp)
+  val metadataResponseTopicCacheEnable = getBoolean(KafkaConfig.MetadataResponseTopicCacheEnableProp)
   val numPartitions = getInt(KafkaConfig.NumPartitionsProp)
   val logDirs = CoreUtils.parseCsvList(Option(getString(KafkaConfig.LogDirsProp)).getOrElse(getString(KafkaConfig.LogDirProp)))
   def logSegmentBytes = getInt(KafkaConfig.LogSegmentBytesProp)
   def logFlushIntervalMessages = getLong(KafkaConfig.LogFlushIntervalMessagesProp)
   val logCleanerThreads = getInt(KafkaConfig.LogCleanerThreadsProp)
   def numRecoveryThreadsPerDataDir = getInt(KafkaConfig.NumRecoveryThreadsPerDataDirProp)
+  val logTailCacheMaxBytes = getLong(KafkaConfig.LogTailCacheMaxBytesProp)
+  val logTailCachePartitionMaxBytes = getInt(KafkaConfig.LogTailCachePartitionMaxBytesProp)
+  val logProducerSnapshotFullInterval = getInt(KafkaConfig.LogProducerSnapshotFullIntervalProp)
   val logFlushSchedulerIntervalMs = getLong(KafkaConfig.LogFlushSchedulerIntervalMsProp)
   val logFlushOffsetCheckpointIntervalMs = getInt(KafkaConfig.LogFlushOffsetCheckpointIntervalMsProp).toLong
   val logFlushStartOffsetCheckpointIntervalMs = getInt(KafkaConfig.LogFlushStartOffsetCheckpointIntervalMsProp).toLong
@@ -1577,6 +1747,8 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   def logRetentionBytes = getLong(KafkaConfig.LogRetentionBytesProp)
   val logCleanerDedupeBufferSize = getLong(KafkaConfig.LogCleanerDedupeBufferSizeProp)
   val logCleanerDedupeBufferLoadFactor = getDouble(KafkaConfig.LogCleanerDedupeBufferLoadFactorProp)
+  val logCleanerDedupeMapType = getString(KafkaConfig.LogCleanerDedupeMapTypeProp)
+  val logCleanerPartitionParallelism = getInt(KafkaConfig.LogCleanerPartitionParallelismProp)
   val logCleanerIoBufferSize = getInt(KafkaConfig.LogCleanerIoBufferSizeProp)
   val logCleanerIoMaxBytesPerSecond = getDouble(KafkaConfig.LogCleanerIoMaxBytesPerSecondProp)
   def logCleanerDeleteRetentionMs = getLong(KafkaConfig.LogCleanerDeleteRetentionMsProp)
@@ -1613,10 +1785,17 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   val replicaFetchResponseMaxBytes = getInt(KafkaConfig.ReplicaFetchResponseMaxBytesProp)
   val replicaFetchBackoffMs = getInt(KafkaConfig.ReplicaFetchBackoffMsProp)
   def numReplicaFetchers = getInt(KafkaConfig.NumReplicaFetchersProp)
+  val replicaFetchMaxInFlightRequests = getInt(KafkaConfig.ReplicaFetchMaxInFlightRequestsProp)
+  val replicaFetchAppendQueueMaxBytes = getInt(KafkaConfig.ReplicaFetchAppendQueueMaxBytesProp)
   val replicaHighWatermarkCheckpointIntervalMs = getLong(KafkaConfig.ReplicaHighWatermarkCheckpointIntervalMsProp)
   val fetchPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.FetchPurgatoryPurgeIntervalRequestsProp)
   val producerPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.ProducerPurgatoryPurgeIntervalRequestsProp)
   val deleteRecordsPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.DeleteRecordsPurgatoryPurgeIntervalRequestsProp)
+  val followerFetchBatchedCompletionEnable = getBoolean(KafkaConfig.FollowerFetchBatchedCompletionEnableProp)
+  val numColdFetchThreads = getInt(KafkaConfig.NumColdFetchThreadsProp)
+  val coldFetchOffsetLag = getLong(KafkaConfig.ColdFetchOffsetLagProp)
+  val coldFetchQueueMaxReads = getInt(KafkaConfig.ColdFetchQueueMaxReadsProp)
+  val purgatoryTimerStripes = getInt(KafkaConfig.PurgatoryTimerStripesProp)
   val autoLeaderRebalanceEnable = getBoolean(KafkaConfig.AutoLeaderRebalanceEnableProp)
   val leaderImbalancePerBrokerPercentage = getInt(KafkaConfig.LeaderImbalancePerBrokerPercentageProp)
   val leaderImbalanceCheckIntervalSeconds = getLong(KafkaConfig.LeaderImbalanceCheckIntervalSecondsProp)
@@ -1840,6 +2019,24 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
     }
   }
 
+  private def parseRequestClassWeights(): Map[RequestChannel.RequestClass, Int] = {
+    val configured = getMap(KafkaConfig.RequestClassWeightsProp, getString(KafkaConfig.RequestClassWeightsProp))
+      .map { case (className, weight) =>
+        val requestClass = RequestChannel.RequestClass.forName(className).getOrElse(
+          throw new ConfigException(s"Invalid request class `$className` defined in ${KafkaConfig.RequestClassWeightsProp}, " +
+            s"valid classes are ${RequestChannel.RequestClass.values.map(_.name).mkString(", ")}"))
+        val parsedWeight = try weight.toInt catch {
+          case _: NumberFormatException => -1
+        }
+        if (parsedWeight < 1)
+          throw new ConfigException(s"Invalid weight `$weight` for request class `$className` defined in " +
+            s"${KafkaConfig.RequestClassWeightsProp}, weights must be positive integers")
+        requestClass -> parsedWeight
+      }
+    if (configured.isEmpty) Map.empty
+    else RequestChannel.RequestClass.values.map(requestClass => requestClass -> configured.getOrElse(requestClass, 1)).toMap
+  }
+
   // Topic IDs are used with all self-managed quorum clusters and ZK cluster with IBP greater than or equal to 2.8
   def usesTopicId: Boolean =
     usesSelfManagedQuorum || interBrokerProtocolVersion >= KAFKA_2_8_IV0
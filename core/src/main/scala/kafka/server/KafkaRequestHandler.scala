@@ -21,7 +21,7 @@ import kafka.network._
 import kafka.utils._
 import kafka.metrics.KafkaMetricsGroup
 
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, ExecutorService, Executors, RejectedExecutionException, Semaphore, ThreadFactory, TimeUnit}
 import java.util.concurrent.atomic.AtomicInteger
 import com.yammer.metrics.core.Meter
 import org.apache.kafka.common.internals.FatalExitError
@@ -43,7 +43,9 @@ class KafkaRequestHandler(id: Int,
                           val totalHandlerThreads: AtomicInteger,
                           val requestChannel: RequestChannel,
                           apis: ApiRequestHandler,
-                          time: Time) extends Runnable with Logging {
+                          time: Time,
+                          inFlightRequests: AtomicInteger = new AtomicInteger,
+                          virtualThreadExecutor: Option[VirtualThreadRequestExecutor] = None) extends Runnable with Logging {
   this.logIdent = s"[Kafka Request Handler $id on Broker $brokerId], "
   private val shutdownComplete = new CountDownLatch(1)
   private val requestLocal = RequestLocal.withThreadConfinedCaching
@@ -69,17 +71,16 @@ class KafkaRequestHandler(id: Int,
           return
 
         case request: RequestChannel.Request =>
-          try {
-            request.requestDequeueTimeNanos = endTime
-            trace(s"Kafka request handler $id on broker $brokerId handling request $request")
-            apis.handle(request, requestLocal)
-          } catch {
-            case e: FatalExitError =>
-              completeShutdown()
-              Exit.exit(e.statusCode)
-            case e: Throwable => error("Exception when handling request", e)
-          } finally {
-            request.releaseBuffer()
+          request.requestDequeueTimeNanos = endTime
+          virtualThreadExecutor match {
+            case Some(executor) =>
+              // blocks while the maximum number of requests are being handled on virtual threads, which is not
+              // counted as idle time
+              executor.execute { requestLocal =>
+                handle(request, requestLocal, time.nanoseconds, executor.maxConcurrency)
+              }
+            case None =>
+              handle(request, requestLocal, endTime, totalHandlerThreads.get)
           }
 
         case null => // continue
@@ -88,6 +89,25 @@ class KafkaRequestHandler(id: Int,
     completeShutdown()
   }
 
+  private def handle(request: RequestChannel.Request, requestLocal: RequestLocal, startTimeNanos: Long,
+                     concurrency: Int): Unit = {
+    inFlightRequests.incrementAndGet()
+    try {
+      trace(s"Kafka request handler $id on broker $brokerId handling request $request")
+      apis.handle(request, requestLocal)
+    } catch {
+      case e: FatalExitError =>
+        completeShutdown()
+        Exit.exit(e.statusCode)
+      case e: Throwable => error("Exception when handling request", e)
+    } finally {
+      inFlightRequests.decrementAndGet()
+      request.releaseBufferAfterHandling()
+      if (requestChannel.requestClassesEnabled)
+        requestChannel.recordHandlerTime(request, (time.nanoseconds - startTimeNanos) / concurrency)
+    }
+  }
+
   private def completeShutdown(): Unit = {
     requestLocal.close()
     shutdownComplete.countDown()
@@ -103,26 +123,99 @@ class KafkaRequestHandler(id: Int,
 
 }
 
+/**
+ * Handles requests on virtual threads, at most `maxConcurrency` of them at a time. The request locals are reused by
+ * the requests handled after them, there are at most `maxConcurrency` of them.
+ */
+private[server] class VirtualThreadRequestExecutor(executor: ExecutorService, val maxConcurrency: Int) {
+  private val permits = new Semaphore(maxConcurrency)
+  private val requestLocals = new ConcurrentLinkedQueue[RequestLocal]()
+
+  /** Run `task` on a virtual thread, blocking until fewer than `maxConcurrency` tasks are running */
+  def execute(task: RequestLocal => Unit): Unit = {
+    permits.acquire()
+    try {
+      executor.execute { () =>
+        val requestLocal = Option(requestLocals.poll()).getOrElse(RequestLocal.withThreadConfinedCaching)
+        try task(requestLocal)
+        finally {
+          requestLocals.add(requestLocal)
+          permits.release()
+        }
+      }
+    } catch {
+      case e: RejectedExecutionException =>
+        permits.release()
+        throw e
+    }
+  }
+
+  /** Wait for the requests being handled to complete */
+  def shutdown(): Unit = {
+    executor.shutdown()
+    executor.awaitTermination(Long.MaxValue, TimeUnit.MILLISECONDS)
+    requestLocals.forEach(_.close())
+    requestLocals.clear()
+  }
+}
+
+object KafkaRequestHandlerPool extends Logging {
+
+  /**
+   * An executor that starts a named virtual thread for each task, or None if the JVM does not support virtual threads.
+   * Virtual threads are looked up reflectively since they are not available in all supported Java versions.
+   */
+  private[server] def newVirtualThreadPerTaskExecutor(threadNamePrefix: String): Option[ExecutorService] = {
+    try {
+      val builderClass = Class.forName("java.lang.Thread$Builder")
+      val builder = classOf[Thread].getMethod("ofVirtual").invoke(null)
+      val namedBuilder = builderClass.getMethod("name", classOf[String], classOf[Long]).invoke(builder, threadNamePrefix, Long.box(0L))
+      val threadFactory = builderClass.getMethod("factory").invoke(namedBuilder).asInstanceOf[ThreadFactory]
+      Some(classOf[Executors].getMethod("newThreadPerTaskExecutor", classOf[ThreadFactory])
+        .invoke(null, threadFactory).asInstanceOf[ExecutorService])
+    } catch {
+      // virtual threads do not exist before Java 19 and are a preview feature in Java 19 and 20
+      case e: ReflectiveOperationException =>
+        debug("Virtual threads are not supported", e)
+        None
+    }
+  }
+}
+
 class KafkaRequestHandlerPool(val brokerId: Int,
                               val requestChannel: RequestChannel,
                               val apis: ApiRequestHandler,
                               time: Time,
                               numThreads: Int,
                               requestHandlerAvgIdleMetricName: String,
-                              logAndThreadNamePrefix : String) extends Logging with KafkaMetricsGroup {
+                              logAndThreadNamePrefix : String,
+                              maxVirtualThreads: Int = 0) extends Logging with KafkaMetricsGroup {
 
   private val threadPoolSize: AtomicInteger = new AtomicInteger(numThreads)
   /* a meter to track the average free capacity of the request handlers */
   private val aggregateIdleMeter = newMeter(requestHandlerAvgIdleMetricName, "percent", TimeUnit.NANOSECONDS)
+  private val inFlightRequests = new AtomicInteger
+  newGauge("RequestHandlersInFlight", () => inFlightRequests.get, Map("pool" -> logAndThreadNamePrefix))
 
   this.logIdent = "[" + logAndThreadNamePrefix + " Kafka Request Handler on Broker " + brokerId + "], "
+  private val virtualThreadExecutor =
+    if (maxVirtualThreads > 0) {
+      val executor = KafkaRequestHandlerPool.newVirtualThreadPerTaskExecutor(logAndThreadNamePrefix + "-kafka-request-handler-virtual-")
+      if (executor.isEmpty)
+        warn(s"Handling requests on the request handler threads since virtual threads are not supported by this JVM")
+      else
+        info(s"Handling up to $maxVirtualThreads requests concurrently on virtual threads")
+      executor.map(new VirtualThreadRequestExecutor(_, maxVirtualThreads))
+    } else
+      None
   val runnables = new mutable.ArrayBuffer[KafkaRequestHandler](numThreads)
   for (i <- 0 until numThreads) {
     createHandler(i)
   }
 
   def createHandler(id: Int): Unit = synchronized {
-    runnables += new KafkaRequestHandler(id, brokerId, aggregateIdleMeter, threadPoolSize, requestChannel, apis, time)
+    runnables += new KafkaRequestHandler(id, brokerId, aggregateIdleMeter, threadPoolSize, requestChannel, apis, time,
+      inFlightRequests, virtualThreadExecutor)
     KafkaThread.daemon(logAndThreadNamePrefix + "-kafka-request-handler-" + id, runnables(id)).start()
   }
 
@@ -147,6 +240,8 @@ class KafkaRequestHandlerPool(val brokerId: Int,
       handler.initiateShutdown()
     for (handler <- runnables)
       handler.awaitShutdown()
+    virtualThreadExecutor.foreach(_.shutdown())
+    removeMetric("RequestHandlersInFlight", Map("pool" -> logAndThreadNamePrefix))
     info("shut down completely")
   }
 }
@@ -209,6 +304,9 @@ class BrokerTopicMetrics(name: Option[String]) extends KafkaMetricsGroup {
     metricTypeMap.put(BrokerTopicStats.ReplicationBytesOutPerSec, MeterWrapper(BrokerTopicStats.ReplicationBytesOutPerSec, "bytes"))
     metricTypeMap.put(BrokerTopicStats.ReassignmentBytesInPerSec, MeterWrapper(BrokerTopicStats.ReassignmentBytesInPerSec, "bytes"))
     metricTypeMap.put(BrokerTopicStats.ReassignmentBytesOutPerSec, MeterWrapper(BrokerTopicStats.ReassignmentBytesOutPerSec, "bytes"))
+    metricTypeMap.put(BrokerTopicStats.StreamingValidatedBatchesPerSec, MeterWrapper(BrokerTopicStats.StreamingValidatedBatchesPerSec, "batches"))
+    metricTypeMap.put(BrokerTopicStats.RecordValidatedBatchesPerSec, MeterWrapper(BrokerTopicStats.RecordValidatedBatchesPerSec, "batches"))
+    metricTypeMap.put(BrokerTopicStats.RebuiltBatchesPerSec, MeterWrapper(BrokerTopicStats.RebuiltBatchesPerSec, "batches"))
   }
 
   // used for testing only
@@ -258,6 +356,18 @@ class BrokerTopicMetrics(name: Option[String]) extends KafkaMetricsGroup {
 
   def invalidOffsetOrSequenceRecordsPerSec: Meter = metricTypeMap.get(BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec).meter()
 
+  private[kafka] def streamingValidatedBatchesRate: Option[Meter] =
+    if (name.isEmpty) Some(metricTypeMap.get(BrokerTopicStats.StreamingValidatedBatchesPerSec).meter())
+    else None
+
+  private[kafka] def recordValidatedBatchesRate: Option[Meter] =
+    if (name.isEmpty) Some(metricTypeMap.get(BrokerTopicStats.RecordValidatedBatchesPerSec).meter())
+    else None
+
+  private[kafka] def rebuiltBatchesRate: Option[Meter] =
+    if (name.isEmpty) Some(metricTypeMap.get(BrokerTopicStats.RebuiltBatchesPerSec).meter())
+    else None
+
   def closeMetric(metricType: String): Unit = {
     val meter = metricTypeMap.get(metricType)
     if (meter != null)
@@ -289,6 +399,12 @@ object BrokerTopicStats {
   val InvalidMessageCrcRecordsPerSec = "InvalidMessageCrcRecordsPerSec"
   val InvalidOffsetOrSequenceRecordsPerSec = "InvalidOffsetOrSequenceRecordsPerSec"
 
+  // These following metrics count the batches by the path LogValidator took for compressed produce requests, they are
+  // only registered for all topics
+  val StreamingValidatedBatchesPerSec = "StreamingValidatedBatchesPerSec"
+  val RecordValidatedBatchesPerSec = "RecordValidatedBatchesPerSec"
+  val RebuiltBatchesPerSec = "RebuiltBatchesPerSec"
+
   private val valueFactory = (k: String) => new BrokerTopicMetrics(Some(k))
 }
 
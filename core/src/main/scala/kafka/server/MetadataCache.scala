@@ -25,7 +25,7 @@ import scala.jdk.CollectionConverters._
 import kafka.cluster.{Broker, EndPoint}
 import kafka.api._
 import kafka.controller.StateChangeLogger
-import kafka.server.metadata.{MetadataBroker, RaftMetadataCache}
+import kafka.server.metadata.{MetadataBroker, RaftMetadataCache, TopicMetadataFragmentCache}
 import kafka.utils.CoreUtils._
 import kafka.utils.Logging
 import kafka.utils.Implicits._
@@ -60,6 +60,18 @@ trait MetadataCache {
     errorUnavailableEndpoints: Boolean = false,
     errorUnavailableListeners: Boolean = false): collection.Seq[MetadataResponseData.MetadataResponseTopic]
 
+  /**
+   * Return the same topic metadata as [[getTopicMetadata]], but allow it to be served from serialized fragments which
+   * are cached until the next metadata update. The returned topics are written out from their fragments, so they must
+   * not be modified.
+   */
+  def getCachedTopicMetadata(
+    topics: collection.Set[String],
+    listenerName: ListenerName,
+    errorUnavailableEndpoints: Boolean = false,
+    errorUnavailableListeners: Boolean = false): collection.Seq[MetadataResponseData.MetadataResponseTopic] =
+    getTopicMetadata(topics, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+
   def getAllTopics(): collection.Set[String]
 
   def getAllPartitions(): collection.Set[TopicPartition]
@@ -125,6 +137,8 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
   @volatile private var metadataSnapshot: MetadataSnapshot = MetadataSnapshot(partitionStates = mutable.AnyRefMap.empty,
     topicIds = Map.empty, controllerId = None, aliveBrokers = mutable.LongMap.empty, aliveNodes = mutable.LongMap.empty)
 
+  private val topicMetadataFragments = new TopicMetadataFragmentCache
+
   this.logIdent = s"[MetadataCache brokerId=$brokerId] "
   private val stateChangeLogger = new StateChangeLogger(brokerId, inControllerContext = false, None)
 
@@ -233,6 +247,18 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
     snapshot.aliveNodes.get(brokerId).flatMap(_.get(listenerName))
   }
 
+  private def getTopicMetadata(snapshot: MetadataSnapshot, topic: String, listenerName: ListenerName,
+                               errorUnavailableEndpoints: Boolean, errorUnavailableListeners: Boolean): Option[MetadataResponseTopic] = {
+    getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
+      new MetadataResponseTopic()
+        .setErrorCode(Errors.NONE.code)
+        .setName(topic)
+        .setTopicId(snapshot.topicIds.getOrElse(topic, Uuid.ZERO_UUID))
+        .setIsInternal(Topic.isInternal(topic))
+        .setPartitions(partitionMetadata.toBuffer.asJava)
+    }
+  }
+
   // errorUnavailableEndpoints exists to support v0 MetadataResponses
   def getTopicMetadata(topics: Set[String],
                        listenerName: ListenerName,
@@ -240,14 +266,18 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
                        errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
     val snapshot = metadataSnapshot
     topics.toSeq.flatMap { topic =>
-      getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
-        new MetadataResponseTopic()
-          .setErrorCode(Errors.NONE.code)
-          .setName(topic)
-          .setTopicId(snapshot.topicIds.getOrElse(topic, Uuid.ZERO_UUID))
-          .setIsInternal(Topic.isInternal(topic))
-          .setPartitions(partitionMetadata.toBuffer.asJava)
-      }
+      getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  override def getCachedTopicMetadata(topics: Set[String],
+                                      listenerName: ListenerName,
+                                      errorUnavailableEndpoints: Boolean = false,
+                                      errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
+    val snapshot = metadataSnapshot
+    topicMetadataFragments.getTopicMetadata(snapshot, topics, listenerName, errorUnavailableEndpoints,
+      errorUnavailableListeners) { topic =>
+      getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
     }
   }
 
@@ -440,6 +470,7 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
 
         metadataSnapshot = MetadataSnapshot(partitionStates, topicIds.toMap, controllerIdOpt, aliveBrokers, aliveNodes)
       }
+      topicMetadataFragments.invalidate(metadataSnapshot)
       deletedPartitions
     }
   }
@@ -101,7 +101,8 @@ class ReplicaAlterLogDirsThread(name: String,
       UnboundedQuota,
       processResponseCallback,
       request.isolationLevel,
-      None)
+      None,
+      _ => ()) // the reads of the future replicas are never deferred to the cold read threads
 
     if (partitionData == null)
       throw new IllegalStateException(s"Failed to fetch data for partitions ${request.fetchData.keySet().toArray.mkString(",")}")
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, ExecutionException, LinkedBlockingQueue, TimeUnit}
+
+import kafka.log.LogAppendInfo
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.{Logging, ShutdownableThread}
+import org.apache.kafka.common.record.{RecordBatch, Records}
+
+import scala.jdk.CollectionConverters._
+import scala.util.{Failure, Try}
+
+/**
+ * The fetched data of a partition which has been handed off to be appended to its log. The fetcher leaves the
+ * partition out of its fetch requests until the append has completed, so that the fetch offset never runs ahead of
+ * the log end offset. `nextOffset` is the offset after the complete batches of the data.
+ */
+class PendingAppend(val fetchOffset: Long,
+                    val nextOffset: Long,
+                    val lastFetchedEpoch: Option[Int],
+                    val sizeInBytes: Int) {
+  private val result = new CompletableFuture[Option[LogAppendInfo]]()
+  // set once the append has either started or been fenced, whichever happens first
+  private val claimed = new AtomicBoolean()
+
+  def isDone: Boolean = result.isDone
+
+  /**
+   * Wait for the append and return its outcome.
+   */
+  def await(): Try[Option[LogAppendInfo]] = {
+    Try(result.get()).recoverWith {
+      case e: ExecutionException => Failure(e.getCause)
+    }
+  }
+
+  /**
+   * Prevent the append from being performed if it has not started yet, in which case it completes without appending
+   * anything. Returns false if the append has already started, the caller may then wait for it to complete.
+   */
+  def fence(): Boolean = {
+    val fenced = claimed.compareAndSet(false, true)
+    if (fenced)
+      result.complete(None)
+    fenced
+  }
+
+  private[server] def complete(append: () => Option[LogAppendInfo]): Unit = {
+    if (claimed.compareAndSet(false, true)) {
+      try result.complete(append())
+      catch {
+        case e: Throwable => result.completeExceptionally(e)
+      }
+    }
+  }
+
+  private[server] def fail(e: Throwable): Unit = {
+    if (claimed.compareAndSet(false, true))
+      result.completeExceptionally(e)
+  }
+}
+
+object PendingAppend {
+  def apply(fetchOffset: Long, records: Records): PendingAppend = {
+    var nextOffset = fetchOffset
+    var lastFetchedEpoch: Option[Int] = None
+    var sizeInBytes = 0
+    records.batches.forEach { batch =>
+      nextOffset = batch.nextOffset
+      lastFetchedEpoch = if (batch.partitionLeaderEpoch != RecordBatch.NO_PARTITION_LEADER_EPOCH)
+        Some(batch.partitionLeaderEpoch)
+      else
+        None
+      sizeInBytes += batch.sizeInBytes
+    }
+    new PendingAppend(fetchOffset, nextOffset, lastFetchedEpoch, sizeInBytes)
+  }
+}
+
+object ReplicaAppendStage {
+  val QueuedAppendsMetricName = "QueuedAppends"
+  val QueuedBytesMetricName = "QueuedBytes"
+
+  private case class QueuedAppend(pendingAppend: PendingAppend,
+                                  append: () => Option[LogAppendInfo],
+                                  onCompletion: () => Unit)
+}
+
+/**
+ * Appends the data fetched by the replica fetchers to the follower logs, on one thread per log directory. The fetcher
+ * threads only hand the data off, so a slow disk holds up the partitions in its own log directory rather than all the
+ * partitions of the fetchers which have a partition on it.
+ *
+ * The appends of a log directory are performed in the order in which they were submitted. A log directory whose queue
+ * holds `maxQueuedBytes` or more is backed up, and the fetchers stop fetching its partitions until the queue has
+ * drained below that.
+ */
+class ReplicaAppendStage(maxQueuedBytes: Int) extends Logging with KafkaMetricsGroup {
+  import ReplicaAppendStage._
+
+  private val appenders = new ConcurrentHashMap[String, LogDirAppender]()
+  @volatile private var isShutdown = false
+
+  /**
+   * Queue the append of data fetched for a partition in the given log directory. `append` is called on the thread of
+   * the log directory, and its outcome completes `pendingAppend`. `onCompletion` is called on the same thread once
+   * `pendingAppend` has completed, whether or not the append was performed.
+   */
+  def submit(logDir: String, pendingAppend: PendingAppend, onCompletion: () => Unit = () => ())
+            (append: () => Option[LogAppendInfo]): Unit = {
+    val appender = appenders.computeIfAbsent(logDir, _ => {
+      val appender = new LogDirAppender(logDir, appenders.size)
+      appender.start()
+      appender
+    })
+    appender.enqueue(QueuedAppend(pendingAppend, append, onCompletion))
+    // the appender may have missed the append if the stage was shut down concurrently
+    if (isShutdown)
+      appender.failQueuedAppends()
+  }
+
+  def isBackedUp(logDir: String): Boolean = {
+    val appender = appenders.get(logDir)
+    appender != null && appender.queuedBytes >= maxQueuedBytes
+  }
+
+  def shutdown(): Unit = {
+    info("Shutting down")
+    isShutdown = true
+    val logDirAppenders = appenders.values.asScala.toBuffer
+    logDirAppenders.foreach(_.initiateShutdown())
+    logDirAppenders.foreach { appender =>
+      appender.awaitShutdown()
+      appender.failQueuedAppends()
+      appender.removeMetrics()
+    }
+    info("Shut down completely")
+  }
+
+  // the appender thread is not interruptible since interrupting it while it writes to a log would close the log's file
+  private class LogDirAppender(logDir: String, index: Int)
+    extends ShutdownableThread(s"ReplicaAppender-$index", isInterruptible = false) {
+
+    this.logIdent = s"[ReplicaAppender logDir=$logDir]: "
+
+    private val queue = new LinkedBlockingQueue[QueuedAppend]()
+    private val queuedBytesCount = new AtomicLong()
+    private val tags = Map("logDirectory" -> logDir)
+
+    newGauge(QueuedAppendsMetricName, () => queue.size, tags)
+    newGauge(QueuedBytesMetricName, () => queuedBytesCount.get, tags)
+
+    def queuedBytes: Long = queuedBytesCount.get
+
+    def enqueue(queued: QueuedAppend): Unit = {
+      queuedBytesCount.addAndGet(queued.pendingAppend.sizeInBytes)
+      queue.add(queued)
+    }
+
+    override def doWork(): Unit = {
+      val queued = queue.poll(300, TimeUnit.MILLISECONDS)
+      if (queued != null) {
+        queued.pendingAppend.complete(queued.append)
+        queuedBytesCount.addAndGet(-queued.pendingAppend.sizeInBytes)
+        notifyCompletion(queued)
+      }
+    }
+
+    def failQueuedAppends(): Unit = {
+      var queued = queue.poll()
+      while (queued != null) {
+        queued.pendingAppend.fail(new IllegalStateException(s"Appends to $logDir have been shut down"))
+        queuedBytesCount.addAndGet(-queued.pendingAppend.sizeInBytes)
+        notifyCompletion(queued)
+        queued = queue.poll()
+      }
+    }
+
+    private def notifyCompletion(queued: QueuedAppend): Unit = {
+      try queued.onCompletion()
+      catch {
+        case e: Throwable => error(s"Error while notifying the completion of an append at offset ${queued.pendingAppend.fetchOffset}", e)
+      }
+    }
+
+    def removeMetrics(): Unit = {
+      removeMetric(QueuedAppendsMetricName, tags)
+      removeMetric(QueuedBytesMetricName, tags)
+    }
+  }
+}
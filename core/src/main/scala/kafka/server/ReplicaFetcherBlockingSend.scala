@@ -16,6 +16,7 @@
   */
 package kafka.server
 
+import java.io.IOException
 import java.net.SocketTimeoutException
 
 import kafka.cluster.BrokerEndPoint
@@ -30,6 +31,7 @@ import org.apache.kafka.common.{Node, Reconfigurable}
 import org.apache.kafka.common.requests.AbstractRequest.Builder
 
 import scala.jdk.CollectionConverters._
+import scala.util.{Failure, Success, Try}
 
 trait BlockingSend {
 
@@ -40,18 +42,35 @@ trait BlockingSend {
   def close(): Unit
 }
 
+/**
+ * A `BlockingSend` which can also keep requests in flight without waiting for their responses. Such requests are sent
+ * over one connection per lane, separate from the connection of the blocking requests, so the broker processes the
+ * requests of different lanes concurrently. Responses are passed to their callbacks on the sending thread from within
+ * `poll`, or from within a blocking `sendRequest`.
+ */
+trait PipelinedSend extends BlockingSend {
+
+  def sendRequestAsync(lane: Int, requestBuilder: AbstractRequest.Builder[_ <: AbstractRequest])
+                      (callback: Try[ClientResponse] => Unit): Unit
+
+  def poll(timeoutMs: Long): Unit
+}
+
 class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
                                  brokerConfig: KafkaConfig,
                                  metrics: Metrics,
                                  time: Time,
                                  fetcherId: Int,
                                  clientId: String,
-                                 logContext: LogContext) extends BlockingSend {
+                                 logContext: LogContext) extends PipelinedSend {
 
   private val sourceNode = new Node(sourceBroker.id, sourceBroker.host, sourceBroker.port)
   private val socketTimeout: Int = brokerConfig.replicaSocketTimeoutMs
 
-  private val (networkClient, reconfigurableChannelBuilder) = {
+  private val (networkClient, reconfigurableChannelBuilder) = createNetworkClient()
+
+  // Visible for testing
+  protected[server] def createNetworkClient(): (KafkaClient, Option[Reconfigurable]) = {
     val channelBuilder = ChannelBuilders.clientChannelBuilder(
       brokerConfig.interBrokerSecurityProtocol,
       JaasContext.Type.SERVER,
@@ -116,6 +135,39 @@ class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
     }
   }
 
+  override def sendRequestAsync(lane: Int, requestBuilder: Builder[_ <: AbstractRequest])
+                               (callback: Try[ClientResponse] => Unit): Unit = {
+    // lanes connect to the source broker under node ids which cannot be those of brokers
+    val laneNode = new Node(-1 - lane, sourceBroker.host, sourceBroker.port)
+    try {
+      if (!NetworkClientUtils.awaitReady(networkClient, laneNode, time, socketTimeout))
+        throw new SocketTimeoutException(s"Failed to connect within $socketTimeout ms")
+      else {
+        val clientRequest = networkClient.newClientRequest(laneNode.idString, requestBuilder, time.milliseconds(), true,
+          brokerConfig.requestTimeoutMs, response => callback(completedResponse(response)))
+        networkClient.send(clientRequest, time.milliseconds())
+      }
+    }
+    catch {
+      case e: Throwable =>
+        networkClient.close(laneNode.idString)
+        throw e
+    }
+  }
+
+  private def completedResponse(response: ClientResponse): Try[ClientResponse] = {
+    if (response.wasDisconnected)
+      Failure(new IOException(s"Connection to ${response.destination} was disconnected before the response was read"))
+    else if (response.versionMismatch != null)
+      Failure(response.versionMismatch)
+    else
+      Success(response)
+  }
+
+  override def poll(timeoutMs: Long): Unit = {
+    networkClient.poll(timeoutMs, time.milliseconds())
+  }
+
   override def initiateClose(): Unit = {
     reconfigurableChannelBuilder.foreach(brokerConfig.removeReconfigurable)
     networkClient.initiateClose()
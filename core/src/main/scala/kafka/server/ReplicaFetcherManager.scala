@@ -36,7 +36,7 @@ class ReplicaFetcherManager(brokerConfig: KafkaConfig,
     val prefix = threadNamePrefix.map(tp => s"$tp:").getOrElse("")
     val threadName = s"${prefix}ReplicaFetcherThread-$fetcherId-${sourceBroker.id}"
     new ReplicaFetcherThread(threadName, fetcherId, sourceBroker, brokerConfig, failedPartitions, replicaManager,
-      metrics, time, quotaManager)
+      metrics, time, quotaManager, appendStage = replicaManager.replicaAppendStage)
   }
 
   def shutdown(): Unit = {
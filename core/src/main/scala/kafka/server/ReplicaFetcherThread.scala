@@ -23,10 +23,10 @@ import java.util.Optional
 import kafka.api._
 import kafka.cluster.BrokerEndPoint
 import kafka.log.{LeaderOffsetIncremented, LogAppendInfo}
-import kafka.server.AbstractFetcherThread.ReplicaFetch
+import kafka.server.AbstractFetcherThread.{PipelinedFetchClient, ReplicaFetch}
 import kafka.server.AbstractFetcherThread.ResultWithPartitions
 import kafka.utils.Implicits._
-import org.apache.kafka.clients.FetchSessionHandler
+import org.apache.kafka.clients.{ClientResponse, FetchSessionHandler}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.KafkaStorageException
 import org.apache.kafka.common.message.ListOffsetsRequestData.{ListOffsetsPartition, ListOffsetsTopic}
@@ -40,8 +40,9 @@ import org.apache.kafka.common.requests._
 import org.apache.kafka.common.utils.{LogContext, Time}
 
 import scala.jdk.CollectionConverters._
-import scala.collection.{Map, mutable}
+import scala.collection.{Map, Set, mutable}
 import scala.compat.java8.OptionConverters._
+import scala.util.{Failure, Try}
 
 class ReplicaFetcherThread(name: String,
                            fetcherId: Int,
@@ -52,14 +53,16 @@ class ReplicaFetcherThread(name: String,
                            metrics: Metrics,
                            time: Time,
                            quota: ReplicaQuota,
-                           leaderEndpointBlockingSend: Option[BlockingSend] = None)
+                           leaderEndpointBlockingSend: Option[BlockingSend] = None,
+                           appendStage: Option[ReplicaAppendStage] = None)
   extends AbstractFetcherThread(name = name,
                                 clientId = name,
                                 sourceBroker = sourceBroker,
                                 failedPartitions,
                                 fetchBackOffMs = brokerConfig.replicaFetchBackoffMs,
                                 isInterruptible = false,
-                                replicaMgr.brokerTopicStats) {
+                                replicaMgr.brokerTopicStats,
+                                time) {
 
   private val replicaId = brokerConfig.brokerId
   private val logContext = new LogContext(s"[ReplicaFetcher replicaId=$replicaId, leaderId=${sourceBroker.id}, " +
@@ -110,6 +113,16 @@ class ReplicaFetcherThread(name: String,
   override protected val isTruncationOnFetchSupported = ApiVersion.isTruncationOnFetchSupported(brokerConfig.interBrokerProtocolVersion)
   val fetchSessionHandler = new FetchSessionHandler(logContext, sourceBroker.id)
 
+  // fetches are pipelined only if the leader endpoint can keep requests in flight
+  override protected val pipelinedFetchClient: Option[PipelinedFetchClient] = leaderEndpoint match {
+    case pipelinedSend: PipelinedSend if brokerConfig.replicaFetchMaxInFlightRequests > 1 =>
+      Some(new LeaderPipelinedFetchClient(pipelinedSend, brokerConfig.replicaFetchMaxInFlightRequests))
+    case _ => None
+  }
+  // every lane has its own fetch session, the first lane uses `fetchSessionHandler`
+  private val laneFetchSessionHandlers = fetchSessionHandler +:
+    (1 until pipelinedFetchClient.fold(1)(_.maxInFlightFetches)).map(_ => new FetchSessionHandler(logContext, sourceBroker.id))
+
   override protected def latestEpoch(topicPartition: TopicPartition): Option[Int] = {
     replicaMgr.localLogOrException(topicPartition).latestEpoch
   }
@@ -202,6 +215,23 @@ class ReplicaFetcherThread(name: String,
     logAppendInfo
   }
 
+  override protected def submitPartitionData(topicPartition: TopicPartition,
+                                             fetchState: PartitionFetchState,
+                                             partitionData: FetchData): Option[PendingAppend] = {
+    val records = toMemoryRecords(FetchResponse.recordsOrFail(partitionData))
+    // a response without data only updates the high watermark and log start offset, which is left to the fetcher thread
+    appendStage.filter(_ => records.sizeInBytes > 0).map { stage =>
+      val partition = replicaMgr.getPartitionOrException(topicPartition)
+      val pendingAppend = PendingAppend(fetchState.fetchOffset, records)
+      stage.submit(partition.localLogOrException.parentDir, pendingAppend, () => onPendingAppendCompleted()) { () =>
+        partition.appendToFollowerInLeaderEpoch(fetchState.currentLeaderEpoch) {
+          processPartitionData(topicPartition, fetchState.fetchOffset, partitionData)
+        }
+      }
+      pendingAppend
+    }
+  }
+
   def maybeWarnIfOversizedRecords(records: MemoryRecords, topicPartition: TopicPartition): Unit = {
     // oversized messages don't cause replication to fail from fetch request version 3 (KIP-74)
     if (fetchRequestVersion <= 2 && records.sizeInBytes > 0 && records.validBytes <= 0)
@@ -215,12 +245,7 @@ class ReplicaFetcherThread(name: String,
   override protected def fetchFromLeader(fetchRequest: FetchRequest.Builder): Map[TopicPartition, FetchData] = {
     try {
       val clientResponse = leaderEndpoint.sendRequest(fetchRequest)
-      val fetchResponse = clientResponse.responseBody.asInstanceOf[FetchResponse]
-      if (!fetchSessionHandler.handleResponse(fetchResponse)) {
-        Map.empty
-      } else {
-        fetchResponse.responseData.asScala
-      }
+      fetchResponseData(fetchSessionHandler, clientResponse)
     } catch {
       case t: Throwable =>
         fetchSessionHandler.handleError(t)
@@ -228,6 +253,44 @@ class ReplicaFetcherThread(name: String,
     }
   }
 
+  // sends the fetch requests of every lane over the lane's own connection to the leader, in the lane's fetch session
+  private class LeaderPipelinedFetchClient(endpoint: PipelinedSend,
+                                           override val maxInFlightFetches: Int) extends PipelinedFetchClient {
+
+    override def sendFetch(lane: Int, fetchRequest: FetchRequest.Builder)
+                          (onComplete: Try[Map[TopicPartition, FetchData]] => Unit): Unit = {
+      val sessionHandler = laneFetchSessionHandlers(lane)
+      def complete(clientResponse: Try[ClientResponse]): Unit = {
+        val responseData = clientResponse.map(fetchResponseData(sessionHandler, _))
+        responseData.failed.foreach(sessionHandler.handleError)
+        onComplete(responseData)
+      }
+
+      try {
+        endpoint.sendRequestAsync(lane, fetchRequest)(complete)
+      } catch {
+        case t: Throwable => complete(Failure(t))
+      }
+    }
+
+    override def poll(): Unit = {
+      // the leader holds fetches for at most `maxWait`, so polling for longer would only delay the idle lanes
+      endpoint.poll(maxWait)
+    }
+  }
+
+  // Visible for testing
+  private[server] def laneFetchSessionHandler(lane: Int): FetchSessionHandler = laneFetchSessionHandlers(lane)
+
+  private def fetchResponseData(sessionHandler: FetchSessionHandler, clientResponse: ClientResponse): Map[TopicPartition, FetchData] = {
+    val fetchResponse = clientResponse.responseBody.asInstanceOf[FetchResponse]
+    if (!sessionHandler.handleResponse(fetchResponse)) {
+      Map.empty
+    } else {
+      fetchResponse.responseData.asScala
+    }
+  }
+
   override protected def fetchEarliestOffsetFromLeader(topicPartition: TopicPartition, currentLeaderEpoch: Int): Long = {
     fetchOffsetFromLeader(topicPartition, currentLeaderEpoch, ListOffsetsRequest.EARLIEST_TIMESTAMP)
   }
@@ -262,13 +325,28 @@ class ReplicaFetcherThread(name: String,
     }
   }
 
-  override def buildFetch(partitionMap: Map[TopicPartition, PartitionFetchState]): ResultWithPartitions[Option[ReplicaFetch]] = {
+  override def buildFetch(partitionMap: Map[TopicPartition, PartitionFetchState]): ResultWithPartitions[Option[ReplicaFetch]] =
+    buildFetch(0, partitionMap)
+
+  override def buildFetch(lane: Int, partitionMap: Map[TopicPartition, PartitionFetchState]): ResultWithPartitions[Option[ReplicaFetch]] =
+    buildFetch(lane, partitionMap, Set.empty[TopicPartition])
+
+  override def buildFetch(lane: Int,
+                          partitionMap: Map[TopicPartition, PartitionFetchState],
+                          pendingAppendPartitions: Set[TopicPartition]): ResultWithPartitions[Option[ReplicaFetch]] = {
     val partitionsWithError = mutable.Set[TopicPartition]()
+    var keepsPendingAppends = false
 
-    val builder = fetchSessionHandler.newBuilder(partitionMap.size, false)
+    val builder = laneFetchSessionHandlers(lane).newBuilder(partitionMap.size, false)
     partitionMap.forKeyValue { (topicPartition, fetchState) =>
-      // We will not include a replica in the fetch request if it should be throttled.
-      if (fetchState.isReadyForFetch && !shouldFollowerThrottle(quota, fetchState, topicPartition)) {
+      // We will not include a replica in the fetch request if it should be throttled or if its log directory
+      // has more fetched data queued than it can keep up with.
+      if (fetchState.isReadyForFetch && !shouldFollowerThrottle(quota, fetchState, topicPartition) &&
+          !isAppendBackedUp(topicPartition)) {
+        // A partition whose fetched data is still being appended stays in the fetch session at its current offset,
+        // but none of its data is fetched until the append has completed.
+        val pendingAppend = pendingAppendPartitions.contains(topicPartition)
+        keepsPendingAppends ||= pendingAppend
         try {
           val logStartOffset = this.logStartOffset(topicPartition)
           val lastFetchedEpoch = if (isTruncationOnFetchSupported)
@@ -278,7 +356,7 @@ class ReplicaFetcherThread(name: String,
           builder.add(topicPartition, new FetchRequest.PartitionData(
             fetchState.fetchOffset,
             logStartOffset,
-            fetchSize,
+            if (pendingAppend) 0 else fetchSize,
             Optional.of(fetchState.currentLeaderEpoch),
             lastFetchedEpoch))
         } catch {
@@ -294,8 +372,11 @@ class ReplicaFetcherThread(name: String,
     val fetchRequestOpt = if (fetchData.sessionPartitions.isEmpty && fetchData.toForget.isEmpty) {
       None
     } else {
+      // the fetcher is not woken up when an append completes, so the leader should not hold a fetch which keeps
+      // partitions with pending appends for long, or they would only be fetched again once it has timed out
+      val fetchMaxWait = if (keepsPendingAppends) math.min(maxWait, ReplicaFetcherThread.PendingAppendFetchMaxWaitMs) else maxWait
       val requestBuilder = FetchRequest.Builder
-        .forReplica(fetchRequestVersion, replicaId, maxWait, minBytes, fetchData.toSend)
+        .forReplica(fetchRequestVersion, replicaId, fetchMaxWait, minBytes, fetchData.toSend)
         .setMaxBytes(maxBytes)
         .toForget(fetchData.toForget)
         .metadata(fetchData.metadata)
@@ -383,4 +464,13 @@ class ReplicaFetcherThread(name: String,
     !fetchState.isReplicaInSync && quota.isThrottled(topicPartition) && quota.isQuotaExceeded
   }
 
+  private def isAppendBackedUp(topicPartition: TopicPartition): Boolean = {
+    appendStage.exists(stage => replicaMgr.localLog(topicPartition).exists(log => stage.isBackedUp(log.parentDir)))
+  }
+
+}
+
+object ReplicaFetcherThread {
+  // the longest the leader may hold a fetch which keeps partitions with pending appends in the fetch session
+  val PendingAppendFetchMaxWaitMs = 10
 }
@@ -233,10 +233,12 @@ class ReplicaManager(val config: KafkaConfig,
       quotaManagers, brokerTopicStats, metadataCache, logDirFailureChannel,
       DelayedOperationPurgatory[DelayedProduce](
         purgatoryName = "Produce", brokerId = config.brokerId,
-        purgeInterval = config.producerPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.producerPurgatoryPurgeIntervalRequests,
+        timerStripes = config.purgatoryTimerStripes),
       DelayedOperationPurgatory[DelayedFetch](
         purgatoryName = "Fetch", brokerId = config.brokerId,
-        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests,
+        timerStripes = config.purgatoryTimerStripes),
       DelayedOperationPurgatory[DelayedDeleteRecords](
         purgatoryName = "DeleteRecords", brokerId = config.brokerId,
         purgeInterval = config.deleteRecordsPurgatoryPurgeIntervalRequests),
@@ -252,6 +254,15 @@ class ReplicaManager(val config: KafkaConfig,
     valueFactory = Some(tp => HostedPartition.Online(Partition(tp, time, configRepository, this)))
   )
   protected val replicaStateChangeLock = new Object
+  // appends the data fetched by the replica fetchers on one thread per log directory, if enabled
+  val replicaAppendStage: Option[ReplicaAppendStage] =
+    if (config.replicaFetchAppendQueueMaxBytes > 0) Some(new ReplicaAppendStage(config.replicaFetchAppendQueueMaxBytes))
+    else None
+  // performs the fetch reads far behind the log end on their own threads, if enabled
+  private[server] val fetchReadScheduler: Option[FetchReadScheduler] =
+    if (config.numColdFetchThreads > 0)
+      Some(new FetchReadScheduler(config.numColdFetchThreads, config.coldFetchQueueMaxReads, config.coldFetchOffsetLag, time))
+    else None
   val replicaFetcherManager = createReplicaFetcherManager(metrics, time, threadNamePrefix, quotaManagers.follower)
   private[server] val replicaAlterLogDirsManager = createReplicaAlterLogDirsManager(quotaManagers.alterLogDirs, brokerTopicStats)
   private val highWatermarkCheckPointThreadStarted = new AtomicBoolean(false)
@@ -291,6 +302,9 @@ class ReplicaManager(val config: KafkaConfig,
   val isrExpandRate: Meter = newMeter("IsrExpandsPerSec", "expands", TimeUnit.SECONDS)
   val isrShrinkRate: Meter = newMeter("IsrShrinksPerSec", "shrinks", TimeUnit.SECONDS)
   val failedIsrUpdatesRate: Meter = newMeter("FailedIsrUpdatesPerSec", "failedUpdates", TimeUnit.SECONDS)
+  // the partitions checked and the delayed produce requests completed by each batched pass after a follower fetch
+  private val followerFetchCompletionPartitions = newHistogram("FollowerFetchCompletionPassPartitions")
+  private val followerFetchCompletedProduces = newHistogram("FollowerFetchCompletionPassProduces")
 
   def underReplicatedPartitionCount: Int = leaderPartitionsIterator.count(_.isUnderReplicated)
 
@@ -1012,6 +1026,10 @@ class ReplicaManager(val config: KafkaConfig,
    * Fetch messages from a replica, and wait until enough data can be fetched and return;
    * the callback function will be triggered either when timeout or required fetch info is satisfied.
    * Consumers may fetch from any replica, but followers can only fetch from the leader.
+   *
+   * If the cold partitions of the fetch are read by the cold read threads, `readCompletionCallback` is called once they
+   * have been read, before the response is sent, or with the exception which failed the read, in which case no response
+   * is sent.
    */
   def fetchMessages(timeout: Long,
                     replicaId: Int,
@@ -1022,7 +1040,8 @@ class ReplicaManager(val config: KafkaConfig,
                     quota: ReplicaQuota,
                     responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit,
                     isolationLevel: IsolationLevel,
-                    clientMetadata: Option[ClientMetadata]): Unit = {
+                    clientMetadata: Option[ClientMetadata],
+                    readCompletionCallback: Option[Throwable] => Unit = _ => ()): Unit = {
     val isFromFollower = Request.isValidBrokerId(replicaId)
     val isFromConsumer = !(isFromFollower || replicaId == Request.FutureLocalReplicaId)
     val fetchIsolation = if (!isFromConsumer)
@@ -1034,71 +1053,183 @@ class ReplicaManager(val config: KafkaConfig,
 
     // Restrict fetching to leader if request is from follower or from a client with older version (no ClientMetadata)
     val fetchOnlyFromLeader = isFromFollower || (isFromConsumer && clientMetadata.isEmpty)
-    def readFromLog(): Seq[(TopicPartition, LogReadResult)] = {
+    def readFromLog(readPartitionInfo: Seq[(TopicPartition, PartitionData)],
+                    limitBytes: Int,
+                    minOneMessage: Boolean): Seq[(TopicPartition, LogReadResult)] = {
       val result = readFromLocalLog(
         replicaId = replicaId,
         fetchOnlyFromLeader = fetchOnlyFromLeader,
         fetchIsolation = fetchIsolation,
-        fetchMaxBytes = fetchMaxBytes,
+        fetchMaxBytes = limitBytes,
         hardMaxBytesLimit = hardMaxBytesLimit,
-        readPartitionInfo = fetchInfos,
+        readPartitionInfo = readPartitionInfo,
         quota = quota,
-        clientMetadata = clientMetadata)
+        clientMetadata = clientMetadata,
+        minOneMessage = minOneMessage)
       if (isFromFollower) updateFollowerFetchState(replicaId, result)
       else result
     }
 
-    val logReadResults = readFromLog()
-
-    // check if this fetch request can be satisfied right away
-    var bytesReadable: Long = 0
-    var errorReadingData = false
-    var hasDivergingEpoch = false
-    val logReadResultMap = new mutable.HashMap[TopicPartition, LogReadResult]
-    logReadResults.foreach { case (topicPartition, logReadResult) =>
-      brokerTopicStats.topicStats(topicPartition.topic).totalFetchRequestRate.mark()
-      brokerTopicStats.allTopicsStats.totalFetchRequestRate.mark()
-
-      if (logReadResult.error != Errors.NONE)
-        errorReadingData = true
-      if (logReadResult.divergingEpoch.nonEmpty)
-        hasDivergingEpoch = true
-      bytesReadable = bytesReadable + logReadResult.info.records.sizeInBytes
-      logReadResultMap.put(topicPartition, logReadResult)
+    def readAllFromLog(): Seq[(TopicPartition, LogReadResult)] =
+      readFromLog(fetchInfos, fetchMaxBytes, minOneMessage = !hardMaxBytesLimit)
+
+    // the read results in the order of the partitions in the request
+    def inFetchOrder(logReadResults: Seq[(TopicPartition, LogReadResult)]): Seq[(TopicPartition, LogReadResult)] = {
+      val logReadResultMap = logReadResults.toMap
+      fetchInfos.flatMap { case (topicPartition, _) => logReadResultMap.get(topicPartition).map(topicPartition -> _) }
     }
 
-    // respond immediately if 1) fetch request does not want to wait
-    //                        2) fetch request does not require any data
-    //                        3) has enough data to respond
-    //                        4) some error happens while reading data
-    //                        5) we found a diverging epoch
-    if (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData || hasDivergingEpoch) {
+    def respond(logReadResults: Seq[(TopicPartition, LogReadResult)]): Unit = {
       val fetchPartitionData = logReadResults.map { case (tp, result) =>
         val isReassignmentFetch = isFromFollower && isAddingReplica(tp, replicaId)
         tp -> result.toFetchPartitionData(isReassignmentFetch)
       }
       responseCallback(fetchPartitionData)
-    } else {
-      // construct the fetch results from the read results
-      val fetchPartitionStatus = new mutable.ArrayBuffer[(TopicPartition, FetchPartitionStatus)]
-      fetchInfos.foreach { case (topicPartition, partitionData) =>
-        logReadResultMap.get(topicPartition).foreach(logReadResult => {
-          val logOffsetMetadata = logReadResult.info.fetchOffsetMetadata
-          fetchPartitionStatus += (topicPartition -> FetchPartitionStatus(logOffsetMetadata, partitionData))
-        })
+    }
+
+    def respondOrDelay(logReadResults: Seq[(TopicPartition, LogReadResult)]): Unit = {
+      // check if this fetch request can be satisfied right away
+      var bytesReadable: Long = 0
+      var errorReadingData = false
+      var hasDivergingEpoch = false
+      val logReadResultMap = new mutable.HashMap[TopicPartition, LogReadResult]
+      logReadResults.foreach { case (topicPartition, logReadResult) =>
+        brokerTopicStats.topicStats(topicPartition.topic).totalFetchRequestRate.mark()
+        brokerTopicStats.allTopicsStats.totalFetchRequestRate.mark()
+
+        if (logReadResult.error != Errors.NONE)
+          errorReadingData = true
+        if (logReadResult.divergingEpoch.nonEmpty)
+          hasDivergingEpoch = true
+        bytesReadable = bytesReadable + logReadResult.info.records.sizeInBytes
+        logReadResultMap.put(topicPartition, logReadResult)
+      }
+
+      // respond immediately if 1) fetch request does not want to wait
+      //                        2) fetch request does not require any data
+      //                        3) has enough data to respond
+      //                        4) some error happens while reading data
+      //                        5) we found a diverging epoch
+      if (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData || hasDivergingEpoch) {
+        respond(logReadResults)
+      } else {
+        // construct the fetch results from the read results
+        val fetchPartitionStatus = new mutable.ArrayBuffer[(TopicPartition, FetchPartitionStatus)]
+        fetchInfos.foreach { case (topicPartition, partitionData) =>
+          logReadResultMap.get(topicPartition).foreach(logReadResult => {
+            val logOffsetMetadata = logReadResult.info.fetchOffsetMetadata
+            fetchPartitionStatus += (topicPartition -> FetchPartitionStatus(logOffsetMetadata, partitionData))
+          })
+        }
+        val fetchMetadata: SFetchMetadata = SFetchMetadata(fetchMinBytes, fetchMaxBytes, hardMaxBytesLimit,
+          fetchOnlyFromLeader, fetchIsolation, isFromFollower, replicaId, fetchPartitionStatus)
+        val delayedFetch = new DelayedFetch(timeout, fetchMetadata, this, quota, clientMetadata,
+          responseCallback)
+
+        // create a list of (topic, partition) pairs to use as keys for this delayed fetch operation
+        val delayedFetchKeys = fetchPartitionStatus.map { case (tp, _) => TopicPartitionOperationKey(tp) }
+
+        // try to complete the request immediately, otherwise put it into the purgatory;
+        // this is because while the delayed fetch operation is being created, new requests
+        // may arrive and hence make this operation completable.
+        delayedFetchPurgatory.tryCompleteElseWatch(delayedFetch, delayedFetchKeys)
+      }
+    }
+
+    // the cold read threads are saturated: rather than being read on the request thread, the cold partitions are
+    // answered without data, after the maximum wait of the fetch unless the partitions at the tail returned data
+    def respondWithoutColdReads(tailResults: Seq[(TopicPartition, LogReadResult)],
+                                coldInfos: Seq[(TopicPartition, PartitionData)]): Unit = {
+      val logReadResults = inFetchOrder(tailResults ++ coldInfos.map { case (topicPartition, partitionData) =>
+        topicPartition -> unreadResult(topicPartition, partitionData, fetchOnlyFromLeader)
+      })
+      val tailHasData = tailResults.exists { case (_, result) =>
+        result.info.records.sizeInBytes > 0 || result.error != Errors.NONE || result.divergingEpoch.nonEmpty
       }
-      val fetchMetadata: SFetchMetadata = SFetchMetadata(fetchMinBytes, fetchMaxBytes, hardMaxBytesLimit,
-        fetchOnlyFromLeader, fetchIsolation, isFromFollower, replicaId, fetchPartitionStatus)
-      val delayedFetch = new DelayedFetch(timeout, fetchMetadata, this, quota, clientMetadata,
-        responseCallback)
-
-      // create a list of (topic, partition) pairs to use as keys for this delayed fetch operation
-      val delayedFetchKeys = fetchPartitionStatus.map { case (tp, _) => TopicPartitionOperationKey(tp) }
-
-      // try to complete the request immediately, otherwise put it into the purgatory;
-      // this is because while the delayed fetch operation is being created, new requests
-      // may arrive and hence make this operation completable.
-      delayedFetchPurgatory.tryCompleteElseWatch(delayedFetch, delayedFetchKeys)
+      if (timeout <= 0 || tailHasData)
+        respond(logReadResults)
+      else
+        scheduler.schedule("delayed-unread-fetch", () => respond(logReadResults), delay = timeout)
+    }
+
+    fetchReadScheduler match {
+      // the reads of the future replica fetcher must complete before this method returns
+      case Some(readScheduler) if replicaId != Request.FutureLocalReplicaId =>
+        val (coldInfos, tailInfos) = fetchInfos.partition { case (topicPartition, partitionData) =>
+          isColdRead(readScheduler, replicaId, topicPartition, partitionData)
+        }
+        if (coldInfos.isEmpty) {
+          respondOrDelay(readScheduler.readTail(readAllFromLog()))
+        } else {
+          // the partitions at the tail are read right away, only the cold partitions wait for a cold read thread
+          val tailResults =
+            if (tailInfos.isEmpty) Seq.empty
+            else readScheduler.readTail(readFromLog(tailInfos, fetchMaxBytes, minOneMessage = !hardMaxBytesLimit))
+          val tailBytes = tailResults.map { case (_, result) => result.info.records.sizeInBytes }.sum
+          val submitted = readScheduler.submitCold { () =>
+            try {
+              val coldResults = readFromLog(coldInfos, math.max(0, fetchMaxBytes - tailBytes),
+                minOneMessage = !hardMaxBytesLimit && tailBytes == 0)
+              readCompletionCallback(None)
+              respondOrDelay(inFetchOrder(tailResults ++ coldResults))
+            } catch {
+              case e: Throwable => readCompletionCallback(Some(e))
+            }
+          }
+          if (!submitted)
+            respondWithoutColdReads(tailResults, coldInfos)
+        }
+      case Some(readScheduler) =>
+        respondOrDelay(readScheduler.readTail(readAllFromLog()))
+      case None =>
+        respondOrDelay(readAllFromLog())
+    }
+  }
+
+  /**
+   * Whether the read of a partition starts far enough behind the log end to be served by the cold read threads. The
+   * reads of the followers in the ISR never are, so that they do not wait behind the reads of the replicas catching up.
+   */
+  private def isColdRead(scheduler: FetchReadScheduler,
+                         replicaId: Int,
+                         topicPartition: TopicPartition,
+                         partitionData: PartitionData): Boolean = {
+    onlinePartition(topicPartition).exists { partition =>
+      !partition.inSyncReplicaIds.contains(replicaId) &&
+        partition.log.exists(log => scheduler.isCold(partitionData.fetchOffset, log.logEndOffset))
+    }
+  }
+
+  /**
+   * The result of a partition which was not read: no records, with the offsets of the partition.
+   */
+  private def unreadResult(topicPartition: TopicPartition,
+                           fetchInfo: PartitionData,
+                           fetchOnlyFromLeader: Boolean): LogReadResult = {
+    try {
+      val offsetSnapshot = getPartitionOrException(topicPartition)
+        .fetchOffsetSnapshot(fetchInfo.currentLeaderEpoch, fetchOnlyFromLeader)
+      LogReadResult(info = FetchDataInfo(LogOffsetMetadata.UnknownOffsetMetadata, MemoryRecords.EMPTY),
+        divergingEpoch = None,
+        highWatermark = offsetSnapshot.highWatermark.messageOffset,
+        leaderLogStartOffset = offsetSnapshot.logStartOffset,
+        leaderLogEndOffset = offsetSnapshot.logEndOffset.messageOffset,
+        followerLogStartOffset = fetchInfo.logStartOffset,
+        fetchTimeMs = -1L,
+        lastStableOffset = Some(offsetSnapshot.lastStableOffset.messageOffset),
+        preferredReadReplica = None,
+        exception = None)
+    } catch {
+      case e: Throwable =>
+        LogReadResult(info = FetchDataInfo(LogOffsetMetadata.UnknownOffsetMetadata, MemoryRecords.EMPTY),
+          divergingEpoch = None,
+          highWatermark = Log.UnknownOffset,
+          leaderLogStartOffset = Log.UnknownOffset,
+          leaderLogEndOffset = Log.UnknownOffset,
+          followerLogStartOffset = Log.UnknownOffset,
+          fetchTimeMs = -1L,
+          lastStableOffset = None,
+          exception = Some(e))
     }
   }
 
@@ -1113,6 +1244,23 @@ class ReplicaManager(val config: KafkaConfig,
                        readPartitionInfo: Seq[(TopicPartition, PartitionData)],
                        quota: ReplicaQuota,
                        clientMetadata: Option[ClientMetadata]): Seq[(TopicPartition, LogReadResult)] = {
+    readFromLocalLog(replicaId, fetchOnlyFromLeader, fetchIsolation, fetchMaxBytes, hardMaxBytesLimit, readPartitionInfo,
+      quota, clientMetadata, minOneMessage = !hardMaxBytesLimit)
+  }
+
+  /**
+   * Read from multiple topic partitions at the given offset up to maxSize bytes, ignoring the size limits for the
+   * first message read if `minOneMessage` is true
+   */
+  private def readFromLocalLog(replicaId: Int,
+                               fetchOnlyFromLeader: Boolean,
+                               fetchIsolation: FetchIsolation,
+                               fetchMaxBytes: Int,
+                               hardMaxBytesLimit: Boolean,
+                               readPartitionInfo: Seq[(TopicPartition, PartitionData)],
+                               quota: ReplicaQuota,
+                               clientMetadata: Option[ClientMetadata],
+                               minOneMessage: Boolean): Seq[(TopicPartition, LogReadResult)] = {
     val traceEnabled = isTraceEnabled
 
     def read(tp: TopicPartition, fetchInfo: PartitionData, limitBytes: Int, minOneMessage: Boolean): LogReadResult = {
@@ -1225,13 +1373,16 @@ class ReplicaManager(val config: KafkaConfig,
 
     var limitBytes = fetchMaxBytes
     val result = new mutable.ArrayBuffer[(TopicPartition, LogReadResult)]
-    var minOneMessage = !hardMaxBytesLimit
+    var ignoreSizeLimits = minOneMessage
+    // a follower keeps a partition whose fetched data it is still appending in its fetch session with a partition
+    // size limit of 0, which is never ignored
+    val isFromFollower = Request.isValidBrokerId(replicaId)
     readPartitionInfo.foreach { case (tp, fetchInfo) =>
-      val readResult = read(tp, fetchInfo, limitBytes, minOneMessage)
+      val readResult = read(tp, fetchInfo, limitBytes, ignoreSizeLimits && !(isFromFollower && fetchInfo.maxBytes == 0))
       val recordBatchSize = readResult.info.records.sizeInBytes
       // Once we read from a non-empty partition, we stop ignoring request and partition level size limits
       if (recordBatchSize > 0)
-        minOneMessage = false
+        ignoreSizeLimits = false
       limitBytes = math.max(0, limitBytes - recordBatchSize)
       result += (tp -> readResult)
     }
@@ -1780,7 +1931,13 @@ class ReplicaManager(val config: KafkaConfig,
    */
   private def updateFollowerFetchState(followerId: Int,
                                        readResults: Seq[(TopicPartition, LogReadResult)]): Seq[(TopicPartition, LogReadResult)] = {
-    readResults.map { case (topicPartition, readResult) =>
+    // with batched completion, the partitions whose HW or LW was incremented by this fetch
+    val incrementedPartitions = if (config.followerFetchBatchedCompletionEnable)
+      Some(mutable.ArrayBuffer[TopicPartition]())
+    else
+      None
+
+    val updatedReadResults = readResults.map { case (topicPartition, readResult) =>
       val updatedReadResult = if (readResult.error != Errors.NONE) {
         debug(s"Skipping update of fetch state for follower $followerId since the " +
           s"log read returned error ${readResult.error}")
@@ -1788,11 +1945,24 @@ class ReplicaManager(val config: KafkaConfig,
       } else {
         onlinePartition(topicPartition) match {
           case Some(partition) =>
-            if (partition.updateFollowerFetchState(followerId,
-              followerFetchOffsetMetadata = readResult.info.fetchOffsetMetadata,
-              followerStartOffset = readResult.followerLogStartOffset,
-              followerFetchTimeMs = readResult.fetchTimeMs,
-              leaderEndOffset = readResult.leaderLogEndOffset)) {
+            val followerRecognized = incrementedPartitions match {
+              case Some(incremented) =>
+                partition.updateFollowerFetchStateDeferringCompletion(followerId,
+                  followerFetchOffsetMetadata = readResult.info.fetchOffsetMetadata,
+                  followerStartOffset = readResult.followerLogStartOffset,
+                  followerFetchTimeMs = readResult.fetchTimeMs,
+                  leaderEndOffset = readResult.leaderLogEndOffset).map { watermarksIncremented =>
+                  if (watermarksIncremented)
+                    incremented += topicPartition
+                }.isDefined
+              case None =>
+                partition.updateFollowerFetchState(followerId,
+                  followerFetchOffsetMetadata = readResult.info.fetchOffsetMetadata,
+                  followerStartOffset = readResult.followerLogStartOffset,
+                  followerFetchTimeMs = readResult.fetchTimeMs,
+                  leaderEndOffset = readResult.leaderLogEndOffset)
+            }
+            if (followerRecognized) {
               readResult
             } else {
               warn(s"Leader $localBrokerId failed to record follower $followerId's position " +
@@ -1808,6 +1978,29 @@ class ReplicaManager(val config: KafkaConfig,
       }
       topicPartition -> updatedReadResult
     }
+
+    incrementedPartitions.foreach(completeDelayedRequestsAfterFollowerFetch)
+    updatedReadResults
+  }
+
+  /**
+   * Complete the delayed requests which may have been unblocked by the HW or LW increments of a follower fetch, in
+   * one pass after the fetch states of all of its partitions have been updated. A delayed produce request to several
+   * of the partitions is then completed by the check of the first of them, rather than being checked again after the
+   * increment of each partition.
+   */
+  private def completeDelayedRequestsAfterFollowerFetch(topicPartitions: Seq[TopicPartition]): Unit = {
+    if (topicPartitions.nonEmpty) {
+      var completedProduces = 0
+      topicPartitions.foreach { topicPartition =>
+        val requestKey = TopicPartitionOperationKey(topicPartition)
+        delayedFetchPurgatory.checkAndComplete(requestKey)
+        completedProduces += delayedProducePurgatory.checkAndComplete(requestKey)
+        delayedDeleteRecordsPurgatory.checkAndComplete(requestKey)
+      }
+      followerFetchCompletionPartitions.update(topicPartitions.size)
+      followerFetchCompletedProduces.update(completedProduces)
+    }
   }
 
   private def leaderPartitionsIterator: Iterator[Partition] =
@@ -1899,6 +2092,8 @@ class ReplicaManager(val config: KafkaConfig,
     removeMetric("UnderMinIsrPartitionCount")
     removeMetric("AtMinIsrPartitionCount")
     removeMetric("ReassigningPartitions")
+    removeMetric("FollowerFetchCompletionPassPartitions")
+    removeMetric("FollowerFetchCompletionPassProduces")
   }
 
   // High watermark do not need to be checkpointed only when under unit tests
@@ -1908,6 +2103,8 @@ class ReplicaManager(val config: KafkaConfig,
     if (logDirFailureHandler != null)
       logDirFailureHandler.shutdown()
     replicaFetcherManager.shutdown()
+    replicaAppendStage.foreach(_.shutdown())
+    fetchReadScheduler.foreach(_.shutdown())
     replicaAlterLogDirsManager.shutdown()
     delayedFetchPurgatory.shutdown()
     delayedProducePurgatory.shutdown()
@@ -69,6 +69,8 @@ class RaftMetadataCache(val brokerId: Int) extends MetadataCache with Logging {
 
   private val stateChangeLogger = new StateChangeLogger(brokerId, inControllerContext = false, None)
 
+  private val topicMetadataFragments = new TopicMetadataFragmentCache
+
   // This method is the main hotspot when it comes to the performance of metadata requests,
   // we should be careful about adding additional logic here. Relatedly, `brokers` is
   // `List[Integer]` instead of `List[Int]` to avoid a collection copy.
@@ -178,14 +180,30 @@ class RaftMetadataCache(val brokerId: Int) extends MetadataCache with Logging {
                                 errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
     val image = _currentImage
     topics.toSeq.flatMap { topic =>
-      getPartitionMetadata(image, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
-        new MetadataResponseTopic()
-          .setErrorCode(Errors.NONE.code)
-          .setName(topic)
-          .setTopicId(image.topicNameToId(topic).getOrElse(Uuid.ZERO_UUID))
-          .setIsInternal(Topic.isInternal(topic))
-          .setPartitions(partitionMetadata.toBuffer.asJava)
-      }
+      getTopicMetadata(image, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  override def getCachedTopicMetadata(topics: Set[String],
+                                      listenerName: ListenerName,
+                                      errorUnavailableEndpoints: Boolean = false,
+                                      errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
+    val image = _currentImage
+    topicMetadataFragments.getTopicMetadata(image, topics, listenerName, errorUnavailableEndpoints,
+      errorUnavailableListeners) { topic =>
+      getTopicMetadata(image, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  private def getTopicMetadata(image: MetadataImage, topic: String, listenerName: ListenerName,
+                               errorUnavailableEndpoints: Boolean, errorUnavailableListeners: Boolean): Option[MetadataResponseTopic] = {
+    getPartitionMetadata(image, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
+      new MetadataResponseTopic()
+        .setErrorCode(Errors.NONE.code)
+        .setName(topic)
+        .setTopicId(image.topicNameToId(topic).getOrElse(Uuid.ZERO_UUID))
+        .setIsInternal(Topic.isInternal(topic))
+        .setPartitions(partitionMetadata.toBuffer.asJava)
     }
   }
 
@@ -374,6 +392,7 @@ class RaftMetadataCache(val brokerId: Int) extends MetadataCache with Logging {
         s"correlation id ${correlationId}")
 
       _currentImage = builder.build()
+      topicMetadataFragments.invalidate(_currentImage)
       deleted
     }
   }
@@ -386,5 +405,6 @@ class RaftMetadataCache(val brokerId: Int) extends MetadataCache with Logging {
 
   def image(newImage: MetadataImage): Unit = inLock(lock) {
     _currentImage = newImage
+    topicMetadataFragments.invalidate(newImage)
   }
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server.metadata
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+import com.yammer.metrics.core.MetricName
+import kafka.metrics.KafkaMetricsGroup
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.{ApiKeys, MessageSizeAccumulator, MessageUtil, ObjectSerializationCache, Writable}
+
+import scala.collection.{Seq, Set}
+
+object TopicMetadataFragmentCache extends KafkaMetricsGroup {
+  override def metricName(name: String, metricTags: scala.collection.Map[String, String]): MetricName = {
+    explicitMetricName("kafka.server", "TopicMetadataFragmentCache", name, metricTags)
+  }
+
+  private val hitMeter = newMeter("HitsPerSec", "topics", TimeUnit.SECONDS)
+  private val missMeter = newMeter("MissesPerSec", "topics", TimeUnit.SECONDS)
+
+  private case class FragmentKey(listenerName: ListenerName,
+                                 errorUnavailableEndpoints: Boolean,
+                                 errorUnavailableListeners: Boolean)
+
+  private class Generation(val owner: AnyRef) {
+    val fragments = new ConcurrentHashMap[FragmentKey, ConcurrentHashMap[String, TopicMetadataFragment]]()
+  }
+
+  /**
+   * The metadata of a topic together with its serialized form, which is computed once per MetadataResponse version.
+   */
+  private class TopicMetadataFragment(val topic: MetadataResponseTopic) {
+    private val buffers = new AtomicReferenceArray[ByteBuffer](ApiKeys.METADATA.latestVersion + 1)
+
+    def serialized(version: Short): ByteBuffer = {
+      var buffer = buffers.get(version)
+      if (buffer == null) {
+        // concurrent misses serialize the same bytes, so it does not matter which of them is kept
+        buffer = MessageUtil.toByteBuffer(topic, version)
+        buffers.set(version, buffer)
+      }
+      buffer
+    }
+
+    // Collection elements cannot be shared between responses, so every response gets its own topic
+    def newTopic(): MetadataResponseTopic = new SerializedMetadataResponseTopic(this)
+  }
+
+  /**
+   * A topic which is written out from the bytes of its fragment rather than from its fields. The fields are still set
+   * so that the response can be inspected and logged, but changing them does not change what is sent.
+   */
+  private class SerializedMetadataResponseTopic(fragment: TopicMetadataFragment) extends MetadataResponseTopic {
+    setErrorCode(fragment.topic.errorCode)
+    setName(fragment.topic.name)
+    setTopicId(fragment.topic.topicId)
+    setIsInternal(fragment.topic.isInternal)
+    setPartitions(fragment.topic.partitions)
+
+    override def addSize(size: MessageSizeAccumulator, cache: ObjectSerializationCache, version: Short): Unit = {
+      size.addZeroCopyBytes(fragment.serialized(version).remaining)
+    }
+
+    override def write(writable: Writable, cache: ObjectSerializationCache, version: Short): Unit = {
+      writable.writeByteBuffer(fragment.serialized(version).duplicate())
+    }
+  }
+}
+
+/**
+ * Caches the topic metadata of a metadata snapshot together with its serialized form, so that metadata responses
+ * for the same topics can be written out by concatenating the cached buffers. Fragments are kept per listener and
+ * error mode, and are serialized lazily for every MetadataResponse version that they are requested with.
+ *
+ * The cache belongs to a single snapshot of the metadata, the owner: it must be invalidated with the new snapshot
+ * whenever the metadata is updated. Lookups for any other snapshot bypass the cache, so a reader which raced with an
+ * update can never populate the cache with stale topics.
+ */
+class TopicMetadataFragmentCache {
+  import TopicMetadataFragmentCache._
+
+  @volatile private var generation = new Generation(null)
+
+  /**
+   * Drop all fragments and start caching the topics of the given snapshot.
+   */
+  def invalidate(owner: AnyRef): Unit = {
+    generation = new Generation(owner)
+  }
+
+  /**
+   * Return the metadata of the given topics of a snapshot, serving the topics from cached fragments where possible.
+   * The returned topics are serialized from their fragments, so they must not be modified.
+   *
+   * @param owner          The snapshot that `topicMetadata` reads from.
+   * @param topicMetadata  Builds the metadata of a topic from the snapshot, or returns None if it does not exist.
+   */
+  def getTopicMetadata(owner: AnyRef,
+                       topics: Set[String],
+                       listenerName: ListenerName,
+                       errorUnavailableEndpoints: Boolean,
+                       errorUnavailableListeners: Boolean)
+                      (topicMetadata: String => Option[MetadataResponseTopic]): Seq[MetadataResponseTopic] = {
+    val current = generation
+    if (current.owner ne owner) {
+      val result = topics.toSeq.flatMap(topicMetadata)
+      missMeter.mark(result.size)
+      result
+    } else {
+      val fragments = current.fragments.computeIfAbsent(
+        FragmentKey(listenerName, errorUnavailableEndpoints, errorUnavailableListeners),
+        _ => new ConcurrentHashMap[String, TopicMetadataFragment]())
+      var hits = 0
+      var misses = 0
+      val result = topics.toSeq.flatMap { topic =>
+        val fragment = fragments.get(topic)
+        if (fragment != null) {
+          hits += 1
+          Some(fragment.newTopic())
+        } else {
+          topicMetadata(topic).map { metadata =>
+            misses += 1
+            val newFragment = new TopicMetadataFragment(metadata)
+            val existing = fragments.putIfAbsent(topic, newFragment)
+            (if (existing == null) newFragment else existing).newTopic()
+          }
+        }
+      }
+      hitMeter.mark(hits)
+      missMeter.mark(misses)
+      result
+    }
+  }
+}
@@ -100,7 +100,11 @@ object DumpLogSegments {
 
   private def dumpProducerIdSnapshot(file: File): Unit = {
     try {
-      ProducerStateManager.readSnapshot(file).foreach { entry =>
+      val snapshot = ProducerStateManager.readSnapshotFile(file)
+      snapshot.baseOffset.foreach { baseOffset =>
+        println(s"Delta snapshot based on offset $baseOffset removedProducerIds: ${snapshot.removedProducerIds.mkString(",")}")
+      }
+      snapshot.entries.foreach { entry =>
         print(s"producerId: ${entry.producerId} producerEpoch: ${entry.producerEpoch} " +
           s"coordinatorEpoch: ${entry.coordinatorEpoch} currentTxnFirstOffset: ${entry.currentTxnFirstOffset} ")
         entry.batchMetadata.headOption.foreach { metadata =>
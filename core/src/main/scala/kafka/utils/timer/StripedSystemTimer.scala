@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.utils.timer
+
+import java.util.concurrent.{Semaphore, TimeUnit}
+
+import kafka.utils.{ShutdownableThread, threadsafe}
+import org.apache.kafka.common.utils.Time
+
+/**
+  * A timer made of several independent `SystemTimer` stripes, each with its own timing wheel, lock, delay queue and
+  * executor thread. Tasks are added to the stripe of the adding thread, so threads adding tasks concurrently rarely
+  * share a lock, and every stripe advances its clock in a thread of its own, so expired tasks are flushed in parallel.
+  *
+  * Since the stripes advance their own clocks, `advanceClock` only waits for any of them to expire tasks.
+  */
+@threadsafe
+class StripedSystemTimer(executorName: String,
+                         numStripes: Int,
+                         tickMs: Long = 1,
+                         wheelSize: Int = 20,
+                         startMs: Long = Time.SYSTEM.hiResClockMs,
+                         recordExpirationLatency: Long => Unit = _ => ()) extends Timer {
+  require(numStripes > 0, s"The number of stripes must be positive, but it is $numStripes")
+
+  private[this] val stripes = Array.tabulate(numStripes) { stripe =>
+    new SystemTimer(s"$executorName-$stripe", tickMs, wheelSize, startMs, recordExpirationLatency)
+  }
+
+  // A permit is released whenever a stripe has advanced its clock
+  private[this] val advancedStripes = new Semaphore(0)
+
+  private[this] val stripeReapers = stripes.zipWithIndex.map { case (stripe, index) =>
+    new StripeReaper(s"timer-reaper-$executorName-$index", stripe)
+  }
+  stripeReapers.foreach(_.start())
+
+  def add(timerTask: TimerTask): Unit = {
+    stripes((Thread.currentThread.getId % numStripes).toInt).add(timerTask)
+  }
+
+  def advanceClock(timeoutMs: Long): Boolean = {
+    if (advancedStripes.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+      advancedStripes.drainPermits()
+      true
+    } else {
+      false
+    }
+  }
+
+  def size: Int = stripes.foldLeft(0)(_ + _.size)
+
+  override def shutdown(): Unit = {
+    stripeReapers.foreach(_.initiateShutdown())
+    stripeReapers.foreach(_.awaitShutdown())
+    stripes.foreach(_.shutdown())
+  }
+
+  private class StripeReaper(name: String, stripe: SystemTimer) extends ShutdownableThread(name, false) {
+    override def doWork(): Unit = {
+      if (stripe.advanceClock(200L))
+        advancedStripes.release()
+    }
+  }
+}
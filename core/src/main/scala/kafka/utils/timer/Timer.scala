@@ -51,11 +51,18 @@ trait Timer {
   def shutdown(): Unit
 }
 
+/**
+  * A timer backed by a hierarchical timing wheel. Expired tasks are run by a single executor thread.
+  *
+  * @param recordExpirationLatency called with the number of milliseconds between the expiration time of each
+  *                                expired task and the time it is handed to the executor
+  */
 @threadsafe
 class SystemTimer(executorName: String,
                   tickMs: Long = 1,
                   wheelSize: Int = 20,
-                  startMs: Long = Time.SYSTEM.hiResClockMs) extends Timer {
+                  startMs: Long = Time.SYSTEM.hiResClockMs,
+                  recordExpirationLatency: Long => Unit = _ => ()) extends Timer {
 
   // timeout timer
   private[this] val taskExecutor = Executors.newFixedThreadPool(1,
@@ -88,8 +95,10 @@ class SystemTimer(executorName: String,
   private def addTimerTaskEntry(timerTaskEntry: TimerTaskEntry): Unit = {
     if (!timingWheel.add(timerTaskEntry)) {
       // Already expired or cancelled
-      if (!timerTaskEntry.cancelled)
+      if (!timerTaskEntry.cancelled) {
+        recordExpirationLatency(math.max(Time.SYSTEM.hiResClockMs - timerTaskEntry.expirationMs, 0L))
         taskExecutor.submit(timerTaskEntry.timerTask)
+      }
     }
   }
 
@@ -43,7 +43,7 @@ import org.mockito.Mockito._
 import org.mockito.invocation.InvocationOnMock
 import java.nio.ByteBuffer
 import java.util.Optional
-import java.util.concurrent.{CountDownLatch, Semaphore}
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, Semaphore}
 
 import kafka.server.epoch.LeaderEpochFileCache
 
@@ -1126,6 +1126,329 @@ class PartitionTest extends AbstractPartitionTest {
 
   }
 
+  @Test
+  def testFollowerFetchesAdvanceHighWatermark(): Unit = {
+    val log = logManager.getOrCreateLog(topicPartition, topicId = None)
+    seedLogData(log, numRecords = 10, leaderEpoch = 4)
+
+    val leaderEpoch = 5
+    val followers = List(brokerId + 1, brokerId + 2)
+    val replicas = (brokerId :: followers).map(Int.box).asJava
+
+    partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints, None)
+    assertTrue(partition.makeLeader(
+        new LeaderAndIsrPartitionState()
+          .setControllerEpoch(0)
+          .setLeader(brokerId)
+          .setLeaderEpoch(leaderEpoch)
+          .setIsr(replicas)
+          .setZkVersion(1)
+          .setReplicas(replicas)
+          .setIsNew(true),
+        offsetCheckpoints, None), "Expected become leader transition to succeed")
+
+    def fetch(followerId: Int, fetchOffset: Long): Unit = {
+      partition.updateFollowerFetchState(followerId,
+        followerFetchOffsetMetadata = LogOffsetMetadata(fetchOffset),
+        followerStartOffset = 0L,
+        followerFetchTimeMs = time.milliseconds(),
+        leaderEndOffset = 10L)
+    }
+
+    // the HW is held back by the follower which is furthest behind
+    fetch(followers.head, 8L)
+    fetch(followers(1), 4L)
+    assertEquals(4L, log.highWatermark)
+    fetch(followers(1), 9L)
+    assertEquals(8L, log.highWatermark)
+    fetch(followers.head, 10L)
+    assertEquals(9L, log.highWatermark)
+    fetch(followers(1), 10L)
+    assertEquals(10L, log.highWatermark)
+  }
+
+  @Test
+  def testConcurrentFollowerFetchesAndAppendsAdvanceHighWatermark(): Unit = {
+    val log = logManager.getOrCreateLog(topicPartition, topicId = None)
+    val followers = List(brokerId + 1, brokerId + 2, brokerId + 3, brokerId + 4)
+    val replicas = (brokerId :: followers).map(Int.box).asJava
+
+    partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints, None)
+    assertTrue(partition.makeLeader(
+        new LeaderAndIsrPartitionState()
+          .setControllerEpoch(0)
+          .setLeader(brokerId)
+          .setLeaderEpoch(0)
+          .setIsr(replicas)
+          .setZkVersion(1)
+          .setReplicas(replicas)
+          .setIsNew(true),
+        offsetCheckpoints, None), "Expected become leader transition to succeed")
+
+    val numAppends = 500
+    val appendsDone = new CountDownLatch(1)
+    val appender = new Thread(() => {
+      (0 until numAppends).foreach { i =>
+        partition.appendRecordsToLeader(createRecords(List(new SimpleRecord(s"$i".getBytes)), baseOffset = i),
+          origin = AppendOrigin.Client, requiredAcks = -1, RequestLocal.withThreadConfinedCaching)
+      }
+      appendsDone.countDown()
+    })
+    val fetchers = followers.map { followerId =>
+      new Thread(() => {
+        var caughtUp = false
+        while (!caughtUp) {
+          val done = appendsDone.getCount == 0
+          val logEndOffset = log.logEndOffset
+          partition.updateFollowerFetchState(followerId,
+            followerFetchOffsetMetadata = LogOffsetMetadata(logEndOffset),
+            followerStartOffset = 0L,
+            followerFetchTimeMs = time.milliseconds(),
+            leaderEndOffset = logEndOffset)
+          caughtUp = done
+        }
+      })
+    }
+
+    (appender :: fetchers).foreach(_.start())
+    (appender :: fetchers).foreach(_.join())
+    assertEquals(numAppends.toLong, log.logEndOffset)
+    assertEquals(numAppends.toLong, log.highWatermark)
+  }
+
+  @Test
+  def testFollowerFetchesRaceWithIsrShrink(): Unit = {
+    val log = logManager.getOrCreateLog(topicPartition, topicId = None)
+    val laggingFollower = brokerId + 1
+    val followers = List(brokerId + 2, brokerId + 3, brokerId + 4)
+    val replicas = (brokerId :: laggingFollower :: followers).map(Int.box).asJava
+
+    partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints, None)
+    assertTrue(partition.makeLeader(leaderState(leaderEpoch = 0, replicas), offsetCheckpoints, None),
+      "Expected become leader transition to succeed")
+
+    // only the lagging follower, which never fetches, falls behind
+    time.sleep(partition.replicaLagTimeMaxMs + 1)
+    followers.foreach(fetchFromLeader(_, fetchOffset = 0L, leaderEndOffset = 0L))
+
+    val numAppends = 500
+    val appendsDone = new CountDownLatch(1)
+    val errors = new ConcurrentLinkedQueue[Throwable]()
+    val appender = leaderAppenderThread(numAppends, appendsDone, errors)
+    val fetchers = followers.map(followerFetcherThread(_, appendsDone, errors))
+    (appender :: fetchers).foreach(_.start())
+
+    // the lagging follower holds back the HW until the shrink of the ISR is committed
+    partition.maybeShrinkIsr()
+    assertEquals(Set(brokerId) ++ followers, alterIsrManager.isrUpdates.head.leaderAndIsr.isr.toSet)
+    assertTrue(partition.isrState.maximalIsr.contains(laggingFollower))
+    assertEquals(0L, log.highWatermark)
+    alterIsrManager.completeIsrUpdate(2)
+
+    (appender :: fetchers).foreach(_.join())
+    assertEquals(List.empty, errors.asScala.toList)
+    assertEquals(Set(brokerId) ++ followers, partition.inSyncReplicaIds)
+    assertEquals(numAppends.toLong, log.logEndOffset)
+    assertEquals(numAppends.toLong, log.highWatermark)
+  }
+
+  @Test
+  def testFollowerFetchesRaceWithMakeFollowerAndTruncation(): Unit = {
+    val log = logManager.getOrCreateLog(topicPartition, topicId = None)
+    val followers = List(brokerId + 1, brokerId + 2, brokerId + 3)
+    val replicas = (brokerId :: followers).map(Int.box).asJava
+    partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints, None)
+
+    (0 until 10).foreach { round =>
+      val leaderEpoch = 2 * round
+      assertTrue(partition.makeLeader(leaderState(leaderEpoch, replicas), offsetCheckpoints, None),
+        "Expected become leader transition to succeed")
+      val startOffset = log.logEndOffset
+      val endOffset = startOffset + 200
+      (startOffset until endOffset).foreach { offset =>
+        partition.appendRecordsToLeader(createRecords(List(new SimpleRecord(s"$offset".getBytes)), baseOffset = offset,
+          partitionLeaderEpoch = leaderEpoch), origin = AppendOrigin.Client, requiredAcks = 1, RequestLocal.NoCaching)
+      }
+
+      // the followers advance the HW one offset at a time while the leader becomes a follower and truncates its log
+      val errors = new ConcurrentLinkedQueue[Throwable]()
+      val fetchers = followers.map { followerId =>
+        failureRecordingThread(errors) {
+          (startOffset + 1 to endOffset).foreach(fetchFromLeader(followerId, _, leaderEndOffset = endOffset))
+        }
+      }
+      fetchers.foreach(_.start())
+      TestUtils.waitUntilTrue(() => log.highWatermark > startOffset, "The followers should advance the HW")
+      assertTrue(partition.makeFollower(new LeaderAndIsrPartitionState()
+          .setControllerEpoch(0)
+          .setLeader(followers.head)
+          .setLeaderEpoch(leaderEpoch + 1)
+          .setIsr(replicas)
+          .setZkVersion(1)
+          .setReplicas(replicas)
+          .setIsNew(false),
+        offsetCheckpoints, None))
+      partition.truncateTo(startOffset, isFuture = false)
+
+      fetchers.foreach(_.join())
+      assertEquals(List.empty, errors.asScala.toList)
+      assertEquals(startOffset, log.logEndOffset)
+      assertTrue(log.highWatermark <= log.logEndOffset,
+        s"The HW ${log.highWatermark} should not exceed the log end offset ${log.logEndOffset}")
+    }
+  }
+
+  @Test
+  def testFollowerFetchesRaceWithFutureLogSwap(): Unit = {
+    val followers = List(brokerId + 1, brokerId + 2, brokerId + 3)
+    val replicas = (brokerId :: followers).map(Int.box).asJava
+
+    logManager.maybeUpdatePreferredLogDir(topicPartition, logDir1.getAbsolutePath)
+    partition.createLogIfNotExists(isNew = true, isFutureReplica = false, offsetCheckpoints, None)
+    assertTrue(partition.makeLeader(leaderState(leaderEpoch = 0, replicas), offsetCheckpoints, None),
+      "Expected become leader transition to succeed")
+    logManager.maybeUpdatePreferredLogDir(topicPartition, logDir2.getAbsolutePath)
+    partition.maybeCreateFutureReplica(logDir2.getAbsolutePath, offsetCheckpoints)
+
+    // the future log follows the current log until it replaces it half way through the appends
+    val numAppends = 500
+    val appendsDone = new CountDownLatch(1)
+    val errors = new ConcurrentLinkedQueue[Throwable]()
+    val appender = failureRecordingThread(errors) {
+      (0 until numAppends).foreach { i =>
+        partition.appendRecordsToLeader(createRecords(List(new SimpleRecord(s"$i".getBytes)), baseOffset = i),
+          origin = AppendOrigin.Client, requiredAcks = -1, RequestLocal.withThreadConfinedCaching)
+        if (partition.futureLog.isDefined) {
+          partition.appendRecordsToFollowerOrFutureReplica(
+            createRecords(List(new SimpleRecord(s"$i".getBytes)), baseOffset = i), isFuture = true)
+          if (i == numAppends / 2)
+            assertTrue(partition.maybeReplaceCurrentWithFutureReplica(), "The future log should replace the current log")
+        }
+      }
+      appendsDone.countDown()
+    }
+    val fetchers = followers.map(followerFetcherThread(_, appendsDone, errors))
+    (appender :: fetchers).foreach(_.start())
+    (appender :: fetchers).foreach(_.join())
+
+    assertEquals(List.empty, errors.asScala.toList)
+    assertEquals(None, partition.futureLog)
+    val log = partition.localLogOrException
+    assertEquals(logDir2.getAbsolutePath, log.parentDir)
+    assertEquals(numAppends.toLong, log.logEndOffset)
+    assertEquals(numAppends.toLong, log.highWatermark)
+  }
+
+  @Test
+  def testFencedFollowerAppendsRaceWithFutureLogSwap(): Unit = {
+    val leaderEpoch = 1
+    val replicas = List[Integer](brokerId, brokerId + 1).asJava
+    logManager.maybeUpdatePreferredLogDir(topicPartition, logDir1.getAbsolutePath)
+    partition.createLogIfNotExists(isNew = true, isFutureReplica = false, offsetCheckpoints, None)
+    assertTrue(partition.makeFollower(new LeaderAndIsrPartitionState()
+      .setControllerEpoch(0)
+      .setLeader(brokerId + 1)
+      .setLeaderEpoch(leaderEpoch)
+      .setIsr(replicas)
+      .setZkVersion(1)
+      .setReplicas(replicas)
+      .setIsNew(true), offsetCheckpoints, None))
+    logManager.maybeUpdatePreferredLogDir(topicPartition, logDir2.getAbsolutePath)
+    partition.maybeCreateFutureReplica(logDir2.getAbsolutePath, offsetCheckpoints)
+
+    def records(offset: Long): MemoryRecords =
+      createRecords(List(new SimpleRecord(s"$offset".getBytes)), baseOffset = offset, partitionLeaderEpoch = leaderEpoch)
+
+    // the follower appends of the replica fetcher are fenced appends, while the future log catches up with the
+    // current log and replaces it as soon as it has caught up
+    val numAppends = 500
+    val errors = new ConcurrentLinkedQueue[Throwable]()
+    val appender = failureRecordingThread(errors) {
+      (0 until numAppends).foreach { i =>
+        assertTrue(partition.appendToFollowerInLeaderEpoch(leaderEpoch) {
+          partition.appendRecordsToFollowerOrFutureReplica(records(i), isFuture = false)
+        }.isDefined, "The follower append should not be fenced")
+      }
+    }
+    val alterLogDirs = failureRecordingThread(errors) {
+      var futureLogEndOffset = 0L
+      var replaced = false
+      while (!replaced) {
+        if (futureLogEndOffset < partition.localLogOrException.logEndOffset) {
+          partition.appendRecordsToFollowerOrFutureReplica(records(futureLogEndOffset), isFuture = true)
+          futureLogEndOffset += 1
+        }
+        replaced = partition.maybeReplaceCurrentWithFutureReplica()
+      }
+    }
+    List(appender, alterLogDirs).foreach(_.start())
+    List(appender, alterLogDirs).foreach { thread =>
+      thread.join(30000)
+      assertFalse(thread.isAlive, "The follower append and the future log swap should not deadlock")
+    }
+
+    assertEquals(List.empty, errors.asScala.toList)
+    assertEquals(None, partition.futureLog)
+    val log = partition.localLogOrException
+    assertEquals(logDir2.getAbsolutePath, log.parentDir)
+    assertEquals(numAppends.toLong, log.logEndOffset)
+  }
+
+  private def leaderState(leaderEpoch: Int, replicas: java.util.List[Integer]): LeaderAndIsrPartitionState = {
+    new LeaderAndIsrPartitionState()
+      .setControllerEpoch(0)
+      .setLeader(brokerId)
+      .setLeaderEpoch(leaderEpoch)
+      .setIsr(replicas)
+      .setZkVersion(1)
+      .setReplicas(replicas)
+      .setIsNew(true)
+  }
+
+  private def fetchFromLeader(followerId: Int, fetchOffset: Long, leaderEndOffset: Long): Unit = {
+    partition.updateFollowerFetchState(followerId,
+      followerFetchOffsetMetadata = LogOffsetMetadata(fetchOffset),
+      followerStartOffset = 0L,
+      followerFetchTimeMs = time.milliseconds(),
+      leaderEndOffset = leaderEndOffset)
+  }
+
+  private def failureRecordingThread(errors: ConcurrentLinkedQueue[Throwable])(body: => Unit): Thread = {
+    new Thread(() => {
+      try body
+      catch {
+        case e: Throwable => errors.add(e)
+      }
+    })
+  }
+
+  private def leaderAppenderThread(numAppends: Int,
+                                   appendsDone: CountDownLatch,
+                                   errors: ConcurrentLinkedQueue[Throwable]): Thread = {
+    failureRecordingThread(errors) {
+      (0 until numAppends).foreach { i =>
+        partition.appendRecordsToLeader(createRecords(List(new SimpleRecord(s"$i".getBytes)), baseOffset = i),
+          origin = AppendOrigin.Client, requiredAcks = -1, RequestLocal.withThreadConfinedCaching)
+      }
+      appendsDone.countDown()
+    }
+  }
+
+  // fetches up to the log end offset of the leader until the appends are done
+  private def followerFetcherThread(followerId: Int,
+                                    appendsDone: CountDownLatch,
+                                    errors: ConcurrentLinkedQueue[Throwable]): Thread = {
+    failureRecordingThread(errors) {
+      var caughtUp = false
+      while (!caughtUp) {
+        val done = appendsDone.getCount == 0
+        val logEndOffset = partition.localLogOrException.logEndOffset
+        fetchFromLeader(followerId, logEndOffset, logEndOffset)
+        caughtUp = done
+      }
+    }
+  }
+
   @Test
   def testIsrExpansion(): Unit = {
     val log = logManager.getOrCreateLog(topicPartition, topicId = None)
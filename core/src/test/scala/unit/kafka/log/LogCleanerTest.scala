@@ -22,7 +22,7 @@ import java.nio._
 import java.nio.charset.StandardCharsets
 import java.nio.file.Paths
 import java.util.Properties
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{CountDownLatch, ExecutorService, Executors, TimeUnit}
 
 import kafka.common._
 import kafka.server.{BrokerTopicStats, LogDirFailureChannel}
@@ -352,6 +352,86 @@ class LogCleanerTest {
     assertEquals(List(2, 3, 6, 7, 8, 9, 11, 12), LogTestUtils.keysInLog(log))
   }
 
+  @Test
+  def testConcurrentGroupCleaningMatchesSequentialCleaning(): Unit = {
+    val tp = new TopicPartition("test", 0)
+    val sequentialLog = makeLog(dir = TestUtils.randomPartitionLogDir(tmpdir))
+    val concurrentLog = makeLog(dir = TestUtils.randomPartitionLogDir(tmpdir))
+    appendTransactionsSpanningSegments(sequentialLog)
+    appendTransactionsSpanningSegments(concurrentLog)
+
+    val executor = Executors.newFixedThreadPool(3)
+    try {
+      val sequentialCleaner = makeCleaner(Int.MaxValue)
+      val concurrentCleaner = makeCleaner(Int.MaxValue, groupExecutor = Some(executor))
+      assertTrue(concurrentCleaner.groupSegmentsBySize(concurrentLog.logSegments, concurrentLog.config.segmentSize,
+        concurrentLog.config.maxIndexSize, concurrentLog.activeSegment.baseOffset).size > 2)
+
+      // first retain the markers, then clean again with a delete horizon that allows removing them
+      for (deleteHorizonMs <- Seq(Long.MaxValue, 0L)) {
+        val (sequentialEndOffset, sequentialStats) = sequentialCleaner.doClean(
+          LogToClean(tp, sequentialLog, 0L, sequentialLog.activeSegment.baseOffset), deleteHorizonMs)
+        val (concurrentEndOffset, concurrentStats) = concurrentCleaner.doClean(
+          LogToClean(tp, concurrentLog, 0L, concurrentLog.activeSegment.baseOffset), deleteHorizonMs)
+
+        assertEquals(sequentialEndOffset, concurrentEndOffset)
+        assertEquals(LogTestUtils.keysInLog(sequentialLog), LogTestUtils.keysInLog(concurrentLog))
+        assertEquals(lastOffsetsPerBatchInLog(sequentialLog), lastOffsetsPerBatchInLog(concurrentLog))
+        assertEquals(sequentialLog.collectAbortedTransactions(0L, sequentialLog.logEndOffset),
+          concurrentLog.collectAbortedTransactions(0L, concurrentLog.logEndOffset))
+        assertEquals(sequentialStats.messagesRead, concurrentStats.messagesRead)
+        assertEquals(sequentialStats.bytesWritten, concurrentStats.bytesWritten)
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  @Test
+  def testConcurrentGroupCleaningAbort(): Unit = {
+    val log = makeLog()
+    appendTransactionsSpanningSegments(log)
+    val segmentsBefore = log.logSegments.map(_.baseOffset).toList
+
+    val executor = Executors.newFixedThreadPool(3)
+    try {
+      // abort as soon as a worker starts rewriting a group
+      val testThread = Thread.currentThread
+      val cleaner = makeCleaner(Int.MaxValue, tp => if (Thread.currentThread ne testThread) abortCheckDone(tp),
+        groupExecutor = Some(executor))
+      assertThrows(classOf[LogCleaningAbortedException], () =>
+        cleaner.doClean(LogToClean(new TopicPartition("test", 0), log, 0L, log.activeSegment.baseOffset),
+          deleteHorizonMs = Long.MaxValue))
+    } finally {
+      executor.shutdown()
+    }
+    assertEquals(segmentsBefore, log.logSegments.map(_.baseOffset).toList)
+    assertFalse(log.dir.listFiles.exists(_.getName.endsWith(Log.CleanedFileSuffix)))
+  }
+
+  /**
+   * Append committed and aborted transactions of three producers interleaved with non-transactional records,
+   * rolling the log often enough that transactions span several segments.
+   */
+  private def appendTransactionsSpanningSegments(log: Log): Unit = {
+    val producerEpoch = 0.toShort
+    val producers = (1L to 3L).map(producerId => appendTransactionalAsLeader(log, producerId, producerEpoch))
+    for (round <- 0 until 18) {
+      producers(round % 3)(Seq(round % 5, round % 5 + 1))
+      log.appendAsLeader(record(round % 4, round), leaderEpoch = 0)
+      if (round % 3 == 2) {
+        for (producerId <- 1L to 3L) {
+          val marker = if ((round / 3 + producerId) % 3 == 0) abortMarker(producerId, producerEpoch)
+            else commitMarker(producerId, producerEpoch)
+          log.appendAsLeader(marker, leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+        }
+      }
+      if (round % 2 == 1)
+        log.roll()
+    }
+    log.roll()
+  }
+
   @Test
   def testCommitMarkerRemoval(): Unit = {
     val tp = new TopicPartition("test", 0)
@@ -1747,7 +1827,8 @@ class LogCleanerTest {
       producerIdExpirationCheckIntervalMs = LogManager.ProducerIdExpirationCheckIntervalMs,
       logDirFailureChannel = new LogDirFailureChannel(10), topicId = None, keepPartitionMetadataFile = true)
 
-  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024) =
+  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024,
+                          groupExecutor: Option[ExecutorService] = None) =
     new Cleaner(id = 0,
                 offsetMap = new FakeOffsetMap(capacity),
                 ioBufferSize = maxMessageSize,
@@ -1755,7 +1836,8 @@ class LogCleanerTest {
                 dupBufferLoadFactor = 0.75,
                 throttler = throttler,
                 time = time,
-                checkDone = checkDone)
+                checkDone = checkDone,
+                groupExecutor = groupExecutor)
 
   private def writeToLog(log: Log, seq: Iterable[(Int, Int)]): Iterable[Long] = {
     for ((key, value) <- seq)
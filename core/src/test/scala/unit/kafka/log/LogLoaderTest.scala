@@ -21,6 +21,7 @@ import java.io.{BufferedWriter, File, FileWriter}
 import java.nio.ByteBuffer
 import java.nio.file.{Files, Paths}
 import java.util.Properties
+import java.util.concurrent.{ExecutorService, Executors}
 
 import kafka.api.{ApiVersion, KAFKA_0_11_0_IV0}
 import kafka.server.epoch.{EpochEntry, LeaderEpochFileCache}
@@ -82,7 +83,8 @@ class LogLoaderTest {
         brokerTopicStats = new BrokerTopicStats, logDirFailureChannel = new LogDirFailureChannel(logDirs.size), keepPartitionMetadataFile = config.usesTopicId) {
 
         override def loadLog(logDir: File, hadCleanShutdown: Boolean, recoveryPoints: Map[TopicPartition, Long],
-                             logStartOffsets: Map[TopicPartition, Long], topicConfigs: Map[String, LogConfig]): Log = {
+                             logStartOffsets: Map[TopicPartition, Long], topicConfigs: Map[String, LogConfig],
+                             recoveryExecutor: Option[ExecutorService]): Log = {
           if (simulateError.hasError) {
             throw new RuntimeException("Simulated error")
           }
@@ -164,9 +166,11 @@ class LogLoaderTest {
                         time: Time = mockTime,
                         maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
                         producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
-                        lastShutdownClean: Boolean = true): Log = {
+                        lastShutdownClean: Boolean = true,
+                        recoveryExecutor: Option[ExecutorService] = None): Log = {
     LogTestUtils.createLog(dir, config, brokerTopicStats, scheduler, time, logStartOffset, recoveryPoint,
-      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean)
+      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean,
+      recoveryExecutor = recoveryExecutor)
   }
 
   private def createLogWithOffsetOverflow(logConfig: LogConfig): (Log, LogSegment) = {
@@ -1390,6 +1394,69 @@ class LogLoaderTest {
     assertEquals(List(new AbortedTxn(pid1, 0L, 29L, 8L), new AbortedTxn(pid2, 8L, 74L, 36L)), abortedTransactions)
   }
 
+  @Test
+  def testConcurrentTransactionIndexRecovery(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 256)
+    val log = createLog(logDir, logConfig)
+    val epoch = 0.toShort
+
+    val pid1 = 1L
+    val pid2 = 2L
+    val appendPid1 = LogTestUtils.appendTransactionalAsLeader(log, pid1, epoch, mockTime)
+    val appendPid2 = LogTestUtils.appendTransactionalAsLeader(log, pid2, epoch, mockTime)
+
+    appendPid1(5) // nextOffset: 5
+    LogTestUtils.appendNonTransactionalAsLeader(log, 3) // 8
+    appendPid2(2) // 10
+    appendPid1(10) // 20
+    LogTestUtils.appendEndTxnMarkerAsLeader(log, pid1, epoch, ControlRecordType.ABORT, mockTime.milliseconds()) // 21
+    LogTestUtils.appendNonTransactionalAsLeader(log, 10) // 31
+    appendPid2(6) // 37
+    LogTestUtils.appendEndTxnMarkerAsLeader(log, pid2, epoch, ControlRecordType.ABORT, mockTime.milliseconds()) // 38
+    assertTrue(log.numberOfSegments > 2)
+
+    log.logSegments.foreach { segment =>
+      segment.offsetIndex.deleteIfExists()
+      segment.txnIndex.deleteIfExists()
+    }
+    log.close()
+
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val reloadedLog = createLog(logDir, logConfig, lastShutdownClean = false, recoveryExecutor = Some(executor))
+      assertEquals(38L, reloadedLog.logEndOffset)
+      val abortedTransactions = LogTestUtils.allAbortedTransactions(reloadedLog)
+      assertEquals(List(new AbortedTxn(pid1, 0L, 20L, 8L), new AbortedTxn(pid2, 8L, 37L, 38L)), abortedTransactions)
+      reloadedLog.close()
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  @Test
+  def testConcurrentRecoveryTruncatesAfterCorruptSegment(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 1000, indexIntervalBytes = 1)
+    var log = createLog(logDir, logConfig)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    val segments = log.logSegments.toList
+    assertTrue(segments.size > 3)
+    val corruptSegment = segments(1)
+    val corruptSegmentEndOffset = corruptSegment.readNextOffset
+    log.close()
+
+    TestUtils.appendNonsenseToFile(corruptSegment.log.file, 100)
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      log = createLog(logDir, logConfig, lastShutdownClean = false, recoveryExecutor = Some(executor))
+      assertEquals(corruptSegmentEndOffset, log.logEndOffset)
+      assertEquals(List(segments.head.baseOffset, corruptSegment.baseOffset), log.logSegments.map(_.baseOffset).toList)
+      log.close()
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
   @Test
   def testRecoverOnlyLastSegment(): Unit = {
     val logConfig = LogTestUtils.createLogConfig(segmentBytes = 128 * 5)
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import java.io.File
+
+import kafka.server.{BrokerTopicStats, FetchDataInfo, FetchLogEnd}
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.utils.Utils
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, BeforeEach, Test}
+
+import scala.jdk.CollectionConverters._
+
+class LogTailCacheTest {
+
+  val topicPartition = new TopicPartition("topic", 0)
+  val mockTime = new MockTime()
+  var logDir: File = _
+  var cache: LogTailCache = _
+
+  @BeforeEach
+  def setup(): Unit = {
+    logDir = TestUtils.randomPartitionLogDir(TestUtils.tempDir())
+  }
+
+  @AfterEach
+  def teardown(): Unit = {
+    if (cache != null)
+      cache.shutdown()
+    Utils.delete(logDir)
+  }
+
+  private def records(baseOffset: Long, count: Int): MemoryRecords = {
+    val simpleRecords = (0 until count).map(i => new SimpleRecord(s"key-$i".getBytes, s"value-${baseOffset + i}".getBytes))
+    MemoryRecords.withRecords(baseOffset, CompressionType.NONE, simpleRecords: _*)
+  }
+
+  private def assertSameRecords(expected: FetchDataInfo, actual: FetchDataInfo): Unit = {
+    assertEquals(expected.fetchOffsetMetadata, actual.fetchOffsetMetadata)
+    assertEquals(expected.firstEntryIncomplete, actual.firstEntryIncomplete)
+    assertEquals(expected.records.sizeInBytes, actual.records.sizeInBytes)
+    assertEquals(expected.records.records.asScala.map(_.offset).toList, actual.records.records.asScala.map(_.offset).toList)
+  }
+
+  @Test
+  def testReadMatchesSegmentRead(): Unit = {
+    cache = new LogTailCache(maxBytes = 1024 * 1024, partitionMaxBytes = 64 * 1024)
+    val partitionCache = cache.newPartitionCache(topicPartition)
+    val segment = LogTestUtils.createSegment(0L, logDir)
+    try {
+      var offset = 0L
+      for (_ <- 0 until 20) {
+        val batch = records(offset, 5)
+        val position = segment.size
+        segment.append(offset + 4, mockTime.milliseconds, offset, batch)
+        partitionCache.append(segment.baseOffset, position, batch)
+        offset += 5
+      }
+
+      for (startOffset <- Seq(0L, 3L, 5L, 42L, 99L); maxSize <- Seq(0, 10, 200, 10000); minOneMessage <- Seq(true, false)) {
+        val expected = segment.read(startOffset, maxSize, segment.size, minOneMessage)
+        val actual = partitionCache.read(segment.baseOffset, startOffset, maxSize, segment.size, minOneMessage)
+        assertTrue(actual.isDefined, s"Expected a hit for offset $startOffset")
+        assertSameRecords(expected, actual.get)
+      }
+
+      // offsets past the end of the cached data and other segments are misses
+      assertEquals(None, partitionCache.read(segment.baseOffset, 100L, 1000, segment.size, minOneMessage = true))
+      assertEquals(None, partitionCache.read(100L, 100L, 1000, segment.size, minOneMessage = true))
+    } finally {
+      segment.close()
+    }
+  }
+
+  @Test
+  def testPartitionLimitEvictsOldestData(): Unit = {
+    val batchSize = records(0L, 5).sizeInBytes
+    cache = new LogTailCache(maxBytes = 1024 * 1024, partitionMaxBytes = 4 * batchSize)
+    val partitionCache = cache.newPartitionCache(topicPartition)
+
+    var position = 0
+    for (i <- 0 until 20) {
+      val batch = records(i * 5L, 5)
+      partitionCache.append(0L, position, batch)
+      position += batch.sizeInBytes
+    }
+
+    assertTrue(partitionCache.sizeInBytes <= 4 * batchSize)
+    assertEquals(None, partitionCache.read(0L, 0L, 1000, position, minOneMessage = true))
+    assertTrue(partitionCache.read(0L, 95L, 1000, position, minOneMessage = true).isDefined)
+  }
+
+  @Test
+  def testBrokerWideEviction(): Unit = {
+    val batchSize = records(0L, 5).sizeInBytes
+    cache = new LogTailCache(maxBytes = 8 * batchSize, partitionMaxBytes = 8 * batchSize)
+    val first = cache.newPartitionCache(topicPartition)
+    val second = cache.newPartitionCache(new TopicPartition("topic", 1))
+
+    first.append(0L, 0, records(0L, 5))
+    assertTrue(first.read(0L, 0L, 1000, batchSize, minOneMessage = true).isDefined)
+
+    var position = 0
+    for (i <- 0 until 10) {
+      val batch = records(i * 5L, 5)
+      second.append(0L, position, batch)
+      position += batch.sizeInBytes
+    }
+
+    assertTrue(cache.sizeInBytes <= cache.maxBytes)
+    assertEquals(None, first.read(0L, 0L, 1000, batchSize, minOneMessage = true))
+    assertTrue(second.read(0L, 45L, 1000, position, minOneMessage = true).isDefined)
+  }
+
+  @Test
+  def testNonContiguousAppendResetsCache(): Unit = {
+    cache = new LogTailCache(maxBytes = 1024 * 1024, partitionMaxBytes = 64 * 1024)
+    val partitionCache = cache.newPartitionCache(topicPartition)
+    val batch = records(0L, 5)
+    partitionCache.append(0L, 0, batch)
+
+    // a roll to a new segment drops the previous tail
+    partitionCache.append(5L, 0, records(5L, 5))
+    assertEquals(None, partitionCache.read(0L, 0L, 1000, batch.sizeInBytes, minOneMessage = true))
+    assertTrue(partitionCache.read(5L, 5L, 1000, batch.sizeInBytes, minOneMessage = true).isDefined)
+
+    partitionCache.clear()
+    assertEquals(0, partitionCache.sizeInBytes)
+    assertEquals(None, partitionCache.read(5L, 5L, 1000, batch.sizeInBytes, minOneMessage = true))
+  }
+
+  @Test
+  def testLogReadsAndTruncation(): Unit = {
+    cache = new LogTailCache(maxBytes = 1024 * 1024, partitionMaxBytes = 64 * 1024)
+    val log = LogTestUtils.createLog(logDir, LogTestUtils.createLogConfig(), new BrokerTopicStats, mockTime.scheduler,
+      mockTime, tailCache = Some(cache))
+    try {
+      for (_ <- 0 until 10)
+        log.appendAsLeader(records(0L, 5), leaderEpoch = 0)
+
+      val read = log.read(12L, 1000, FetchLogEnd, minOneMessage = true)
+      assertEquals(10L, read.records.batches.iterator.next().baseOffset)
+      assertTrue(cache.sizeInBytes > 0)
+
+      log.truncateTo(20L)
+      assertEquals(0, log.tailCache.get.sizeInBytes)
+      log.appendAsLeader(records(0L, 5), leaderEpoch = 0)
+      val afterTruncation = log.read(20L, 1000, FetchLogEnd, minOneMessage = true)
+      assertEquals(List(20L, 21L, 22L, 23L, 24L), afterTruncation.records.records.asScala.map(_.offset).toList)
+    } finally {
+      log.close()
+    }
+  }
+}
@@ -19,6 +19,7 @@ package kafka.log
 
 import java.io.File
 import java.util.Properties
+import java.util.concurrent.ExecutorService
 
 import kafka.server.checkpoints.LeaderEpochCheckpointFile
 import kafka.server.{BrokerTopicStats, FetchDataInfo, FetchIsolation, FetchLogEnd, LogDirFailureChannel}
@@ -85,7 +86,9 @@ object LogTestUtils {
                 producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
                 lastShutdownClean: Boolean = true,
                 topicId: Option[Uuid] = None,
-                keepPartitionMetadataFile: Boolean = true): Log = {
+                keepPartitionMetadataFile: Boolean = true,
+                tailCache: Option[LogTailCache] = None,
+                recoveryExecutor: Option[ExecutorService] = None): Log = {
     Log(dir = dir,
       config = config,
       logStartOffset = logStartOffset,
@@ -98,7 +101,9 @@ object LogTestUtils {
       logDirFailureChannel = new LogDirFailureChannel(10),
       lastShutdownClean = lastShutdownClean,
       topicId = topicId,
-      keepPartitionMetadataFile = keepPartitionMetadataFile)
+      keepPartitionMetadataFile = keepPartitionMetadataFile,
+      tailCache = tailCache,
+      recoveryExecutor = recoveryExecutor)
   }
 
   /**
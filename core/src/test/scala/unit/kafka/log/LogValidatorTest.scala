@@ -868,6 +868,81 @@ class LogValidatorTest {
     checkOffsets(compressedMessagesWithOffset, offset)
   }
 
+  @Test
+  def testInPlaceValidationByStreamingV2(): Unit = {
+    val now = System.currentTimeMillis()
+    val streamingValidated = brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.get.count
+    val recordValidated = brokerTopicStats.allTopicsStats.recordValidatedBatchesRate.get.count
+
+    // The record timestamps are not checked if the difference is unbounded, so the records are only streamed through
+    val streamingResult = validateCompressedV2(createRecords(RecordBatch.MAGIC_VALUE_V2, now, CompressionType.GZIP),
+      offset = 1234L, timestampDiffMaxMs = Long.MaxValue)
+    assertEquals(streamingValidated + 1, brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.get.count)
+    assertEquals(recordValidated, brokerTopicStats.allTopicsStats.recordValidatedBatchesRate.get.count)
+
+    val recordResult = validateCompressedV2(createRecords(RecordBatch.MAGIC_VALUE_V2, now, CompressionType.GZIP),
+      offset = 1234L, timestampDiffMaxMs = 5000L)
+    assertEquals(streamingValidated + 1, brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.get.count)
+    assertEquals(recordValidated + 1, brokerTopicStats.allTopicsStats.recordValidatedBatchesRate.get.count)
+
+    // the validation paths are only counted for all topics
+    val topicMetrics = brokerTopicStats.topicStats(topicPartition.topic).metricMap
+    assertFalse(topicMetrics.contains(BrokerTopicStats.StreamingValidatedBatchesPerSec))
+    assertFalse(topicMetrics.contains(BrokerTopicStats.RecordValidatedBatchesPerSec))
+    assertFalse(topicMetrics.contains(BrokerTopicStats.RebuiltBatchesPerSec))
+
+    checkOffsets(streamingResult.validatedRecords, 1234L)
+    assertFalse(streamingResult.messageSizeMaybeChanged, "Message size should not have been changed")
+    assertEquals(now, streamingResult.maxTimestamp)
+    assertEquals(1236L, streamingResult.shallowOffsetOfMaxTimestamp)
+    assertEquals(recordResult.validatedRecords, streamingResult.validatedRecords)
+    assertEquals(recordResult.recordConversionStats.temporaryMemoryBytes,
+      streamingResult.recordConversionStats.temporaryMemoryBytes)
+  }
+
+  @Test
+  def testInPlaceValidationByStreamingRebuildsBatchWithNonZeroInnerOffsetsV2(): Unit = {
+    val now = System.currentTimeMillis()
+    val buffer = ByteBuffer.allocate(512)
+    val builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, CompressionType.GZIP,
+      TimestampType.CREATE_TIME, 5L)
+    builder.appendWithOffset(5, now, null, "hello".getBytes)
+    builder.appendWithOffset(6, now, null, "there".getBytes)
+    builder.appendWithOffset(7, now, null, "beautiful".getBytes)
+    val records = builder.build()
+
+    val streamingValidated = brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.get.count
+    val rebuilt = brokerTopicStats.allTopicsStats.rebuiltBatchesRate.get.count
+    val result = validateCompressedV2(records, offset = 1234L, timestampDiffMaxMs = Long.MaxValue)
+    assertEquals(streamingValidated, brokerTopicStats.allTopicsStats.streamingValidatedBatchesRate.get.count)
+    assertEquals(rebuilt + 1, brokerTopicStats.allTopicsStats.rebuiltBatchesRate.get.count)
+
+    checkOffsets(result.validatedRecords, 1234L)
+    assertTrue(result.messageSizeMaybeChanged, "Message size should have been changed")
+  }
+
+  private def validateCompressedV2(records: MemoryRecords,
+                                   offset: Long,
+                                   timestampDiffMaxMs: Long): ValidationAndOffsetAssignResult = {
+    LogValidator.validateMessagesAndAssignOffsets(
+      records,
+      topicPartition,
+      offsetCounter = new LongRef(offset),
+      time = time,
+      now = System.currentTimeMillis(),
+      sourceCodec = DefaultCompressionCodec,
+      targetCodec = DefaultCompressionCodec,
+      compactedTopic = false,
+      magic = RecordBatch.MAGIC_VALUE_V2,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = timestampDiffMaxMs,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      origin = AppendOrigin.Client,
+      interBrokerProtocolVersion = ApiVersion.latestVersion,
+      brokerTopicStats = brokerTopicStats,
+      requestLocal = RequestLocal.withThreadConfinedCaching)
+  }
+
   @Test
   def testOffsetAssignmentAfterUpConversionV0ToV1NonCompressed(): Unit = {
     val records = createRecords(magicValue = RecordBatch.MAGIC_VALUE_V0, codec = CompressionType.NONE)
@@ -22,6 +22,7 @@ import java.nio.file.Files
 
 import org.junit.jupiter.api.Assertions._
 import java.util.{Arrays, Collections}
+import java.util.concurrent.atomic.AtomicBoolean
 
 import org.junit.jupiter.api._
 
@@ -206,6 +207,34 @@ class OffsetIndexTest {
     assertThrows(classOf[NullPointerException], () => idx.lookup(1))
   }
 
+  @Test
+  def testLookupConcurrentWithAppendAndTruncate(): Unit = {
+    val idx = new OffsetIndex(nonExistentTempFile(), baseOffset, maxIndexSize = 10000 * 8)
+    val done = new AtomicBoolean(false)
+    val appender = new Thread(() => {
+      for (_ <- 0 until 20) {
+        for (i <- 1 until idx.maxEntries)
+          idx.append(baseOffset + 2 * i, 3 * i)
+        idx.truncateTo(baseOffset + 2)
+      }
+      done.set(true)
+    })
+    appender.start()
+    try {
+      val random = new Random(1L)
+      while (!done.get) {
+        // every entry read without the lock must be fully written
+        val target = baseOffset + random.nextInt(2 * idx.maxEntries)
+        val found = idx.lookup(target)
+        assertTrue(found.offset <= target)
+        assertEquals(3 * (found.offset - baseOffset) / 2, found.position.toLong)
+      }
+    } finally {
+      appender.join()
+      idx.close()
+    }
+  }
+
   @Test
   def testSanityLastOffsetEqualToBaseOffset(): Unit = {
     // Test index sanity for the case where the last offset appended to the index is equal to the base offset
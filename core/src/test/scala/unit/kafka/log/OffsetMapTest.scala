@@ -57,6 +57,78 @@ class OffsetMapTest {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testOpenAddressingBasicValidation(): Unit = {
+    validateOpenAddressingMap(10)
+    validateOpenAddressingMap(100)
+    validateOpenAddressingMap(1000)
+    validateOpenAddressingMap(5000)
+  }
+
+  @Test
+  def testOpenAddressingHighLoadFactor(): Unit = {
+    val map = validateOpenAddressingMap(10000, loadFactor = 0.98)
+    for (i <- 10000 until 20000)
+      assertEquals(-1L, map.get(key(i)))
+  }
+
+  @Test
+  def testOpenAddressingOverwrite(): Unit = {
+    val map = new OpenAddressingOffsetMap(4000)
+    for (i <- 0 until 100)
+      map.put(key(i), i)
+    for (i <- 0 until 100)
+      map.put(key(i), i + 1000L)
+    assertEquals(100, map.size)
+    assertEquals(1099L, map.latestOffset)
+    for (i <- 0 until 100)
+      assertEquals(i + 1000L, map.get(key(i)))
+  }
+
+  @Test
+  def testOpenAddressingClear(): Unit = {
+    val map = new OpenAddressingOffsetMap(4000)
+    for (i <- 0 until 10)
+      map.put(key(i), i)
+    for (i <- 0 until 10)
+      assertEquals(i.toLong, map.get(key(i)))
+    map.clear()
+    assertEquals(0, map.size)
+    assertEquals(-1L, map.latestOffset)
+    for (i <- 0 until 10)
+      assertEquals(-1L, map.get(key(i)))
+  }
+
+  @Test
+  def testOpenAddressingGetWhenFull(): Unit = {
+    val map = new OpenAddressingOffsetMap(4096)
+    var i = 37L  //any value would do
+    while (map.size < map.slots) {
+      map.put(key(i), i)
+      i = i + 1L
+    }
+    assertEquals(-1L, map.get(key(i)))
+    assertEquals(i - 1L, map.get(key(i - 1L)))
+    assertThrows(classOf[IllegalArgumentException], () => map.put(key(i), i))
+  }
+
+  @Test
+  def testOpenAddressingKeyPositionAndByteOrder(): Unit = {
+    val map = new OpenAddressingOffsetMap(4000)
+    val bytes = "some-key-longer-than-sixteen-bytes".getBytes
+    val padded = ByteBuffer.allocate(bytes.length + 10)
+    padded.position(5)
+    padded.put(bytes)
+    padded.flip()
+    padded.position(5)
+
+    map.put(ByteBuffer.wrap(bytes), 42L)
+    assertEquals(42L, map.get(padded))
+    assertEquals(5, padded.position)
+    assertEquals(42L, map.get(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)))
+    assertEquals(42L, map.get(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asInstanceOf[ByteBuffer]))
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
   
   def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
@@ -67,6 +139,16 @@ class OffsetMapTest {
       assertEquals(map.get(key(i)), i.toLong)
     map
   }
+
+  def validateOpenAddressingMap(items: Int, loadFactor: Double = 0.5): OpenAddressingOffsetMap = {
+    val map = new OpenAddressingOffsetMap((items / loadFactor * OpenAddressingOffsetMap.BytesPerEntry).toLong)
+    for (i <- 0 until items)
+      map.put(key(i), i)
+    assertEquals(items, map.size)
+    for (i <- 0 until items)
+      assertEquals(i.toLong, map.get(key(i)))
+    map
+  }
   
 }
 
@@ -701,6 +701,124 @@ class ProducerStateManagerTest {
     assertEquals(Set(1), currentSnapshotOffsets)
   }
 
+  @Test
+  def testDeltaSnapshot(): Unit = {
+    val epoch = 0.toShort
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 3)
+    for (pid <- 0L until 10L)
+      append(stateManager, pid, epoch, 0, pid)
+    stateManager.takeSnapshot()
+    assertFalse(readSnapshotFile(10L).isDelta)
+
+    append(stateManager, 0L, epoch, 1, 10L)
+    stateManager.takeSnapshot()
+    val delta = readSnapshotFile(11L)
+    assertEquals(Some(10L), delta.baseOffset)
+    assertEquals(List(0L), delta.entries.map(_.producerId).toList)
+    assertEquals(List(), delta.removedProducerIds.toList)
+
+    val recoveredMapping = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 3)
+    recoveredMapping.truncateAndReload(0L, 11L, time.milliseconds)
+    assertEquals(stateManager.activeProducers.map { case (pid, entry) => pid -> entry.lastDataOffset },
+      recoveredMapping.activeProducers.map { case (pid, entry) => pid -> entry.lastDataOffset })
+    assertEquals(10L, recoveredMapping.lastEntry(0L).get.lastDataOffset)
+
+    // the delta keeps accumulating changes since the full snapshot
+    append(recoveredMapping, 1L, epoch, 1, 11L)
+    recoveredMapping.takeSnapshot()
+    val nextDelta = readSnapshotFile(12L)
+    assertEquals(Some(10L), nextDelta.baseOffset)
+    assertEquals(Set(0L, 1L), nextDelta.entries.map(_.producerId).toSet)
+
+    // the interval between full snapshots has been reached
+    append(recoveredMapping, 2L, epoch, 1, 12L)
+    recoveredMapping.takeSnapshot()
+    assertFalse(readSnapshotFile(13L).isDelta)
+    assertEquals(10, ProducerStateManager.readSnapshot(Log.producerSnapshotFile(logDir, 13L)).size)
+  }
+
+  @Test
+  def testFullSnapshotIfDeltaIsNotSmaller(): Unit = {
+    val epoch = 0.toShort
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    append(stateManager, producerId, epoch, 0, 0L)
+    stateManager.takeSnapshot()
+    append(stateManager, producerId, epoch, 1, 1L)
+    stateManager.takeSnapshot()
+    assertFalse(readSnapshotFile(1L).isDelta)
+    assertFalse(readSnapshotFile(2L).isDelta)
+  }
+
+  @Test
+  def testDeltaSnapshotWithRemovedProducers(): Unit = {
+    val epoch = 0.toShort
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    append(stateManager, 9L, epoch, 0, 0L)
+    time.sleep(maxPidExpirationMs / 2)
+    for (pid <- 0L until 9L)
+      append(stateManager, pid, epoch, 0, pid + 1)
+    stateManager.takeSnapshot()
+
+    time.sleep(maxPidExpirationMs / 2 + 1)
+    stateManager.removeExpiredProducers(time.milliseconds)
+    append(stateManager, 0L, epoch, 1, 10L)
+    stateManager.takeSnapshot()
+    val delta = readSnapshotFile(11L)
+    assertEquals(List(0L), delta.entries.map(_.producerId).toList)
+    assertEquals(List(9L), delta.removedProducerIds.toList)
+
+    val recoveredMapping = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    recoveredMapping.truncateAndReload(0L, 11L, time.milliseconds)
+    assertEquals((0L until 9L).toSet, recoveredMapping.activeProducers.keySet)
+    assertEquals(None, recoveredMapping.lastEntry(9L))
+  }
+
+  @Test
+  def testFullSnapshotRetainedWhileDeltaExists(): Unit = {
+    val epoch = 0.toShort
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    for (pid <- 0L until 10L)
+      append(stateManager, pid, epoch, 0, pid)
+    stateManager.takeSnapshot()
+    append(stateManager, 0L, epoch, 1, 10L)
+    stateManager.takeSnapshot()
+    assertEquals(Set(10, 11), currentSnapshotOffsets)
+
+    stateManager.deleteSnapshotsBefore(11L)
+    assertEquals(Some(11L), stateManager.oldestSnapshotOffset)
+    assertEquals(Set(10, 11), currentSnapshotOffsets)
+
+    // further deltas are still based on the retained full snapshot
+    append(stateManager, 1L, epoch, 1, 11L)
+    stateManager.takeSnapshot()
+    assertEquals(Some(10L), readSnapshotFile(12L).baseOffset)
+
+    stateManager.truncateAndReload(11L, 12L, time.milliseconds)
+    assertEquals(10, stateManager.activeProducers.size)
+    assertEquals(11L, stateManager.lastEntry(1L).get.lastDataOffset)
+
+    stateManager.deleteSnapshotsBefore(13L)
+    assertEquals(Set(), currentSnapshotOffsets)
+  }
+
+  @Test
+  def testLoadDeltaSnapshotWithMissingFullSnapshot(): Unit = {
+    val epoch = 0.toShort
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    for (pid <- 0L until 10L)
+      append(stateManager, pid, epoch, 0, pid)
+    stateManager.takeSnapshot()
+    append(stateManager, 0L, epoch, 1, 10L)
+    stateManager.takeSnapshot()
+    assertTrue(Log.producerSnapshotFile(logDir, 10L).delete())
+
+    // the delta snapshot cannot be loaded and is deleted, so the state is rebuilt from the log start
+    val recoveredMapping = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, fullSnapshotInterval = 10)
+    recoveredMapping.truncateAndReload(0L, 11L, time.milliseconds)
+    assertEquals(Map.empty, recoveredMapping.activeProducers)
+    assertEquals(Set(), currentSnapshotOffsets)
+  }
+
   @Test
   def testPidExpirationTimeout(): Unit = {
     val epoch = 5.toShort
@@ -972,6 +1090,9 @@ class ProducerStateManagerTest {
     stateManager.updateMapEndOffset(offset + 1)
   }
 
+  private def readSnapshotFile(offset: Long): ProducerSnapshot =
+    ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, offset))
+
   private def currentSnapshotOffsets: Set[Long] =
     logDir.listFiles.map(Log.offsetFromFile).toSet
 
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.network
+
+import java.net.{InetAddress, Socket}
+import java.nio.channels.SocketChannel
+
+import kafka.utils.MockTime
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.{mock, when}
+
+import scala.collection.mutable
+
+class HandshakeAdmissionTest {
+  private val time = new MockTime()
+  private val admitted = mutable.Buffer[(SocketChannel, Long)]()
+  private val expired = mutable.Buffer[SocketChannel]()
+
+  private def socketChannel(ip: String): SocketChannel = {
+    val socket = mock(classOf[Socket])
+    when(socket.getInetAddress).thenReturn(InetAddress.getByName(ip))
+    val channel = mock(classOf[SocketChannel])
+    when(channel.socket).thenReturn(socket)
+    channel
+  }
+
+  private def poll(admission: HandshakeAdmission): Unit = {
+    admission.poll((channel, queueTimeMs) => admitted += channel -> queueTimeMs, channel => expired += channel)
+  }
+
+  @Test
+  def testListenerRateLimitsAdmittedConnections(): Unit = {
+    val admission = new HandshakeAdmission(maxRate = 2, maxRatePerIp = Int.MaxValue, queueTimeoutMs = 10000, time)
+    val channels = (1 to 5).map(i => socketChannel(s"192.168.1.$i"))
+    channels.foreach(admission.enqueue)
+
+    // a burst of one second's worth of connections is admitted at once
+    poll(admission)
+    assertEquals(channels.take(2), admitted.map(_._1))
+    assertEquals(3, admission.queueSize)
+    assertEquals(500, admission.pollTimeoutMs(1000))
+
+    time.sleep(500)
+    poll(admission)
+    assertEquals(channels.take(3), admitted.map(_._1))
+    assertEquals(500, admitted.last._2)
+
+    time.sleep(1000)
+    poll(admission)
+    assertEquals(channels, admitted.map(_._1))
+    assertEquals(0, admission.queueSize)
+    assertEquals(1000, admission.pollTimeoutMs(1000))
+    assertTrue(expired.isEmpty)
+  }
+
+  @Test
+  def testIpRateDoesNotHoldUpOtherAddresses(): Unit = {
+    val admission = new HandshakeAdmission(maxRate = Int.MaxValue, maxRatePerIp = 1, queueTimeoutMs = 10000, time)
+    val first = socketChannel("192.168.1.1")
+    val second = socketChannel("192.168.1.1")
+    val other = socketChannel("192.168.1.2")
+    Seq(first, second, other).foreach(admission.enqueue)
+
+    poll(admission)
+    assertEquals(Seq(first, other), admitted.map(_._1))
+    assertEquals(HandshakeAdmission.IpTokenPollMs, admission.pollTimeoutMs(1000))
+
+    time.sleep(1000)
+    poll(admission)
+    assertEquals(Seq(first, other, second), admitted.map(_._1))
+    assertTrue(expired.isEmpty)
+  }
+
+  @Test
+  def testQueuedConnectionsExpire(): Unit = {
+    val admission = new HandshakeAdmission(maxRate = 1, maxRatePerIp = Int.MaxValue, queueTimeoutMs = 100, time)
+    val channels = (1 to 3).map(i => socketChannel(s"192.168.1.$i"))
+    channels.foreach(admission.enqueue)
+
+    poll(admission)
+    assertEquals(channels.take(1), admitted.map(_._1))
+
+    time.sleep(100)
+    poll(admission)
+    assertEquals(channels.take(1), admitted.map(_._1))
+    assertEquals(channels.drop(1), expired)
+    assertEquals(0, admission.queueSize)
+  }
+
+  @Test
+  def testCloseAllClosesQueuedConnections(): Unit = {
+    val admission = new HandshakeAdmission(maxRate = 1, maxRatePerIp = Int.MaxValue, queueTimeoutMs = 10000, time)
+    val channels = (1 to 3).map(i => socketChannel(s"192.168.1.$i"))
+    channels.foreach(admission.enqueue)
+    poll(admission)
+
+    val closed = mutable.Buffer[SocketChannel]()
+    admission.closeAll(closed += _)
+    assertEquals(channels.drop(1), closed)
+    assertEquals(0, admission.queueSize)
+  }
+}
@@ -24,17 +24,23 @@ import java.nio.ByteBuffer
 import java.util.Collections
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.yammer.metrics.core.Gauge
+import kafka.metrics.KafkaYammerMetrics
 import kafka.network
+import kafka.network.RequestChannel.RequestClass
 import org.apache.kafka.clients.admin.AlterConfigOp.OpType
 import org.apache.kafka.common.config.types.Password
 import org.apache.kafka.common.config.{ConfigResource, SaslConfigs, SslConfigs, TopicConfig}
 import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.message.IncrementalAlterConfigsRequestData
 import org.apache.kafka.common.message.IncrementalAlterConfigsRequestData._
+import org.apache.kafka.common.message.ProduceRequestData
 import org.apache.kafka.common.network.{ClientInformation, ListenerName}
+import org.apache.kafka.common.protocol.ApiKeys
 import org.apache.kafka.common.requests.AlterConfigsRequest._
 import org.apache.kafka.common.requests._
 import org.apache.kafka.common.security.auth.{KafkaPrincipal, SecurityProtocol}
+import org.apache.kafka.common.utils.Time
 import org.easymock.EasyMock._
 import org.junit.jupiter.api.Assertions._
 import org.junit.jupiter.api._
@@ -179,6 +185,102 @@ class RequestChannelTest {
     assertTrue(isValidJson(RequestConvertToJson.request(alterConfigs.loggableRequest).toString))
   }
 
+  @Test
+  def testRequestClasses(): Unit = {
+    val followerFetch = request(FetchRequest.Builder.forReplica(ApiKeys.FETCH.latestVersion, 1, 500, 1,
+      Collections.emptyMap()).build())
+    val consumerFetch = request(FetchRequest.Builder.forConsumer(500, 1, Collections.emptyMap()).build())
+    val produce = request(ProduceRequest.forCurrentMagic(new ProduceRequestData().setAcks(1).setTimeoutMs(1000)).build())
+    val metadata = request(new MetadataRequest.Builder(List("topic").asJava, true).build())
+
+    assertEquals(RequestClass.Replication, RequestClass(followerFetch))
+    assertEquals(RequestClass.Fetch, RequestClass(consumerFetch))
+    assertEquals(RequestClass.Produce, RequestClass(produce))
+    assertEquals(RequestClass.Other, RequestClass(metadata))
+  }
+
+  @Test
+  def testPipelinableRequests(): Unit = {
+    def consumerFetch(metadata: FetchMetadata): RequestChannel.Request =
+      request(FetchRequest.Builder.forConsumer(500, 1, Collections.emptyMap()).metadata(metadata).build())
+
+    assertTrue(request(new MetadataRequest.Builder(List("topic").asJava, true).build()).isPipelinable)
+    assertFalse(request(ProduceRequest.forCurrentMagic(new ProduceRequestData().setAcks(1).setTimeoutMs(1000)).build())
+      .isPipelinable)
+
+    // only sessionless fetches from consumers may be pipelined
+    assertTrue(consumerFetch(FetchMetadata.LEGACY).isPipelinable)
+    assertFalse(consumerFetch(FetchMetadata.INITIAL).isPipelinable)
+    assertFalse(consumerFetch(new FetchMetadata(123, 1)).isPipelinable)
+    assertFalse(request(FetchRequest.Builder.forReplica(ApiKeys.FETCH.latestVersion, 1, 500, 1,
+      Collections.emptyMap()).metadata(FetchMetadata.LEGACY).build()).isPipelinable)
+  }
+
+  @Test
+  def testWeightedRequestClassDequeue(): Unit = {
+    val weights = Map[RequestClass, Int](RequestClass.Replication -> 3, RequestClass.Produce -> 1,
+      RequestClass.Fetch -> 1, RequestClass.Other -> 1)
+    val channel = new RequestChannel(10, "WeightedDequeue", Time.SYSTEM, createNiceMock(classOf[RequestChannel.Metrics]), weights)
+    try {
+      (1 to 4).foreach { _ =>
+        channel.sendRequest(request(new MetadataRequest.Builder(List("topic").asJava, true).build()))
+        channel.sendRequest(request(FetchRequest.Builder.forReplica(ApiKeys.FETCH.latestVersion, 1, 500, 1,
+          Collections.emptyMap()).build()))
+      }
+      assertEquals(8, metricValue(channel.requestQueueSizeMetricName, Map.empty))
+      assertEquals(4, metricValue(channel.requestQueueSizeMetricName, Map(RequestChannel.RequestClassMetricTag -> "replication")))
+      assertEquals(4, metricValue(channel.requestQueueSizeMetricName, Map(RequestChannel.RequestClassMetricTag -> "other")))
+
+      val dequeued = (1 to 8).map(_ => channel.receiveRequest(0).asInstanceOf[RequestChannel.Request].header.apiKey)
+      // the other class only gets the slots of the empty produce and fetch classes once
+      assertEquals(Seq(ApiKeys.FETCH, ApiKeys.METADATA, ApiKeys.FETCH, ApiKeys.FETCH, ApiKeys.FETCH,
+        ApiKeys.METADATA, ApiKeys.METADATA, ApiKeys.METADATA), dequeued)
+      assertNull(channel.receiveRequest(0))
+
+      channel.sendShutdownRequest()
+      assertEquals(RequestChannel.ShutdownRequest, channel.receiveRequest(0))
+    } finally {
+      channel.shutdown()
+    }
+  }
+
+  @Test
+  def testBufferOfReusingPoolReleasedOnceHandledAndResponseComplete(): Unit = {
+    val metadataRequest = new MetadataRequest.Builder(List("topic").asJava, true).build()
+    val buffer = metadataRequest.serializeWithHeader(new RequestHeader(metadataRequest.apiKey, metadataRequest.version,
+      "client-id", 1))
+    val memoryPool: MemoryPool = createMock(classOf[MemoryPool])
+    expect(memoryPool.reusesReleasedBuffers).andReturn(true).anyTimes()
+    memoryPool.release(buffer)
+    expectLastCall().once()
+    replay(memoryPool)
+
+    val metrics = new RequestChannel.Metrics(Seq(ApiKeys.METADATA))
+    try {
+      val request = new RequestChannel.Request(processor = 1, newRequestContext(buffer), startTimeNanos = 0,
+        memoryPool, buffer, metrics)
+      // the response completes before the handler is done with the request
+      request.updateRequestMetrics(0L, new RequestChannel.NoOpResponse(request))
+      request.releaseBufferAfterHandling()
+      // neither a second handler completion nor a second response completion release the buffer again
+      request.releaseBufferAfterHandling()
+      request.updateRequestMetrics(0L, new RequestChannel.NoOpResponse(request))
+      verify(memoryPool)
+    } finally {
+      metrics.close()
+    }
+  }
+
+  private def metricValue(name: String, tags: Map[String, String]): Any = {
+    val metrics = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.filter { case (metricName, _) =>
+      metricName.getType == "RequestChannel" && metricName.getName == name &&
+        tags.forall { case (key, value) => metricName.getMBeanName.contains(s"$key=$value") } &&
+        (tags.nonEmpty || !metricName.getMBeanName.contains(RequestChannel.RequestClassMetricTag))
+    }
+    assertEquals(1, metrics.size, s"Unexpected metrics for $name with tags $tags: ${metrics.keys}")
+    metrics.head._2.asInstanceOf[Gauge[_]].value
+  }
+
   private def isValidJson(str: String): Boolean = {
     try {
       val mapper = new ObjectMapper
@@ -27,7 +27,7 @@ import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, Executors
 import java.util.{Properties, Random}
 
 import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode, TextNode}
-import com.yammer.metrics.core.{Gauge, Meter}
+import com.yammer.metrics.core.{Gauge, Histogram, Meter}
 import javax.net.ssl._
 import kafka.metrics.KafkaYammerMetrics
 import kafka.security.CredentialProvider
@@ -36,11 +36,12 @@ import kafka.utils.Implicits._
 import kafka.utils.TestUtils
 import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.message.ApiMessageType.ListenerType
-import org.apache.kafka.common.message.{ProduceRequestData, SaslAuthenticateRequestData, SaslHandshakeRequestData, VoteRequestData}
+import org.apache.kafka.common.message.{MetadataResponseData, ProduceRequestData, SaslAuthenticateRequestData, SaslHandshakeRequestData, VoteRequestData}
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.KafkaChannel.ChannelMuteState
 import org.apache.kafka.common.network.{ClientInformation, _}
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
+import org.apache.kafka.common.record.MultiRecordsSend
 import org.apache.kafka.common.requests
 import org.apache.kafka.common.requests._
 import org.apache.kafka.common.security.auth.{KafkaPrincipal, SecurityProtocol}
@@ -431,6 +432,284 @@ class SocketServerTest {
     }
   }
 
+  private def metadataRequestBytes(correlationId: Int): Array[Byte] = {
+    val request = new MetadataRequest.Builder(List("topic").asJava, true).build()
+    val header = new RequestHeader(ApiKeys.METADATA, request.version, "", correlationId)
+    Utils.toArray(request.serializeWithHeader(header))
+  }
+
+  // The echoed responses start with the request header: api key, api version and correlation id
+  private def receiveEchoedCorrelationId(socket: Socket): Int = ByteBuffer.wrap(receiveResponse(socket)).getInt(4)
+
+  private def withPipeliningServer(maxPipelinedRequests: Int)(testFn: SocketServer => Unit): Unit = {
+    val pipeliningProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    pipeliningProps.put(KafkaConfig.MaxPipelinedRequestsPerConnectionProp, maxPipelinedRequests.toString)
+    val pipeliningServer = new SocketServer(KafkaConfig.fromProps(pipeliningProps), new Metrics,
+      Time.SYSTEM, credentialProvider, apiVersionManager)
+    try {
+      pipeliningServer.startup()
+      testFn(pipeliningServer)
+    } finally {
+      shutdownServerAndMetrics(pipeliningServer)
+    }
+  }
+
+  @Test
+  def testPipelinedRequestsRespondedInRequestOrder(): Unit = {
+    withPipeliningServer(maxPipelinedRequests = 2) { pipeliningServer =>
+      val channel = pipeliningServer.dataPlaneRequestChannel
+      val socket = connect(pipeliningServer)
+      (1 to 3).foreach(correlationId => sendRequest(socket, metadataRequestBytes(correlationId)))
+
+      // two requests are processed concurrently, the third one is only read once a response has been sent
+      val first = receiveRequest(channel)
+      val second = receiveRequest(channel)
+      assertEquals(Seq(1, 2), Seq(first, second).map(_.header.correlationId))
+      assertNull(channel.receiveRequest(200))
+
+      // responses are held back until the responses of the earlier requests have been sent
+      processRequest(channel, second)
+      assertNull(channel.receiveRequest(200))
+      processRequest(channel, first)
+      assertEquals(1, receiveEchoedCorrelationId(socket))
+      assertEquals(2, receiveEchoedCorrelationId(socket))
+
+      val third = receiveRequest(channel)
+      assertEquals(3, third.header.correlationId)
+      processRequest(channel, third)
+      assertEquals(3, receiveEchoedCorrelationId(socket))
+    }
+  }
+
+  @Test
+  def testCompletedPipelinedResponsesWrittenTogether(): Unit = {
+    withPipeliningServer(maxPipelinedRequests = 3) { pipeliningServer =>
+      val channel = pipeliningServer.dataPlaneRequestChannel
+      val socket = connect(pipeliningServer)
+      (1 to 3).foreach(correlationId => sendRequest(socket, metadataRequestBytes(correlationId)))
+      val requests = (1 to 3).map(_ => receiveRequest(channel))
+
+      // the later responses complete first, so all of them are ready once the first one completes
+      requests.reverse.foreach { request =>
+        val byteBuffer = request.body[AbstractRequest].serializeWithHeader(request.header)
+        channel.sendResponse(new RequestChannel.SendResponse(request, ByteBufferSend.sizePrefixed(byteBuffer), None, None))
+      }
+      assertEquals(Seq(1, 2, 3), (1 to 3).map(_ => receiveEchoedCorrelationId(socket)))
+
+      val responsesPerWriteMax = pipeliningServer.metrics.metrics.asScala.collect {
+        case (metricName, metric) if metricName.name == "responses-per-write-max" =>
+          metric.metricValue.asInstanceOf[Double]
+      }.filterNot(_.isNaN)
+      assertEquals(3.0, responsesPerWriteMax.max)
+    }
+  }
+
+  @Test
+  def testPipelinedResponsesWithRecordsWrittenTogether(): Unit = {
+    withPipeliningServer(maxPipelinedRequests = 3) { pipeliningServer =>
+      val channel = pipeliningServer.dataPlaneRequestChannel
+      val socket = connect(pipeliningServer)
+      (1 to 3).foreach(correlationId => sendRequest(socket, metadataRequestBytes(correlationId)))
+      val requests = (1 to 3).map(_ => receiveRequest(channel))
+
+      // the second response is sent like a fetch response, with the payload in a send of its own
+      val responseSends = mutable.Map[Int, Send]()
+      val completedSends = new ConcurrentLinkedQueue[(Int, Send)]()
+      requests.reverse.foreach { request =>
+        val correlationId = request.header.correlationId
+        val byteBuffer = request.body[AbstractRequest].serializeWithHeader(request.header)
+        val responseSend =
+          if (correlationId != 2) ByteBufferSend.sizePrefixed(byteBuffer)
+          else {
+            val sizeBuffer = ByteBuffer.allocate(4).putInt(0, byteBuffer.remaining)
+            new MultiRecordsSend(new util.ArrayDeque[Send](util.Arrays.asList(
+              new ByteBufferSend(sizeBuffer), new ByteBufferSend(byteBuffer))))
+          }
+        responseSends.put(correlationId, responseSend)
+        channel.sendResponse(new RequestChannel.SendResponse(request, responseSend, None,
+          Some(send => completedSends.add(correlationId -> send))))
+      }
+      assertEquals(Seq(1, 2, 3), (1 to 3).map(_ => receiveEchoedCorrelationId(socket)))
+
+      // the completion callback of every response is given the send of the response rather than the combined send,
+      // so that the callback of a fetch response can read the conversion stats of its records
+      TestUtils.waitUntilTrue(() => completedSends.size == 3, "The completion callbacks were not invoked")
+      completedSends.asScala.foreach { case (correlationId, send) =>
+        assertSame(responseSends(correlationId), send)
+        assertTrue(send.completed)
+      }
+
+      val responsesPerWriteMax = pipeliningServer.metrics.metrics.asScala.collect {
+        case (metricName, metric) if metricName.name == "responses-per-write-max" =>
+          metric.metricValue.asInstanceOf[Double]
+      }.filterNot(_.isNaN)
+      assertEquals(3.0, responsesPerWriteMax.max)
+    }
+  }
+
+  @Test
+  def testResponsesSerializedIntoPooledBuffers(): Unit = {
+    val poolProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    poolProps.put(KafkaConfig.SocketResponseBufferPoolBytesProp, "1048576")
+    val poolServer = new SocketServer(KafkaConfig.fromProps(poolProps), new Metrics, Time.SYSTEM, credentialProvider,
+      apiVersionManager)
+    def gaugeValue(name: String): Long = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+      case (metricName, gauge: Gauge[_]) if metricName.getName == name => gauge.value.asInstanceOf[Long]
+    }.getOrElse(throw new AssertionError(s"Gauge $name not found"))
+
+    try {
+      poolServer.startup()
+      val channel = poolServer.dataPlaneRequestChannel
+      val socket = connect(poolServer)
+      // large enough to be serialized into a chain of pooled buffers
+      val topics = new MetadataResponseData.MetadataResponseTopicCollection()
+      (0 until 5000).foreach(i => topics.add(new MetadataResponseData.MetadataResponseTopic().setName(s"topic-$i")))
+      val responseData = new MetadataResponseData().setTopics(topics)
+
+      (1 to 2).foreach { correlationId =>
+        sendRequest(socket, metadataRequestBytes(correlationId))
+        val request = receiveRequest(channel)
+        channel.sendResponse(request, new MetadataResponse(responseData, request.header.apiVersion), None)
+        val response = AbstractResponse.parseResponse(ByteBuffer.wrap(receiveResponse(socket)), request.header)
+        assertEquals(responseData, response.data)
+        TestUtils.waitUntilTrue(() => gaugeValue("ResponseMemoryPoolUsed") == 0,
+          "Response buffers were not released after the response was sent")
+      }
+      // the buffers of the second response were those released by the first one
+      assertTrue(gaugeValue("ResponseMemoryPoolAllocationHits") > 0)
+      assertTrue(gaugeValue("ResponseMemoryPoolFreeBytes") > 0)
+    } finally {
+      shutdownServerAndMetrics(poolServer)
+    }
+  }
+
+  @Test
+  def testConnectionsQueuedForHandshakeAdmission(): Unit = {
+    val admissionProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    admissionProps.put(KafkaConfig.MaxConnectionHandshakeRatePerIpProp, "2")
+    val admissionServer = new SocketServer(KafkaConfig.fromProps(admissionProps), new Metrics, Time.SYSTEM,
+      credentialProvider, apiVersionManager)
+    def queueTimeHistogram: Histogram = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+      case (metricName, histogram: Histogram) if metricName.getName == Acceptor.HandshakeQueueTimeMetricName => histogram
+    }.getOrElse(throw new AssertionError("Handshake queue time histogram not found"))
+
+    try {
+      admissionServer.startup()
+      val sockets = (1 to 3).map(_ => connect(admissionServer))
+      // the third connection is only admitted once the address has another token
+      sockets.foreach { socket =>
+        val request = sendAndReceiveRequest(socket, admissionServer)
+        processRequest(admissionServer.dataPlaneRequestChannel, request)
+        receiveResponse(socket)
+      }
+      assertEquals(3, queueTimeHistogram.count)
+      assertTrue(queueTimeHistogram.max >= 100, s"Unexpected maximum queue time ${queueTimeHistogram.max}")
+    } finally {
+      shutdownServerAndMetrics(admissionServer)
+    }
+  }
+
+  @Test
+  def testNonPipelinableRequestWaitsForPipelinedRequests(): Unit = {
+    withPipeliningServer(maxPipelinedRequests = 5) { pipeliningServer =>
+      val channel = pipeliningServer.dataPlaneRequestChannel
+      val socket = connect(pipeliningServer)
+      sendRequest(socket, metadataRequestBytes(1))
+      sendRequest(socket, producerRequestBytes(ack = 1))
+      sendRequest(socket, metadataRequestBytes(2))
+
+      val metadata = receiveRequest(channel)
+      assertEquals(ApiKeys.METADATA, metadata.header.apiKey)
+      // the produce request was read but is not processed until the metadata request has completed
+      assertNull(channel.receiveRequest(200))
+      processRequest(channel, metadata)
+      assertEquals(1, receiveEchoedCorrelationId(socket))
+
+      val produce = receiveRequest(channel)
+      assertEquals(ApiKeys.PRODUCE, produce.header.apiKey)
+      // nothing is read from the connection while the produce request is being processed
+      assertNull(channel.receiveRequest(200))
+      processRequest(channel, produce)
+      receiveResponse(socket)
+
+      val lastMetadata = receiveRequest(channel)
+      assertEquals(2, lastMetadata.header.correlationId)
+      processRequestNoOpResponse(channel, lastMetadata)
+    }
+  }
+
+  @Test
+  def testOverlappingThrottlingOfPipelinedRequests(): Unit = {
+    withPipeliningServer(maxPipelinedRequests = 3) { pipeliningServer =>
+      val channel = pipeliningServer.dataPlaneRequestChannel
+      val socket = connect(pipeliningServer)
+      (1 to 2).foreach(correlationId => sendRequest(socket, metadataRequestBytes(correlationId)))
+      val requests = (1 to 2).map(_ => receiveRequest(channel))
+
+      // the throttling of both requests overlaps
+      requests.foreach { request =>
+        channel.startThrottling(request)
+        processRequest(channel, request)
+      }
+      assertEquals(Seq(1, 2), (1 to 2).map(_ => receiveEchoedCorrelationId(socket)))
+
+      // the connection stays muted until the throttling of the second request has ended too
+      sendRequest(socket, metadataRequestBytes(3))
+      channel.endThrottling(requests.head)
+      assertNull(channel.receiveRequest(200))
+      channel.endThrottling(requests(1))
+      val third = receiveRequest(channel)
+      assertEquals(3, third.header.correlationId)
+      processRequest(channel, third)
+      assertEquals(3, receiveEchoedCorrelationId(socket))
+    }
+  }
+
+  @Test
+  def testLeastLoadedConnectionAssignment(): Unit = {
+    val leastLoadedProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    leastLoadedProps.put(KafkaConfig.NumNetworkThreadsProp, "2")
+    leastLoadedProps.put(KafkaConfig.ConnectionAssignmentStrategyProp, "least_loaded")
+    // the idle ratios of the processors are set by the test rather than measured, so the assignment does not depend
+    // on how the processor threads happen to be scheduled
+    @volatile var idleRatios = Map(0 -> 1.0, 1 -> 1.0)
+    val leastLoadedServer = new SocketServer(KafkaConfig.fromProps(leastLoadedProps), new Metrics,
+      Time.SYSTEM, credentialProvider, apiVersionManager) {
+      override def newProcessor(id: Int, requestChannel: RequestChannel, connectionQuotas: ConnectionQuotas, listenerName: ListenerName,
+                                protocol: SecurityProtocol, memoryPool: MemoryPool, isPrivilegedListener: Boolean): Processor = {
+        new Processor(id, Time.SYSTEM, config.socketRequestMaxBytes, requestChannel, connectionQuotas, config.connectionsMaxIdleMs,
+          config.failedAuthenticationDelayMs, listenerName, protocol, config, metrics, credentialProvider,
+          memoryPool, new LogContext(), Processor.ConnectionQueueSize, isPrivilegedListener, apiVersionManager) {
+          override private[network] def idleRatio: Double = idleRatios(id)
+        }
+      }
+    }
+    // each connection is registered with the selector of its processor once its first request has been received,
+    // so the connection counts are exact when the next connection is assigned
+    def connectAndGetProcessor(): Int = {
+      val socket = connect(leastLoadedServer)
+      val request = sendAndReceiveRequest(socket, leastLoadedServer)
+      processRequest(leastLoadedServer.dataPlaneRequestChannel, request)
+      receiveResponse(socket)
+      request.processor
+    }
+
+    try {
+      leastLoadedServer.startup()
+      // the processors are as idle and have no connections, the next processor in turn is chosen
+      assertEquals(0, connectAndGetProcessor())
+      // the second processor is busier, so both the next processor in turn and the other one lose to the first one
+      idleRatios = Map(0 -> 1.0, 1 -> 0.5)
+      assertEquals(Seq(0, 0), (1 to 2).map(_ => connectAndGetProcessor()))
+      // the processors are about as idle again, so the one with fewer connections is chosen
+      idleRatios = Map(0 -> 1.0, 1 -> (1.0 - Acceptor.SimilarIdleRatioDifference / 2))
+      assertEquals(Seq(1, 1), (1 to 2).map(_ => connectAndGetProcessor()))
+      assertEquals(Seq(3, 2), Seq(0, 1).map(leastLoadedServer.dataPlaneProcessor(_).connectionCount))
+    } finally {
+      shutdownServerAndMetrics(leastLoadedServer)
+    }
+  }
+
   @Test
   def testConnectionId(): Unit = {
     val sockets = (1 to 5).map(_ => connect())
@@ -992,23 +1271,53 @@ class SocketServerTest {
     checkSaslReauthenticationFailure(false)
   }
 
-  def checkSaslReauthenticationFailure(leverageKip152SaslAuthenticateRequest : Boolean): Unit = {
-    shutdownServerAndMetrics(server) // we will use our own instance because we require custom configs
-    val username = "admin"
-    val password = "admin-secret"
-    val reauthMs = 1500
+  private val saslUsername = "admin"
+  private val saslPassword = "admin-secret"
+
+  private def saslPlaintextServerProps(reauthMs: Int): Properties = {
     val brokerProps = new Properties
     brokerProps.setProperty("listeners", "SASL_PLAINTEXT://localhost:0")
     brokerProps.setProperty("security.inter.broker.protocol", "SASL_PLAINTEXT")
     brokerProps.setProperty("listener.name.sasl_plaintext.plain.sasl.jaas.config",
       "org.apache.kafka.common.security.plain.PlainLoginModule required " +
-        "username=\"%s\" password=\"%s\" user_%s=\"%s\";".format(username, password, username, password))
+        "username=\"%s\" password=\"%s\" user_%s=\"%s\";".format(saslUsername, saslPassword, saslUsername, saslPassword))
     brokerProps.setProperty("sasl.mechanism.inter.broker.protocol", "PLAIN")
     brokerProps.setProperty("listener.name.sasl_plaintext.sasl.enabled.mechanisms", "PLAIN")
     brokerProps.setProperty("num.network.threads", "1")
     brokerProps.setProperty("connections.max.reauth.ms", reauthMs.toString)
-    val overrideProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect,
-      saslProperties = Some(brokerProps), enableSaslPlaintext = true)
+    TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, saslProperties = Some(brokerProps), enableSaslPlaintext = true)
+  }
+
+  // Send a SASL handshake request for the PLAIN mechanism and return its header
+  private def sendSaslHandshake(socket: Socket, correlationId: Int, version: Short): RequestHeader = {
+    val saslHandshakeRequest = new SaslHandshakeRequest.Builder(new SaslHandshakeRequestData().setMechanism("PLAIN"))
+      .build(version)
+    val saslHandshakeHeader = new RequestHeader(ApiKeys.SASL_HANDSHAKE, saslHandshakeRequest.version, "",
+      correlationId)
+    sendApiRequest(socket, saslHandshakeRequest, saslHandshakeHeader)
+    saslHandshakeHeader
+  }
+
+  // Send the PLAIN credentials, within a SaslAuthenticateRequest if `leverageKip152SaslAuthenticateRequest` is set
+  private def sendSaslCredentials(socket: Socket, correlationId: Int, leverageKip152SaslAuthenticateRequest: Boolean): Unit = {
+    val authBytes = s"$saslUsername\u0000$saslUsername\u0000$saslPassword".getBytes(StandardCharsets.UTF_8)
+    if (leverageKip152SaslAuthenticateRequest) {
+      // send credentials within a SaslAuthenticateRequest
+      val saslAuthenticateRequest = new SaslAuthenticateRequest.Builder(new SaslAuthenticateRequestData()
+        .setAuthBytes(authBytes)).build()
+      val saslAuthenticateHeader = new RequestHeader(ApiKeys.SASL_AUTHENTICATE, saslAuthenticateRequest.version,
+        "", correlationId)
+      sendApiRequest(socket, saslAuthenticateRequest, saslAuthenticateHeader)
+    } else {
+      // send credentials directly, without a SaslAuthenticateRequest
+      sendRequest(socket, authBytes)
+    }
+  }
+
+  def checkSaslReauthenticationFailure(leverageKip152SaslAuthenticateRequest : Boolean): Unit = {
+    shutdownServerAndMetrics(server) // we will use our own instance because we require custom configs
+    val reauthMs = 1500
+    val overrideProps = saslPlaintextServerProps(reauthMs)
     val time = new MockTime()
     val overrideServer = new TestableSocketServer(KafkaConfig.fromProps(overrideProps), time = time)
     try {
@@ -1019,26 +1328,11 @@ class SocketServerTest {
       val clientId = ""
       // send a SASL handshake request
       val version : Short = if (leverageKip152SaslAuthenticateRequest) ApiKeys.SASL_HANDSHAKE.latestVersion else 0
-      val saslHandshakeRequest = new SaslHandshakeRequest.Builder(new SaslHandshakeRequestData().setMechanism("PLAIN"))
-        .build(version)
-      val saslHandshakeHeader = new RequestHeader(ApiKeys.SASL_HANDSHAKE, saslHandshakeRequest.version, clientId,
-        correlationId)
-      sendApiRequest(socket, saslHandshakeRequest, saslHandshakeHeader)
+      sendSaslHandshake(socket, correlationId, version)
       receiveResponse(socket)
 
       // now send credentials
-      val authBytes = "admin\u0000admin\u0000admin-secret".getBytes(StandardCharsets.UTF_8)
-      if (leverageKip152SaslAuthenticateRequest) {
-        // send credentials within a SaslAuthenticateRequest
-        val saslAuthenticateRequest = new SaslAuthenticateRequest.Builder(new SaslAuthenticateRequestData()
-          .setAuthBytes(authBytes)).build()
-        val saslAuthenticateHeader = new RequestHeader(ApiKeys.SASL_AUTHENTICATE, saslAuthenticateRequest.version,
-          clientId, correlationId)
-        sendApiRequest(socket, saslAuthenticateRequest, saslAuthenticateHeader)
-      } else {
-        // send credentials directly, without a SaslAuthenticateRequest
-        sendRequest(socket, authBytes)
-      }
+      sendSaslCredentials(socket, correlationId, leverageKip152SaslAuthenticateRequest)
       receiveResponse(socket)
       assertEquals(1, overrideServer.testableSelector.channels.size)
 
@@ -1067,6 +1361,45 @@ class SocketServerTest {
     }
   }
 
+  @Test
+  def testSaslReauthenticationWaitsForPipelinedRequests(): Unit = {
+    shutdownServerAndMetrics(server) // we will use our own instance because we require custom configs
+    val overrideProps = saslPlaintextServerProps(reauthMs = 60000)
+    overrideProps.put(KafkaConfig.MaxPipelinedRequestsPerConnectionProp, "3")
+    val overrideServer = new TestableSocketServer(KafkaConfig.fromProps(overrideProps), time = new MockTime())
+    try {
+      overrideServer.startup()
+      val channel = overrideServer.dataPlaneRequestChannel
+      val socket = connect(overrideServer, ListenerName.forSecurityProtocol(SecurityProtocol.SASL_PLAINTEXT))
+      sendSaslHandshake(socket, correlationId = -1, ApiKeys.SASL_HANDSHAKE.latestVersion)
+      receiveResponse(socket)
+      sendSaslCredentials(socket, correlationId = -1, leverageKip152SaslAuthenticateRequest = true)
+      receiveResponse(socket)
+
+      // the client starts to re-authenticate while its metadata request is in progress
+      sendRequest(socket, metadataRequestBytes(1))
+      val metadata = receiveRequest(channel)
+      sendSaslHandshake(socket, correlationId = 2, ApiKeys.SASL_HANDSHAKE.latestVersion)
+      assertNull(channel.receiveRequest(200))
+      assertTrue(overrideServer.testableSelector.channels.asScala.forall(_.ready),
+        "Re-authentication started while a request was in progress")
+
+      // the handshake is only processed once the metadata response has been sent
+      processRequest(channel, metadata)
+      assertEquals(1, receiveEchoedCorrelationId(socket))
+      assertEquals(2, ByteBuffer.wrap(receiveResponse(socket)).getInt(0))
+      sendSaslCredentials(socket, correlationId = 3, leverageKip152SaslAuthenticateRequest = true)
+      assertEquals(3, ByteBuffer.wrap(receiveResponse(socket)).getInt(0))
+
+      // requests are read again once the connection has re-authenticated
+      sendRequest(socket, metadataRequestBytes(4))
+      processRequest(channel, receiveRequest(channel))
+      assertEquals(4, receiveEchoedCorrelationId(socket))
+    } finally {
+      shutdownServerAndMetrics(overrideServer)
+    }
+  }
+
   @Test
   def testSessionPrincipal(): Unit = {
     val socket = connect()
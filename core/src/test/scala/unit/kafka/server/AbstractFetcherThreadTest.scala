@@ -19,13 +19,13 @@ package kafka.server
 
 import java.nio.ByteBuffer
 import java.util.Optional
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
 import kafka.cluster.BrokerEndPoint
 import kafka.log.LogAppendInfo
 import kafka.message.NoCompressionCodec
 import kafka.metrics.KafkaYammerMetrics
-import kafka.server.AbstractFetcherThread.ReplicaFetch
-import kafka.server.AbstractFetcherThread.ResultWithPartitions
+import kafka.server.AbstractFetcherThread.{PipelinedFetchClient, ReplicaFetch, ResultWithPartitions}
 import kafka.utils.Implicits.MapExtensionMethods
 import kafka.utils.TestUtils
 import org.apache.kafka.common.KafkaException
@@ -43,7 +43,7 @@ import org.junit.jupiter.api.{BeforeEach, Test}
 
 import scala.jdk.CollectionConverters._
 import scala.collection.{Map, Set, mutable}
-import scala.util.Random
+import scala.util.{Random, Success, Try}
 
 import scala.collection.mutable.ArrayBuffer
 import scala.compat.java8.OptionConverters._
@@ -85,7 +85,8 @@ class AbstractFetcherThreadTest {
     fetcher.start()
 
     val brokerTopicStatsMetrics = fetcher.brokerTopicStats.allTopicsStats.metricMap.keySet
-    val fetcherMetrics = Set(FetcherMetrics.BytesPerSec, FetcherMetrics.RequestsPerSec, FetcherMetrics.ConsumerLag)
+    val fetcherMetrics = Set(FetcherMetrics.BytesPerSec, FetcherMetrics.RequestsPerSec, FetcherMetrics.ConsumerLag,
+      FetcherMetrics.InFlightRequestCount, FetcherMetrics.RoundTripTimeMs)
 
     // wait until all fetcher metrics are present
     TestUtils.waitUntilTrue(() => allMetricsNames == brokerTopicStatsMetrics ++ fetcherMetrics,
@@ -141,6 +142,219 @@ class AbstractFetcherThreadTest {
     assertEquals(2L, replicaState.highWatermark)
   }
 
+  @Test
+  def testPipelinedFetches(): Unit = {
+    val partitions = (0 until 4).map(new TopicPartition("topic", _))
+    val fetcher = new MockFetcherThread(maxInFlight = 2)
+
+    partitions.foreach { partition =>
+      fetcher.setReplicaState(partition, MockFetcherThread.PartitionState(leaderEpoch = 0))
+      fetcher.addPartitions(Map(partition -> initialFetchState(0L, leaderEpoch = 0)))
+      val batches = Seq(
+        mkBatch(baseOffset = 0L, leaderEpoch = 0, new SimpleRecord("a".getBytes)),
+        mkBatch(baseOffset = 1L, leaderEpoch = 0, new SimpleRecord("b".getBytes)))
+      fetcher.setLeaderState(partition, MockFetcherThread.PartitionState(batches, leaderEpoch = 0, highWatermark = 2L))
+    }
+
+    // both lanes send a request, and the response of the first is processed while the other is in flight
+    fetcher.doWork()
+    val inFlightPartitions = fetcher.pendingFetchRequests.flatMap(_.fetchData.keySet.asScala).toSet
+    assertEquals(1, fetcher.pendingFetchRequests.size)
+    assertEquals(2, fetcher.sentFetchRequests.size)
+    val firstPartitions = fetcher.sentFetchRequests.head.fetchData.keySet.asScala.toSet
+    assertTrue(firstPartitions.nonEmpty && inFlightPartitions.nonEmpty)
+    assertEquals(partitions.toSet, firstPartitions ++ inFlightPartitions)
+    assertTrue(firstPartitions.intersect(inFlightPartitions).isEmpty)
+    firstPartitions.foreach(partition => assertEquals(1L, fetcher.replicaPartitionState(partition).logEndOffset))
+    inFlightPartitions.foreach(partition => assertEquals(0L, fetcher.replicaPartitionState(partition).logEndOffset))
+    assertEquals(1, fetcher.fetcherStats.inFlightRequestCount.get)
+
+    // a partition is never in more than one in-flight request
+    while (fetcher.sentFetchRequests.size < 6) {
+      fetcher.doWork()
+      val inFlight = fetcher.pendingFetchRequests.map(_.fetchData.keySet.asScala.toSet)
+      assertEquals(inFlight.map(_.size).sum, inFlight.flatten.toSet.size)
+    }
+    partitions.foreach(partition => assertEquals(2L, fetcher.replicaPartitionState(partition).logEndOffset))
+    assertEquals(5L, fetcher.fetcherStats.roundTripTime.count)
+  }
+
+  private class HandingOffFetcherThread extends MockFetcherThread {
+    val submitted = mutable.Queue[(PendingAppend, () => Option[LogAppendInfo])]()
+    val fetchOffsetsAheadOfLogEnd = mutable.Buffer[(TopicPartition, Long)]()
+
+    override def submitPartitionData(topicPartition: TopicPartition,
+                                     fetchState: PartitionFetchState,
+                                     partitionData: FetchData): Option[PendingAppend] = {
+      val pendingAppend = PendingAppend(fetchState.fetchOffset, FetchResponse.recordsOrFail(partitionData))
+      submitted += pendingAppend -> (() => processPartitionData(topicPartition, fetchState.fetchOffset, partitionData))
+      Some(pendingAppend)
+    }
+
+    override def fetchFromLeader(fetchRequest: FetchRequest.Builder): Map[TopicPartition, FetchData] = {
+      fetchRequest.fetchData.asScala.foreach { case (tp, fetchData) =>
+        if (fetchData.fetchOffset > replicaPartitionState(tp).logEndOffset)
+          fetchOffsetsAheadOfLogEnd += tp -> fetchData.fetchOffset
+      }
+      super.fetchFromLeader(fetchRequest)
+    }
+  }
+
+  @Test
+  def testHandedOffAppends(): Unit = {
+    val partition = new TopicPartition("topic", 0)
+    val fetcher = new HandingOffFetcherThread
+    val submitted = fetcher.submitted
+
+    fetcher.setReplicaState(partition, MockFetcherThread.PartitionState(leaderEpoch = 0))
+    fetcher.addPartitions(Map(partition -> initialFetchState(0L, leaderEpoch = 0)))
+    val batches = (0 until 3).map { offset =>
+      mkBatch(baseOffset = offset, leaderEpoch = 0, new SimpleRecord(s"$offset".getBytes))
+    }
+    fetcher.setLeaderState(partition, MockFetcherThread.PartitionState(batches, leaderEpoch = 0, highWatermark = 3L))
+
+    // the partition is not fetched again while its append is pending
+    fetcher.doWork()
+    fetcher.doWork()
+    assertEquals(1, submitted.size)
+    assertEquals(Some(0L), fetcher.fetchState(partition).map(_.fetchOffset))
+    assertEquals(0L, fetcher.replicaPartitionState(partition).logEndOffset)
+
+    // once the append has completed, the partition is fetched on from the end of the appended data
+    val (firstAppend, append) = submitted.dequeue()
+    firstAppend.complete(append)
+    fetcher.doWork()
+    assertEquals(1L, fetcher.replicaPartitionState(partition).logEndOffset)
+    assertEquals(Some(1L), fetcher.fetchState(partition).map(_.fetchOffset))
+    assertEquals(1, submitted.size)
+
+    // an append which does not append its data leaves the fetch offset where it was
+    submitted.dequeue()._1.complete(() => None)
+    fetcher.doWork()
+    assertEquals(Some(1L), fetcher.fetchState(partition).map(_.fetchOffset))
+    assertEquals(1, submitted.size)
+    assertEquals(1L, submitted.head._1.fetchOffset)
+
+    // removing the partition fences its pending append, which is then never performed
+    val (fencedAppend, fencedAppendFn) = submitted.dequeue()
+    assertEquals(Some(1L), fetcher.removePartitions(Set(partition)).get(partition).map(_.fetchOffset))
+    fencedAppend.complete(fencedAppendFn)
+    assertEquals(Success(None), fencedAppend.await())
+    assertEquals(1L, fetcher.replicaPartitionState(partition).logEndOffset)
+    assertTrue(fetcher.fetchOffsetsAheadOfLogEnd.isEmpty)
+  }
+
+  @Test
+  def testResponsesIgnoredForPartitionsWithPendingAppends(): Unit = {
+    val partition = new TopicPartition("topic", 0)
+    // keeps the partitions with a pending append in its fetches, and the leader still returns their data
+    val fetcher = new HandingOffFetcherThread {
+      override def buildFetch(lane: Int,
+                              partitionMap: Map[TopicPartition, PartitionFetchState],
+                              pendingAppendPartitions: Set[TopicPartition]): ResultWithPartitions[Option[ReplicaFetch]] =
+        buildFetch(lane, partitionMap)
+    }
+
+    fetcher.setReplicaState(partition, MockFetcherThread.PartitionState(leaderEpoch = 0))
+    fetcher.addPartitions(Map(partition -> initialFetchState(0L, leaderEpoch = 0)))
+    val batches = (0 until 3).map { offset =>
+      mkBatch(baseOffset = offset, leaderEpoch = 0, new SimpleRecord(s"$offset".getBytes))
+    }
+    fetcher.setLeaderState(partition, MockFetcherThread.PartitionState(batches, leaderEpoch = 0, highWatermark = 3L))
+
+    // the data fetched while the append is pending is not handed off again
+    fetcher.doWork()
+    fetcher.doWork()
+    assertEquals(1, fetcher.submitted.size)
+    assertEquals(Some(0L), fetcher.fetchState(partition).map(_.fetchOffset))
+
+    val (pendingAppend, append) = fetcher.submitted.dequeue()
+    pendingAppend.complete(append)
+    fetcher.doWork()
+    assertEquals(1L, fetcher.replicaPartitionState(partition).logEndOffset)
+    assertEquals(Some(1L), fetcher.fetchState(partition).map(_.fetchOffset))
+    assertEquals(1, fetcher.submitted.size)
+    assertEquals(1L, fetcher.submitted.head._1.fetchOffset)
+  }
+
+  @Test
+  def testRemovePartitionsWaitsForStartedAppendWithoutLock(): Unit = {
+    val partition = new TopicPartition("topic", 0)
+    val fetcher = new HandingOffFetcherThread
+
+    fetcher.setReplicaState(partition, MockFetcherThread.PartitionState(leaderEpoch = 0))
+    fetcher.addPartitions(Map(partition -> initialFetchState(0L, leaderEpoch = 0)))
+    val batch = mkBatch(baseOffset = 0L, leaderEpoch = 0, new SimpleRecord("a".getBytes), new SimpleRecord("b".getBytes))
+    fetcher.setLeaderState(partition, MockFetcherThread.PartitionState(Seq(batch), leaderEpoch = 0, highWatermark = 2L))
+    fetcher.doWork()
+
+    val (pendingAppend, append) = fetcher.submitted.dequeue()
+    val appendStarted = new CountDownLatch(1)
+    val appendBlocked = new CountDownLatch(1)
+    val appendThread = new Thread(() => pendingAppend.complete { () =>
+      appendStarted.countDown()
+      appendBlocked.await()
+      append()
+    })
+    appendThread.start()
+    assertTrue(appendStarted.await(30, TimeUnit.SECONDS))
+
+    val removedStates = new AtomicReference[Map[TopicPartition, PartitionFetchState]]()
+    val removeThread = new Thread(() => removedStates.set(fetcher.removePartitions(Set(partition))))
+    removeThread.start()
+
+    // the partition map lock is not held while the started append is waited for
+    TestUtils.waitUntilTrue(() => fetcher.partitionCount == 0, "The partition should have been removed")
+    assertTrue(removeThread.isAlive)
+
+    appendBlocked.countDown()
+    removeThread.join()
+    appendThread.join()
+    // the returned fetch offset accounts for the data of the append
+    assertEquals(Some(2L), removedStates.get.get(partition).map(_.fetchOffset))
+    assertEquals(2L, fetcher.replicaPartitionState(partition).logEndOffset)
+  }
+
+  @Test
+  def testFetchOffsetNeverExceedsLogEndOffsetWithHandedOffAppends(): Unit = {
+    val random = new Random(42)
+    val partitions = (0 until 3).map(i => new TopicPartition("topic", i))
+    val fetcher = new HandingOffFetcherThread
+    val numBatches = 20
+
+    partitions.foreach { partition =>
+      fetcher.setReplicaState(partition, MockFetcherThread.PartitionState(leaderEpoch = 0))
+      fetcher.addPartitions(Map(partition -> initialFetchState(0L, leaderEpoch = 0)))
+      val batches = (0 until numBatches).map { offset =>
+        mkBatch(baseOffset = offset, leaderEpoch = 0, new SimpleRecord(s"$offset".getBytes))
+      }
+      fetcher.setLeaderState(partition, MockFetcherThread.PartitionState(batches, leaderEpoch = 0,
+        highWatermark = numBatches))
+    }
+
+    var iterations = 0
+    while (partitions.exists(fetcher.replicaPartitionState(_).logEndOffset < numBatches) && iterations < 1000) {
+      fetcher.doWork()
+      // complete the pending appends in a random order, leaving some of them pending across fetches
+      random.shuffle(fetcher.submitted.toSeq).foreach { case submitted @ (pendingAppend, append) =>
+        if (random.nextBoolean()) {
+          pendingAppend.complete(append)
+          fetcher.submitted.dequeueFirst(_ eq submitted)
+        }
+      }
+      partitions.foreach { partition =>
+        fetcher.fetchState(partition).foreach { state =>
+          assertTrue(state.fetchOffset <= fetcher.replicaPartitionState(partition).logEndOffset,
+            s"Fetch offset ${state.fetchOffset} of $partition is ahead of its log end offset")
+        }
+      }
+      iterations += 1
+    }
+
+    partitions.foreach(partition => assertEquals(numBatches.toLong, fetcher.replicaPartitionState(partition).logEndOffset))
+    assertTrue(fetcher.fetchOffsetsAheadOfLogEnd.isEmpty, s"Fetched ahead of the log end: ${fetcher.fetchOffsetsAheadOfLogEnd}")
+  }
+
   @Test
   def testFencedTruncation(): Unit = {
     val partition = new TopicPartition("topic", 0)
@@ -863,7 +1077,7 @@ class AbstractFetcherThreadTest {
     }
   }
 
-  class MockFetcherThread(val replicaId: Int = 0, val leaderId: Int = 1)
+  class MockFetcherThread(val replicaId: Int = 0, val leaderId: Int = 1, maxInFlight: Int = 1)
     extends AbstractFetcherThread("mock-fetcher",
       clientId = "mock-fetcher",
       sourceBroker = new BrokerEndPoint(leaderId, host = "localhost", port = Random.nextInt()),
@@ -875,6 +1089,29 @@ class AbstractFetcherThreadTest {
     private val replicaPartitionStates = mutable.Map[TopicPartition, PartitionState]()
     private val leaderPartitionStates = mutable.Map[TopicPartition, PartitionState]()
     private var latestEpochDefault: Option[Int] = Some(0)
+    private val pendingFetches = mutable.Queue[(FetchRequest.Builder, Try[Map[TopicPartition, FetchData]] => Unit)]()
+    val sentFetchRequests = mutable.Buffer[FetchRequest.Builder]()
+
+    override protected val pipelinedFetchClient: Option[PipelinedFetchClient] =
+      if (maxInFlight > 1) Some(new MockPipelinedFetchClient) else None
+
+    def pendingFetchRequests: Seq[FetchRequest.Builder] = pendingFetches.map(_._1).toSeq
+
+    // completes the oldest in-flight request on every poll
+    private class MockPipelinedFetchClient extends PipelinedFetchClient {
+      override def maxInFlightFetches: Int = maxInFlight
+
+      override def sendFetch(lane: Int, fetchRequest: FetchRequest.Builder)
+                            (onComplete: Try[Map[TopicPartition, FetchData]] => Unit): Unit = {
+        sentFetchRequests += fetchRequest
+        pendingFetches.enqueue(fetchRequest -> onComplete)
+      }
+
+      override def poll(): Unit = {
+        val (fetchRequest, onComplete) = pendingFetches.dequeue()
+        onComplete(Try(fetchFromLeader(fetchRequest)))
+      }
+    }
 
     def setLeaderState(topicPartition: TopicPartition, state: PartitionState): Unit = {
       leaderPartitionStates.put(topicPartition, state)
@@ -22,6 +22,8 @@ import java.util.concurrent._
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
 
+import com.yammer.metrics.core.Histogram
+import kafka.metrics.KafkaYammerMetrics
 import kafka.utils.CoreUtils.inLock
 import kafka.utils.TestUtils
 import org.apache.kafka.common.utils.Time
@@ -116,6 +118,31 @@ class DelayedOperationTest {
     assertTrue(elapsed >= expiration, s"Time for expiration $elapsed should at least $expiration")
   }
 
+  @Test
+  def testRequestExpiryWithStripedTimer(): Unit = {
+    val stripedPurgatory = DelayedOperationPurgatory[DelayedOperation](purgatoryName = "mock-striped", timerStripes = 4)
+    try {
+      val expiring = (0 until 20).map(i => new MockDelayedOperation(20L + i))
+      val waiting = new MockDelayedOperation(200000L)
+      expiring.foreach { op =>
+        assertFalse(stripedPurgatory.tryCompleteElseWatch(op, Seq("test1")), "op not satisfied and hence watched")
+      }
+      assertFalse(stripedPurgatory.tryCompleteElseWatch(waiting, Seq("test2")), "op not satisfied and hence watched")
+
+      TestUtils.waitUntilTrue(() => expiring.forall(_.isCompleted), "Operations should have expired")
+      assertFalse(waiting.isCompleted, "op hasn't completed")
+      TestUtils.waitUntilTrue(() => stripedPurgatory.numDelayed == 1, "Expired operations should have left the timer")
+
+      val expirationLatency = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+        case (name, histogram: Histogram) if name.getName == DelayedOperationPurgatory.ExpirationLatencyMetricName &&
+          name.getMBeanName.contains("delayedOperation=mock-striped") => histogram
+      }
+      assertEquals(Some(20L), expirationLatency.map(_.count))
+    } finally {
+      stripedPurgatory.shutdown()
+    }
+  }
+
   @Test
   def testDelayedFuture(): Unit = {
     val purgatoryName = "testDelayedFuture"
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, TimeUnit}
+
+import com.yammer.metrics.core.{Histogram, Meter}
+import kafka.metrics.KafkaYammerMetrics
+import kafka.utils.TestUtils
+import org.apache.kafka.common.utils.Time
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, Test}
+
+import scala.jdk.CollectionConverters._
+
+class FetchReadSchedulerTest {
+  private val scheduler = new FetchReadScheduler(numThreads = 1, maxQueuedReads = 1, coldOffsetLag = 100, Time.SYSTEM)
+
+  @AfterEach
+  def tearDown(): Unit = {
+    scheduler.shutdown()
+  }
+
+  @Test
+  def testIsCold(): Unit = {
+    assertFalse(scheduler.isCold(fetchOffset = 900, logEndOffset = 1000))
+    assertFalse(scheduler.isCold(fetchOffset = 1000, logEndOffset = 1000))
+    assertTrue(scheduler.isCold(fetchOffset = 899, logEndOffset = 1000))
+  }
+
+  @Test
+  def testColdReadsAreRejectedWhenQueueIsFull(): Unit = {
+    val blocked = new CountDownLatch(1)
+    val completed = new CountDownLatch(2)
+    val readThreads = new ConcurrentLinkedQueue[String]()
+    def read(): Unit = {
+      readThreads.add(Thread.currentThread.getName)
+      completed.countDown()
+    }
+
+    // the first read occupies the only thread, the second one waits in the queue
+    assertTrue(scheduler.submitCold { () =>
+      blocked.await()
+      read()
+    })
+    assertTrue(scheduler.submitCold(() => read()))
+    // the queue is full, so the third read is rejected without being performed
+    assertFalse(scheduler.submitCold(() => read()))
+    assertTrue(readThreads.isEmpty)
+    assertEquals(1L, rejectedColdReadsMeter.count)
+
+    blocked.countDown()
+    assertTrue(completed.await(30, TimeUnit.SECONDS))
+    assertEquals(2, readThreads.size)
+    assertTrue(readThreads.asScala.forall(_.startsWith("ColdFetchReader-")))
+    TestUtils.waitUntilTrue(() => readTimeHistogram(FetchReadScheduler.ColdReadClass).count == 2,
+      "All cold reads should have been timed")
+  }
+
+  @Test
+  def testTailReadsAreTimedOnCallingThread(): Unit = {
+    assertEquals(Thread.currentThread.getName, scheduler.readTail(Thread.currentThread.getName))
+    assertEquals(1L, readTimeHistogram(FetchReadScheduler.TailReadClass).count)
+  }
+
+  private def rejectedColdReadsMeter: Meter = {
+    KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+      case (name, meter: Meter) if name.getType == "FetchReadScheduler" &&
+        name.getName == FetchReadScheduler.RejectedColdReadsMetricName => meter
+    }.get
+  }
+
+  private def readTimeHistogram(readClass: String): Histogram = {
+    KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+      case (name, histogram: Histogram) if name.getType == "FetchReadScheduler" &&
+        name.getName == FetchReadScheduler.ReadTimeMetricName && name.getScope == s"readClass.$readClass" => histogram
+    }.get
+  }
+}
@@ -2171,7 +2171,7 @@ class KafkaApisTest {
     replicaManager.fetchMessages(anyLong, anyInt, anyInt, anyInt, anyBoolean,
       anyObject[Seq[(TopicPartition, FetchRequest.PartitionData)]], anyObject[ReplicaQuota],
       anyObject[Seq[(TopicPartition, FetchPartitionData)] => Unit](), anyObject[IsolationLevel],
-      anyObject[Option[ClientMetadata]])
+      anyObject[Option[ClientMetadata]], anyObject[Option[Throwable] => Unit]())
     expectLastCall[Unit].andAnswer(new IAnswer[Unit] {
       def answer: Unit = {
         val callback = getCurrentArguments.apply(7)
@@ -2216,6 +2216,47 @@ class KafkaApisTest {
     assertNull(partitionData.abortedTransactions)
   }
 
+  @Test
+  def testFetchRequestWithFailedColdRead(): Unit = {
+    val tp = new TopicPartition("foo", 0)
+    addTopicToMetadataCache(tp.topic, numPartitions = 1)
+
+    // the read deferred to the cold read threads fails without answering the fetch
+    replicaManager.fetchMessages(anyLong, anyInt, anyInt, anyInt, anyBoolean,
+      anyObject[Seq[(TopicPartition, FetchRequest.PartitionData)]], anyObject[ReplicaQuota],
+      anyObject[Seq[(TopicPartition, FetchPartitionData)] => Unit](), anyObject[IsolationLevel],
+      anyObject[Option[ClientMetadata]], anyObject[Option[Throwable] => Unit]())
+    val readCompletionCallback = EasyMock.newCapture[Option[Throwable] => Unit]()
+    expectLastCall[Unit].andAnswer(new IAnswer[Unit] {
+      def answer: Unit = {
+        readCompletionCallback.setValue(getCurrentArguments.apply(10).asInstanceOf[Option[Throwable] => Unit])
+      }
+    })
+
+    val fetchData = Map(tp -> new FetchRequest.PartitionData(0, 0, 1000,
+      Optional.empty())).asJava
+    val fetchContext = new FullFetchContext(time, new FetchSessionCache(1000, 100),
+      new JFetchMetadata(0, 0), fetchData, false)
+    expect(fetchManager.newContext(anyObject[JFetchMetadata],
+      anyObject[util.Map[TopicPartition, FetchRequest.PartitionData]],
+      anyObject[util.List[TopicPartition]],
+      anyBoolean)).andReturn(fetchContext)
+
+    val request = buildRequest(new FetchRequest.Builder(9, 9, -1, 100, 0, fetchData).build())
+    val capturedResponse = expectNoThrottling(request)
+
+    EasyMock.replay(replicaManager, clientQuotaManager, clientRequestQuotaManager, requestChannel, fetchManager)
+    createKafkaApis().handleFetchRequest(request)
+    assertFalse(capturedResponse.hasCaptured)
+
+    time.sleep(10)
+    readCompletionCallback.getValue.apply(Some(new IllegalStateException("Cold read failed")))
+    assertEquals(time.nanoseconds, request.apiLocalCompleteTimeNanos)
+    val response = capturedResponse.getValue.asInstanceOf[FetchResponse]
+    assertEquals(Errors.UNKNOWN_SERVER_ERROR, response.error)
+    EasyMock.verify(requestChannel)
+  }
+
   @Test
   def testJoinGroupProtocolsOrder(): Unit = {
     val protocols = List(
@@ -2738,7 +2779,7 @@ class KafkaApisTest {
     replicaManager.fetchMessages(anyLong, anyInt, anyInt, anyInt, anyBoolean,
       anyObject[Seq[(TopicPartition, FetchRequest.PartitionData)]], anyObject[ReplicaQuota],
       anyObject[Seq[(TopicPartition, FetchPartitionData)] => Unit](), anyObject[IsolationLevel],
-      anyObject[Option[ClientMetadata]])
+      anyObject[Option[ClientMetadata]], anyObject[Option[Throwable] => Unit]())
     expectLastCall[Unit].andAnswer(new IAnswer[Unit] {
       def answer: Unit = {
         val callback = getCurrentArguments.apply(7).asInstanceOf[Seq[(TopicPartition, FetchPartitionData)] => Unit]
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+
+import kafka.utils.TestUtils
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+
+class KafkaRequestHandlerTest {
+
+  @Test
+  def testVirtualThreadRequestExecutorLimitsConcurrency(): Unit = {
+    // any executor can stand in for the virtual thread executor, which is not available on all JVMs
+    val executor = new VirtualThreadRequestExecutor(Executors.newCachedThreadPool(), maxConcurrency = 2)
+    val running = new AtomicInteger
+    val release = new CountDownLatch(1)
+    val blockingTask: RequestLocal => Unit = _ => {
+      running.incrementAndGet()
+      release.await()
+    }
+    executor.execute(blockingTask)
+    executor.execute(blockingTask)
+    TestUtils.waitUntilTrue(() => running.get == 2, "Tasks did not start")
+
+    val thirdSubmitted = new CountDownLatch(1)
+    val submitter = new Thread(() => {
+      executor.execute(_ => running.incrementAndGet())
+      thirdSubmitted.countDown()
+    })
+    submitter.start()
+    // the third task is only submitted once one of the running tasks completes
+    assertFalse(thirdSubmitted.await(100, TimeUnit.MILLISECONDS))
+    release.countDown()
+    assertTrue(thirdSubmitted.await(10, TimeUnit.SECONDS))
+    submitter.join()
+    executor.shutdown()
+    assertEquals(3, running.get)
+  }
+
+  @Test
+  def testVirtualThreadPerTaskExecutor(): Unit = {
+    // virtual threads are not supported by all JVMs, the executor can only be checked where they are
+    KafkaRequestHandlerPool.newVirtualThreadPerTaskExecutor("test-virtual-").foreach { executor =>
+      val threadName = new AtomicReference[String]
+      executor.execute(() => threadName.set(Thread.currentThread.getName))
+      executor.shutdown()
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+      assertEquals("test-virtual-0", threadName.get)
+    }
+  }
+}
@@ -20,9 +20,11 @@ import org.apache.kafka.common.{Node, TopicPartition, Uuid}
 
 import java.util
 import util.Arrays.asList
+import org.apache.kafka.common.message.MetadataResponseData
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic
 import org.apache.kafka.common.message.UpdateMetadataRequestData.{UpdateMetadataBroker, UpdateMetadataEndpoint, UpdateMetadataPartitionState}
 import org.apache.kafka.common.network.ListenerName
-import org.apache.kafka.common.protocol.{ApiKeys, Errors}
+import org.apache.kafka.common.protocol.{ApiKeys, Errors, MessageUtil}
 import org.apache.kafka.common.record.RecordBatch
 import org.apache.kafka.common.requests.UpdateMetadataRequest
 import org.apache.kafka.common.security.auth.SecurityProtocol
@@ -547,4 +549,69 @@ class MetadataCacheTest {
     assertEquals(Seq(expectedNode0, expectedNode1), partitionInfo.inSyncReplicas.toSeq)
     assertEquals(Seq(expectedNode1), partitionInfo.offlineReplicas.toSeq)
   }
+
+  @ParameterizedTest
+  @MethodSource(Array("cacheProvider"))
+  def testCachedTopicMetadataIsInvalidatedByUpdate(cache: MetadataCache): Unit = {
+    val topic = "topic"
+    val securityProtocol = SecurityProtocol.PLAINTEXT
+    val listenerName = ListenerName.forSecurityProtocol(securityProtocol)
+
+    def updateCache(leader: Int): Unit = {
+      val brokers = (0 to 2).map { brokerId =>
+        new UpdateMetadataBroker()
+          .setId(brokerId)
+          .setRack("")
+          .setEndpoints(Seq(new UpdateMetadataEndpoint()
+            .setHost("foo")
+            .setPort(9092)
+            .setSecurityProtocol(securityProtocol.id)
+            .setListener(listenerName.value)).asJava)
+      }
+      val partitionStates = (0 until 3).map { partition =>
+        new UpdateMetadataPartitionState()
+          .setTopicName(topic)
+          .setPartitionIndex(partition)
+          .setControllerEpoch(1)
+          .setLeader(leader)
+          .setLeaderEpoch(leader)
+          .setIsr(asList[Integer](0, 1, 2))
+          .setZkVersion(3)
+          .setReplicas(asList[Integer](0, 1, 2))
+      }
+      val version = ApiKeys.UPDATE_METADATA.latestVersion
+      val updateMetadataRequest = new UpdateMetadataRequest.Builder(version, 2, 1, brokerEpoch, partitionStates.asJava,
+        brokers.asJava, Collections.singletonMap(topic, Uuid.randomUuid())).build()
+      cache.updateMetadata(15, updateMetadataRequest)
+    }
+
+    def verifyCachedTopicMetadata(expectedLeader: Int): Unit = {
+      val expected = cache.getTopicMetadata(Set(topic), listenerName)
+      assertEquals(1, expected.size)
+      assertTrue(expected.head.partitions.asScala.forall(_.leaderId == expectedLeader))
+
+      // the first lookup populates the cache, the second one is served from it
+      for (_ <- 0 until 2) {
+        val cached = cache.getCachedTopicMetadata(Set(topic), listenerName)
+        assertEquals(expected, cached)
+        for (version <- ApiKeys.METADATA.oldestVersion to ApiKeys.METADATA.latestVersion) {
+          assertEquals(MessageUtil.toByteBuffer(expected.head, version.toShort),
+            MessageUtil.toByteBuffer(cached.head, version.toShort))
+          assertEquals(MessageUtil.toByteBuffer(responseData(expected), version.toShort),
+            MessageUtil.toByteBuffer(responseData(cached), version.toShort))
+        }
+      }
+    }
+
+    def responseData(topics: Seq[MetadataResponseTopic]): MetadataResponseData = {
+      val data = new MetadataResponseData()
+      topics.foreach(data.topics.add)
+      data
+    }
+
+    updateCache(leader = 0)
+    verifyCachedTopicMetadata(expectedLeader = 0)
+    updateCache(leader = 1)
+    verifyCachedTopicMetadata(expectedLeader = 1)
+  }
 }
@@ -262,7 +262,8 @@ class ReplicaAlterLogDirsThreadTest {
       quota = ArgumentMatchers.eq(UnboundedQuota),
       responseCallback = callbackCaptor.capture(),
       isolationLevel = ArgumentMatchers.eq(IsolationLevel.READ_UNCOMMITTED),
-      clientMetadata = ArgumentMatchers.eq(None)
+      clientMetadata = ArgumentMatchers.eq(None),
+      readCompletionCallback = ArgumentMatchers.any()
     )).thenAnswer(_ => {
       callbackCaptor.getValue.apply(Seq((topicPartition, responseData)))
     })
@@ -698,6 +699,7 @@ class ReplicaAlterLogDirsThreadTest {
       EasyMock.anyObject(),
       EasyMock.capture(responseCallback),
       EasyMock.anyObject(),
+      EasyMock.anyObject(),
       EasyMock.anyObject())
     ).andAnswer(() => responseCallback.getValue.apply(Seq.empty[(TopicPartition, FetchPartitionData)])).anyTimes()
 
@@ -939,6 +941,7 @@ class ReplicaAlterLogDirsThreadTest {
       EasyMock.anyObject(),
       EasyMock.capture(responseCallback),
       EasyMock.anyObject(),
+      EasyMock.anyObject(),
       EasyMock.anyObject())
     ).andAnswer(() => responseCallback.getValue.apply(Seq.empty[(TopicPartition, FetchPartitionData)])).anyTimes()
   }
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import kafka.log.LogAppendInfo
+import kafka.metrics.KafkaYammerMetrics
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, Test}
+
+import scala.jdk.CollectionConverters._
+import scala.util.Success
+
+class ReplicaAppendStageTest {
+  private val stage = new ReplicaAppendStage(maxQueuedBytes = 1)
+
+  @AfterEach
+  def tearDown(): Unit = {
+    stage.shutdown()
+  }
+
+  private def pendingAppend(fetchOffset: Long): PendingAppend = {
+    PendingAppend(fetchOffset, MemoryRecords.withRecords(fetchOffset, CompressionType.NONE, 5,
+      new SimpleRecord("a".getBytes), new SimpleRecord("b".getBytes)))
+  }
+
+  @Test
+  def testPendingAppendFromRecords(): Unit = {
+    val append = pendingAppend(10L)
+    assertEquals(10L, append.fetchOffset)
+    assertEquals(12L, append.nextOffset)
+    assertEquals(Some(5), append.lastFetchedEpoch)
+    assertTrue(append.sizeInBytes > 0)
+  }
+
+  @Test
+  def testAppendsOfLogDirAreOrderedAndBackPressured(): Unit = {
+    val blocked = new CountDownLatch(1)
+    val appended = new java.util.concurrent.ConcurrentLinkedQueue[Long]()
+    val first = pendingAppend(0L)
+    val second = pendingAppend(2L)
+    stage.submit("/dir1", first) { () =>
+      blocked.await()
+      appended.add(first.fetchOffset)
+      None
+    }
+    stage.submit("/dir1", second) { () =>
+      appended.add(second.fetchOffset)
+      throw new IllegalArgumentException()
+    }
+
+    assertTrue(stage.isBackedUp("/dir1"))
+    assertFalse(stage.isBackedUp("/dir2"))
+    assertEquals(Set("/dir1"), queuedAppendsGauges)
+
+    blocked.countDown()
+    assertTrue(first.await().isSuccess)
+    assertTrue(second.await().failed.get.isInstanceOf[IllegalArgumentException])
+    assertEquals(Seq(0L, 2L), appended.asScala.toSeq)
+    assertFalse(stage.isBackedUp("/dir1"))
+  }
+
+  @Test
+  def testFencedAppendIsSkipped(): Unit = {
+    val blocked = new CountDownLatch(1)
+    val completions = new CountDownLatch(2)
+    val first = pendingAppend(0L)
+    val second = pendingAppend(2L)
+    stage.submit("/dir1", first, () => completions.countDown()) { () =>
+      blocked.await()
+      None
+    }
+    var secondAppended = false
+    stage.submit("/dir1", second, () => completions.countDown()) { () =>
+      secondAppended = true
+      None
+    }
+
+    // the first append has either started or is about to, the queued one can still be fenced
+    assertTrue(second.fence())
+    assertTrue(second.isDone)
+    assertFalse(second.fence())
+
+    blocked.countDown()
+    assertTrue(completions.await(30, TimeUnit.SECONDS))
+    assertTrue(first.await().isSuccess)
+    assertEquals(Success(None), second.await())
+    assertFalse(secondAppended)
+    assertFalse(stage.isBackedUp("/dir1"))
+  }
+
+  @Test
+  def testShutdownFailsQueuedAppends(): Unit = {
+    val blocked = new CountDownLatch(1)
+    val first = pendingAppend(0L)
+    val second = pendingAppend(2L)
+    stage.submit("/dir1", first) { () =>
+      blocked.await()
+      Option.empty[LogAppendInfo]
+    }
+    stage.submit("/dir1", second)(() => None)
+
+    val shutdownThread = new Thread(() => stage.shutdown())
+    shutdownThread.start()
+    blocked.countDown()
+    shutdownThread.join()
+
+    // the append in progress completes, the queued append is failed
+    assertTrue(first.await().isSuccess)
+    assertTrue(second.isDone)
+    assertTrue(queuedAppendsGauges.isEmpty)
+  }
+
+  private def queuedAppendsGauges: Set[String] = {
+    KafkaYammerMetrics.defaultRegistry.allMetrics.keySet.asScala
+      .filter(name => name.getType == "ReplicaAppendStage" && name.getName == ReplicaAppendStage.QueuedAppendsMetricName)
+      .map(_.getScope.split("\\.").last)
+      .toSet
+  }
+}
@@ -22,7 +22,8 @@ import kafka.log.{Log, LogAppendInfo, LogManager}
 import kafka.server.QuotaFactory.UnboundedQuota
 import kafka.server.epoch.util.ReplicaFetcherMockBlockingSend
 import kafka.utils.TestUtils
-import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.clients.{ClientRequest, KafkaClient, MockClient}
+import org.apache.kafka.common.{Node, Reconfigurable, TopicPartition}
 import org.apache.kafka.common.message.FetchResponseData
 import org.apache.kafka.common.message.OffsetForLeaderEpochRequestData.OffsetForLeaderPartition
 import org.apache.kafka.common.message.OffsetForLeaderEpochResponseData.EpochEndOffset
@@ -30,8 +31,9 @@ import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.protocol.Errors._
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
 import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.requests.{FetchMetadata, FetchRequest, FetchResponse}
 import org.apache.kafka.common.requests.OffsetsForLeaderEpochResponse.{UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET}
-import org.apache.kafka.common.utils.SystemTime
+import org.apache.kafka.common.utils.{LogContext, MockTime, SystemTime, Utils}
 import org.easymock.EasyMock._
 import org.easymock.{Capture, CaptureType}
 import org.junit.jupiter.api.Assertions._
@@ -51,6 +53,9 @@ class ReplicaFetcherThreadTest {
   private val brokerEndPoint = new BrokerEndPoint(0, "localhost", 1000)
   private val failedPartitions = new FailedPartitions
 
+  private val time = new MockTime()
+  private val mockClient = new MockClient(time)
+
   private def initialFetchState(fetchOffset: Long, leaderEpoch: Int = 1): InitialFetchState = {
     InitialFetchState(leader = new BrokerEndPoint(0, "localhost", 9092),
       initOffset = fetchOffset, currentLeaderEpoch = leaderEpoch)
@@ -897,6 +902,168 @@ class ReplicaFetcherThreadTest {
     verify(mockBlockingSend)
   }
 
+  @Test
+  def shouldKeepFetchesOfEveryLaneInFlight(): Unit = {
+    val (lane0Partition, lane1Partition) = (partitionInLane(0), partitionInLane(1))
+    val thread = createPipelinedFetcherThread()
+    thread.addPartitions(Map(lane0Partition -> initialFetchState(0L), lane1Partition -> initialFetchState(0L)))
+
+    // Loop 1 -- a fetch request is sent over the connection of every lane, without waiting for a response
+    thread.doWork()
+    assertEquals(2, mockClient.requests.size)
+    assertEquals(2, thread.fetcherStats.inFlightRequestCount.get)
+    assertEquals(Set(lane0Partition), sentFetchPartitions(laneRequest(0)))
+    assertEquals(Set(lane1Partition), sentFetchPartitions(laneRequest(1)))
+
+    // Loop 2 -- the response of the first lane creates the session of that lane only
+    time.sleep(5)
+    mockClient.respondToRequest(laneRequest(0), fullFetchResponse(sessionId = 123, lane0Partition))
+    thread.doWork()
+    assertEquals(1, thread.fetcherStats.inFlightRequestCount.get)
+    assertEquals(1L, thread.fetcherStats.roundTripTime.count)
+    assertEquals(5.0, thread.fetcherStats.roundTripTime.max)
+    assertEquals(123, laneFetchMetadata(thread, 0).sessionId)
+    assertEquals(FetchMetadata.INITIAL, laneFetchMetadata(thread, 1))
+
+    // Loop 3 -- the first lane fetches in its session while the request of the second lane is still in flight
+    thread.doWork()
+    assertEquals(2, thread.fetcherStats.inFlightRequestCount.get)
+    val incrementalMetadata = sentFetchMetadata(laneRequest(0))
+    assertEquals(123, incrementalMetadata.sessionId)
+    assertFalse(incrementalMetadata.isFull)
+    assertTrue(sentFetchMetadata(laneRequest(1)).isFull)
+  }
+
+  @Test
+  def shouldDelayOnlyPartitionsOfDisconnectedLane(): Unit = {
+    val (lane0Partition, lane1Partition) = (partitionInLane(0), partitionInLane(1))
+    val thread = createPipelinedFetcherThread()
+    thread.addPartitions(Map(lane0Partition -> initialFetchState(0L), lane1Partition -> initialFetchState(0L)))
+
+    thread.doWork()
+    mockClient.respondToRequest(laneRequest(1), fullFetchResponse(sessionId = 456, lane1Partition))
+    thread.doWork()
+    thread.doWork()
+    assertEquals(456, laneFetchMetadata(thread, 1).sessionId)
+
+    // the connection of the second lane is lost before its incremental fetch is answered
+    mockClient.respondFrom(fullFetchResponse(sessionId = 456, lane1Partition), laneNode(1), true)
+    thread.doWork()
+    assertTrue(thread.fetchState(lane1Partition).get.isDelayed)
+    assertFalse(thread.fetchState(lane0Partition).get.isDelayed)
+    assertTrue(laneFetchMetadata(thread, 1).isFull)
+    assertEquals(FetchMetadata.INITIAL, laneFetchMetadata(thread, 0))
+    assertEquals(1, thread.fetcherStats.inFlightRequestCount.get)
+    assertEquals(1, mockClient.requests.size)
+    assertEquals(laneNode(0).idString, mockClient.requests.peek.destination)
+  }
+
+  @Test
+  def shouldDelayOnlyPartitionsOfLaneWithUnsupportedVersion(): Unit = {
+    val (lane0Partition, lane1Partition) = (partitionInLane(0), partitionInLane(1))
+    val thread = createPipelinedFetcherThread()
+    thread.addPartitions(Map(lane0Partition -> initialFetchState(0L), lane1Partition -> initialFetchState(0L)))
+
+    thread.doWork()
+    mockClient.respondToRequest(laneRequest(0), fullFetchResponse(sessionId = 123, lane0Partition))
+    thread.doWork()
+    assertEquals(123, laneFetchMetadata(thread, 0).sessionId)
+
+    // the next fetch of the first lane is rejected before it is sent
+    mockClient.prepareUnsupportedVersionResponse(_ => true)
+    thread.doWork()
+    assertTrue(thread.fetchState(lane0Partition).get.isDelayed)
+    assertFalse(thread.fetchState(lane1Partition).get.isDelayed)
+    assertTrue(laneFetchMetadata(thread, 0).isFull)
+    assertEquals(FetchMetadata.INITIAL, laneFetchMetadata(thread, 1))
+    assertEquals(1, thread.fetcherStats.inFlightRequestCount.get)
+    assertEquals(laneNode(1).idString, mockClient.requests.peek.destination)
+  }
+
+  @Test
+  def shouldKeepPartitionsWithPendingAppendsInFetchSession(): Unit = {
+    val config = KafkaConfig.fromProps(TestUtils.createBrokerConfig(1, "localhost:1234"))
+    val partition = partitionInLane(0)
+    val thread = createPipelinedFetcherThread()
+    val partitionMap = Map(partition -> PartitionFetchState(0L, None, currentLeaderEpoch = 1, Fetching, lastFetchedEpoch = None))
+    def buildFetch(pendingAppendPartitions: Set[TopicPartition]): FetchRequest =
+      thread.buildFetch(0, partitionMap, pendingAppendPartitions).result.get.fetchRequest.build()
+
+    val fullFetch = buildFetch(Set.empty)
+    assertEquals(config.replicaFetchMaxBytes, fullFetch.fetchData.get(partition).maxBytes)
+    assertEquals(config.replicaFetchWaitMaxMs, fullFetch.maxWait)
+    assertTrue(thread.laneFetchSessionHandler(0).handleResponse(fullFetchResponse(sessionId = 123, partition)))
+
+    // while its append is pending, the partition stays in the session without its data being fetched, and the
+    // leader only holds the fetch briefly
+    val pendingAppendFetch = buildFetch(Set(partition))
+    assertEquals(123, pendingAppendFetch.metadata.sessionId)
+    assertEquals(0, pendingAppendFetch.fetchData.get(partition).maxBytes)
+    assertTrue(pendingAppendFetch.toForget.isEmpty)
+    assertEquals(math.min(config.replicaFetchWaitMaxMs, ReplicaFetcherThread.PendingAppendFetchMaxWaitMs),
+      pendingAppendFetch.maxWait)
+    assertTrue(thread.laneFetchSessionHandler(0).handleResponse(fullFetchResponse(sessionId = 123, partition)))
+
+    // once the append has completed, the partition is fetched again in the same session
+    val resumedFetch = buildFetch(Set.empty)
+    assertEquals(123, resumedFetch.metadata.sessionId)
+    assertEquals(config.replicaFetchMaxBytes, resumedFetch.fetchData.get(partition).maxBytes)
+    assertTrue(resumedFetch.toForget.isEmpty)
+    assertEquals(config.replicaFetchWaitMaxMs, resumedFetch.maxWait)
+  }
+
+  private def createPipelinedFetcherThread(): ReplicaFetcherThread = {
+    val props = TestUtils.createBrokerConfig(1, "localhost:1234")
+    props.setProperty(KafkaConfig.ReplicaFetchMaxInFlightRequestsProp, "2")
+    val config = KafkaConfig.fromProps(props)
+
+    val log: Log = createNiceMock(classOf[Log])
+    expect(log.latestEpoch).andReturn(Some(1)).anyTimes()
+    val partition: Partition = createNiceMock(classOf[Partition])
+    val replicaManager: ReplicaManager = createNiceMock(classOf[ReplicaManager])
+    expect(replicaManager.localLogOrException(anyObject(classOf[TopicPartition]))).andReturn(log).anyTimes()
+    expect(replicaManager.getPartitionOrException(anyObject(classOf[TopicPartition]))).andReturn(partition).anyTimes()
+    expect(replicaManager.brokerTopicStats).andReturn(new BrokerTopicStats).anyTimes()
+    replay(replicaManager, partition, log)
+
+    val leaderEndpoint = new ReplicaFetcherBlockingSend(brokerEndPoint, config, new Metrics(), time, 0, "clientId",
+        new LogContext()) {
+      override protected[server] def createNetworkClient(): (KafkaClient, Option[Reconfigurable]) = (mockClient, None)
+    }
+    new ReplicaFetcherThread("bob", 0, brokerEndPoint, config, failedPartitions, replicaManager, new Metrics(), time,
+        UnboundedQuota, Some(leaderEndpoint)) {
+      override def processPartitionData(topicPartition: TopicPartition, fetchOffset: Long, partitionData: FetchData): Option[LogAppendInfo] = None
+    }
+  }
+
+  private def partitionInLane(lane: Int): TopicPartition =
+    (0 until 10).map(new TopicPartition("topic1", _)).find(tp => Utils.abs(tp.hashCode) % 2 == lane).get
+
+  // the fetches of a lane are sent to the leader under the node id of the lane
+  private def laneNode(lane: Int): Node = new Node(-1 - lane, brokerEndPoint.host, brokerEndPoint.port)
+
+  private def laneRequest(lane: Int) = mockClient.requests.asScala.find(_.destination == laneNode(lane).idString).get
+
+  private def sentFetchPartitions(request: ClientRequest): Set[TopicPartition] =
+    request.requestBuilder.asInstanceOf[FetchRequest.Builder].fetchData.keySet.asScala.toSet
+
+  private def sentFetchMetadata(request: ClientRequest): FetchMetadata =
+    request.requestBuilder.asInstanceOf[FetchRequest.Builder].build().metadata
+
+  private def laneFetchMetadata(thread: ReplicaFetcherThread, lane: Int): FetchMetadata =
+    thread.laneFetchSessionHandler(lane).newBuilder().build().metadata
+
+  private def fullFetchResponse(sessionId: Int, partitions: TopicPartition*): FetchResponse = {
+    val responseData = new java.util.LinkedHashMap[TopicPartition, FetchResponseData.PartitionData]
+    partitions.foreach { tp =>
+      responseData.put(tp, new FetchResponseData.PartitionData()
+        .setPartitionIndex(tp.partition)
+        .setHighWatermark(0)
+        .setRecords(MemoryRecords.EMPTY))
+    }
+    FetchResponse.of(Errors.NONE, 0, sessionId, responseData)
+  }
+
   @Test
   def shouldUpdateReassignmentBytesInMetrics(): Unit = {
     assertProcessPartitionDataWhen(isReassigning = true)
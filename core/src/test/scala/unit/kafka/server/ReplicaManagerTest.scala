@@ -17,9 +17,11 @@
 
 package kafka.server
 
+import com.yammer.metrics.core.Histogram
 import kafka.api._
 import kafka.cluster.{BrokerEndPoint, Partition}
 import kafka.log._
+import kafka.metrics.KafkaYammerMetrics
 import kafka.server.QuotaFactory.{QuotaManagers, UnboundedQuota}
 import kafka.server.checkpoints.{LazyOffsetCheckpoints, OffsetCheckpointFile}
 import kafka.server.epoch.util.ReplicaFetcherMockBlockingSend
@@ -451,6 +453,50 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testFollowerFetchWithZeroPartitionMaxBytesReadsNoRecords(): Unit = {
+    val timer = new MockTimer(time)
+    val replicaManager = setupReplicaManagerWithMockedPurgatories(timer)
+
+    try {
+      val brokerList = Seq[Integer](0, 1).asJava
+      val tp = new TopicPartition(topic, 0)
+      val partition = replicaManager.createPartition(tp)
+      partition.createLogIfNotExists(isNew = false, isFutureReplica = false,
+        new LazyOffsetCheckpoints(replicaManager.highWatermarkCheckpoints), None)
+
+      // Make this replica the leader.
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion, 0, 0, brokerEpoch,
+        Seq(new LeaderAndIsrPartitionState()
+          .setTopicName(topic)
+          .setPartitionIndex(0)
+          .setControllerEpoch(0)
+          .setLeader(0)
+          .setLeaderEpoch(0)
+          .setIsr(brokerList)
+          .setZkVersion(0)
+          .setReplicas(brokerList)
+          .setIsNew(true)).asJava,
+        Collections.singletonMap(topic, Uuid.randomUuid()),
+        Set(new Node(0, "host1", 0), new Node(1, "host2", 1)).asJava).build()
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+      appendRecords(replicaManager, tp, MemoryRecords.withRecords(CompressionType.NONE,
+        new SimpleRecord("message".getBytes)))
+
+      // a follower keeps a partition whose data it is still appending in its fetch session with a limit of 0 bytes
+      var fetchData = fetchAsFollower(replicaManager, tp, new PartitionData(0, 0, 0, Optional.empty())).assertFired
+      assertEquals(Errors.NONE, fetchData.error)
+      assertTrue(fetchData.records.batches.asScala.isEmpty)
+
+      // any other limit still returns the first batch whatever its size
+      fetchData = fetchAsFollower(replicaManager, tp, new PartitionData(0, 0, 1, Optional.empty())).assertFired
+      assertEquals(Errors.NONE, fetchData.error)
+      assertEquals(1, fetchData.records.batches.asScala.size)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
   @Test
   def testDelayedFetchIncludesAbortedTransactions(): Unit = {
     val timer = new MockTimer(time)
@@ -529,6 +575,240 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testBatchedCompletionOfDelayedProduceAfterFollowerFetch(): Unit = {
+    val timer = new MockTimer(time)
+    val replicaManager = setupReplicaManagerWithMockedPurgatories(timer,
+      propsModifier = props => props.put(KafkaConfig.FollowerFetchBatchedCompletionEnableProp, "true"))
+
+    try {
+      val brokerList = Seq[Integer](0, 1).asJava
+      val partitions = Seq(new TopicPartition(topic, 0), new TopicPartition(topic, 1))
+      partitions.foreach { tp =>
+        val partition = replicaManager.createPartition(tp)
+        partition.createLogIfNotExists(isNew = false, isFutureReplica = false,
+          new LazyOffsetCheckpoints(replicaManager.highWatermarkCheckpoints), None)
+      }
+
+      // Make this replica the leader of both partitions.
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion, 0, 0, brokerEpoch,
+        partitions.map { tp =>
+          new LeaderAndIsrPartitionState()
+            .setTopicName(topic)
+            .setPartitionIndex(tp.partition)
+            .setControllerEpoch(0)
+            .setLeader(0)
+            .setLeaderEpoch(0)
+            .setIsr(brokerList)
+            .setZkVersion(0)
+            .setReplicas(brokerList)
+            .setIsNew(true)
+        }.asJava,
+        Collections.singletonMap(topic, Uuid.randomUuid()),
+        Set(new Node(0, "host1", 0), new Node(1, "host2", 1)).asJava).build()
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+      // a produce request to both partitions waits for the follower
+      var produceResponses: Option[Map[TopicPartition, PartitionResponse]] = None
+      replicaManager.appendRecords(
+        timeout = 1000,
+        requiredAcks = -1,
+        internalTopicsAllowed = false,
+        origin = AppendOrigin.Client,
+        entriesPerPartition = partitions.map(_ -> MemoryRecords.withRecords(CompressionType.NONE,
+          new SimpleRecord("message".getBytes))).toMap,
+        responseCallback = responses => produceResponses = Some(responses))
+      assertEquals(None, produceResponses)
+
+      // a follower fetch of both partitions advances their high watermarks and completes the produce request
+      replicaManager.fetchMessages(
+        timeout = 1000,
+        replicaId = 1,
+        fetchMinBytes = 0,
+        fetchMaxBytes = Int.MaxValue,
+        hardMaxBytesLimit = false,
+        fetchInfos = partitions.map(_ -> new PartitionData(1, 0, 100000, Optional.empty())),
+        quota = UnboundedQuota,
+        responseCallback = _ => (),
+        isolationLevel = IsolationLevel.READ_UNCOMMITTED,
+        clientMetadata = None)
+
+      partitions.foreach { tp =>
+        assertEquals(1L, replicaManager.getPartitionOrException(tp).localLogOrException.highWatermark)
+      }
+      assertEquals(partitions.toSet, produceResponses.map(_.keySet).getOrElse(Set.empty))
+      assertTrue(produceResponses.get.values.forall(_.error == Errors.NONE))
+
+      val completedProduces = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+        case (name, histogram: Histogram) if name.getName == "FollowerFetchCompletionPassProduces" => histogram
+      }.get
+      assertEquals(1L, completedProduces.count)
+      assertEquals(1L, completedProduces.max)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testColdFetchReadsAreServedByColdFetchThreads(): Unit = {
+    val replicaManager = setupColdFetchReplicaManager()
+    try {
+      val tp = new TopicPartition(topic, 0)
+      becomeColdFetchLeader(replicaManager, Seq(tp), isr = Seq(0))
+
+      // a fetch more than one offset below the log end is read by a cold fetch thread
+      val (coldThread, coldData) = fetchFromThread(replicaManager, replicaId = 1, Seq(tp -> 0L))
+      assertTrue(coldThread.startsWith("ColdFetchReader-"))
+      assertEquals(Errors.NONE, coldData.head._2.error)
+      assertEquals(3, coldData.head._2.records.records.asScala.size)
+
+      // a fetch at the tail is read by the calling thread
+      val (tailThread, tailData) = fetchFromThread(replicaManager, replicaId = 1, Seq(tp -> 2L))
+      assertEquals(Thread.currentThread.getName, tailThread)
+      assertEquals(Errors.NONE, tailData.head._2.error)
+      assertEquals(1, tailData.head._2.records.records.asScala.size)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testOnlyColdPartitionsOfFetchWaitForColdFetchThreads(): Unit = {
+    val replicaManager = setupColdFetchReplicaManager()
+    try {
+      val coldTp = new TopicPartition(topic, 0)
+      val tailTp = new TopicPartition(topic, 1)
+      becomeColdFetchLeader(replicaManager, Seq(coldTp, tailTp), isr = Seq(0))
+
+      // the tail partition is read on the calling thread, the response waits for the read of the cold partition
+      val (thread, data) = fetchFromThread(replicaManager, replicaId = 1, Seq(coldTp -> 0L, tailTp -> 2L))
+      assertTrue(thread.startsWith("ColdFetchReader-"))
+      assertEquals(Seq(coldTp, tailTp), data.map(_._1))
+      assertEquals(Seq(3, 1), data.map(_._2.records.records.asScala.size))
+      assertEquals(1L, fetchReadTimeHistogram(FetchReadScheduler.TailReadClass).count)
+      TestUtils.waitUntilTrue(() => fetchReadTimeHistogram(FetchReadScheduler.ColdReadClass).count == 1,
+        "The cold read should have been timed")
+
+      // the partitions of a follower in the ISR are never cold
+      val inSyncTp = new TopicPartition(topic, 2)
+      becomeColdFetchLeader(replicaManager, Seq(inSyncTp), isr = Seq(0, 1))
+      val (inSyncThread, inSyncData) = fetchFromThread(replicaManager, replicaId = 1, Seq(inSyncTp -> 0L))
+      assertEquals(Thread.currentThread.getName, inSyncThread)
+      assertEquals(3, inSyncData.head._2.records.records.asScala.size)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testRejectedColdReadIsAnsweredWithoutData(): Unit = {
+    val replicaManager = setupColdFetchReplicaManager()
+    val blocked = new CountDownLatch(1)
+    try {
+      val tp = new TopicPartition(topic, 0)
+      becomeColdFetchLeader(replicaManager, Seq(tp), isr = Seq(0))
+
+      // the only cold fetch thread is busy and the queue is full
+      val readScheduler = replicaManager.fetchReadScheduler.get
+      assertTrue(readScheduler.submitCold(() => blocked.await()))
+      assertTrue(readScheduler.submitCold(() => ()))
+
+      val result = new AtomicReference[(String, Seq[(TopicPartition, FetchPartitionData)])]()
+      replicaManager.fetchMessages(
+        timeout = 1000,
+        replicaId = 1,
+        fetchMinBytes = 1,
+        fetchMaxBytes = Int.MaxValue,
+        hardMaxBytesLimit = false,
+        fetchInfos = Seq(tp -> new PartitionData(0, 0, 100000, Optional.empty())),
+        quota = UnboundedQuota,
+        responseCallback = responses => result.set(Thread.currentThread.getName -> responses),
+        isolationLevel = IsolationLevel.READ_UNCOMMITTED,
+        clientMetadata = None)
+
+      // the cold partition is not read on the calling thread, it is answered without data after the maximum wait
+      assertNull(result.get)
+      time.sleep(1000)
+      scheduler.tick()
+      val (thread, data) = result.get
+      assertEquals(Thread.currentThread.getName, thread)
+      assertEquals(Errors.NONE, data.head._2.error)
+      assertEquals(0, data.head._2.records.sizeInBytes)
+      assertEquals(3, data.head._2.highWatermark)
+      assertEquals(0L, fetchReadTimeHistogram(FetchReadScheduler.ColdReadClass).count)
+    } finally {
+      blocked.countDown()
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
+  private def setupColdFetchReplicaManager(): ReplicaManager = {
+    setupReplicaManagerWithMockedPurgatories(new MockTimer(time), propsModifier = props => {
+      props.put(KafkaConfig.NumColdFetchThreadsProp, "1")
+      props.put(KafkaConfig.ColdFetchOffsetLagProp, "1")
+      props.put(KafkaConfig.ColdFetchQueueMaxReadsProp, "1")
+    })
+  }
+
+  // makes this replica the leader of the partitions, with replica 1 as follower, and appends three records to each
+  private def becomeColdFetchLeader(replicaManager: ReplicaManager, partitions: Seq[TopicPartition], isr: Seq[Int]): Unit = {
+    val brokerList = Seq[Integer](0, 1).asJava
+    partitions.foreach { tp =>
+      val partition = replicaManager.createPartition(tp)
+      partition.createLogIfNotExists(isNew = false, isFutureReplica = false,
+        new LazyOffsetCheckpoints(replicaManager.highWatermarkCheckpoints), None)
+    }
+
+    val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion, 0, 0, brokerEpoch,
+      partitions.map { tp =>
+        new LeaderAndIsrPartitionState()
+          .setTopicName(topic)
+          .setPartitionIndex(tp.partition)
+          .setControllerEpoch(0)
+          .setLeader(0)
+          .setLeaderEpoch(0)
+          .setIsr(isr.map(Int.box).asJava)
+          .setZkVersion(0)
+          .setReplicas(brokerList)
+          .setIsNew(true)
+      }.asJava,
+      Collections.singletonMap(topic, Uuid.randomUuid()),
+      Set(new Node(0, "host1", 0), new Node(1, "host2", 1)).asJava).build()
+    replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+    partitions.foreach { tp =>
+      for (i <- 1 to 3)
+        appendRecords(replicaManager, tp, TestUtils.singletonRecords(s"message $i".getBytes), requiredAcks = 1)
+    }
+  }
+
+  // the name of the thread which answered the fetch, and the response
+  private def fetchFromThread(replicaManager: ReplicaManager,
+                              replicaId: Int,
+                              fetchOffsets: Seq[(TopicPartition, Long)]): (String, Seq[(TopicPartition, FetchPartitionData)]) = {
+    val result = new AtomicReference[(String, Seq[(TopicPartition, FetchPartitionData)])]()
+    replicaManager.fetchMessages(
+      timeout = 1000,
+      replicaId = replicaId,
+      fetchMinBytes = 0,
+      fetchMaxBytes = Int.MaxValue,
+      hardMaxBytesLimit = false,
+      fetchInfos = fetchOffsets.map { case (tp, fetchOffset) => tp -> new PartitionData(fetchOffset, 0, 100000, Optional.empty()) },
+      quota = UnboundedQuota,
+      responseCallback = responses => result.set(Thread.currentThread.getName -> responses),
+      isolationLevel = IsolationLevel.READ_UNCOMMITTED,
+      clientMetadata = None)
+    TestUtils.waitUntilTrue(() => result.get != null, s"Fetch at offsets $fetchOffsets should have been answered")
+    result.get
+  }
+
+  private def fetchReadTimeHistogram(readClass: String): Histogram = {
+    KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.collectFirst {
+      case (name, histogram: Histogram) if name.getType == "FetchReadScheduler" &&
+        name.getName == FetchReadScheduler.ReadTimeMetricName && name.getScope == s"readClass.$readClass" => histogram
+    }.get
+  }
+
   @Test
   def testFetchBeyondHighWatermark(): Unit = {
     val rm = setupReplicaManagerWithMockedPurgatories(new MockTimer(time), aliveBrokerIds = Seq(0, 1, 2))
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.utils.timer
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, Executors, TimeUnit}
+
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, BeforeEach, Test}
+
+import scala.jdk.CollectionConverters._
+
+class StripedSystemTimerTest {
+
+  private class TestTask(override val delayMs: Long, latch: CountDownLatch) extends TimerTask {
+    def run(): Unit = latch.countDown()
+  }
+
+  private val expirationLatencies = new ConcurrentLinkedQueue[Long]()
+  private var timer: StripedSystemTimer = _
+
+  @BeforeEach
+  def setup(): Unit = {
+    timer = new StripedSystemTimer("test", numStripes = 4, tickMs = 1, wheelSize = 3,
+      recordExpirationLatency = latencyMs => expirationLatencies.add(latencyMs))
+  }
+
+  @AfterEach
+  def teardown(): Unit = {
+    timer.shutdown()
+  }
+
+  @Test
+  def testTasksAddedFromManyThreadsExpire(): Unit = {
+    val numThreads = 8
+    val tasksPerThread = 100
+    val latch = new CountDownLatch(numThreads * tasksPerThread)
+    val executor = Executors.newFixedThreadPool(numThreads)
+    try {
+      (0 until numThreads).foreach { _ =>
+        executor.submit((() => (0 until tasksPerThread).foreach(i => timer.add(new TestTask(i, latch)))): Runnable)
+      }
+      // the stripes advance their own clocks, so all tasks expire without calling `advanceClock`
+      assertTrue(latch.await(10, TimeUnit.SECONDS), "All tasks should have expired")
+    } finally {
+      executor.shutdownNow()
+    }
+
+    assertTrue(timer.advanceClock(1000), "The stripes should have advanced their clocks")
+    assertEquals(0, timer.size)
+    assertEquals(numThreads * tasksPerThread, expirationLatencies.size)
+    assertTrue(expirationLatencies.asScala.forall(_ >= 0))
+  }
+
+  @Test
+  def testSizeAndCancellation(): Unit = {
+    val latch = new CountDownLatch(1)
+    val tasks = (0 until 10).map(_ => new TestTask(60000, latch))
+    tasks.foreach(timer.add)
+    assertEquals(10, timer.size)
+
+    tasks.foreach(_.cancel())
+    assertEquals(0, timer.size)
+    assertEquals(1, latch.getCount)
+  }
+
+  @Test
+  def testInvalidNumStripes(): Unit = {
+    assertThrows(classOf[IllegalArgumentException], () => new StripedSystemTimer("invalid", numStripes = 0))
+  }
+}
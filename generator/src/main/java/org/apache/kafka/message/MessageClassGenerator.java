@@ -20,6 +20,13 @@ package org.apache.kafka.message;
 import java.io.BufferedWriter;
 
 public interface MessageClassGenerator {
+    /**
+     * Whether this generator produces a class for the given message.
+     */
+    default boolean shouldGenerate(MessageSpec spec) {
+        return true;
+    }
+
     /**
      * The short name of the converter class we are generating.  For example,
      * FetchRequestDataJsonConverter.java.
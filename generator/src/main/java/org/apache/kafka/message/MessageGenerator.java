@@ -204,6 +204,9 @@ public final class MessageGenerator {
                 case "JsonConverterGenerator":
                     generators.add(new JsonConverterGenerator(packageName));
                     break;
+                case "MessageViewGenerator":
+                    generators.add(new MessageViewGenerator(packageName));
+                    break;
                 default:
                     throw new RuntimeException("Unknown message class generator type '" + type + "'");
             }
@@ -231,6 +234,9 @@ public final class MessageGenerator {
                     List<MessageClassGenerator> generators =
                         createMessageClassGenerators(packageName, messageClassGeneratorTypes);
                     for (MessageClassGenerator generator : generators) {
+                        if (!generator.shouldGenerate(spec)) {
+                            continue;
+                        }
                         String name = generator.outputName(spec) + JAVA_SUFFIX;
                         outputFileNames.add(name);
                         Path outputPath = Paths.get(outputDir, name);
@@ -39,6 +39,8 @@ public final class MessageSpec {
 
     private final List<RequestListenerType> listeners;
 
+    private final boolean generateView;
+
     @JsonCreator
     public MessageSpec(@JsonProperty("name") String name,
                        @JsonProperty("validVersions") String validVersions,
@@ -47,7 +49,8 @@ public final class MessageSpec {
                        @JsonProperty("type") MessageSpecType type,
                        @JsonProperty("commonStructs") List<StructSpec> commonStructs,
                        @JsonProperty("flexibleVersions") String flexibleVersions,
-                       @JsonProperty("listeners") List<RequestListenerType> listeners) {
+                       @JsonProperty("listeners") List<RequestListenerType> listeners,
+                       @JsonProperty("generateView") Boolean generateView) {
         this.struct = new StructSpec(name, validVersions, fields);
         this.apiKey = apiKey == null ? Optional.empty() : Optional.of(apiKey);
         this.type = Objects.requireNonNull(type);
@@ -70,6 +73,7 @@ public final class MessageSpec {
                 "messages with type `request`");
         }
         this.listeners = listeners;
+        this.generateView = generateView != null && generateView;
     }
 
     public StructSpec struct() {
@@ -124,6 +128,11 @@ public final class MessageSpec {
         return listeners;
     }
 
+    @JsonProperty("generateView")
+    public boolean generateView() {
+        return generateView;
+    }
+
     public String dataClassName() {
         switch (type) {
             case HEADER:
@@ -0,0 +1,641 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.message;
+
+import java.io.BufferedWriter;
+import java.util.Iterator;
+
+/**
+ * Generates read-only views over serialized Kafka messages.
+ *
+ * A view reads the scalar fields of a message directly from the buffer it was
+ * serialized into, and exposes arrays of structures through reusable cursors,
+ * so that the elements of a message can be visited without materializing the
+ * object graph of the corresponding MessageData class.  Views are only generated
+ * for messages which set generateView in their specification.
+ */
+public final class MessageViewGenerator implements MessageClassGenerator {
+    private final static String SUFFIX = "View";
+    private final static String NO_SUCH_ELEMENT_EXCEPTION_CLASS = "java.util.NoSuchElementException";
+    private final static String UTILS_CLASS = "org.apache.kafka.common.utils.Utils";
+    private final StructRegistry structRegistry;
+    private final HeaderGenerator headerGenerator;
+    private final CodeBuffer buffer;
+    private Versions messageFlexibleVersions;
+
+    MessageViewGenerator(String packageName) {
+        this.structRegistry = new StructRegistry();
+        this.headerGenerator = new HeaderGenerator(packageName);
+        this.buffer = new CodeBuffer();
+    }
+
+    @Override
+    public boolean shouldGenerate(MessageSpec spec) {
+        return spec.generateView();
+    }
+
+    @Override
+    public String outputName(MessageSpec spec) {
+        return spec.dataClassName() + SUFFIX;
+    }
+
+    @Override
+    public void generateAndWrite(MessageSpec message, BufferedWriter writer) throws Exception {
+        generate(message);
+        headerGenerator.generate();
+        headerGenerator.buffer().write(writer);
+        buffer.write(writer);
+    }
+
+    void generate(MessageSpec message) throws Exception {
+        structRegistry.register(message);
+        messageFlexibleVersions = message.flexibleVersions();
+        String className = outputName(message);
+        Versions versions = message.struct().versions();
+        headerGenerator.addImport(MessageGenerator.BYTE_BUFFER_CLASS);
+        buffer.printf("public class %s {%n", className);
+        buffer.incrementIndent();
+        buffer.printf("private final ByteBuffer _buffer;%n");
+        buffer.printf("private final short _version;%n");
+        buffer.printf("private final int _start;%n");
+        buffer.printf("private final int _end;%n");
+        generateFieldDeclarations(message.struct());
+        buffer.printf("%n");
+        generateRootConstructor(message.dataClassName(), className, versions);
+        buffer.printf("%n");
+        buffer.printf("public short version() {%n");
+        buffer.incrementIndent();
+        buffer.printf("return _version;%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("%n");
+        buffer.printf("/**%n");
+        buffer.printf(" * Return a buffer containing the serialized message, which may be used to read%n");
+        buffer.printf(" * the complete %s.%n", message.dataClassName());
+        buffer.printf(" */%n");
+        buffer.printf("public ByteBuffer buffer() {%n");
+        buffer.incrementIndent();
+        buffer.printf("ByteBuffer _slice = _buffer.duplicate();%n");
+        buffer.printf("_slice.limit(_end).position(_start);%n");
+        buffer.printf("return _slice.slice();%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        generateFieldAccessors(message.struct());
+        buffer.printf("%n");
+        generateFieldReader(message.struct(), versions);
+        generateCursorClasses(message.struct(), versions);
+        for (Iterator<StructSpec> iter = structRegistry.commonStructs(); iter.hasNext(); ) {
+            StructSpec commonStruct = iter.next();
+            generateCursorClass(commonStruct, commonStruct.versions());
+        }
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+    }
+
+    private void generateRootConstructor(String dataClassName, String className, Versions versions) {
+        headerGenerator.addImport(MessageGenerator.UNSUPPORTED_VERSION_EXCEPTION_CLASS);
+        buffer.printf("public %s(ByteBuffer buffer, short version) {%n", className);
+        buffer.incrementIndent();
+        buffer.printf("if (version < %d || version > %d) {%n", versions.lowest(), versions.highest());
+        buffer.incrementIndent();
+        buffer.printf("throw new UnsupportedVersionException(\"Can't read " +
+            "version \" + version + \" of %s\");%n", dataClassName);
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("this._buffer = buffer.duplicate();%n");
+        buffer.printf("this._version = version;%n");
+        buffer.printf("this._start = _buffer.position();%n");
+        buffer.printf("read(_buffer);%n");
+        buffer.printf("this._end = _buffer.position();%n");
+        buffer.printf("buffer.position(_end);%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+    }
+
+    private void generateCursorClasses(StructSpec struct, Versions parentVersions) {
+        for (FieldSpec field : struct.fields()) {
+            if (field.type().isStructArray()) {
+                FieldType.ArrayType arrayType = (FieldType.ArrayType) field.type();
+                if (!structRegistry.commonStructNames().contains(arrayType.elementName())) {
+                    generateCursorClass(structRegistry.findStruct(field),
+                        parentVersions.intersect(struct.versions()));
+                }
+            }
+        }
+    }
+
+    private void generateCursorClass(StructSpec struct, Versions parentVersions) {
+        headerGenerator.addImport(MessageGenerator.BYTE_BUFFER_CLASS);
+        headerGenerator.addImport(NO_SUCH_ELEMENT_EXCEPTION_CLASS);
+        String className = struct.name() + SUFFIX;
+        Versions curVersions = parentVersions.intersect(struct.versions());
+        buffer.printf("%n");
+        buffer.printf("public static class %s {%n", className);
+        buffer.incrementIndent();
+        buffer.printf("private final ByteBuffer _buffer;%n");
+        buffer.printf("private final short _version;%n");
+        buffer.printf("private final int _count;%n");
+        buffer.printf("private int _index;%n");
+        generateFieldDeclarations(struct);
+        buffer.printf("%n");
+        buffer.printf("%s(ByteBuffer buffer, int position, int count, short version) {%n", className);
+        buffer.incrementIndent();
+        buffer.printf("this._buffer = buffer.duplicate();%n");
+        buffer.printf("this._buffer.position(position);%n");
+        buffer.printf("this._count = count;%n");
+        buffer.printf("this._index = 0;%n");
+        buffer.printf("this._version = version;%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("%n");
+        buffer.printf("/**%n");
+        buffer.printf(" * Return the number of elements in the array.%n");
+        buffer.printf(" */%n");
+        buffer.printf("public int count() {%n");
+        buffer.incrementIndent();
+        buffer.printf("return _count;%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("%n");
+        buffer.printf("public boolean hasNext() {%n");
+        buffer.incrementIndent();
+        buffer.printf("return _index < _count;%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("%n");
+        buffer.printf("/**%n");
+        buffer.printf(" * Advance to the next element of the array.  The accessors of this cursor%n");
+        buffer.printf(" * return the fields of the element which was advanced to last.%n");
+        buffer.printf(" */%n");
+        buffer.printf("public %s next() {%n", className);
+        buffer.incrementIndent();
+        buffer.printf("if (_index >= _count) {%n");
+        buffer.incrementIndent();
+        buffer.printf("throw new NoSuchElementException();%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        buffer.printf("_index++;%n");
+        buffer.printf("read(_buffer);%n");
+        buffer.printf("return this;%n");
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        generateFieldAccessors(struct);
+        buffer.printf("%n");
+        generateFieldReader(struct, curVersions);
+        buffer.printf("%n");
+        generateSkip(struct, curVersions);
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+        generateCursorClasses(struct, parentVersions);
+    }
+
+    private void generateFieldDeclarations(StructSpec struct) {
+        for (FieldSpec field : struct.fields()) {
+            if (field.type().isRecords()) {
+                buffer.printf("private int %sPosition;%n", field.camelCaseName());
+                buffer.printf("private int %sLength;%n", field.camelCaseName());
+            } else if (field.type().isArray()) {
+                buffer.printf("private int %sPosition;%n", field.camelCaseName());
+                buffer.printf("private int %sCount;%n", field.camelCaseName());
+            } else {
+                buffer.printf("private %s %s;%n", javaType(field), field.camelCaseName());
+            }
+        }
+    }
+
+    private void generateFieldAccessors(StructSpec struct) {
+        for (FieldSpec field : struct.fields()) {
+            String name = field.camelCaseName();
+            buffer.printf("%n");
+            if (field.type().isRecords()) {
+                headerGenerator.addImport(MessageGenerator.MEMORY_RECORDS_CLASS);
+                buffer.printf("public MemoryRecords %s() {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("if (%sLength < 0) {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("return null;%n");
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+                buffer.printf("ByteBuffer _slice = _buffer.duplicate();%n");
+                buffer.printf("_slice.limit(%sPosition + %sLength).position(%sPosition);%n", name, name, name);
+                buffer.printf("return MemoryRecords.readableRecords(_slice.slice());%n");
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+                buffer.printf("%n");
+                buffer.printf("public int %sSizeInBytes() {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("return Math.max(%sLength, 0);%n", name);
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            } else if (field.type().isStructArray()) {
+                String elementClassName = ((FieldType.ArrayType) field.type()).elementName() + SUFFIX;
+                buffer.printf("public %s %s() {%n", elementClassName, name);
+                buffer.incrementIndent();
+                buffer.printf("if (%sCount < 0) {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("return null;%n");
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+                buffer.printf("return new %s(_buffer, %sPosition, %sCount, _version);%n",
+                    elementClassName, name, name);
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            } else if (field.type().isArray()) {
+                FieldType elementType = ((FieldType.ArrayType) field.type()).elementType();
+                int elementLength = elementType.fixedLength().orElseThrow(() ->
+                    new RuntimeException("Views do not support field " + field.name() +
+                        " of type " + field.type()));
+                buffer.printf("/**%n");
+                buffer.printf(" * Return the number of elements of %s, or -1 if it is null.%n", name);
+                buffer.printf(" */%n");
+                buffer.printf("public int %sCount() {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("return %sCount;%n", name);
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+                buffer.printf("%n");
+                buffer.printf("public %s %s(int index) {%n", primitiveJavaType(elementType), name);
+                buffer.incrementIndent();
+                buffer.printf("if (index < 0 || index >= %sCount) {%n", name);
+                buffer.incrementIndent();
+                buffer.printf("throw new IndexOutOfBoundsException(\"Index \" + index + " +
+                    "\" is out of bounds for %s\");%n", name);
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+                buffer.printf("return %s;%n", absoluteReadExpression(elementType,
+                    String.format("%sPosition + %d * index", name, elementLength)));
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            } else {
+                buffer.printf("public %s %s() {%n", javaType(field), name);
+                buffer.incrementIndent();
+                buffer.printf("return %s;%n", name);
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            }
+        }
+    }
+
+    private void generateFieldReader(StructSpec struct, Versions curVersions) {
+        buffer.printf("private void read(ByteBuffer _buf) {%n");
+        buffer.incrementIndent();
+        generateFieldReads(struct, curVersions, true);
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+    }
+
+    private void generateSkip(StructSpec struct, Versions curVersions) {
+        buffer.printf("static void skip(ByteBuffer _buf, short _version) {%n");
+        buffer.incrementIndent();
+        generateFieldReads(struct, curVersions, false);
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+    }
+
+    /**
+     * Generate code which reads the fields of a structure from _buf.  If assign is
+     * set, the fields are stored in the view, otherwise they are only skipped over.
+     * Either way, arrays of structures are skipped element by element so that the
+     * message is validated in the same way as when it is read into its data class.
+     */
+    private void generateFieldReads(StructSpec struct, Versions curVersions, boolean assign) {
+        for (FieldSpec field : struct.fields()) {
+            Versions fieldFlexibleVersions = fieldFlexibleVersions(field);
+            if (!field.taggedVersions().intersect(fieldFlexibleVersions).equals(field.taggedVersions())) {
+                throw new RuntimeException("Field " + field.name() + " specifies tagged " +
+                    "versions " + field.taggedVersions() + " that are not a subset of the " +
+                    "flexible versions " + fieldFlexibleVersions);
+            }
+            Versions mandatoryVersions = field.versions().subtract(field.taggedVersions());
+            VersionConditional.forVersions(mandatoryVersions, curVersions).
+                alwaysEmitBlockScope(field.type().isVariableLength()).
+                ifNotMember(__ -> {
+                    if (assign) {
+                        generateDefaultAssignment(field);
+                    }
+                }).
+                ifMember(presentAndUntaggedVersions ->
+                    generateFieldRead(field, presentAndUntaggedVersions, assign)).
+                generate(buffer);
+        }
+        VersionConditional.forVersions(messageFlexibleVersions, curVersions).
+            ifMember(curFlexibleVersions -> {
+                buffer.printf("int _numTaggedFields = ByteUtils.readUnsignedVarint(_buf);%n");
+                buffer.printf("for (int _i = 0; _i < _numTaggedFields; _i++) {%n");
+                buffer.incrementIndent();
+                if (assign && hasTaggedFields(struct)) {
+                    buffer.printf("int _tag = ByteUtils.readUnsignedVarint(_buf);%n");
+                    buffer.printf("int _size = ByteUtils.readUnsignedVarint(_buf);%n");
+                    buffer.printf("switch (_tag) {%n");
+                    buffer.incrementIndent();
+                    for (FieldSpec field : struct.fields()) {
+                        Versions validTaggedVersions = field.versions().intersect(field.taggedVersions());
+                        if (!validTaggedVersions.empty()) {
+                            if (!field.tag().isPresent()) {
+                                throw new RuntimeException("Field " + field.name() + " has tagged versions, but no tag.");
+                            }
+                            buffer.printf("case %d: {%n", field.tag().get());
+                            buffer.incrementIndent();
+                            VersionConditional.forVersions(validTaggedVersions, curFlexibleVersions).
+                                ifMember(presentAndTaggedVersions -> {
+                                    generateFieldRead(field, presentAndTaggedVersions, true);
+                                    buffer.printf("break;%n");
+                                }).
+                                ifNotMember(__ -> {
+                                    buffer.printf("throw new RuntimeException(\"Tag %d is not " +
+                                        "valid for version \" + _version);%n", field.tag().get());
+                                }).
+                                generate(buffer);
+                            buffer.decrementIndent();
+                            buffer.printf("}%n");
+                        }
+                    }
+                    buffer.printf("default:%n");
+                    buffer.incrementIndent();
+                    buffer.printf("_buf.position(_buf.position() + _size);%n");
+                    buffer.printf("break;%n");
+                    buffer.decrementIndent();
+                    buffer.decrementIndent();
+                    buffer.printf("}%n");
+                } else {
+                    buffer.printf("ByteUtils.readUnsignedVarint(_buf);%n");
+                    buffer.printf("int _size = ByteUtils.readUnsignedVarint(_buf);%n");
+                    buffer.printf("_buf.position(_buf.position() + _size);%n");
+                }
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            }).
+            generate(buffer);
+        headerGenerator.addImport(MessageGenerator.BYTE_UTILS_CLASS);
+    }
+
+    private static boolean hasTaggedFields(StructSpec struct) {
+        for (FieldSpec field : struct.fields()) {
+            if (!field.versions().intersect(field.taggedVersions()).empty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void generateDefaultAssignment(FieldSpec field) {
+        String name = field.camelCaseName();
+        if (field.type().isRecords()) {
+            buffer.printf("this.%sPosition = 0;%n", name);
+            buffer.printf("this.%sLength = -1;%n", name);
+        } else if (field.type().isArray()) {
+            buffer.printf("this.%sPosition = 0;%n", name);
+            buffer.printf("this.%sCount = 0;%n", name);
+        } else {
+            buffer.printf("this.%s = %s;%n", name,
+                field.fieldDefault(headerGenerator, structRegistry));
+        }
+    }
+
+    private void generateFieldRead(FieldSpec field, Versions possibleVersions, boolean assign) {
+        String name = field.camelCaseName();
+        FieldType type = field.type();
+        if (!type.isVariableLength()) {
+            if (type.isStruct()) {
+                throw new RuntimeException("Views do not support struct field " + field.name());
+            }
+            if (assign) {
+                buffer.printf("this.%s = %s;%n", name, relativeReadExpression(type));
+            } else {
+                buffer.printf("_buf.position(_buf.position() + %d);%n", type.fixedLength().get());
+            }
+            return;
+        }
+        if (!(type.isString() || type.isRecords() || type.isArray())) {
+            throw new RuntimeException("Views do not support field " + field.name() +
+                " of type " + type);
+        }
+        String lengthVar = type.isArray() ? "arrayLength" : "length";
+        buffer.printf("int %s;%n", lengthVar);
+        VersionConditional.forVersions(fieldFlexibleVersions(field), possibleVersions).
+            ifMember(__ -> {
+                buffer.printf("%s = ByteUtils.readUnsignedVarint(_buf) - 1;%n", lengthVar);
+            }).
+            ifNotMember(__ -> {
+                if (type.isString()) {
+                    buffer.printf("%s = _buf.getShort();%n", lengthVar);
+                } else {
+                    buffer.printf("%s = _buf.getInt();%n", lengthVar);
+                }
+            }).
+            generate(buffer);
+        if (!assign) {
+            generateVariableLengthSkip(field, possibleVersions, lengthVar);
+            return;
+        }
+        buffer.printf("if (%s < 0) {%n", lengthVar);
+        buffer.incrementIndent();
+        VersionConditional.forVersions(field.nullableVersions(), possibleVersions).
+            ifNotMember(__ -> {
+                buffer.printf("throw new RuntimeException(\"non-nullable field %s " +
+                    "was serialized as null\");%n", name);
+            }).
+            ifMember(__ -> {
+                if (type.isString()) {
+                    buffer.printf("this.%s = null;%n", name);
+                } else if (type.isRecords()) {
+                    buffer.printf("this.%sPosition = 0;%n", name);
+                    buffer.printf("this.%sLength = -1;%n", name);
+                } else {
+                    buffer.printf("this.%sPosition = 0;%n", name);
+                    buffer.printf("this.%sCount = -1;%n", name);
+                }
+            }).
+            generate(buffer);
+        buffer.decrementIndent();
+        if (type.isString()) {
+            buffer.printf("} else if (%s > 0x7fff) {%n", lengthVar);
+            buffer.incrementIndent();
+            buffer.printf("throw new RuntimeException(\"string field %s " +
+                "had invalid length \" + %s);%n", name, lengthVar);
+            buffer.decrementIndent();
+        }
+        buffer.printf("} else {%n");
+        buffer.incrementIndent();
+        if (type.isString()) {
+            headerGenerator.addImport(UTILS_CLASS);
+            buffer.printf("this.%s = Utils.utf8(_buf, %s);%n", name, lengthVar);
+            buffer.printf("_buf.position(_buf.position() + %s);%n", lengthVar);
+        } else if (type.isRecords()) {
+            buffer.printf("this.%sPosition = _buf.position();%n", name);
+            buffer.printf("this.%sLength = %s;%n", name, lengthVar);
+            buffer.printf("_buf.position(_buf.position() + %s);%n", lengthVar);
+        } else {
+            buffer.printf("this.%sPosition = _buf.position();%n", name);
+            buffer.printf("this.%sCount = %s;%n", name, lengthVar);
+            generateArraySkip(field, lengthVar);
+        }
+        buffer.decrementIndent();
+        buffer.printf("}%n");
+    }
+
+    private void generateVariableLengthSkip(FieldSpec field, Versions possibleVersions, String lengthVar) {
+        FieldType type = field.type();
+        VersionConditional.forVersions(field.nullableVersions(), possibleVersions).
+            ifNotMember(__ -> {
+                buffer.printf("if (%s < 0) {%n", lengthVar);
+                buffer.incrementIndent();
+                buffer.printf("throw new RuntimeException(\"non-nullable field %s " +
+                    "was serialized as null\");%n", field.camelCaseName());
+                buffer.decrementIndent();
+                buffer.printf("}%n");
+            }).
+            generate(buffer);
+        if (type.isString()) {
+            buffer.printf("if (%s > 0x7fff) {%n", lengthVar);
+            buffer.incrementIndent();
+            buffer.printf("throw new RuntimeException(\"string field %s " +
+                "had invalid length \" + %s);%n", field.camelCaseName(), lengthVar);
+            buffer.decrementIndent();
+            buffer.printf("}%n");
+        }
+        if (type.isArray()) {
+            generateArraySkip(field, lengthVar);
+        } else {
+            buffer.printf("if (%s > 0) {%n", lengthVar);
+            buffer.incrementIndent();
+            buffer.printf("_buf.position(_buf.position() + %s);%n", lengthVar);
+            buffer.decrementIndent();
+            buffer.printf("}%n");
+        }
+    }
+
+    private void generateArraySkip(FieldSpec field, String lengthVar) {
+        FieldType.ArrayType arrayType = (FieldType.ArrayType) field.type();
+        if (arrayType.isStructArray()) {
+            buffer.printf("for (int i = 0; i < %s; i++) {%n", lengthVar);
+            buffer.incrementIndent();
+            buffer.printf("%s%s.skip(_buf, _version);%n", arrayType.elementName(), SUFFIX);
+            buffer.decrementIndent();
+            buffer.printf("}%n");
+        } else {
+            int elementLength = arrayType.elementType().fixedLength().orElseThrow(() ->
+                new RuntimeException("Views do not support field " + field.name() +
+                    " of type " + arrayType));
+            buffer.printf("if (%s > _buf.remaining() / %d) {%n", lengthVar, elementLength);
+            buffer.incrementIndent();
+            buffer.printf("throw new RuntimeException(\"array field %s " +
+                "had invalid length \" + %s);%n", field.camelCaseName(), lengthVar);
+            buffer.decrementIndent();
+            buffer.printf("} else if (%s > 0) {%n", lengthVar);
+            buffer.incrementIndent();
+            buffer.printf("_buf.position(_buf.position() + %d * %s);%n", elementLength, lengthVar);
+            buffer.decrementIndent();
+            buffer.printf("}%n");
+        }
+    }
+
+    private String javaType(FieldSpec field) {
+        if (field.type().isString()) {
+            return "String";
+        } else if (field.type().isVariableLength()) {
+            throw new RuntimeException("Views do not support field " + field.name() +
+                " of type " + field.type());
+        }
+        return primitiveJavaType(field.type());
+    }
+
+    private String primitiveJavaType(FieldType type) {
+        if (type instanceof FieldType.BoolFieldType) {
+            return "boolean";
+        } else if (type instanceof FieldType.Int8FieldType) {
+            return "byte";
+        } else if (type instanceof FieldType.Int16FieldType) {
+            return "short";
+        } else if (type instanceof FieldType.Uint16FieldType) {
+            return "int";
+        } else if (type instanceof FieldType.Int32FieldType) {
+            return "int";
+        } else if (type instanceof FieldType.Int64FieldType) {
+            return "long";
+        } else if (type instanceof FieldType.UUIDFieldType) {
+            headerGenerator.addImport(MessageGenerator.UUID_CLASS);
+            return "Uuid";
+        } else if (type instanceof FieldType.Float64FieldType) {
+            return "double";
+        } else {
+            throw new RuntimeException("Views do not support field type " + type);
+        }
+    }
+
+    private String relativeReadExpression(FieldType type) {
+        if (type instanceof FieldType.BoolFieldType) {
+            return "_buf.get() != 0";
+        } else if (type instanceof FieldType.Int8FieldType) {
+            return "_buf.get()";
+        } else if (type instanceof FieldType.Int16FieldType) {
+            return "_buf.getShort()";
+        } else if (type instanceof FieldType.Uint16FieldType) {
+            return "Short.toUnsignedInt(_buf.getShort())";
+        } else if (type instanceof FieldType.Int32FieldType) {
+            return "_buf.getInt()";
+        } else if (type instanceof FieldType.Int64FieldType) {
+            return "_buf.getLong()";
+        } else if (type instanceof FieldType.UUIDFieldType) {
+            headerGenerator.addImport(MessageGenerator.UUID_CLASS);
+            return "new Uuid(_buf.getLong(), _buf.getLong())";
+        } else if (type instanceof FieldType.Float64FieldType) {
+            return "_buf.getDouble()";
+        } else {
+            throw new RuntimeException("Views do not support field type " + type);
+        }
+    }
+
+    private String absoluteReadExpression(FieldType type, String position) {
+        if (type instanceof FieldType.BoolFieldType) {
+            return String.format("_buffer.get(%s) != 0", position);
+        } else if (type instanceof FieldType.Int8FieldType) {
+            return String.format("_buffer.get(%s)", position);
+        } else if (type instanceof FieldType.Int16FieldType) {
+            return String.format("_buffer.getShort(%s)", position);
+        } else if (type instanceof FieldType.Uint16FieldType) {
+            return String.format("Short.toUnsignedInt(_buffer.getShort(%s))", position);
+        } else if (type instanceof FieldType.Int32FieldType) {
+            return String.format("_buffer.getInt(%s)", position);
+        } else if (type instanceof FieldType.Int64FieldType) {
+            return String.format("_buffer.getLong(%s)", position);
+        } else if (type instanceof FieldType.UUIDFieldType) {
+            headerGenerator.addImport(MessageGenerator.UUID_CLASS);
+            return String.format("new Uuid(_buffer.getLong(%s), _buffer.getLong(%s + 8))", position, position);
+        } else if (type instanceof FieldType.Float64FieldType) {
+            return String.format("_buffer.getDouble(%s)", position);
+        } else {
+            throw new RuntimeException("Views do not support field type " + type);
+        }
+    }
+
+    private Versions fieldFlexibleVersions(FieldSpec field) {
+        if (field.flexibleVersions().isPresent()) {
+            if (!messageFlexibleVersions.intersect(field.flexibleVersions().get()).
+                    equals(field.flexibleVersions().get())) {
+                throw new RuntimeException("The flexible versions for field " +
+                    field.name() + " are " + field.flexibleVersions().get() +
+                    ", which are not a subset of the flexible versions for the " +
+                    "message as a whole, which are " + messageFlexibleVersions);
+            }
+            return field.flexibleVersions().get();
+        } else {
+            return messageFlexibleVersions;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.message;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(120)
+public class MessageViewGeneratorTest {
+
+    @Test
+    public void testGenerateView() throws Exception {
+        MessageSpec testMessageSpec = MessageGenerator.JSON_SERDE.readValue(String.join("", Arrays.asList(
+                "{",
+                "  \"type\": \"request\",",
+                "  \"name\": \"FooBar\",",
+                "  \"validVersions\": \"0-2\",",
+                "  \"flexibleVersions\": \"1+\",",
+                "  \"generateView\": true,",
+                "  \"fields\": [",
+                "    { \"name\": \"field1\", \"type\": \"int32\", \"versions\": \"0+\" },",
+                "    { \"name\": \"field2\", \"type\": \"string\", \"versions\": \"1+\", ",
+                "      \"nullableVersions\": \"1+\", \"default\": \"null\", \"taggedVersions\": \"1+\", \"tag\": 0 },",
+                "    { \"name\": \"field3\", \"type\": \"[]TestStruct\", \"versions\": \"0+\", \"fields\": [",
+                "      { \"name\": \"field1\", \"type\": \"string\", \"versions\": \"0+\" },",
+                "      { \"name\": \"field2\", \"type\": \"[]int64\", \"versions\": \"2+\" },",
+                "      { \"name\": \"field3\", \"type\": \"records\", \"versions\": \"0+\", \"nullableVersions\": \"0+\" }",
+                "    ]}",
+                "  ]",
+                "}")), MessageSpec.class);
+        assertTrue(testMessageSpec.generateView());
+        MessageViewGenerator generator = new MessageViewGenerator("org.apache.kafka.common.message");
+        assertTrue(generator.shouldGenerate(testMessageSpec));
+        generator.generate(testMessageSpec);
+    }
+
+    @Test
+    public void testViewIsNotGeneratedByDefault() throws Exception {
+        MessageSpec testMessageSpec = MessageGenerator.JSON_SERDE.readValue(String.join("", Arrays.asList(
+                "{",
+                "  \"type\": \"request\",",
+                "  \"name\": \"FooBar\",",
+                "  \"validVersions\": \"0-2\",",
+                "  \"flexibleVersions\": \"none\",",
+                "  \"fields\": [",
+                "    { \"name\": \"field1\", \"type\": \"int32\", \"versions\": \"0+\" }",
+                "  ]",
+                "}")), MessageSpec.class);
+        assertFalse(new MessageViewGenerator("org.apache.kafka.common.message").shouldGenerate(testMessageSpec));
+    }
+
+    @Test
+    public void testUnsupportedBytesField() throws Exception {
+        MessageSpec testMessageSpec = MessageGenerator.JSON_SERDE.readValue(String.join("", Arrays.asList(
+                "{",
+                "  \"type\": \"request\",",
+                "  \"name\": \"FooBar\",",
+                "  \"validVersions\": \"0-2\",",
+                "  \"flexibleVersions\": \"none\",",
+                "  \"generateView\": true,",
+                "  \"fields\": [",
+                "    { \"name\": \"field1\", \"type\": \"bytes\", \"versions\": \"0+\" }",
+                "  ]",
+                "}")), MessageSpec.class);
+        String message = assertThrows(RuntimeException.class, () ->
+            new MessageViewGenerator("org.apache.kafka.common.message").generate(testMessageSpec)).getMessage();
+        assertTrue(message.contains("Views do not support field field1"),
+            "Unexpected exception message " + message);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.common;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.message.FetchRequestData;
+import org.apache.kafka.common.message.FetchRequestDataView;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ByteBufferAccessor;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a serialized fetch request through FetchRequestData with parsing it through a
+ * FetchRequestDataView. Run with `-prof gc` to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FetchRequestParseBenchmark {
+    @Param({"10", "500", "1000"})
+    private int topicCount;
+
+    @Param({"3", "10", "20"})
+    private int partitionCount;
+
+    private final short version = ApiKeys.FETCH.latestVersion();
+
+    private ByteBuffer requestBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        for (int topicIdx = 0; topicIdx < topicCount; topicIdx++) {
+            String topic = UUID.randomUUID().toString();
+            for (int partitionId = 0; partitionId < partitionCount; partitionId++) {
+                FetchRequest.PartitionData partitionData = new FetchRequest.PartitionData(
+                    0, 0, 4096, Optional.empty());
+                fetchData.put(new TopicPartition(topic, partitionId), partitionData);
+            }
+        }
+        this.requestBuffer = FetchRequest.Builder.forReplica(version, 1, 0, 0, fetchData)
+            .build(version)
+            .serialize();
+    }
+
+    @Benchmark
+    public int testParseData() {
+        FetchRequestData data = new FetchRequestData(new ByteBufferAccessor(requestBuffer.duplicate()), version);
+        return new FetchRequest(data, version).fetchData().size();
+    }
+
+    @Benchmark
+    public int testParseView() {
+        return FetchRequest.parse(requestBuffer.duplicate(), version).fetchData().size();
+    }
+
+    @Benchmark
+    public long testIterateView() {
+        FetchRequestDataView view = new FetchRequestDataView(requestBuffer.duplicate(), version);
+        long totalOffsets = 0;
+        FetchRequestDataView.FetchTopicView topics = view.topics();
+        while (topics.hasNext()) {
+            FetchRequestDataView.FetchPartitionView partitions = topics.next().partitions();
+            while (partitions.hasNext()) {
+                FetchRequestDataView.FetchPartitionView partition = partitions.next();
+                totalOffsets += partition.partition() + partition.fetchOffset();
+            }
+        }
+        return totalOffsets;
+    }
+}
@@ -18,10 +18,13 @@
 package org.apache.kafka.jmh.common;
 
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.RecyclingMemoryPool;
 import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.SendBuilder;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.SimpleRecord;
@@ -66,6 +69,8 @@ public class FetchResponseBenchmark {
 
     FetchResponse fetchResponse;
 
+    MemoryPool responseMemoryPool;
+
     @Setup(Level.Trial)
     public void setup() {
         MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE,
@@ -88,6 +93,8 @@ public class FetchResponseBenchmark {
 
         this.header = new ResponseHeader(100, ApiKeys.FETCH.responseHeaderVersion(ApiKeys.FETCH.latestVersion()));
         this.fetchResponse = FetchResponse.of(Errors.NONE, 0, 0, responseData);
+        this.responseMemoryPool = new RecyclingMemoryPool(Long.MAX_VALUE, SendBuilder.POOLED_CHUNK_SIZE, false, null,
+            64 * 1024 * 1024, false);
     }
 
     @Benchmark
@@ -103,4 +110,13 @@ public class FetchResponseBenchmark {
         send.writeTo(channel);
         return channel.buffer().limit();
     }
+
+    @Benchmark
+    public int testSerializeFetchResponseToPooledBuffers() throws IOException {
+        Send send = fetchResponse.toSend(header, ApiKeys.FETCH.latestVersion(), responseMemoryPool);
+        ByteBufferChannel channel = new ByteBufferChannel(send.size());
+        send.writeTo(channel);
+        send.release();
+        return channel.buffer().limit();
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.common;
+
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceRequestDataView;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ByteBufferAccessor;
+import org.apache.kafka.common.protocol.MessageUtil;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the partitions of a serialized produce request into ProduceRequestData with iterating over them
+ * through a ProduceRequestDataView. Run with `-prof gc` to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProduceRequestParseBenchmark {
+    @Param({"10", "500", "1000"})
+    private int topicCount;
+
+    @Param({"3", "10", "20"})
+    private int partitionCount;
+
+    private final short version = ApiKeys.PRODUCE.latestVersion();
+
+    private ByteBuffer requestBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE,
+            new SimpleRecord("key".getBytes(), "value".getBytes()));
+        ProduceRequestData data = new ProduceRequestData()
+            .setAcks((short) -1)
+            .setTimeoutMs(30000);
+        for (int topicIdx = 0; topicIdx < topicCount; topicIdx++) {
+            ProduceRequestData.TopicProduceData topicData = new ProduceRequestData.TopicProduceData()
+                .setName(UUID.randomUUID().toString());
+            for (int partitionId = 0; partitionId < partitionCount; partitionId++) {
+                topicData.partitionData().add(new ProduceRequestData.PartitionProduceData()
+                    .setIndex(partitionId)
+                    .setRecords(records));
+            }
+            data.topicData().add(topicData);
+        }
+        this.requestBuffer = MessageUtil.toByteBuffer(data, version);
+    }
+
+    @Benchmark
+    public long testIterateData() {
+        ProduceRequestData data = new ProduceRequestData(new ByteBufferAccessor(requestBuffer.duplicate()), version);
+        long totalBytes = 0;
+        for (ProduceRequestData.TopicProduceData topicData : data.topicData()) {
+            for (ProduceRequestData.PartitionProduceData partitionData : topicData.partitionData()) {
+                totalBytes += partitionData.index() + partitionData.records().sizeInBytes();
+            }
+        }
+        return totalBytes;
+    }
+
+    @Benchmark
+    public long testIterateView() {
+        ProduceRequestDataView view = new ProduceRequestDataView(requestBuffer.duplicate(), version);
+        long totalBytes = 0;
+        ProduceRequestDataView.TopicProduceDataView topics = view.topicData();
+        while (topics.hasNext()) {
+            ProduceRequestDataView.PartitionProduceDataView partitions = topics.next().partitionData();
+            while (partitions.hasNext()) {
+                ProduceRequestDataView.PartitionProduceDataView partition = partitions.next();
+                totalBytes += partition.index() + partition.recordsSizeInBytes();
+            }
+        }
+        return totalBytes;
+    }
+}
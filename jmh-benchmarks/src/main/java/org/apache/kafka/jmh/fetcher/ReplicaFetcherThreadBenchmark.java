@@ -36,6 +36,7 @@ import kafka.server.LogDirFailureChannel;
 import kafka.server.MetadataCache;
 import kafka.server.OffsetAndEpoch;
 import kafka.server.OffsetTruncationState;
+import kafka.server.PipelinedSend;
 import kafka.server.ReplicaFetcherThread;
 import kafka.server.ReplicaManager;
 import kafka.server.ReplicaQuota;
@@ -43,6 +44,7 @@ import kafka.server.checkpoints.OffsetCheckpoints;
 import kafka.server.metadata.CachedConfigRepository;
 import kafka.utils.KafkaScheduler;
 import kafka.utils.Pool;
+import org.apache.kafka.clients.ClientResponse;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.Uuid;
 import org.apache.kafka.common.message.FetchResponseData;
@@ -50,11 +52,15 @@ import org.apache.kafka.common.message.LeaderAndIsrRequestData;
 import org.apache.kafka.common.message.OffsetForLeaderEpochRequestData.OffsetForLeaderPartition;
 import org.apache.kafka.common.message.OffsetForLeaderEpochResponseData.EpochEndOffset;
 import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.BaseRecords;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.RecordsSend;
+import org.apache.kafka.common.requests.AbstractRequest;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.requests.RequestHeader;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.mockito.Mockito;
@@ -71,23 +77,30 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
+import scala.Function1;
 import scala.Option;
 import scala.collection.Iterator;
 import scala.collection.JavaConverters;
 import scala.compat.java8.OptionConverters;
 import scala.collection.Map;
+import scala.runtime.BoxedUnit;
+import scala.util.Success;
+import scala.util.Try;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 @State(Scope.Benchmark)
 @Fork(value = 1)
@@ -100,6 +113,13 @@ public class ReplicaFetcherThreadBenchmark {
     @Param({"100", "500", "1000", "5000"})
     private int partitionCount;
 
+    @Param({"1", "4"})
+    private int maxInFlightRequests;
+
+    // the simulated time between sending a fetch request and receiving its response
+    @Param({"0", "5"})
+    private int leaderRttMs;
+
     private ReplicaFetcherBenchThread fetcher;
     private LogManager logManager;
     private File logDir = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
@@ -115,6 +135,7 @@ public class ReplicaFetcherThreadBenchmark {
         scheduler.startup();
         Properties props = new Properties();
         props.put("zookeeper.connect", "127.0.0.1:9999");
+        props.put(KafkaConfig.ReplicaFetchMaxInFlightRequestsProp(), Integer.toString(maxInFlightRequests));
         KafkaConfig config = new KafkaConfig(props);
         LogConfig logConfig = createLogConfig();
 
@@ -125,7 +146,7 @@ public class ReplicaFetcherThreadBenchmark {
                 JavaConverters.asScalaIteratorConverter(new ArrayList<File>().iterator()).asScala().toSeq(),
                 new CachedConfigRepository(),
                 logConfig,
-                new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5"),
+                new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5", "skimpy", 1),
                 1,
                 1000L,
                 10000L,
@@ -136,7 +157,9 @@ public class ReplicaFetcherThreadBenchmark {
                 brokerTopicStats,
                 logDirFailureChannel,
                 Time.SYSTEM,
-                true);
+                true,
+                Option.empty(),
+                1);
 
         LinkedHashMap<TopicPartition, FetchResponseData.PartitionData> initialFetched = new LinkedHashMap<>();
         scala.collection.mutable.Map<TopicPartition, InitialFetchState> initialFetchStates = new scala.collection.mutable.HashMap<>();
@@ -184,13 +207,19 @@ public class ReplicaFetcherThreadBenchmark {
 
         ReplicaManager replicaManager = Mockito.mock(ReplicaManager.class);
         Mockito.when(replicaManager.brokerTopicStats()).thenReturn(brokerTopicStats);
-        fetcher = new ReplicaFetcherBenchThread(config, replicaManager, pool);
+        fetcher = new ReplicaFetcherBenchThread(config, replicaManager, pool, leaderRttMs);
         fetcher.addPartitions(initialFetchStates);
         // force a pass to move partitions to fetching state. We do this in the setup phase
         // so that we do not measure this time as part of the steady state work
         fetcher.doWork();
         // handle response to engage the incremental fetch session handler
-        fetcher.fetchSessionHandler().handleResponse(FetchResponse.of(Errors.NONE, 0, 999, initialFetched));
+        if (maxInFlightRequests == 1) {
+            fetcher.fetchSessionHandler().handleResponse(FetchResponse.of(Errors.NONE, 0, 999, initialFetched));
+        } else {
+            // every pass processes the response of one lane, the first response of a lane creates its session
+            for (int lane = 1; lane < maxInFlightRequests; lane++)
+                fetcher.doWork();
+        }
     }
 
     @TearDown(Level.Trial)
@@ -200,6 +229,10 @@ public class ReplicaFetcherThreadBenchmark {
         Utils.delete(logDir);
     }
 
+    /**
+     * In the steady state, a pass of a pipelined fetcher processes the response of one lane, so the average time of a
+     * pass is the time per fetch response both with and without pipelining.
+     */
     @Benchmark
     public long testFetcher() {
         fetcher.doWork();
@@ -237,11 +270,13 @@ public class ReplicaFetcherThreadBenchmark {
 
     static class ReplicaFetcherBenchThread extends ReplicaFetcherThread {
         private final Pool<TopicPartition, Partition> pool;
+        private final long leaderRttNs;
 
         ReplicaFetcherBenchThread(KafkaConfig config,
                                   ReplicaManager replicaManager,
                                   Pool<TopicPartition,
-                                  Partition> partitions) {
+                                  Partition> partitions,
+                                  int leaderRttMs) {
             super("name",
                     3,
                     new BrokerEndPoint(3, "host", 3000),
@@ -265,9 +300,11 @@ public class ReplicaFetcherThreadBenchmark {
                             return false;
                         }
                     },
+                    Option.apply(new PipelinedLeaderEndpoint(TimeUnit.MILLISECONDS.toNanos(leaderRttMs))),
                     Option.empty());
             
             pool = partitions;
+            leaderRttNs = TimeUnit.MILLISECONDS.toNanos(leaderRttMs);
         }
 
         @Override
@@ -323,7 +360,83 @@ public class ReplicaFetcherThreadBenchmark {
 
         @Override
         public Map<TopicPartition, FetchResponseData.PartitionData> fetchFromLeader(FetchRequest.Builder fetchRequest) {
+            awaitNanos(Time.SYSTEM.nanoseconds() + leaderRttNs);
             return new scala.collection.mutable.HashMap<>();
         }
+
+    }
+
+    /**
+     * The leader of the pipelined fetches. Every lane's first fetch creates its session, later fetches get an empty
+     * incremental response, after the simulated round trip time.
+     */
+    private static class PipelinedLeaderEndpoint implements PipelinedSend {
+        private final long leaderRttNs;
+        private final ArrayDeque<PendingFetch> pendingFetches = new ArrayDeque<>();
+        private final java.util.Map<Integer, Integer> laneSessionIds = new HashMap<>();
+
+        PipelinedLeaderEndpoint(long leaderRttNs) {
+            this.leaderRttNs = leaderRttNs;
+        }
+
+        @Override
+        public ClientResponse sendRequest(AbstractRequest.Builder<? extends AbstractRequest> requestBuilder) {
+            throw new UnsupportedOperationException("Only fetch requests are sent to the leader");
+        }
+
+        @Override
+        public void sendRequestAsync(int lane, AbstractRequest.Builder<? extends AbstractRequest> requestBuilder,
+                                     Function1<Try<ClientResponse>, BoxedUnit> callback) {
+            LinkedHashMap<TopicPartition, FetchResponseData.PartitionData> responseData = new LinkedHashMap<>();
+            Integer sessionId = laneSessionIds.get(lane);
+            if (sessionId == null) {
+                sessionId = 999 + lane;
+                laneSessionIds.put(lane, sessionId);
+                for (TopicPartition tp : ((FetchRequest.Builder) requestBuilder).fetchData().keySet())
+                    responseData.put(tp, new FetchResponseData.PartitionData()
+                        .setPartitionIndex(tp.partition())
+                        .setRecords(MemoryRecords.EMPTY));
+            }
+            FetchResponse response = FetchResponse.of(Errors.NONE, 0, sessionId, responseData);
+            pendingFetches.add(new PendingFetch(Time.SYSTEM.nanoseconds() + leaderRttNs, response, callback));
+        }
+
+        @Override
+        public void poll(long timeoutMs) {
+            // the requests of all lanes take the same time, so they complete in the order in which they were sent
+            PendingFetch pendingFetch = pendingFetches.poll();
+            if (pendingFetch != null) {
+                awaitNanos(pendingFetch.completionTimeNs);
+                RequestHeader header = new RequestHeader(ApiKeys.FETCH, ApiKeys.FETCH.latestVersion(), "name", 0);
+                pendingFetch.callback.apply(new Success<>(new ClientResponse(header, null, "3", 0, 0, false, null,
+                    null, pendingFetch.response)));
+            }
+        }
+
+        @Override
+        public void initiateClose() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void awaitNanos(long deadlineNs) {
+        long remainingNs;
+        while ((remainingNs = deadlineNs - Time.SYSTEM.nanoseconds()) > 0)
+            LockSupport.parkNanos(remainingNs);
+    }
+
+    private static class PendingFetch {
+        private final long completionTimeNs;
+        private final FetchResponse response;
+        private final Function1<Try<ClientResponse>, BoxedUnit> callback;
+
+        PendingFetch(long completionTimeNs, FetchResponse response, Function1<Try<ClientResponse>, BoxedUnit> callback) {
+            this.completionTimeNs = completionTimeNs;
+            this.response = response;
+            this.callback = callback;
+        }
     }
 }
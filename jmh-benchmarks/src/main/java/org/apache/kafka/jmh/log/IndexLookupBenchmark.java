@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.log;
+
+import kafka.log.OffsetIndex;
+import kafka.log.OffsetPosition;
+import kafka.log.TimeIndex;
+import kafka.log.TimestampOffset;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures offset and time index lookups by concurrent fetches while the index is appended to. `lookup` only reads
+ * the index, `lookupWhileAppending` adds a thread which keeps appending entries and truncates the index back to its
+ * initial entries once it is full, as a leader of a hot partition does.
+ */
+@State(Scope.Group)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexLookupBenchmark {
+    private static final int OFFSET_DELTA = 10;
+    private static final int MAX_APPENDED_ENTRIES = 64 * 1024;
+
+    @Param({"1000", "100000"})
+    private int initialEntries;
+
+    private File dir;
+    private OffsetIndex offsetIndex;
+    private TimeIndex timeIndex;
+    private long nextOffset;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("kafka-index-benchmark").toFile();
+        int maxEntries = initialEntries + MAX_APPENDED_ENTRIES;
+        offsetIndex = new OffsetIndex(new File(dir, "0.index"), 0L, maxEntries * 8, true);
+        timeIndex = new TimeIndex(new File(dir, "0.timeindex"), 0L, (maxEntries + 1) * 12, true);
+        for (int i = 0; i < initialEntries; i++)
+            append();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        offsetIndex.close();
+        timeIndex.close();
+        Utils.delete(dir);
+    }
+
+    private void append() {
+        if (offsetIndex.isFull() || timeIndex.isFull()) {
+            nextOffset = (long) initialEntries * OFFSET_DELTA;
+            offsetIndex.truncateTo(nextOffset);
+            timeIndex.truncateTo(nextOffset);
+        }
+        offsetIndex.append(nextOffset, (int) nextOffset);
+        timeIndex.maybeAppend(nextOffset, nextOffset, false);
+        nextOffset += OFFSET_DELTA;
+    }
+
+    private long randomOffset() {
+        return ThreadLocalRandom.current().nextLong((long) initialEntries * OFFSET_DELTA);
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(3)
+    public OffsetPosition offsetLookup() {
+        return offsetIndex.lookup(randomOffset());
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(1)
+    public TimestampOffset timestampLookup() {
+        return timeIndex.lookup(randomOffset());
+    }
+
+    @Benchmark
+    @Group("lookupWhileAppending")
+    @GroupThreads(3)
+    public OffsetPosition offsetLookupWhileAppending() {
+        return offsetIndex.lookup(randomOffset());
+    }
+
+    @Benchmark
+    @Group("lookupWhileAppending")
+    @GroupThreads(1)
+    public TimestampOffset timestampLookupWhileAppending() {
+        return timeIndex.lookup(randomOffset());
+    }
+
+    @Benchmark
+    @Group("lookupWhileAppending")
+    @GroupThreads(1)
+    public void appendWhileLookingUp() {
+        append();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.log;
+
+import kafka.log.CleanerConfig;
+import kafka.log.OffsetMap;
+import kafka.log.OpenAddressingOffsetMap;
+import kafka.log.SkimpyOffsetMap;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the log cleaner dedupe maps. `fill` reports the time to build a map of `loadFactor * slots` keys together
+ * with the number of keys the map holds per MB of dedupe buffer; `lookup` reports the rate of alternating lookups
+ * of present and absent keys, which is the access pattern of `Cleaner.cleanSegments`.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OffsetMapBenchmark {
+    private static final int MEMORY = 16 * 1024 * 1024;
+
+    @Param({"skimpy", "open-addressing"})
+    private String mapType;
+
+    @Param({"0.5", "0.9", "0.95"})
+    private double loadFactor;
+
+    private OffsetMap map;
+    private ByteBuffer[] keys;
+    private ByteBuffer[] absentKeys;
+    private int index = 0;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double keysPerMb;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (mapType.equals(CleanerConfig.OpenAddressingDedupeMapType()))
+            map = new OpenAddressingOffsetMap(MEMORY);
+        else
+            map = new SkimpyOffsetMap(MEMORY, "MD5");
+
+        int numKeys = (int) (map.slots() * loadFactor);
+        keys = new ByteBuffer[numKeys];
+        absentKeys = new ByteBuffer[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = ByteBuffer.wrap(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+            absentKeys[i] = ByteBuffer.wrap(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        }
+        populate();
+    }
+
+    private void populate() {
+        map.clear();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int fill(Footprint footprint) {
+        populate();
+        footprint.keysPerMb = map.size() / (MEMORY / (1024.0 * 1024.0));
+        return map.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long lookup() {
+        int i = index++;
+        if (index == keys.length)
+            index = 0;
+        return map.get(keys[i]) + map.get(absentKeys[i]);
+    }
+}
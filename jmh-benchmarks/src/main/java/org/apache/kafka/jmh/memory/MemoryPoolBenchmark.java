@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.memory;
+
+import org.apache.kafka.common.memory.GarbageCollectedMemoryPool;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.RecyclingMemoryPool;
+import org.apache.kafka.common.memory.SimpleMemoryPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory pools used for network receive buffers: each operation allocates a buffer of the size of a
+ * request, fills it as a receive would and releases it. Run with `-prof gc` to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class MemoryPoolBenchmark {
+
+    public enum PoolType {
+        SIMPLE, GARBAGE_COLLECTED, RECYCLING_HEAP, RECYCLING_DIRECT
+    }
+
+    private static final long POOL_SIZE = 512 * 1024 * 1024;
+    private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+    @Param({"SIMPLE", "GARBAGE_COLLECTED", "RECYCLING_HEAP", "RECYCLING_DIRECT"})
+    private PoolType poolType;
+
+    @Param({"1024", "65536", "1048576"})
+    private int requestSize;
+
+    private MemoryPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (poolType) {
+            case SIMPLE:
+                pool = new SimpleMemoryPool(POOL_SIZE, MAX_REQUEST_SIZE, false, null);
+                break;
+            case GARBAGE_COLLECTED:
+                pool = new GarbageCollectedMemoryPool(POOL_SIZE, MAX_REQUEST_SIZE, false, null);
+                break;
+            case RECYCLING_HEAP:
+                pool = new RecyclingMemoryPool(POOL_SIZE, MAX_REQUEST_SIZE, false, null, 64 * 1024 * 1024, false);
+                break;
+            case RECYCLING_DIRECT:
+                pool = new RecyclingMemoryPool(POOL_SIZE, MAX_REQUEST_SIZE, false, null, 64 * 1024 * 1024, true);
+                break;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool instanceof GarbageCollectedMemoryPool)
+            ((GarbageCollectedMemoryPool) pool).close();
+    }
+
+    @Benchmark
+    public int allocateFillAndRelease() {
+        ByteBuffer buffer = pool.tryAllocate(requestSize);
+        while (buffer.remaining() >= Long.BYTES)
+            buffer.putLong(buffer.position());
+        int position = buffer.position();
+        pool.release(buffer);
+        return position;
+    }
+}
@@ -42,6 +42,7 @@ import kafka.server.ZkSupport;
 import kafka.server.metadata.CachedConfigRepository;
 import kafka.zk.KafkaZkClient;
 import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.RecyclingMemoryPool;
 import org.apache.kafka.common.message.ApiMessageType;
 import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataBroker;
 import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataEndpoint;
@@ -49,7 +50,10 @@ import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataP
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.network.ClientInformation;
 import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.SendBuilder;
+import org.apache.kafka.common.requests.AbstractResponse;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.RequestContext;
 import org.apache.kafka.common.requests.RequestHeader;
@@ -118,13 +122,21 @@ public class MetadataRequestBenchmark {
     private BrokerTopicStats brokerTopicStats = new BrokerTopicStats();
     private KafkaPrincipal principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "test-user");
     private KafkaApis kafkaApis;
+    private KafkaApis topicCacheKafkaApis;
     private RequestChannel.Request allTopicMetadataRequest;
+    private AbstractResponse allTopicMetadataResponse;
+    private AbstractResponse topicCacheAllTopicMetadataResponse;
+    private MemoryPool responseMemoryPool = new RecyclingMemoryPool(Long.MAX_VALUE, SendBuilder.POOLED_CHUNK_SIZE,
+        false, null, 64 * 1024 * 1024, false);
 
     @Setup(Level.Trial)
     public void setup() {
         initializeMetadataCache();
-        kafkaApis = createKafkaApis();
+        kafkaApis = createKafkaApis(false);
+        topicCacheKafkaApis = createKafkaApis(true);
         allTopicMetadataRequest = buildAllTopicMetadataRequest();
+        allTopicMetadataResponse = buildAllTopicMetadataResponse(kafkaApis);
+        topicCacheAllTopicMetadataResponse = buildAllTopicMetadataResponse(topicCacheKafkaApis);
     }
 
     private void initializeMetadataCache() {
@@ -168,10 +180,11 @@ public class MetadataRequestBenchmark {
                 .setListener(ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT).value()));
     }
 
-    private KafkaApis createKafkaApis() {
+    private KafkaApis createKafkaApis(boolean metadataResponseTopicCacheEnable) {
         Properties kafkaProps =  new Properties();
         kafkaProps.put(KafkaConfig$.MODULE$.ZkConnectProp(), "zk");
         kafkaProps.put(KafkaConfig$.MODULE$.BrokerIdProp(), brokerId + "");
+        kafkaProps.put(KafkaConfig$.MODULE$.MetadataResponseTopicCacheEnableProp(), metadataResponseTopicCacheEnable + "");
         KafkaConfig config = new KafkaConfig(kafkaProps);
         return new KafkaApis(requestChannel,
             new ZkSupport(adminManager, kafkaController, kafkaZkClient, Option.empty(), metadataCache),
@@ -197,6 +210,7 @@ public class MetadataRequestBenchmark {
     @TearDown(Level.Trial)
     public void tearDown() {
         kafkaApis.close();
+        topicCacheKafkaApis.close();
         metrics.close();
     }
 
@@ -211,11 +225,47 @@ public class MetadataRequestBenchmark {
         return new RequestChannel.Request(1, context, 0, MemoryPool.NONE, bodyBuffer, requestChannelMetrics, Option.empty());
     }
 
+    private AbstractResponse buildAllTopicMetadataResponse(KafkaApis kafkaApis) {
+        AbstractResponse[] response = new AbstractResponse[1];
+        Mockito.doAnswer(invocation -> {
+            response[0] = invocation.getArgument(1);
+            return null;
+        }).when(requestChannel).sendResponse(Mockito.any(RequestChannel.Request.class),
+            Mockito.any(AbstractResponse.class), Mockito.any());
+        kafkaApis.handleTopicMetadataRequest(allTopicMetadataRequest);
+        Mockito.reset(requestChannel);
+        return response[0];
+    }
+
     @Benchmark
     public void testMetadataRequestForAllTopics() {
         kafkaApis.handleTopicMetadataRequest(allTopicMetadataRequest);
     }
 
+    @Benchmark
+    public void testMetadataRequestForAllTopicsWithTopicCache() {
+        topicCacheKafkaApis.handleTopicMetadataRequest(allTopicMetadataRequest);
+    }
+
+    @Benchmark
+    public long testBuildMetadataResponseSend() {
+        Send send = allTopicMetadataRequest.buildResponseSend(allTopicMetadataResponse, MemoryPool.NONE);
+        return send.size();
+    }
+
+    @Benchmark
+    public long testBuildMetadataResponseSendToPooledBuffers() {
+        Send send = allTopicMetadataRequest.buildResponseSend(allTopicMetadataResponse, responseMemoryPool);
+        send.release();
+        return send.size();
+    }
+
+    @Benchmark
+    public long testBuildMetadataResponseSendWithTopicCache() {
+        Send send = allTopicMetadataRequest.buildResponseSend(topicCacheAllTopicMetadataResponse, MemoryPool.NONE);
+        return send.size();
+    }
+
     @Benchmark
     public String testRequestToJson() {
         return RequestConvertToJson.requestDesc(allTopicMetadataRequest.header(), allTopicMetadataRequest.requestLog(), allTopicMetadataRequest.isForwarded()).toString();
@@ -104,7 +104,7 @@ public class PartitionMakeFollowerBenchmark {
             JavaConverters.asScalaIteratorConverter(new ArrayList<File>().iterator()).asScala().toSeq(),
             new CachedConfigRepository(),
             logConfig,
-            new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5"),
+            new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5", "skimpy", 1),
             1,
             1000L,
             10000L,
@@ -115,7 +115,9 @@ public class PartitionMakeFollowerBenchmark {
             brokerTopicStats,
             logDirFailureChannel,
             Time.SYSTEM,
-            true);
+            true,
+            Option.empty(),
+            1);
 
         TopicPartition tp = new TopicPartition("topic", 0);
         topicId = OptionConverters.toScala(Optional.of(Uuid.randomUuid()));
@@ -21,6 +21,7 @@ import kafka.api.ApiVersion$;
 import kafka.cluster.DelayedOperations;
 import kafka.cluster.IsrChangeListener;
 import kafka.cluster.Partition;
+import kafka.log.AppendOrigin$;
 import kafka.log.CleanerConfig;
 import kafka.log.Defaults;
 import kafka.log.LogConfig;
@@ -30,21 +31,28 @@ import kafka.server.BrokerTopicStats;
 import kafka.server.LogDirFailureChannel;
 import kafka.server.LogOffsetMetadata;
 import kafka.server.MetadataCache;
+import kafka.server.RequestLocal;
 import kafka.server.checkpoints.OffsetCheckpoints;
 import kafka.server.metadata.CachedConfigRepository;
 import kafka.utils.KafkaScheduler;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.Uuid;
 import org.apache.kafka.common.message.LeaderAndIsrRequestData.LeaderAndIsrPartitionState;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.utils.Time;
 import org.mockito.Mockito;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -62,6 +70,7 @@ import java.util.Optional;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @State(Scope.Benchmark)
 @Fork(value = 1)
@@ -70,6 +79,9 @@ import java.util.concurrent.TimeUnit;
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 public class UpdateFollowerFetchStateBenchmark {
+    @Param({"3", "5", "7"})
+    private int replicationFactor;
+
     private TopicPartition topicPartition = new TopicPartition(UUID.randomUUID().toString(), 0);
     private Option<Uuid> topicId = OptionConverters.toScala(Optional.of(Uuid.randomUuid()));
     private File logDir = new File(System.getProperty("java.io.tmpdir"), topicPartition.toString());
@@ -77,6 +89,7 @@ public class UpdateFollowerFetchStateBenchmark {
     private BrokerTopicStats brokerTopicStats = new BrokerTopicStats();
     private LogDirFailureChannel logDirFailureChannel = Mockito.mock(LogDirFailureChannel.class);
     private long nextOffset = 0;
+    private final AtomicInteger nextFollowerId = new AtomicInteger();
     private LogManager logManager;
     private Partition partition;
 
@@ -89,7 +102,7 @@ public class UpdateFollowerFetchStateBenchmark {
                 JavaConverters.asScalaIteratorConverter(new ArrayList<File>().iterator()).asScala().toSeq(),
                 new CachedConfigRepository(),
                 logConfig,
-                new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5"),
+                new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5", "skimpy", 1),
                 1,
                 1000L,
                 10000L,
@@ -100,16 +113,17 @@ public class UpdateFollowerFetchStateBenchmark {
                 brokerTopicStats,
                 logDirFailureChannel,
                 Time.SYSTEM,
-                true);
+                true,
+                Option.empty(),
+                1);
         OffsetCheckpoints offsetCheckpoints = Mockito.mock(OffsetCheckpoints.class);
         Mockito.when(offsetCheckpoints.fetch(logDir.getAbsolutePath(), topicPartition)).thenReturn(Option.apply(0L));
         DelayedOperations delayedOperations = new DelayedOperationsMock();
 
-        // one leader, plus two followers
+        // one leader, plus replicationFactor - 1 followers
         List<Integer> replicas = new ArrayList<>();
-        replicas.add(0);
-        replicas.add(1);
-        replicas.add(2);
+        for (int replicaId = 0; replicaId < replicationFactor; replicaId++)
+            replicas.add(replicaId);
         LeaderAndIsrPartitionState partitionState = new LeaderAndIsrPartitionState()
             .setControllerEpoch(0)
             .setLeader(0)
@@ -137,6 +151,10 @@ public class UpdateFollowerFetchStateBenchmark {
         public int numDelayedDelete() {
             return 0;
         }
+
+        @Override
+        public void checkAndCompleteAll() {
+        }
     }
 
     @TearDown(Level.Trial)
@@ -182,4 +200,35 @@ public class UpdateFollowerFetchStateBenchmark {
         partition.updateFollowerFetchState(2, new LogOffsetMetadata(nextOffset, nextOffset, 0),
                 0, 1, 100);
     }
+
+    @State(Scope.Thread)
+    public static class FollowerState {
+        private int followerId;
+
+        @Setup(Level.Trial)
+        public void setUp(UpdateFollowerFetchStateBenchmark benchmark) {
+            // spread the fetching threads over the followers
+            followerId = 1 + benchmark.nextFollowerId.getAndIncrement() % (benchmark.replicationFactor - 1);
+        }
+    }
+
+    @Benchmark
+    @Group("concurrentProduce")
+    @GroupThreads(1)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void produce() {
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("value".getBytes()));
+        partition.appendRecordsToLeader(records, AppendOrigin$.MODULE$.Client(), -1, RequestLocal.NoCaching());
+    }
+
+    @Benchmark
+    @Group("concurrentProduce")
+    @GroupThreads(6)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void followerFetch(FollowerState follower) {
+        // measure follower fetches which catch up to the log end offset while the leader is appending
+        LogOffsetMetadata logEndOffset = partition.localLogOrException().logEndOffsetMetadata();
+        partition.updateFollowerFetchState(follower.followerId, logEndOffset, 0, System.currentTimeMillis(),
+                logEndOffset.messageOffset());
+    }
 }
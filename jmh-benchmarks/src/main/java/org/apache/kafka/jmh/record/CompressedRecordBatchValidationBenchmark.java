@@ -24,17 +24,22 @@ import kafka.message.CompressionCodec;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.utils.Time;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.nio.ByteBuffer;
+
 @State(Scope.Benchmark)
 @Fork(value = 1)
 @Warmup(iterations = 5)
@@ -44,14 +49,42 @@ public class CompressedRecordBatchValidationBenchmark extends BaseRecordBatchBen
     @Param(value = {"LZ4", "SNAPPY", "GZIP", "ZSTD"})
     private CompressionType compressionType = CompressionType.LZ4;
 
+    // Batches read from the network or from files may be held in direct buffers
+    @Param(value = {"HEAP", "DIRECT"})
+    private String bufferType = "HEAP";
+
+    private ByteBuffer batchBuffer;
+
     @Override
     CompressionType compressionType() {
         return compressionType;
     }
 
+    @Setup(Level.Iteration)
+    public void setupBatchBuffer() {
+        if (bufferType.equals("HEAP")) {
+            batchBuffer = singleBatchBuffer;
+        } else if (bufferType.equals("DIRECT")) {
+            batchBuffer = ByteBuffer.allocateDirect(singleBatchBuffer.remaining());
+            batchBuffer.put(singleBatchBuffer.duplicate());
+            batchBuffer.flip();
+        } else {
+            throw new IllegalArgumentException("Unsupported buffer type " + bufferType);
+        }
+    }
+
+    @Benchmark
+    public void measureEnsureValid(Blackhole bh) {
+        MemoryRecords records = MemoryRecords.readableRecords(batchBuffer.duplicate());
+        for (MutableRecordBatch batch : records.batches()) {
+            batch.ensureValid();
+            bh.consume(batch);
+        }
+    }
+
     @Benchmark
     public void measureValidateMessagesAndAssignOffsetsCompressed(Blackhole bh) {
-        MemoryRecords records = MemoryRecords.readableRecords(singleBatchBuffer.duplicate());
+        MemoryRecords records = MemoryRecords.readableRecords(batchBuffer.duplicate());
         LogValidator.validateMessagesAndAssignOffsetsCompressed(records, new TopicPartition("a", 0),
                 new LongRef(startingOffset), Time.SYSTEM, System.currentTimeMillis(),
                 CompressionCodec.getCompressionCodec(compressionType.id),
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.server;
+
+import kafka.server.DelayedOperation;
+import kafka.server.DelayedOperationPurgatory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import scala.Option;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+/**
+ * Measures the throughput of delayed operations added to a purgatory by concurrent request handler threads while
+ * `pendingOperations` long-lived operations are waiting in it, as delayed fetches of idle consumers do. Operations
+ * are either completed by a later `checkAndComplete`, like a delayed produce once the ISR has caught up, or left to
+ * expire after a few milliseconds, like a delayed fetch with a short max wait.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DelayedOperationPurgatoryBenchmark {
+    private static final int NUM_KEYS = 1000;
+
+    @Param({"1", "4"})
+    private int timerStripes;
+
+    @Param({"0", "100000"})
+    private int pendingOperations;
+
+    private DelayedOperationPurgatory<BenchmarkOperation> purgatory;
+    private List<Seq<Object>> watchKeys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        purgatory = DelayedOperationPurgatory.apply("Benchmark", 0, 1000, true, true, timerStripes);
+        watchKeys = new ArrayList<>(NUM_KEYS);
+        for (int i = 0; i < NUM_KEYS; i++)
+            watchKeys.add(JavaConverters.asScalaBuffer(Collections.<Object>singletonList("key-" + i)));
+        for (int i = 0; i < pendingOperations; i++)
+            purgatory.tryCompleteElseWatch(new BenchmarkOperation(TimeUnit.HOURS.toMillis(1)), randomWatchKeys());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        purgatory.shutdown();
+    }
+
+    private Seq<Object> randomWatchKeys() {
+        return watchKeys.get(ThreadLocalRandom.current().nextInt(NUM_KEYS));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean addAndComplete() {
+        BenchmarkOperation operation = new BenchmarkOperation(TimeUnit.SECONDS.toMillis(30));
+        Seq<Object> keys = randomWatchKeys();
+        purgatory.tryCompleteElseWatch(operation, keys);
+        operation.completable = true;
+        purgatory.checkAndComplete(keys.head());
+        return operation.isCompleted();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean addAndExpire() {
+        BenchmarkOperation operation = new BenchmarkOperation(1 + ThreadLocalRandom.current().nextInt(10));
+        return purgatory.tryCompleteElseWatch(operation, randomWatchKeys());
+    }
+
+    private static class BenchmarkOperation extends DelayedOperation {
+        private volatile boolean completable = false;
+
+        BenchmarkOperation(long delayMs) {
+            super(delayMs, Option.empty());
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return completable && forceComplete();
+        }
+    }
+}